@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloserUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the records of a BAM file to and from an in-memory buffer, so that only the cost of
+ * {@link BAMRecordCodec} is measured.  decodeEager additionally forces the lazily-decoded fields.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BAMRecordCodecBenchmark {
+
+    @Param({"src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam"})
+    public String bamFile;
+
+    private SAMFileHeader header;
+    private SAMRecord[] records;
+    private byte[] encodedRecords;
+
+    @Setup
+    public void setup() {
+        final SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT)
+                .open(new File(bamFile));
+        header = reader.getFileHeader();
+        final List<SAMRecord> recordList = new ArrayList<>();
+        for (final SAMRecord record : reader) {
+            recordList.add(record);
+        }
+        CloserUtil.close(reader);
+        records = recordList.toArray(new SAMRecord[recordList.size()]);
+        encodedRecords = encode();
+    }
+
+    private byte[] encode() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setOutputStream(out);
+        for (final SAMRecord record : records) {
+            codec.encode(record);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeRecords() {
+        return encode();
+    }
+
+    @Benchmark
+    public void decode(final Blackhole blackhole) {
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setInputStream(new ByteArrayInputStream(encodedRecords));
+        SAMRecord record;
+        while ((record = codec.decode()) != null) {
+            blackhole.consume(record);
+        }
+    }
+
+    @Benchmark
+    public void decodeEager(final Blackhole blackhole) {
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setInputStream(new ByteArrayInputStream(encodedRecords));
+        SAMRecord record;
+        while ((record = codec.decode()) != null) {
+            record.eagerDecode();
+            blackhole.consume(record);
+        }
+    }
+}
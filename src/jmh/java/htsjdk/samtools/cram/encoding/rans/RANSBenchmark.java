@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.cram.encoding.rans;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses and uncompresses a synthetic block of quality-score-like data with {@link RANS}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RANSBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"ZERO", "ONE"})
+    public RANS.ORDER order;
+
+    private byte[] data;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() {
+        // Qualities drift slowly around a mean, so order-1 contexts carry real information, as they do in reads.
+        final Random random = new Random(42);
+        data = new byte[size];
+        int quality = 30;
+        for (int i = 0; i < size; ++i) {
+            quality = Math.max(2, Math.min(41, quality + random.nextInt(5) - 2));
+            data[i] = (byte) ('!' + quality);
+        }
+        final ByteBuffer out = RANS.compress(ByteBuffer.wrap(data), order, null);
+        compressed = new byte[out.remaining()];
+        out.get(compressed);
+    }
+
+    @Benchmark
+    public ByteBuffer compress() {
+        return RANS.compress(ByteBuffer.wrap(data), order, null);
+    }
+
+    @Benchmark
+    public ByteBuffer uncompress() {
+        return RANS.uncompress(ByteBuffer.wrap(compressed), null);
+    }
+}
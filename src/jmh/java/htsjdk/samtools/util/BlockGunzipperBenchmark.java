@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inflates every BGZF block of a BAM file from memory, so that only the cost of {@link BlockGunzipper} is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BlockGunzipperBenchmark {
+
+    @Param({"src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam"})
+    public String bgzfFile;
+
+    @Param({"false", "true"})
+    public boolean checkCrcs;
+
+    private final List<byte[]> compressedBlocks = new ArrayList<>();
+    private final byte[] uncompressedBlock = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+    private BlockGunzipper gunzipper;
+
+    @Setup
+    public void setup() throws IOException {
+        final byte[] contents = Files.readAllBytes(new File(bgzfFile).toPath());
+        final ByteBuffer buffer = ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        while (offset < contents.length) {
+            final int blockLength = (buffer.getShort(offset + BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) & 0xFFFF) + 1;
+            compressedBlocks.add(Arrays.copyOfRange(contents, offset, offset + blockLength));
+            offset += blockLength;
+        }
+        gunzipper = new BlockGunzipper();
+        gunzipper.setCheckCrcs(checkCrcs);
+    }
+
+    @TearDown
+    public void tearDown() {
+        gunzipper.close();
+    }
+
+    @Benchmark
+    public void unzipBlocks(final Blackhole blackhole) {
+        for (final byte[] block : compressedBlocks) {
+            gunzipper.unzipBlock(uncompressedBlock, block, block.length);
+        }
+        blackhole.consume(uncompressedBlock);
+    }
+}
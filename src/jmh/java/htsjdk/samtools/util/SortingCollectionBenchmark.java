@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinate-sorts synthetic read pairs with {@link SortingCollection}.  A small maxRecordsInRAM forces records
+ * to be spilled to disk and merged back; a large one keeps the sort in memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SortingCollectionBenchmark {
+
+    @Param({"100000"})
+    public int numPairs;
+
+    @Param({"20000", "1000000"})
+    public int maxRecordsInRAM;
+
+    private SAMFileHeader header;
+    private List<SAMRecord> records;
+    private File tmpDir;
+
+    @Setup
+    public void setup() {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(false, SAMFileHeader.SortOrder.unsorted);
+        final Random random = new Random(42);
+        for (int i = 0; i < numPairs; ++i) {
+            final int start = 1 + random.nextInt(10000000);
+            builder.addPair("read" + i, random.nextInt(builder.getHeader().getSequenceDictionary().size()),
+                    start, start + random.nextInt(500));
+        }
+        header = builder.getHeader();
+        records = new ArrayList<>(builder.getRecords());
+        Collections.shuffle(records, random);
+        tmpDir = IOUtil.createTempDir("SortingCollectionBenchmark", ".tmp");
+    }
+
+    @TearDown
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tmpDir);
+    }
+
+    @Benchmark
+    public void sort(final Blackhole blackhole) {
+        final SortingCollection<SAMRecord> sorter = SortingCollection.newInstance(SAMRecord.class,
+                new BAMRecordCodec(header), new SAMRecordCoordinateComparator(), maxRecordsInRAM, tmpDir);
+        for (final SAMRecord record : records) {
+            sorter.add(record);
+        }
+        try (final CloseableIterator<SAMRecord> iterator = sorter.iterator()) {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        }
+        sorter.cleanup();
+    }
+}
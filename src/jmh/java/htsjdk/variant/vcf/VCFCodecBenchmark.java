@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.variant.vcf;
+
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes pre-read VCF lines with {@link VCFCodec}, so that only the cost of parsing is measured.
+ * decodeWithGenotypes additionally forces the lazily-parsed genotype fields.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class VCFCodecBenchmark {
+
+    @Param({"src/test/resources/htsjdk/variant/HiSeq.10000.vcf",
+            "src/test/resources/htsjdk/variant/ILLUMINA.wex.broad_phase2_baseline.20111114.both.exome.genotypes.1000.vcf"})
+    public String vcfFile;
+
+    private VCFHeader header;
+    private final List<String> lines = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        try (final AsciiLineReaderIterator iterator = new AsciiLineReaderIterator(new AsciiLineReader(new FileInputStream(vcfFile)))) {
+            header = (VCFHeader) new VCFCodec().readActualHeader(iterator);
+            while (iterator.hasNext()) {
+                lines.add(iterator.next());
+            }
+        }
+    }
+
+    private VCFCodec newCodec() {
+        final VCFCodec codec = new VCFCodec();
+        codec.setVCFHeader(header, VCFHeaderVersion.VCF4_1);
+        return codec;
+    }
+
+    @Benchmark
+    public void decode(final Blackhole blackhole) {
+        final VCFCodec codec = newCodec();
+        for (final String line : lines) {
+            blackhole.consume(codec.decode(line));
+        }
+    }
+
+    @Benchmark
+    public void decodeWithGenotypes(final Blackhole blackhole) {
+        final VCFCodec codec = newCodec();
+        for (final String line : lines) {
+            final VariantContext vc = codec.decode(line);
+            for (final Genotype genotype : vc.getGenotypes()) {
+                blackhole.consume(genotype);
+            }
+        }
+    }
+}
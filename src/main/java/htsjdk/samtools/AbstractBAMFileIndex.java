@@ -51,7 +51,7 @@ import java.util.List;
  * Anyone wanting to implement a reader for a differing
  * or extended BAM index format should implement BAMIndex directly.
  */
-public abstract class AbstractBAMFileIndex implements BAMIndex {
+public abstract class AbstractBAMFileIndex implements BinningBAMIndex {
 
     private final IndexFileBuffer mIndexBuffer;
 
@@ -160,6 +160,7 @@ public abstract class AbstractBAMFileIndex implements BAMIndex {
         return (bin.getBinNumber()-levelStart+1)*(GenomicIndexUtil.BIN_GENOMIC_SPAN /levelSize);
     }
 
+    @Override
     public int getNumberOfReferences() {
         seek(4);
         return readInteger();
@@ -236,12 +237,43 @@ public abstract class AbstractBAMFileIndex implements BAMIndex {
         return new BAMIndexMetaData(metaDataChunks);
     }
 
+    /**
+     * Reads the linear index of a reference, skipping over its bins.
+     *
+     * @param reference the reference sequence
+     * @return the linear index entries, which are empty if the index has no such reference
+     */
+    @Override
+    public long[] getLinearIndexEntries(final int reference) {
+        seek(4);
+        final int sequenceCount = readInteger();
+        if (reference >= sequenceCount) {
+            return new long[0];
+        }
+
+        skipToSequence(reference);
+
+        final int binCount = readInteger();
+        for (int binNumber = 0; binNumber < binCount; binNumber++) {
+            readInteger(); // bin
+            final int nChunks = readInteger();
+            skipBytes(16 * nChunks);
+        }
+        final int nLinearBins = readInteger();
+        final long[] linearIndexEntries = new long[nLinearBins];
+        for (int linearBin = 0; linearBin < nLinearBins; linearBin++) {
+            linearIndexEntries[linearBin] = readLong();
+        }
+        return linearIndexEntries;
+    }
+
     /**
      * Returns count of records unassociated with any reference. Call before the index file is closed
      *
      * @return meta data at the end of the bam index that indicates count of records holding no coordinates
      * or null if no meta data (old index format)
      */
+    @Override
     public Long getNoCoordinateCount() {
 
         seek(4);
@@ -330,12 +362,80 @@ public abstract class AbstractBAMFileIndex implements BAMIndex {
         return new BAMIndexContent(referenceSequence, bins, binCount - (metaDataSeen? 1 : 0), new BAMIndexMetaData(metaDataChunks), linearIndex);
     }
 
+    /**
+     * Reads all of the index content for the given reference into primitive arrays.
+     * @return the content, or null if the index has no such reference.
+     */
+    CompactBAMIndexContent readCompactContent(final int referenceSequence) {
+        seek(4);
+
+        final int sequenceCount = readInteger();
+
+        if (referenceSequence >= sequenceCount) {
+            return null;
+        }
+
+        skipToSequence(referenceSequence);
+
+        final int binCount = readInteger();
+        int[] binNumbers = new int[binCount];
+        int[] binChunkStarts = new int[binCount + 1];
+        long[] chunkBegins = new long[binCount];
+        long[] chunkEnds = new long[binCount];
+        long[] metaDataChunks = new long[0];
+        int bins = 0;
+        int chunks = 0;
+        for (int binNumber = 0; binNumber < binCount; binNumber++) {
+            final int indexBin = readInteger();
+            final int nChunks = readInteger();
+            if (indexBin == GenomicIndexUtil.MAX_BINS) {
+                // meta data - kept apart from the bins, or normal queries will be off
+                metaDataChunks = new long[2 * nChunks];
+                for (int ci = 0; ci < 2 * nChunks; ci++) {
+                    metaDataChunks[ci] = readLong();
+                }
+                continue;
+            }
+            if (chunks + nChunks > chunkBegins.length) {
+                final int newLength = Math.max(chunks + nChunks, 2 * chunkBegins.length);
+                chunkBegins = Arrays.copyOf(chunkBegins, newLength);
+                chunkEnds = Arrays.copyOf(chunkEnds, newLength);
+            }
+            binNumbers[bins] = indexBin;
+            binChunkStarts[bins] = chunks;
+            for (int ci = 0; ci < nChunks; ci++) {
+                chunkBegins[chunks] = readLong();
+                chunkEnds[chunks] = readLong();
+                ++chunks;
+            }
+            ++bins;
+        }
+        binChunkStarts[bins] = chunks;
+        if (bins < binCount) {
+            binNumbers = Arrays.copyOf(binNumbers, bins);
+            binChunkStarts = Arrays.copyOf(binChunkStarts, bins + 1);
+        }
+        if (chunks < chunkBegins.length) {
+            chunkBegins = Arrays.copyOf(chunkBegins, chunks);
+            chunkEnds = Arrays.copyOf(chunkEnds, chunks);
+        }
+
+        final int nLinearBins = readInteger();
+        final long[] linearIndex = new long[nLinearBins];
+        for (int linearBin = 0; linearBin < nLinearBins; linearBin++) {
+            linearIndex[linearBin] = readLong();
+        }
+
+        return new CompactBAMIndexContent(referenceSequence, binNumbers, binChunkStarts, chunkBegins, chunkEnds,
+                linearIndex, metaDataChunks);
+    }
+
     /**
      * The maximum possible bin number for this reference sequence.
      * This is based on the maximum coordinate position of the reference
      * which is based on the size of the reference
      */
-    private int getMaxBinNumberForReference(final int reference) {
+    int getMaxBinNumberForReference(final int reference) {
         try {
             final int sequenceLength = mBamDictionary.getSequence(reference).getSequenceLength();
             return getMaxBinNumberForSequenceLength(sequenceLength);
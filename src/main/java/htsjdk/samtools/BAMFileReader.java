@@ -24,22 +24,39 @@
 package htsjdk.samtools;
 
 
+import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
 import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CoordMath;
+import htsjdk.samtools.util.DaemonThreadFactory;
+import htsjdk.samtools.util.RuntimeEOFException;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringLineReader;
+import htsjdk.samtools.util.zip.InflaterFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Class for reading and querying BAM files.
@@ -55,6 +72,11 @@ class BAMFileReader extends SamReader.ReaderImplementation {
     private final BlockCompressedInputStream mCompressedInputStream;
     private SAMFileHeader mFileHeader = null;
 
+    // One of these is populated if the file is seekable, for reading compressed data other than through
+    // mCompressedInputStream
+    private File mSourceFile = null;
+    private SeekableStream mSourceStream = null;
+
     // One of these is populated if the file is seekable and an index exists
     private File mIndexFile = null;
     private SeekableStream mIndexStream = null;
@@ -92,6 +114,47 @@ class BAMFileReader extends SamReader.ReaderImplementation {
      */
     private SamReader mReader = null;
 
+    /**
+     * If positive, iterators read raw records on the calling thread and decode them in batches on this many
+     * worker threads.  Records are still returned in file order.
+     */
+    private int mDecodingThreads = 0;
+    private ExecutorService mDecodingService = null;
+    private static final ThreadFactory DECODING_THREAD_FACTORY = new DaemonThreadFactory("BAMFileReader-decoder-");
+
+    // Raw records are handed to the decoding threads in batches of about this many bytes.
+    private static final int DECODING_BATCH_BYTES = 256 * 1024;
+
+    /**
+     * If true, records are decoded into buffers shared by consecutive records rather than into an array per record.
+     */
+    private boolean mShareRecordBuffers = false;
+
+    // Size of the buffers shared by decoded records.
+    private static final int SHARED_RECORD_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * If true, iterators reuse a small pool of record instances rather than creating a new record for each one read.
+     * Ignored when decoding on worker threads.
+     */
+    private boolean mRecycleRecords = false;
+
+    // Number of records most recently returned by an iterator that are left intact when recycling.  Query iterators
+    // look ahead by one record, and some wrapping iterators keep the previous record, so this leaves a record returned
+    // by next() intact at least until the following call.
+    private static final int RECYCLED_RECORDS_IN_USE = 3;
+
+    /**
+     * If true, index queries read the compressed data for their chunks on a background thread ahead of decoding.
+     */
+    private boolean mPrefetchQueryChunks = false;
+
+    /**
+     * Index query chunks separated by at most this many compressed bytes are merged, so that the gap is read
+     * through rather than seeked over.  Not done if zero.
+     */
+    private int mQueryChunkGap = 0;
+
     /**
      * Prepare to read BAM from a stream (not seekable)
      * @param stream source of bytes.
@@ -105,10 +168,28 @@ class BAMFileReader extends SamReader.ReaderImplementation {
                   final ValidationStringency validationStringency,
                   final SAMRecordFactory factory)
         throws IOException {
+        this(stream, indexFile, eagerDecode, useAsynchronousIO, validationStringency, factory, InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    /**
+     * Prepare to read BAM from a stream (not seekable)
+     * @param stream source of bytes.
+     * @param eagerDecode if true, decode all BAM fields as reading rather than lazily.
+     * @param validationStringency Controls how to handle invalidate reads or header lines.
+     * @param inflaterFactory provides the inflaters used to decompress BGZF blocks.
+     */
+    BAMFileReader(final InputStream stream,
+                  final File indexFile,
+                  final boolean eagerDecode,
+                  final boolean useAsynchronousIO,
+                  final ValidationStringency validationStringency,
+                  final SAMRecordFactory factory,
+                  final InflaterFactory inflaterFactory)
+        throws IOException {
         mIndexFile = indexFile;
         mIsSeekable = false;
         this.useAsynchronousIO = useAsynchronousIO;
-        mCompressedInputStream = new BlockCompressedInputStream(stream);
+        mCompressedInputStream = new BlockCompressedInputStream(stream, true, inflaterFactory);
         mStream = new BinaryCodec(new DataInputStream(mCompressedInputStream));
         this.eagerDecode = eagerDecode;
         this.mValidationStringency = validationStringency;
@@ -129,13 +210,32 @@ class BAMFileReader extends SamReader.ReaderImplementation {
                   final ValidationStringency validationStringency,
                   final SAMRecordFactory factory)
         throws IOException {
-        this(new BlockCompressedInputStream(file), indexFile!=null ? indexFile : SamFiles.findIndex(file), eagerDecode, useAsynchronousIO, file.getAbsolutePath(), validationStringency, factory);
+        this(file, indexFile, eagerDecode, useAsynchronousIO, validationStringency, factory, InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    /**
+     * Prepare to read BAM from a file (seekable)
+     * @param file source of bytes.
+     * @param eagerDecode if true, decode all BAM fields as reading rather than lazily.
+     * @param validationStringency Controls how to handle invalidate reads or header lines.
+     * @param inflaterFactory provides the inflaters used to decompress BGZF blocks.
+     */
+    BAMFileReader(final File file,
+                  final File indexFile,
+                  final boolean eagerDecode,
+                  final boolean useAsynchronousIO,
+                  final ValidationStringency validationStringency,
+                  final SAMRecordFactory factory,
+                  final InflaterFactory inflaterFactory)
+        throws IOException {
+        this(new BlockCompressedInputStream(file, inflaterFactory), indexFile!=null ? indexFile : SamFiles.findIndex(file), eagerDecode, useAsynchronousIO, file.getAbsolutePath(), validationStringency, factory);
         if (mIndexFile != null && mIndexFile.lastModified() < file.lastModified()) {
             System.err.println("WARNING: BAM index file " + mIndexFile.getAbsolutePath() +
                     " is older than BAM " + file.getAbsolutePath());
         }
         // Provide better error message when there is an error reading.
         mStream.setInputFileName(file.getAbsolutePath());
+        mSourceFile = file;
     }
 
     BAMFileReader(final SeekableStream strm,
@@ -145,7 +245,19 @@ class BAMFileReader extends SamReader.ReaderImplementation {
                   final ValidationStringency validationStringency,
                   final SAMRecordFactory factory)
         throws IOException {
-        this(new BlockCompressedInputStream(strm), indexFile, eagerDecode, useAsynchronousIO, strm.getSource(), validationStringency, factory);
+        this(strm, indexFile, eagerDecode, useAsynchronousIO, validationStringency, factory, InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    BAMFileReader(final SeekableStream strm,
+                  final File indexFile,
+                  final boolean eagerDecode,
+                  final boolean useAsynchronousIO,
+                  final ValidationStringency validationStringency,
+                  final SAMRecordFactory factory,
+                  final InflaterFactory inflaterFactory)
+        throws IOException {
+        this(new BlockCompressedInputStream(strm, inflaterFactory), indexFile, eagerDecode, useAsynchronousIO, strm.getSource(), validationStringency, factory);
+        mSourceStream = strm;
     }
 
     BAMFileReader(final SeekableStream strm,
@@ -155,7 +267,19 @@ class BAMFileReader extends SamReader.ReaderImplementation {
                   final ValidationStringency validationStringency,
                   final SAMRecordFactory factory)
         throws IOException {
-        this(new BlockCompressedInputStream(strm), indexStream, eagerDecode, useAsynchronousIO, strm.getSource(), validationStringency, factory);
+        this(strm, indexStream, eagerDecode, useAsynchronousIO, validationStringency, factory, InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    BAMFileReader(final SeekableStream strm,
+                  final SeekableStream indexStream,
+                  final boolean eagerDecode,
+                  final boolean useAsynchronousIO,
+                  final ValidationStringency validationStringency,
+                  final SAMRecordFactory factory,
+                  final InflaterFactory inflaterFactory)
+        throws IOException {
+        this(new BlockCompressedInputStream(strm, inflaterFactory), indexStream, eagerDecode, useAsynchronousIO, strm.getSource(), validationStringency, factory);
+        mSourceStream = strm;
     }
 
     private BAMFileReader(final BlockCompressedInputStream compressedInputStream,
@@ -262,7 +386,11 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         if(!hasIndex())
             throw new SAMException("No index is available for this BAM file.");
         if(mIndex == null) {
-            if (mIndexFile != null)
+            if (mIndexFile != null && mIndexFile.getName().endsWith(CSIIndex.CSI_INDEX_SUFFIX))
+                mIndex = new CSIIndex(mIndexFile);
+            else if (mIndexStream != null && isCSIIndexStream(mIndexStream))
+                mIndex = new CSIIndex(mIndexStream);
+            else if (mIndexFile != null)
                 mIndex = mEnableIndexCaching ? new CachingBAMFileIndex(mIndexFile, getFileHeader().getSequenceDictionary(), mEnableIndexMemoryMapping)
                                              : new DiskBasedBAMFileIndex(mIndexFile, getFileHeader().getSequenceDictionary(), mEnableIndexMemoryMapping);
             else
@@ -272,8 +400,96 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         return mIndex;
     }
 
+    /**
+     * A BAI starts with its magic number while a CSI is BGZF-compressed, so the first byte tells them apart.
+     */
+    private static boolean isCSIIndexStream(final SeekableStream indexStream) {
+        try {
+            final long position = indexStream.position();
+            final int firstByte = indexStream.read();
+            indexStream.seek(position);
+            return firstByte == BlockCompressedStreamConstants.GZIP_ID1;
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Exception reading index stream " + indexStream.getSource(), e);
+        }
+    }
+
     public void setEagerDecode(final boolean desired) { this.eagerDecode = desired; }
 
+    /**
+     * Decode records on the given number of worker threads rather than on the thread iterating.  Eager decoding and
+     * validation are then also done on the worker threads.  Iterators read ahead of the caller, so when reading
+     * from a non-seekable stream, a new iterator does not start where a closed one left off.  The
+     * {@link SAMRecordFactory} in use must be safe to call from several threads.
+     * @param threads number of decoding threads, or 0 to decode on the iterating thread.
+     */
+    void setDecodingThreads(final int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Negative number of decoding threads: " + threads);
+        }
+        if (mCurrentIterator != null) {
+            throw new IllegalStateException("Cannot change the number of decoding threads while iteration is in progress");
+        }
+        if (mDecodingService != null) {
+            mDecodingService.shutdown();
+            mDecodingService = null;
+        }
+        mDecodingThreads = threads;
+    }
+
+    /**
+     * Decode the variable-length part of records into buffers shared by consecutive records, rather than allocating
+     * an array per record.
+     * @see BAMRecordCodec#setSharedBufferSize(int)
+     */
+    void setShareRecordBuffers(final boolean enabled) {
+        this.mShareRecordBuffers = enabled;
+    }
+
+    /**
+     * Reuse a small ring of record instances while iterating, rather than creating a new record for each one read.
+     * A record returned by an iterator is only valid until the following call to next(), so callers must
+     * {@link SAMRecord#deepCopy()} any record that they retain.  Ignored when records are decoded on worker threads.
+     */
+    void setRecycleRecords(final boolean enabled) {
+        this.mRecycleRecords = enabled;
+    }
+
+    /**
+     * Read the compressed data for the chunks of index queries on a background thread ahead of decoding them.
+     * @see BlockCompressedInputStream#prefetch(long, long)
+     */
+    void setPrefetchQueryChunks(final boolean enabled) {
+        this.mPrefetchQueryChunks = enabled;
+    }
+
+    /**
+     * Merge the chunks of multi-interval index queries that are separated by at most the given number of compressed
+     * bytes, so that the gap between them is read through rather than seeked over.  0 disables merging.
+     * @see Chunk#coalesceChunkList(List, long)
+     */
+    void setQueryChunkGap(final int gap) {
+        if (gap < 0) {
+            throw new IllegalArgumentException("Negative query chunk gap: " + gap);
+        }
+        this.mQueryChunkGap = gap;
+    }
+
+    private BAMRecordCodec newRecordCodec() {
+        final BAMRecordCodec codec = new BAMRecordCodec(getFileHeader(), samRecordFactory);
+        if (mShareRecordBuffers) {
+            codec.setSharedBufferSize(SHARED_RECORD_BUFFER_SIZE);
+        }
+        return codec;
+    }
+
+    private ExecutorService getDecodingService() {
+        if (mDecodingService == null) {
+            mDecodingService = Executors.newFixedThreadPool(mDecodingThreads, DECODING_THREAD_FACTORY);
+        }
+        return mDecodingService;
+    }
+
     @Override
     public void close() {
         if (mCompressedInputStream != null) {
@@ -289,6 +505,10 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         if (mIndex != null) {
             mIndex.close();
         }
+        if (mDecodingService != null) {
+            mDecodingService.shutdown();
+            mDecodingService = null;
+        }
         mStream = null;
         mFileHeader = null;
         mIndex = null;
@@ -363,6 +583,97 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         return new BAMFileSpan(new Chunk(mFirstRecordPointer,Long.MAX_VALUE));
     }
 
+    /**
+     * Divides the records in the BAM file into spans of roughly equal compressed size, each of which starts at a
+     * record.  Boundaries are taken from the linear index when an index is available, and otherwise found by
+     * scanning for BGZF blocks and checking candidate records (see {@link BAMRecordStartFinder}).  Each span may be
+     * read with {@link #getIterator(SAMFileSpan)} on a separate reader.
+     * @param numShards the number of spans wanted.  Fewer may be returned, e.g. for a small file.
+     * @return spans in file order, which together cover all records in the file.  The last is unbounded.
+     */
+    @Override
+    public List<SAMFileSpan> splitFilePointerSpanningReads(final int numShards) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("numShards must be at least 1: " + numShards);
+        }
+        if (!mIsSeekable) {
+            throw new UnsupportedOperationException("Cannot split a BAM that is not seekable");
+        }
+        final List<Long> starts = hasIndex() ? findShardStartsFromIndex(numShards) : findShardStartsByScanning(numShards);
+        final List<SAMFileSpan> shards = new ArrayList<>(starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            final long end = i + 1 < starts.size() ? starts.get(i + 1) : Long.MAX_VALUE;
+            shards.add(new BAMFileSpan(new Chunk(starts.get(i), end)));
+        }
+        return shards;
+    }
+
+    /**
+     * Every linear index entry is the start of a record, so shard boundaries are chosen from among them
+     */
+    private List<Long> findShardStartsFromIndex(final int numShards) {
+        if (!(getIndex() instanceof BinningBAMIndex)) {
+            throw new SAMException("Cannot split a BAM using an index of type " + getIndex().getClass().getSimpleName());
+        }
+        final BinningBAMIndex index = (BinningBAMIndex) getIndex();
+        final TreeSet<Long> recordStarts = new TreeSet<>();
+        for (int reference = 0; reference < mFileHeader.getSequenceDictionary().size(); reference++) {
+            for (final long offset : index.getLinearIndexEntries(reference)) {
+                if (offset > mFirstRecordPointer) recordStarts.add(offset);
+            }
+        }
+
+        long length = getSourceLength();
+        if (length <= 0) {
+            // not known, so divide the part of the file that the index covers
+            length = recordStarts.isEmpty() ? 0 : BlockCompressedFilePointerUtil.getBlockAddress(recordStarts.last()) + 1;
+        }
+        final List<Long> starts = new ArrayList<>(numShards);
+        starts.add(mFirstRecordPointer);
+        final long firstAddress = BlockCompressedFilePointerUtil.getBlockAddress(mFirstRecordPointer);
+        for (int i = 1; i < numShards; i++) {
+            final long address = firstAddress + (length - firstAddress) * i / numShards;
+            final Long recordStart = recordStarts.ceiling(address << 16);
+            if (recordStart == null) break;
+            if (recordStart > starts.get(starts.size() - 1)) starts.add(recordStart);
+        }
+        return starts;
+    }
+
+    private List<Long> findShardStartsByScanning(final int numShards) {
+        final List<Long> starts = new ArrayList<>(numShards);
+        starts.add(mFirstRecordPointer);
+        try {
+            // read the compressed data through a separate stream if possible, otherwise restore the position of the shared one
+            final SeekableStream stream = mSourceFile != null ? new SeekableFileStream(mSourceFile) : mSourceStream;
+            final long position = stream.position();
+            try {
+                final BAMRecordStartFinder finder = new BAMRecordStartFinder(stream, mFileHeader);
+                final long firstAddress = BlockCompressedFilePointerUtil.getBlockAddress(mFirstRecordPointer);
+                final long length = stream.length();
+                for (int i = 1; i < numShards; i++) {
+                    final long recordStart = finder.findRecordStart(firstAddress + (length - firstAddress) * i / numShards);
+                    if (recordStart == -1) break;
+                    if (recordStart > starts.get(starts.size() - 1)) starts.add(recordStart);
+                }
+            } finally {
+                if (stream == mSourceStream) stream.seek(position);
+                else stream.close();
+            }
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Exception splitting BAM " + getSourceDescription(), e);
+        }
+        return starts;
+    }
+
+    private long getSourceLength() {
+        return mSourceFile != null ? mSourceFile.length() : mSourceStream.length();
+    }
+
+    private String getSourceDescription() {
+        return mSourceFile != null ? mSourceFile.getAbsolutePath() : mSourceStream.getSource();
+    }
+
     /**
      * Prepare to iterate through the SAMRecords that match the given interval.
      * Only a single iterator on a BAMFile can be extant at a time.  The previous one must be closed
@@ -622,6 +933,18 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         private final BAMRecordCodec bamRecordCodec;
         private long samRecordIndex = 0; // Records at what position (counted in records) we are at in the file
 
+        // Only used when recycling records.  Records returned by next() are kept intact until enough newer ones have
+        // been returned, and are then reused for decoding.  New records are created by the record factory.
+        private final boolean recycleRecords;
+        private final Deque<BAMRecord> recordsInUse = new ArrayDeque<>();
+        private final Deque<BAMRecord> freeRecords = new ArrayDeque<>();
+
+        // Only used when decoding on worker threads.  Batches are kept in file order; at most two per thread are in flight.
+        private final ExecutorService decodingService;
+        private final Deque<Future<RecordBatch>> decodingBatches = new ArrayDeque<>();
+        private RecordBatch currentBatch = null;
+        private boolean rawRecordsExhausted = false;
+
         BAMFileIterator() {
             this(true);
         }
@@ -630,9 +953,15 @@ class BAMFileReader extends SamReader.ReaderImplementation {
          * @param advance Trick to enable subclass to do more setup before advancing
          */
         BAMFileIterator(final boolean advance) {
-            this.bamRecordCodec = new BAMRecordCodec(getFileHeader(), samRecordFactory);
+            if (mPrefetchQueryChunks) {
+                // Abandon anything still being prefetched for an earlier query that was not read to the end
+                mCompressedInputStream.cancelPrefetch();
+            }
+            this.bamRecordCodec = newRecordCodec();
             this.bamRecordCodec.setInputStream(BAMFileReader.this.mStream.getInputStream(),
                     BAMFileReader.this.mStream.getInputFileName());
+            this.decodingService = mDecodingThreads > 0 ? getDecodingService() : null;
+            this.recycleRecords = mRecycleRecords && decodingService == null;
 
             if (advance) {
                 advance();
@@ -647,11 +976,46 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         public SAMRecord next() {
             assertOpen();
             final SAMRecord result = mNextRecord;
+            if (recycleRecords && result != null) {
+                mNextRecord = null;
+                recordsInUse.addLast((BAMRecord) result);
+                if (recordsInUse.size() > RECYCLED_RECORDS_IN_USE) {
+                    freeRecords.addLast(recordsInUse.removeFirst());
+                }
+            }
             advance();
             return result;
         }
 
+        /**
+         * When recycling records, makes the record just returned by next() available for reuse straight away, for
+         * callers that skip records without keeping them.  Otherwise does nothing.
+         */
+        void releaseRecord(final SAMRecord record) {
+            if (recycleRecords && recordsInUse.peekLast() == record) {
+                freeRecords.addLast(recordsInUse.removeLast());
+            }
+        }
+
+        @Override
+        public void close() {
+            for (final Future<RecordBatch> batch : decodingBatches) {
+                batch.cancel(false);
+            }
+            decodingBatches.clear();
+            currentBatch = null;
+            super.close();
+        }
+
         void advance() {
+            if (decodingService != null) {
+                advanceDecodedRecord();
+                return;
+            }
+            if (recycleRecords && mNextRecord != null) {
+                // Skipped without being returned by next()
+                freeRecords.addLast((BAMRecord) mNextRecord);
+            }
             try {
                 mNextRecord = getNextRecord();
 
@@ -674,12 +1038,28 @@ class BAMFileReader extends SamReader.ReaderImplementation {
             }
         }
 
+        /**
+         * Positions the input stream at the next record to be read, if the iterator is limited to part of the file.
+         * @return false if there are no more records to be read.
+         */
+        boolean seekToNextRecord() throws IOException {
+            return true;
+        }
+
         /**
          * Read the next record from the input stream.
          */
         SAMRecord getNextRecord() throws IOException {
+            if (!seekToNextRecord()) {
+                return null;
+            }
             final long startCoordinate = mCompressedInputStream.getFilePointer();
-            final SAMRecord next = bamRecordCodec.decode();
+            final SAMRecord next;
+            if (recycleRecords) {
+                next = bamRecordCodec.decode(freeRecords.pollFirst());
+            } else {
+                next = bamRecordCodec.decode();
+            }
             final long stopCoordinate = mCompressedInputStream.getFilePointer();
 
             if(mReader != null && next != null)
@@ -694,6 +1074,191 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         protected SAMRecord peek() {
             return mNextRecord;
         }
+
+        /**
+         * Takes the next record from the batches decoded on the worker threads, reading and submitting more raw
+         * records as batches are consumed.
+         */
+        private void advanceDecodedRecord() {
+            try {
+                while (currentBatch == null || currentBatch.next == currentBatch.size) {
+                    submitDecodingBatches();
+                    if (decodingBatches.isEmpty()) {
+                        mNextRecord = null;
+                        return;
+                    }
+                    currentBatch = decodingBatches.removeFirst().get();
+                }
+                final int i = currentBatch.next++;
+                mNextRecord = currentBatch.records[i];
+                currentBatch.records[i] = null;
+                ++this.samRecordIndex;
+                if (currentBatch.validationErrors != null && currentBatch.validationErrors.get(i) != null) {
+                    SAMUtils.processValidationErrors(currentBatch.validationErrors.get(i),
+                            this.samRecordIndex, BAMFileReader.this.getValidationStringency());
+                }
+                if (currentBatch.failures != null && currentBatch.failures[i] != null) {
+                    throw currentBatch.failures[i];
+                }
+            } catch (final IOException exc) {
+                throw new RuntimeIOException(exc.getMessage(), exc);
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while decoding BAM records", exc);
+            } catch (final ExecutionException exc) {
+                final Throwable cause = exc.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new SAMException("Error decoding BAM records", cause);
+            }
+        }
+
+        /** Reads raw records and hands them to the decoding threads until enough batches are in flight. */
+        private void submitDecodingBatches() throws IOException {
+            while (!rawRecordsExhausted && decodingBatches.size() < 2 * mDecodingThreads) {
+                final RecordBatch batch = readRawRecords();
+                if (batch.size > 0) {
+                    decodingBatches.addLast(decodingService.submit(batch));
+                }
+            }
+        }
+
+        /**
+         * Reads the undecoded bytes of the next batch of records, including their length prefixes.  Sets
+         * rawRecordsExhausted if there are no more records to read.
+         */
+        private RecordBatch readRawRecords() throws IOException {
+            final RecordBatch batch = new RecordBatch(mStream.getInputFileName(), mReader, mValidationStringency, eagerDecode);
+            byte[] bytes = new byte[DECODING_BATCH_BYTES];
+            int length = 0;
+            final List<Long> filePointers = mReader != null ? new ArrayList<>() : null;
+            while (length < DECODING_BATCH_BYTES) {
+                if (!seekToNextRecord()) {
+                    rawRecordsExhausted = true;
+                    break;
+                }
+                final long startCoordinate = filePointers != null ? mCompressedInputStream.getFilePointer() : 0;
+                final int recordLength;
+                try {
+                    recordLength = mStream.readInt();
+                } catch (final RuntimeEOFException e) {
+                    rawRecordsExhausted = true;
+                    break;
+                }
+                if (recordLength < BAMFileConstants.FIXED_BLOCK_SIZE) {
+                    throw new SAMFormatException("Invalid record length: " + recordLength);
+                }
+                if (bytes.length - length < recordLength + 4) {
+                    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + recordLength + 4));
+                }
+                bytes[length++] = (byte) recordLength;
+                bytes[length++] = (byte) (recordLength >>> 8);
+                bytes[length++] = (byte) (recordLength >>> 16);
+                bytes[length++] = (byte) (recordLength >>> 24);
+                mStream.readBytes(bytes, length, recordLength);
+                length += recordLength;
+                if (filePointers != null) {
+                    filePointers.add(startCoordinate);
+                    filePointers.add(mCompressedInputStream.getFilePointer());
+                }
+                ++batch.size;
+            }
+            batch.bytes = bytes;
+            batch.length = length;
+            if (filePointers != null) {
+                batch.filePointers = filePointers.stream().mapToLong(Long::longValue).toArray();
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * A batch of records read by an iterator, which is decoded on a worker thread and then handed back to the
+     * iterator in file order.
+     */
+    private class RecordBatch implements Callable<RecordBatch> {
+        private final String fileName;
+        private final SamReader fileSource;
+        private final ValidationStringency validationStringency;
+        private final boolean eagerDecode;
+
+        // Undecoded records, each preceded by its length as in the BAM file, and optionally the start and end
+        // file pointer of each record.
+        private byte[] bytes;
+        private int length;
+        private long[] filePointers;
+
+        private int size = 0;
+        private SAMRecord[] records;
+        /** The validation errors of each record, or null if no record in the batch has any. */
+        private List<List<SAMValidationError>> validationErrors;
+        private RuntimeException[] failures;
+        private int next = 0; // Index of the next record to hand to the caller
+
+        RecordBatch(final String fileName, final SamReader fileSource, final ValidationStringency validationStringency,
+                    final boolean eagerDecode) {
+            this.fileName = fileName;
+            this.fileSource = fileSource;
+            this.validationStringency = validationStringency;
+            this.eagerDecode = eagerDecode;
+        }
+
+        @Override
+        public RecordBatch call() {
+            final BAMRecordCodec codec = newRecordCodec();
+            codec.setInputStream(new ByteArrayInputStream(bytes, 0, length), fileName);
+            records = new SAMRecord[size];
+            int offset = 0; // Start of the length prefix of record i
+            for (int i = 0; i < size; ++i) {
+                final int recordEnd = offset + 4 + readLength(offset);
+                // Errors are reported, and exceptions thrown, by the iterator when it reaches the record.
+                try {
+                    final SAMRecord record = codec.decode();
+                    records[i] = record;
+                    if (fileSource != null) {
+                        record.setFileSource(new SAMFileSource(fileSource,
+                                new BAMFileSpan(new Chunk(filePointers[2 * i], filePointers[2 * i + 1]))));
+                    }
+                    // Because some decoding is done lazily, the record needs to remember the validation stringency.
+                    record.setValidationStringency(validationStringency);
+                    if (validationStringency != ValidationStringency.SILENT) {
+                        final List<SAMValidationError> errors = record.isValid(validationStringency == ValidationStringency.STRICT);
+                        if (errors != null && !errors.isEmpty()) {
+                            if (validationErrors == null) {
+                                validationErrors = new ArrayList<>(Collections.nCopies(size, null));
+                            }
+                            validationErrors.set(i, errors);
+                            if (validationStringency == ValidationStringency.STRICT) {
+                                offset = recordEnd;
+                                continue;
+                            }
+                        }
+                    }
+                    if (eagerDecode) {
+                        record.eagerDecode();
+                    }
+                } catch (final RuntimeException e) {
+                    if (failures == null) {
+                        failures = new RuntimeException[size];
+                    }
+                    failures[i] = e;
+                    if (records[i] == null) {
+                        // The codec may have stopped part way through the record, so resume at the next one.
+                        codec.setInputStream(new ByteArrayInputStream(bytes, recordEnd, length - recordEnd), fileName);
+                    }
+                }
+                offset = recordEnd;
+            }
+            bytes = null;
+            filePointers = null;
+            return this;
+        }
+
+        /** @return The length of the record whose length prefix starts at the given offset in bytes. */
+        private int readLength(final int offset) {
+            return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 |
+                    (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+        }
     }
 
     /**
@@ -753,7 +1318,12 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         }
         final long[] filePointers;
         if (inputSpans.length > 0) {
-            filePointers = BAMFileSpan.merge(inputSpans).toCoordinateArray();
+            final BAMFileSpan mergedSpan = BAMFileSpan.merge(inputSpans);
+            if (mQueryChunkGap > 0) {
+                filePointers = new BAMFileSpan(Chunk.coalesceChunkList(mergedSpan.getChunks(), mQueryChunkGap)).toCoordinateArray();
+            } else {
+                filePointers = mergedSpan.toCoordinateArray();
+            }
         } else {
             filePointers = null;
         }
@@ -782,24 +1352,33 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         BAMFileIndexIterator(final long[] filePointers) {
             super(false);  // delay advance() until after construction
             mFilePointers = filePointers;
+            if (mPrefetchQueryChunks && filePointers != null) {
+                try {
+                    for (int i = 0; i < filePointers.length; i += 2) {
+                        mCompressedInputStream.prefetch(filePointers[i], filePointers[i + 1]);
+                    }
+                } catch (final IOException exc) {
+                    throw new RuntimeIOException(exc.getMessage(), exc);
+                }
+            }
             advance();
         }
 
-        SAMRecord getNextRecord()
+        @Override
+        boolean seekToNextRecord()
             throws IOException {
             // Advance to next file block if necessary
             while (mCompressedInputStream.getFilePointer() >= mFilePointerLimit) {
                 if (mFilePointers == null ||
                         mFilePointerIndex >= mFilePointers.length) {
-                    return null;
+                    return false;
                 }
                 final long startOffset = mFilePointers[mFilePointerIndex++];
                 final long endOffset = mFilePointers[mFilePointerIndex++];
                 mCompressedInputStream.seek(startOffset);
                 mFilePointerLimit = endOffset;
             }
-            // Pull next record from stream
-            return super.getNextRecord();
+            return true;
         }
     }
 
@@ -854,7 +1433,11 @@ class BAMFileReader extends SamReader.ReaderImplementation {
                 switch (iteratorFilter.compareToFilter(record)) {
                     case MATCHES_FILTER: return record;
                     case STOP_ITERATION: return null;
-                    case CONTINUE_ITERATION: break; // keep looping
+                    case CONTINUE_ITERATION:
+                        if (wrappedIterator instanceof BAMFileIterator) {
+                            ((BAMFileIterator) wrappedIterator).releaseRecord(record);
+                        }
+                        break; // keep looping
                     default: throw new SAMException("Unexpected return from compareToFilter");
                 }
             }
@@ -33,6 +33,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * Concrete implementation of SAMFileWriter for writing gzipped BAM files.
@@ -43,6 +45,10 @@ class BAMFileWriter extends SAMFileWriterImpl {
     private BAMRecordCodec bamRecordCodec = null;
     private final BlockCompressedOutputStream blockCompressedOutputStream;
     private BAMIndexer bamIndexer = null;
+    // Records waiting to be indexed until the blocks they were written to have been compressed, with their
+    // provisional file pointers.  Only ever holds records when compressing on worker threads, in which case, as
+    // with AsyncSAMFileWriter, records are retained after addAlignment() returns.
+    private final Deque<RecordToIndex> recordsToIndex = new ArrayDeque<>();
 
     protected BAMFileWriter(final File path) {
         blockCompressedOutputStream = new BlockCompressedOutputStream(path);
@@ -113,12 +119,12 @@ class BAMFileWriter extends SAMFileWriterImpl {
 
         if (bamIndexer != null) {
             try {
-                final long startOffset = blockCompressedOutputStream.getFilePointer();
+                // Provisional file pointers don't wait for blocks being compressed on worker threads.
+                final long startOffset = blockCompressedOutputStream.getProvisionalFilePointer();
                 bamRecordCodec.encode(alignment);
-                final long stopOffset = blockCompressedOutputStream.getFilePointer();
-                // set the alignment's SourceInfo and then prepare its index information
-                alignment.setFileSource(new SAMFileSource(null, new BAMFileSpan(new Chunk(startOffset, stopOffset))));
-                bamIndexer.processAlignment(alignment);
+                final long stopOffset = blockCompressedOutputStream.getProvisionalFilePointer();
+                recordsToIndex.addLast(new RecordToIndex(alignment, startOffset, stopOffset));
+                indexWrittenRecords();
             } catch (Exception e) {
                 bamIndexer = null;
                 throw new SAMException("Exception when processing alignment for BAM index " + alignment, e);
@@ -128,6 +134,20 @@ class BAMFileWriter extends SAMFileWriterImpl {
         }
     }
 
+    /**
+     * Sets the SourceInfo of, and indexes, each waiting record whose blocks have been written.
+     */
+    private void indexWrittenRecords() {
+        while (!recordsToIndex.isEmpty() &&
+                blockCompressedOutputStream.isFilePointerResolvable(recordsToIndex.getFirst().stopOffset)) {
+            final RecordToIndex record = recordsToIndex.removeFirst();
+            final long startOffset = blockCompressedOutputStream.resolveFilePointer(record.startOffset);
+            final long stopOffset = blockCompressedOutputStream.resolveFilePointer(record.stopOffset);
+            record.alignment.setFileSource(new SAMFileSource(null, new BAMFileSpan(new Chunk(startOffset, stopOffset))));
+            bamIndexer.processAlignment(record.alignment);
+        }
+    }
+
     protected void writeHeader(final String textHeader) {
         writeHeader(outputBinaryCodec, getFileHeader(), textHeader);
     }
@@ -136,6 +156,8 @@ class BAMFileWriter extends SAMFileWriterImpl {
         outputBinaryCodec.close();
             try {
                 if (bamIndexer != null) {
+                    // All blocks have been written by close()
+                    indexWrittenRecords();
                     bamIndexer.finish();
                 }
             } catch (Exception e) {
@@ -190,4 +212,17 @@ class BAMFileWriter extends SAMFileWriterImpl {
             throw new RuntimeIOException(ioe);
         }
     }
+
+    /** A record written to the output, and its provisional file pointers. */
+    private static class RecordToIndex {
+        private final SAMRecord alignment;
+        private final long startOffset;
+        private final long stopOffset;
+
+        RecordToIndex(final SAMRecord alignment, final long startOffset, final long stopOffset) {
+            this.alignment = alignment;
+            this.startOffset = startOffset;
+            this.stopOffset = stopOffset;
+        }
+    }
 }
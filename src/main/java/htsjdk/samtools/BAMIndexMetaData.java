@@ -130,10 +130,18 @@ public class BAMIndexMetaData {
             throw new SAMException("BAM cannot be indexed without setting a fileSource for record " + rec);
         }
         final Chunk newChunk = ((BAMFileSpan) rec.getFileSource().getFilePointer()).getSingleChunk();
-        final long start = newChunk.getChunkStart();
-        final long end = newChunk.getChunkEnd();
+        recordMetaData(rec.getReadUnmappedFlag(), newChunk.getChunkStart(), newChunk.getChunkEnd());
+    }
 
-        if (rec.getReadUnmappedFlag()) {
+    /**
+     * Record a positioned record given only its unmapped flag and the virtual file offsets it spans
+     *
+     * @param unmapped whether the record has the read unmapped flag set
+     * @param start    virtual file offset of the start of the record
+     * @param end      virtual file offset of the end of the record
+     */
+    void recordMetaData(final boolean unmapped, final long start, final long end) {
+        if (unmapped) {
             unAlignedRecords++;
         } else {
             alignedRecords++;
@@ -146,6 +154,25 @@ public class BAMIndexMetaData {
         }
     }
 
+    /**
+     * Fold in the metadata gathered for a later portion of the same reference,
+     * as when an index is built from several parts of a file at once
+     *
+     * @param later metadata for records that follow all of those recorded here
+     */
+    void merge(final BAMIndexMetaData later) {
+        alignedRecords += later.alignedRecords;
+        unAlignedRecords += later.unAlignedRecords;
+        noCoordinateRecords += later.noCoordinateRecords;
+        if (later.firstOffset != -1 &&
+                (firstOffset == -1 || BlockCompressedFilePointerUtil.compare(later.firstOffset, firstOffset) < 0)) {
+            firstOffset = later.firstOffset;
+        }
+        if (BlockCompressedFilePointerUtil.compare(lastOffset, later.lastOffset) < 0) {
+            lastOffset = later.lastOffset;
+        }
+    }
+
     /**
      * @param slice
      */
@@ -173,6 +200,17 @@ public class BAMIndexMetaData {
         }
     }
 
+    /**
+     * Moves the recorded file offsets later in the file, as when the records were indexed as if their part of
+     * the file started at its beginning
+     *
+     * @param compressedOffset position in the file of the first block of that part
+     */
+    void offsetFilePointers(final long compressedOffset) {
+        if (firstOffset != -1) firstOffset += compressedOffset << 16;
+        if (lastOffset != 0) lastOffset += compressedOffset << 16;
+    }
+
     /**
      * Call whenever a reference with no coordinate information is encountered in the bam file
      */
@@ -251,7 +289,10 @@ public class BAMIndexMetaData {
      */
     static public BAMIndexMetaData[] getIndexStats(final BAMFileReader bam) {
 
-        AbstractBAMFileIndex index = (AbstractBAMFileIndex) bam.getIndex();
+        if (!(bam.getIndex() instanceof BinningBAMIndex)) {
+            throw new SAMException("Cannot get statistics from an index of type " + bam.getIndex().getClass().getSimpleName());
+        }
+        BinningBAMIndex index = (BinningBAMIndex) bam.getIndex();
         // read through all the bins of every reference.
         int nRefs = index.getNumberOfReferences();
         BAMIndexMetaData[] result = new BAMIndexMetaData[nRefs == 0 ? 1 : nRefs];
@@ -70,14 +70,54 @@ public class BAMIndexer {
         this(fileHeader, numRefs -> new BinaryBAMIndexWriter(numRefs, output));
     }
 
+    /**
+     * Prepare to write a CSI index rather than a BAI.
+     *
+     * @param output     binary CSI index (.csi) file
+     * @param fileHeader header for the corresponding bam file
+     * @param minShift   log2 of the width of the smallest bins
+     * @param depth      number of levels below the root bin
+     */
+    public BAMIndexer(final File output, final SAMFileHeader fileHeader, final int minShift, final int depth) {
+        this(fileHeader, numRefs -> new BinaryCSIIndexWriter(numRefs, output, minShift, depth), minShift, depth);
+    }
+
+    /**
+     * Prepare to write a CSI index rather than a BAI.
+     *
+     * @param output     Index will be written here, BGZF-compressed.  output will be closed when finish() method is called.
+     * @param fileHeader header for the corresponding bam file.
+     * @param minShift   log2 of the width of the smallest bins
+     * @param depth      number of levels below the root bin
+     */
+    public BAMIndexer(final OutputStream output, final SAMFileHeader fileHeader, final int minShift, final int depth) {
+        this(fileHeader, numRefs -> new BinaryCSIIndexWriter(numRefs, output, minShift, depth), minShift, depth);
+    }
+
+    private BAMIndexer(final SAMFileHeader fileHeader, Function<Integer, BAMIndexWriter> createWriter) {
+        this(fileHeader, createWriter, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH);
+    }
+
     /*
      * Prepare to index a BAM.
      *
      * @param fileHeader header for the corresponding bam file.
-     * @param  createWrite a lambda that, given an Integer numReferences value, will create a BinaryBAMIndexWriter
+     * @param  createWrite a lambda that, given an Integer numReferences value, will create a BAMIndexWriter
      *                     with that value and an appropriate output.
+     * @param minShift, depth binning scheme of the index being written
       */
-    private BAMIndexer(final SAMFileHeader fileHeader, Function<Integer, BinaryBAMIndexWriter> createWriter) {
+    private BAMIndexer(final SAMFileHeader fileHeader, Function<Integer, BAMIndexWriter> createWriter,
+                       final int minShift, final int depth) {
+        checkSortOrder(fileHeader);
+        numReferences = fileHeader.getSequenceDictionary().size();
+        indexBuilder = new BAMIndexBuilder(fileHeader.getSequenceDictionary(), minShift, depth);
+        outputWriter = createWriter.apply(numReferences);
+    }
+
+    /**
+     * Throws unless the header allows the BAM to be indexed
+     */
+    static void checkSortOrder(final SAMFileHeader fileHeader) {
         if (fileHeader.getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
             if (fileHeader.getSortOrder() == SAMFileHeader.SortOrder.unsorted) {
                 log.warn("For indexing, the BAM file is required to be coordinate sorted. Attempting to index \"unsorted\" BAM file.");
@@ -86,9 +126,6 @@ public class BAMIndexer {
                 throw new SAMException("Indexing requires a coordinate-sorted input BAM.");
             }
         }
-        numReferences = fileHeader.getSequenceDictionary().size();
-        indexBuilder = new BAMIndexBuilder(fileHeader.getSequenceDictionary());
-        outputWriter = createWriter.apply(numReferences);
     }
 
     /**
@@ -176,6 +213,8 @@ public class BAMIndexer {
     private class BAMIndexBuilder {
 
         private final SAMSequenceDictionary sequenceDictionary;
+        private final int minShift;
+        private final int depth;
 
         private BinningIndexBuilder binningIndexBuilder;
 
@@ -184,8 +223,10 @@ public class BAMIndexer {
         // information in meta data
         private final BAMIndexMetaData indexStats = new BAMIndexMetaData();
 
-        BAMIndexBuilder(final SAMSequenceDictionary sequenceDictionary) {
+        BAMIndexBuilder(final SAMSequenceDictionary sequenceDictionary, final int minShift, final int depth) {
             this.sequenceDictionary = sequenceDictionary;
+            this.minShift = minShift;
+            this.depth = depth;
             if (!sequenceDictionary.isEmpty()) startNewReference();
         }
 
@@ -223,6 +264,9 @@ public class BAMIndexer {
 
                 @Override
                 public Integer getIndexingBin() {
+                    if (minShift != GenomicIndexUtil.BAI_MIN_SHIFT || depth != GenomicIndexUtil.BAI_DEPTH) {
+                        return null; // bin stored in the record is for the BAI scheme; let the builder compute it
+                    }
                     final Integer binNumber = rec.getIndexingBin();
                     return (binNumber == null ? rec.computeIndexingBin() : binNumber);
 
@@ -275,7 +319,7 @@ public class BAMIndexer {
             // it helps keep track of no-coordinate read count (which shouldn't be stored in this class anyway).
             indexStats.newReference();
             binningIndexBuilder = new BinningIndexBuilder(currentReference,
-                    sequenceDictionary.getSequence(currentReference).getSequenceLength());
+                    sequenceDictionary.getSequence(currentReference).getSequenceLength(), minShift, depth);
         }
     }
 
@@ -296,9 +340,51 @@ public class BAMIndexer {
      * @param output File for output index file
      */
     public static void createIndex(SamReader reader, File output, Log log) {
+        createIndex(reader, new BAMIndexer(output, reader.getFileHeader()), log);
+    }
+
+    /**
+     * Generates a CSI index file from an input BAM file
+     *
+     * @param reader   SAMFileReader for input BAM file
+     * @param output   File for output index file
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth    number of levels below the root bin
+     */
+    public static void createCSIIndex(SamReader reader, File output, int minShift, int depth) {
+        createIndex(reader, new BAMIndexer(output, reader.getFileHeader(), minShift, depth), null);
+    }
 
-        BAMIndexer indexer = new BAMIndexer(output, reader.getFileHeader());
+    /**
+     * Generates a BAM index file from a BAM file, reading separate parts of the file on several threads.
+     * The index is the same as that produced by {@link #createIndex(SamReader, File)}.
+     *
+     * @param bamFile    coordinate-sorted BAM file
+     * @param output     File for output index file
+     * @param numThreads number of threads reading the BAM
+     */
+    public static void createIndex(final File bamFile, final File output, final int numThreads) {
+        ParallelBAMIndexer.createIndex(bamFile, numThreads, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH,
+                numRefs -> new BinaryBAMIndexWriter(numRefs, output));
+    }
+
+    /**
+     * Generates a CSI index file from a BAM file, reading separate parts of the file on several threads.
+     * The index is the same as that produced by {@link #createCSIIndex(SamReader, File, int, int)}.
+     *
+     * @param bamFile    coordinate-sorted BAM file
+     * @param output     File for output index file
+     * @param minShift   log2 of the width of the smallest bins
+     * @param depth      number of levels below the root bin
+     * @param numThreads number of threads reading the BAM
+     */
+    public static void createCSIIndex(final File bamFile, final File output, final int minShift, final int depth,
+                                      final int numThreads) {
+        ParallelBAMIndexer.createIndex(bamFile, numThreads, minShift, depth,
+                numRefs -> new BinaryCSIIndexWriter(numRefs, output, minShift, depth));
+    }
 
+    private static void createIndex(SamReader reader, BAMIndexer indexer, Log log) {
         long totalRecords = 0;
 
         // create and write the content
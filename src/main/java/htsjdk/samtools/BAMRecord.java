@@ -23,10 +23,12 @@
  */
 package htsjdk.samtools;
 
+import htsjdk.samtools.util.BinaryCodec;
 import htsjdk.samtools.util.StringUtil;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 
 /**
@@ -40,18 +42,27 @@ public class BAMRecord extends SAMRecord {
     private static final int READ_NAME_OFFSET = 0;
 
     /**
-     * Variable-length part of BAMRecord.  Lazily decoded.
+     * Variable-length part of BAMRecord.  Lazily decoded.  This may be a slice of a larger buffer shared with other
+     * records, starting at mRestOfBinaryDataOffset; the buffer is never written to once records refer to it.
      */
     private byte[] mRestOfBinaryData = null;
+    private int mRestOfBinaryDataOffset = 0;
+    private int mRestOfBinaryDataLength = 0;
+
+    /**
+     * If this record is recycled by a reader, the buffer its variable-length part is read into.  It is overwritten
+     * when the record is recycled, so it must never be shared with another record.
+     */
+    private byte[] mRecyclableBinaryData = null;
 
     // Various lengths are stored, because they are in the fixed-length part of the BAMRecord, and it is
     // more efficient to remember them than decode the element they store the length of.
     // The length becomes invalid if the element is changed with a set() method.
     private int mReadLength = 0;
     private boolean mReadLengthValid = true;
-    private final short mReadNameLength;
+    private short mReadNameLength;
     private boolean mReadNameLengthValid = true;
-    private final int mCigarLength;
+    private int mCigarLength;
     private boolean mCigarLengthValid = true;
 
     // Whether or not the getter needs to decode the corresponding element.
@@ -83,7 +94,80 @@ public class BAMRecord extends SAMRecord {
                         final int mateCoordinate,
                         final int insertSize,
                         final byte[] restOfData) {
+        this(header, referenceID, coordinate, readNameLength, mappingQuality, indexingBin, cigarLen, flags, readLen,
+                mateReferenceID, mateCoordinate, insertSize, restOfData, 0, restOfData == null ? 0 : restOfData.length);
+    }
+
+    /**
+     * Create a new BAM Record whose variable-length part is the given slice of a buffer, which may be shared with
+     * other records.  The slice is not copied, so the buffer must not be modified afterwards.
+     */
+    protected BAMRecord(final SAMFileHeader header,
+                        final int referenceID,
+                        final int coordinate,
+                        final short readNameLength,
+                        final short mappingQuality,
+                        final int indexingBin,
+                        final int cigarLen,
+                        final int flags,
+                        final int readLen,
+                        final int mateReferenceID,
+                        final int mateCoordinate,
+                        final int insertSize,
+                        final byte[] restOfData,
+                        final int restOfDataOffset,
+                        final int restOfDataLength) {
         super(header);
+        initialize(referenceID, coordinate, readNameLength, mappingQuality, indexingBin, cigarLen, flags, readLen,
+                mateReferenceID, mateCoordinate, insertSize, restOfData, restOfDataOffset, restOfDataLength);
+    }
+
+    /**
+     * Reuse this record for the next record read from a file, as if it had just been constructed.  The
+     * variable-length part is the start of the given buffer, which this record keeps for reuse the next time it
+     * is recycled.
+     */
+    void recycle(final SAMFileHeader header,
+                 final int referenceID,
+                 final int coordinate,
+                 final short readNameLength,
+                 final short mappingQuality,
+                 final int indexingBin,
+                 final int cigarLen,
+                 final int flags,
+                 final int readLen,
+                 final int mateReferenceID,
+                 final int mateCoordinate,
+                 final int insertSize,
+                 final byte[] restOfData,
+                 final int restOfDataLength) {
+        resetForReuse(header);
+        initialize(referenceID, coordinate, readNameLength, mappingQuality, indexingBin, cigarLen, flags, readLen,
+                mateReferenceID, mateCoordinate, insertSize, restOfData, 0, restOfDataLength);
+        mRecyclableBinaryData = restOfData;
+    }
+
+    /**
+     * @return the buffer that can be overwritten when this record is next recycled, or null if there is none.
+     */
+    byte[] getRecyclableBinaryData() {
+        return mRecyclableBinaryData;
+    }
+
+    private void initialize(final int referenceID,
+                            final int coordinate,
+                            final short readNameLength,
+                            final short mappingQuality,
+                            final int indexingBin,
+                            final int cigarLen,
+                            final int flags,
+                            final int readLen,
+                            final int mateReferenceID,
+                            final int mateCoordinate,
+                            final int insertSize,
+                            final byte[] restOfData,
+                            final int restOfDataOffset,
+                            final int restOfDataLength) {
         setReferenceIndex(referenceID);
         setAlignmentStart(coordinate);
         mReadNameLength = readNameLength;
@@ -95,6 +179,8 @@ public class BAMRecord extends SAMRecord {
         setMateAlignmentStart(mateCoordinate);
         setInferredInsertSize(insertSize);
         mRestOfBinaryData = restOfData;
+        mRestOfBinaryDataOffset = restOfDataOffset;
+        mRestOfBinaryDataLength = restOfDataLength;
 
         // Set these to null in order to mark them as being candidates for lazy initialization.
         // If this is not done, they will have non-null defaults.
@@ -106,10 +192,31 @@ public class BAMRecord extends SAMRecord {
         // Do this after the above because setCigarString will clear it.
         setIndexingBin(indexingBin);
 
+        mReadLengthValid = true;
+        mReadNameLengthValid = true;
+        mCigarLengthValid = true;
+        mAttributesDecoded = false;
+        mCigarDecoded = false;
+
         // Mark the binary block as being valid for writing back out to disk
         mBinaryDataStale = false;
     }
 
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final BAMRecord newRecord = (BAMRecord) super.clone();
+        if (mRecyclableBinaryData != null) {
+            // The buffer is overwritten when this record is recycled, so the clone needs a copy of its own.
+            newRecord.mRecyclableBinaryData = null;
+            if (mRestOfBinaryData == mRecyclableBinaryData) {
+                newRecord.mRestOfBinaryData = Arrays.copyOfRange(mRestOfBinaryData, mRestOfBinaryDataOffset,
+                        mRestOfBinaryDataOffset + mRestOfBinaryDataLength);
+                newRecord.mRestOfBinaryDataOffset = 0;
+            }
+        }
+        return newRecord;
+    }
+
     /**
      * Force all the lazily-initialized attributes to be decoded.
      */
@@ -118,7 +225,7 @@ public class BAMRecord extends SAMRecord {
         getCigar();
         getReadBases();
         getBaseQualities();
-        getBinaryAttributes();
+        decodeAttributes();
         super.eagerDecode();
         mRestOfBinaryData = null;
     }
@@ -135,9 +242,27 @@ public class BAMRecord extends SAMRecord {
             return null;
         }
         // This may have been set to null by eagerDecode()
+        if (mRestOfBinaryData != null && (mRestOfBinaryDataOffset != 0 || mRestOfBinaryDataLength != mRestOfBinaryData.length)) {
+            // Callers expect an array of exactly the right size, so stop sharing the buffer.
+            mRestOfBinaryData = Arrays.copyOfRange(mRestOfBinaryData, mRestOfBinaryDataOffset, mRestOfBinaryDataOffset + mRestOfBinaryDataLength);
+            mRestOfBinaryDataOffset = 0;
+        }
         return mRestOfBinaryData;
     }
 
+    /**
+     * Writes the variable-length portion of the binary record, if it is still valid, without copying it out of
+     * a shared buffer.
+     * @return false if there is no valid binary representation, in which case nothing was written.
+     */
+    boolean writeVariableBinaryRepresentation(final BinaryCodec binaryCodec) {
+        if (mBinaryDataStale || mRestOfBinaryData == null) {
+            return false;
+        }
+        binaryCodec.writeBytes(mRestOfBinaryData, mRestOfBinaryDataOffset, mRestOfBinaryDataLength);
+        return true;
+    }
+
     /**
      * Depending on the concrete implementation, the binary file size of attributes may be known without
      * computing them all.
@@ -147,10 +272,10 @@ public class BAMRecord extends SAMRecord {
     @Override
     public int getAttributesBinarySize() {
         if (mBinaryDataStale || mRestOfBinaryData == null) {
-            return -1;
+            return super.getAttributesBinarySize();
         }
         final int tagsOffset = readNameSize() + cigarSize() + basesSize() + qualsSize();
-        return mRestOfBinaryData.length - tagsOffset;
+        return mRestOfBinaryDataLength - tagsOffset;
     }
 
     @Override
@@ -243,7 +368,7 @@ public class BAMRecord extends SAMRecord {
     public Cigar getCigar() {
         if (mRestOfBinaryData != null && !mCigarDecoded) {
             final int cigarOffset = readNameSize();
-            final ByteBuffer byteBuffer  = ByteBuffer.wrap(mRestOfBinaryData, cigarOffset, cigarSize());
+            final ByteBuffer byteBuffer  = ByteBuffer.wrap(mRestOfBinaryData, mRestOfBinaryDataOffset + cigarOffset, cigarSize());
             byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
             super.initializeCigar(BinaryCigarCodec.decode(byteBuffer));
             mCigarDecoded = true;
@@ -287,12 +412,20 @@ public class BAMRecord extends SAMRecord {
         return ret;
     }
 
+    /**
+     * Until all attributes have been decoded, finds the requested one in the binary tag data and decodes only it,
+     * so that the binary data can still be written unchanged.  Offsets of tags are not cached, so each call scans
+     * the tag data from the start, skipping over values without decoding them.  Callers that read most of the tags
+     * of a record should call {@link #getAttributes()} instead, which decodes them all once.
+     */
     @Override
-    public Object getAttribute(final short tag) {
-        if (!mAttributesDecoded) {
-            decodeAttributes();
+    protected SAMBinaryTagAndValue findAttribute(final short tag) {
+        if (mAttributesDecoded || mRestOfBinaryData == null) {
+            return super.findAttribute(tag);
         }
-        return super.getAttribute(tag);
+        final int tagsOffset = readNameSize() + cigarSize() + basesSize() + qualsSize();
+        final int tagsSize = mRestOfBinaryDataLength - tagsOffset;
+        return BinaryTagCodec.readTag(mRestOfBinaryData, mRestOfBinaryDataOffset + tagsOffset, tagsSize, tag, getValidationStringency());
     }
 
     @Override
@@ -309,8 +442,8 @@ public class BAMRecord extends SAMRecord {
         }
         mAttributesDecoded = true;
         final int tagsOffset = readNameSize() + cigarSize() + basesSize() + qualsSize();
-        final int tagsSize = mRestOfBinaryData.length - tagsOffset;
-        final SAMBinaryTagAndValue attributes = BinaryTagCodec.readTags(mRestOfBinaryData, tagsOffset, tagsSize, getValidationStringency());
+        final int tagsSize = mRestOfBinaryDataLength - tagsOffset;
+        final SAMBinaryTagAndValue attributes = BinaryTagCodec.readTags(mRestOfBinaryData, mRestOfBinaryDataOffset + tagsOffset, tagsSize, getValidationStringency());
         setAttributes(attributes);
     }
 
@@ -320,7 +453,7 @@ public class BAMRecord extends SAMRecord {
         }
         final int qualsOffset = readNameSize() + cigarSize() + basesSize();
         final byte[] ret = new byte[qualsSize()];
-        System.arraycopy(mRestOfBinaryData, qualsOffset, ret, 0, qualsSize());
+        System.arraycopy(mRestOfBinaryData, mRestOfBinaryDataOffset + qualsOffset, ret, 0, qualsSize());
         if (ret.length > 0 && ret[0] == (byte) 0xFF) {
             // BAM files store missing qualities as an array of 0xFF bytes.
             // 0xFF is an illegal quality score value (it cannot be encoded in SAM)
@@ -333,7 +466,7 @@ public class BAMRecord extends SAMRecord {
 
     private String decodeReadName() {
         // Don't include terminating null
-        return StringUtil.bytesToString(mRestOfBinaryData, READ_NAME_OFFSET, mReadNameLength-1);
+        return StringUtil.bytesToString(mRestOfBinaryData, mRestOfBinaryDataOffset + READ_NAME_OFFSET, mReadNameLength-1);
     }
 
     private byte[] decodeReadBases() {
@@ -341,7 +474,7 @@ public class BAMRecord extends SAMRecord {
             return NULL_SEQUENCE;
         }
         final int basesOffset = readNameSize() + cigarSize();
-        return SAMUtils.compressedBasesToBytes(mReadLength, mRestOfBinaryData, basesOffset);
+        return SAMUtils.compressedBasesToBytes(mReadLength, mRestOfBinaryData, mRestOfBinaryDataOffset + basesOffset);
     }
 
     /* methods for computing disk size of variably-sized elements, in order to locate
@@ -40,6 +40,12 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
     private final BinaryTagCodec binaryTagCodec = new BinaryTagCodec(binaryCodec);
     private final SAMRecordFactory samRecordFactory;
 
+    // Only used when decoded records share buffers.  Records refer to slices of sharedBuffer, which is replaced
+    // rather than overwritten when it is full, so a record remains valid for as long as it is referenced.
+    private int sharedBufferSize = 0;
+    private byte[] sharedBuffer = null;
+    private int sharedBufferUsed = 0;
+
     public BAMRecordCodec(final SAMFileHeader header) {
         this(header, new DefaultSAMRecordFactory());
     }
@@ -51,7 +57,25 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
 
     public BAMRecordCodec clone() {
         // Do not clone the references to codecs, as they must be distinct for each instance.
-        return new BAMRecordCodec(this.header, this.samRecordFactory);
+        final BAMRecordCodec codec = new BAMRecordCodec(this.header, this.samRecordFactory);
+        codec.setSharedBufferSize(this.sharedBufferSize);
+        return codec;
+    }
+
+    /**
+     * If size is positive, the variable-length parts of decoded records are read into buffers of about this size
+     * that are shared by consecutive records, instead of into an array allocated for each record.  This saves an
+     * allocation per record, but a record keeps its whole buffer reachable until it is eagerly decoded or garbage
+     * collected, so it is best suited to streaming through records rather than holding on to a few of them.
+     * @param size size of the shared buffers in bytes, or 0 to allocate an array per record.
+     */
+    public void setSharedBufferSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative shared buffer size: " + size);
+        }
+        this.sharedBufferSize = size;
+        this.sharedBuffer = null;
+        this.sharedBufferUsed = 0;
     }
 
 
@@ -131,10 +155,14 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
         this.binaryCodec.writeInt(alignment.getMateReferenceIndex());
         this.binaryCodec.writeInt(alignment.getMateAlignmentStart() - 1);
         this.binaryCodec.writeInt(alignment.getInferredInsertSize());
-        final byte[] variableLengthBinaryBlock = alignment.getVariableBinaryRepresentation();
-        if (variableLengthBinaryBlock != null) {
+        // BAMRecords write their variable-length block directly, which avoids copying it out of a shared buffer.
+        final boolean wroteBinaryBlock = alignment instanceof BAMRecord &&
+                ((BAMRecord) alignment).writeVariableBinaryRepresentation(this.binaryCodec);
+        final byte[] variableLengthBinaryBlock = wroteBinaryBlock ? null : alignment.getVariableBinaryRepresentation();
+        if (wroteBinaryBlock) {
             // Don't need to encode variable-length block, because it is unchanged from
             // when the record was read from a BAM file.
+        } else if (variableLengthBinaryBlock != null) {
             this.binaryCodec.writeBytes(variableLengthBinaryBlock);
         } else {
             if (alignment.getReadLength() != alignment.getBaseQualities().length &&
@@ -157,10 +185,16 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
                 Arrays.fill(qualities, (byte) 0xFF);
             }
             this.binaryCodec.writeBytes(qualities);
-            SAMBinaryTagAndValue attribute = alignment.getBinaryAttributes();
-            while (attribute != null) {
-                this.binaryTagCodec.writeTag(attribute.tag, attribute.value, attribute.isUnsignedArray());
-                attribute = attribute.getNext();
+            final SAMCompactAttributes compactAttributes = alignment.getCompactAttributes();
+            if (compactAttributes != null) {
+                // already in BAM encoding
+                compactAttributes.write(this.binaryCodec);
+            } else {
+                SAMBinaryTagAndValue attribute = alignment.getBinaryAttributes();
+                while (attribute != null) {
+                    this.binaryTagCodec.writeTag(attribute.tag, attribute.value, attribute.isUnsignedArray());
+                    attribute = attribute.getNext();
+                }
             }
         }
     }
@@ -172,6 +206,19 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
      *         a record.
      */
     public SAMRecord decode() {
+        return decode(null);
+    }
+
+    /**
+     * Read the next record from the input stream, reusing the given record instead of creating a new one.
+     * The variable-length part of the record is read into the buffer kept by the recycled record, so any
+     * previous contents of the recycled record are lost.
+     *
+     * @param recycled a record previously returned by this codec to be overwritten, or null to create a new record
+     *                 via the {@link SAMRecordFactory}.
+     * @return the next record, which is {@code recycled} if that was non-null, or null if there are no more records.
+     */
+    public SAMRecord decode(final BAMRecord recycled) {
         int recordLength = 0;
         try {
             recordLength = this.binaryCodec.readInt();
@@ -195,11 +242,36 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
         final int mateReferenceID = this.binaryCodec.readInt();
         final int mateCoordinate = this.binaryCodec.readInt() + 1;
         final int insertSize = this.binaryCodec.readInt();
-        final byte[] restOfRecord = new byte[recordLength - BAMFileConstants.FIXED_BLOCK_SIZE];
-        this.binaryCodec.readBytes(restOfRecord);
-        final BAMRecord ret = this.samRecordFactory.createBAMRecord(
-                header, referenceID, coordinate, readNameLength, mappingQuality,
-                bin, cigarLen, flags, readLen, mateReferenceID, mateCoordinate, insertSize, restOfRecord);
+        final int restOfRecordLength = recordLength - BAMFileConstants.FIXED_BLOCK_SIZE;
+        final BAMRecord ret;
+        if (recycled != null) {
+            byte[] restOfRecord = recycled.getRecyclableBinaryData();
+            if (restOfRecord == null || restOfRecord.length < restOfRecordLength) {
+                restOfRecord = new byte[restOfRecordLength];
+            }
+            this.binaryCodec.readBytes(restOfRecord, 0, restOfRecordLength);
+            recycled.recycle(header, referenceID, coordinate, readNameLength, mappingQuality,
+                    bin, cigarLen, flags, readLen, mateReferenceID, mateCoordinate, insertSize,
+                    restOfRecord, restOfRecordLength);
+            ret = recycled;
+        } else if (sharedBufferSize > 0) {
+            if (sharedBuffer == null || sharedBuffer.length - sharedBufferUsed < restOfRecordLength) {
+                sharedBuffer = new byte[Math.max(sharedBufferSize, restOfRecordLength)];
+                sharedBufferUsed = 0;
+            }
+            this.binaryCodec.readBytes(sharedBuffer, sharedBufferUsed, restOfRecordLength);
+            ret = this.samRecordFactory.createBAMRecord(
+                    header, referenceID, coordinate, readNameLength, mappingQuality,
+                    bin, cigarLen, flags, readLen, mateReferenceID, mateCoordinate, insertSize,
+                    sharedBuffer, sharedBufferUsed, restOfRecordLength);
+            sharedBufferUsed += restOfRecordLength;
+        } else {
+            final byte[] restOfRecord = new byte[restOfRecordLength];
+            this.binaryCodec.readBytes(restOfRecord);
+            ret = this.samRecordFactory.createBAMRecord(
+                    header, referenceID, coordinate, readNameLength, mappingQuality,
+                    bin, cigarLen, flags, readLen, mateReferenceID, mateCoordinate, insertSize, restOfRecord);
+        }
 
         if (null != header) {
             // don't reset a null header as this will clobber the reference and mate reference indices
@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Locates the start of a BAM record at or after an arbitrary position in the compressed file, so that a BAM can
+ * be divided into independently processed parts without reading it from the start.
+ *
+ * The first BGZF block header at or after the position is found by its magic bytes and checked against the
+ * header of the block that follows it.  That block and a few after it are decompressed, and each offset in the
+ * first block is tried as the start of a run of records whose fixed-length fields are consistent with the
+ * sequence dictionary.  If no record starts in the block the search moves on to the next one.
+ *
+ * Records are not decoded, so this is cheap, but it is a heuristic: callers should make sure the result is not
+ * before the first record of the file, since the binary header may look like record data.
+ */
+final class BAMRecordStartFinder {
+    // blocks decompressed from each candidate block; records that start in the first of them are checked against
+    // those that follow, which may continue into the later blocks
+    private static final int BLOCKS_TO_DECOMPRESS = 3;
+    // number of consecutive records that must look valid before a position is accepted
+    private static final int RECORDS_TO_VALIDATE = 8;
+    // size of the fixed-length part of a record, including block_size, not including read_name
+    private static final int FIXED_RECORD_LENGTH = 36;
+    private static final int INVALID = -1;
+    private static final int TRUNCATED = -2;
+    private static final int INCOMPLETE = -3;
+
+    private final SeekableStream stream;
+    private final long length;
+    private final int[] referenceLengths;
+    private final byte[] compressed = new byte[BLOCKS_TO_DECOMPRESS * BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+    private final byte[] uncompressed = new byte[BLOCKS_TO_DECOMPRESS * BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+
+    /**
+     * @param stream the BAM file; positioned as needed, but not closed
+     * @param header header of the BAM, used to check reference indices and positions
+     */
+    BAMRecordStartFinder(final SeekableStream stream, final SAMFileHeader header) {
+        this.stream = stream;
+        this.length = stream.length();
+        if (length <= 0) {
+            throw new SAMException("Cannot search for records in a stream of unknown length: " + stream.getSource());
+        }
+        final SAMSequenceDictionary dictionary = header.getSequenceDictionary();
+        referenceLengths = new int[dictionary.size()];
+        for (int i = 0; i < referenceLengths.length; i++) {
+            referenceLengths[i] = dictionary.getSequence(i).getSequenceLength();
+        }
+    }
+
+    /**
+     * @param compressedOffset position in the compressed file at which to start looking
+     * @return virtual file pointer of the first record found at or after compressedOffset, or -1 if there is none
+     */
+    long findRecordStart(final long compressedOffset) throws IOException {
+        long blockAddress = findBlockAddress(compressedOffset);
+        while (blockAddress != -1 && blockAddress < length) {
+            final int compressedLength = readCompressedBlocks(blockAddress);
+            final int firstBlockLength = blockLength(compressed, 0);
+            final boolean atEndOfFile = blockAddress + compressedLength == length;
+
+            final BlockCompressedInputStream blocks =
+                    new BlockCompressedInputStream(new ByteArrayInputStream(compressed, 0, compressedLength));
+            final int firstBlockSize = blocks.available();
+            int uncompressedLength = 0;
+            int n;
+            while ((n = blocks.read(uncompressed, uncompressedLength, uncompressed.length - uncompressedLength)) > 0) {
+                uncompressedLength += n;
+            }
+
+            for (int offset = 0; offset < firstBlockSize; offset++) {
+                if (isRecordStart(uncompressedLength, offset, atEndOfFile)) {
+                    return (blockAddress << 16) | offset;
+                }
+            }
+            blockAddress += firstBlockLength;
+        }
+        return -1;
+    }
+
+    /**
+     * @return address of the first BGZF block header at or after position, or -1 if there is none
+     */
+    private long findBlockAddress(final long position) throws IOException {
+        final byte[] buffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        final byte[] nextHeader = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+        long windowStart = position;
+        while (windowStart < length) {
+            final int windowLength = readAt(windowStart, buffer, buffer.length);
+            for (int i = 0; i + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH <= windowLength; i++) {
+                if (!isBlockHeader(buffer, i)) continue;
+                // confirm that what follows is another block, or the end of the file
+                final long next = windowStart + i + blockLength(buffer, i);
+                if (next == length ||
+                        (next < length && readAt(next, nextHeader, nextHeader.length) == nextHeader.length &&
+                                isBlockHeader(nextHeader, 0))) {
+                    return windowStart + i;
+                }
+            }
+            if (windowStart + windowLength >= length) break;
+            windowStart += windowLength - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads as many whole blocks starting at blockAddress as fit in the buffer, up to BLOCKS_TO_DECOMPRESS
+     * @return the number of bytes read
+     */
+    private int readCompressedBlocks(final long blockAddress) throws IOException {
+        final int available = readAt(blockAddress, compressed, compressed.length);
+        int end = 0;
+        for (int i = 0; i < BLOCKS_TO_DECOMPRESS; i++) {
+            if (end + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH > available || !isBlockHeader(compressed, end)) break;
+            final int blockLength = blockLength(compressed, end);
+            if (end + blockLength > available) break;
+            end += blockLength;
+        }
+        if (end == 0) {
+            throw new SAMException("Invalid BGZF block at " + blockAddress + " in " + stream.getSource());
+        }
+        return end;
+    }
+
+    private int readAt(final long position, final byte[] buffer, final int count) throws IOException {
+        stream.seek(position);
+        int total = 0;
+        int n;
+        while (total < count && (n = stream.read(buffer, total, count - total)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static boolean isBlockHeader(final byte[] buffer, final int offset) {
+        return buffer[offset] == BlockCompressedStreamConstants.GZIP_ID1 &&
+                (buffer[offset + 1] & 0xFF) == BlockCompressedStreamConstants.GZIP_ID2 &&
+                buffer[offset + 2] == BlockCompressedStreamConstants.GZIP_CM_DEFLATE &&
+                buffer[offset + 3] == BlockCompressedStreamConstants.GZIP_FLG &&
+                unpackShort(buffer, offset + 10) == BlockCompressedStreamConstants.GZIP_XLEN &&
+                buffer[offset + 12] == BlockCompressedStreamConstants.BGZF_ID1 &&
+                buffer[offset + 13] == BlockCompressedStreamConstants.BGZF_ID2 &&
+                unpackShort(buffer, offset + 14) == BlockCompressedStreamConstants.BGZF_LEN;
+    }
+
+    private static int blockLength(final byte[] buffer, final int offset) {
+        return unpackShort(buffer, offset + BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+    }
+
+    /**
+     * @return true if a run of plausible records starts at offset in the uncompressed data
+     */
+    private boolean isRecordStart(final int uncompressedLength, final int offset, final boolean atEndOfFile) {
+        int next = offset;
+        for (int i = 0; i < RECORDS_TO_VALIDATE && next < uncompressedLength; i++) {
+            next = checkRecord(uncompressedLength, next);
+            if (next == INVALID) return false;
+            if (next == INCOMPLETE) {
+                // the record runs past the data that has been decompressed, as long reads may
+                return !atEndOfFile;
+            }
+            if (next == TRUNCATED) {
+                // too little data left to check this record; accept if others have already been checked
+                return !atEndOfFile && i > 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the fixed-length fields and read name of the record at offset
+     * @return offset of the following record; INVALID; TRUNCATED if the data ends before the read name does;
+     * or INCOMPLETE if the record looks valid but runs past the end of the data
+     */
+    private int checkRecord(final int uncompressedLength, final int offset) {
+        if (offset + FIXED_RECORD_LENGTH > uncompressedLength) return TRUNCATED;
+        final byte[] b = uncompressed;
+        final int blockSize = unpackInt(b, offset);
+        final int referenceIndex = unpackInt(b, offset + 4);
+        final int position = unpackInt(b, offset + 8);
+        final int readNameLength = b[offset + 12] & 0xFF;
+        final int cigarLength = unpackShort(b, offset + 16);
+        final int readLength = unpackInt(b, offset + 20);
+        final int mateReferenceIndex = unpackInt(b, offset + 24);
+        final int matePosition = unpackInt(b, offset + 28);
+
+        if (referenceIndex < -1 || referenceIndex >= referenceLengths.length) return INVALID;
+        if (mateReferenceIndex < -1 || mateReferenceIndex >= referenceLengths.length) return INVALID;
+        if (position < -1 || matePosition < -1) return INVALID;
+        if (referenceIndex == -1 ? position != -1 : position > referenceLengths[referenceIndex]) return INVALID;
+        if (readNameLength < 1 || readLength < 0) return INVALID;
+        final long minimumBlockSize = FIXED_RECORD_LENGTH - 4 + readNameLength + 4L * cigarLength +
+                (readLength + 1L) / 2 + readLength;
+        if (blockSize < minimumBlockSize) return INVALID;
+
+        final int nameStart = offset + FIXED_RECORD_LENGTH;
+        if (nameStart + readNameLength > uncompressedLength) return TRUNCATED;
+        for (int i = nameStart; i < nameStart + readNameLength - 1; i++) {
+            if (b[i] < '!' || b[i] > '~') return INVALID;
+        }
+        if (b[nameStart + readNameLength - 1] != 0) return INVALID;
+
+        final long next = (long) offset + 4 + blockSize;
+        return next > uncompressedLength ? INCOMPLETE : (int) next;
+    }
+
+    private static int unpackShort(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int unpackInt(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) |
+                ((buffer[offset + 2] & 0xFF) << 16) | ((buffer[offset + 3] & 0xFF) << 24);
+    }
+}
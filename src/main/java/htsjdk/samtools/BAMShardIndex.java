@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index content for one part of a BAM file, gathered independently of the rest of the file.  Parts are indexed
+ * separately when a BAM is read or written on several threads, and the content of consecutive parts is then
+ * combined with a {@link Merger}.  A part written to its own BGZF stream can be indexed as if it started at the
+ * beginning of a file, and moved to its place in the final file with {@link #offsetFilePointers(long)}.
+ */
+final class BAMShardIndex {
+    private final SAMSequenceDictionary dictionary;
+    private final int minShift;
+    private final int depth;
+    private final List<ReferenceIndex> references = new ArrayList<>();
+    private long noCoordinateRecords = 0;
+
+    /**
+     * @param dictionary sequence dictionary of the BAM
+     * @param minShift   log2 of the width of the smallest bins
+     * @param depth      number of levels below the root bin
+     */
+    BAMShardIndex(final SAMSequenceDictionary dictionary, final int minShift, final int depth) {
+        this.dictionary = dictionary;
+        this.minShift = minShift;
+        this.depth = depth;
+    }
+
+    /**
+     * @return true if the bin stored in BAM records can be used as the indexing bin
+     */
+    boolean isBAIScheme() {
+        return minShift == GenomicIndexUtil.BAI_MIN_SHIFT && depth == GenomicIndexUtil.BAI_DEPTH;
+    }
+
+    /**
+     * Call for each record without a position
+     */
+    void incrementNoCoordinateRecordCount() {
+        noCoordinateRecords++;
+    }
+
+    /**
+     * Record index information for a record with a position.  Records must be in coordinate order.
+     *
+     * @param reference  reference index of the record
+     * @param unmapped   whether the record has the read unmapped flag set
+     * @param chunkStart virtual file offset of the start of the record
+     * @param chunkEnd   virtual file offset of the end of the record
+     * @param feature    the record's extent, bin and chunk
+     */
+    void processFeature(final int reference, final boolean unmapped, final long chunkStart, final long chunkEnd,
+                        final BinningIndexBuilder.FeatureToBeIndexed feature) {
+        ReferenceIndex current = references.isEmpty() ? null : references.get(references.size() - 1);
+        if (current == null || reference != current.reference) {
+            if (reference < 0 || reference >= dictionary.size() || (current != null && reference < current.reference)) {
+                throw new SAMException("Unexpected reference " + reference + " when constructing index for " +
+                        (current == null ? "first record" : String.valueOf(current.reference)));
+            }
+            current = new ReferenceIndex(reference, dictionary.getSequence(reference).getSequenceLength());
+            references.add(current);
+        }
+        current.metaData.recordMetaData(unmapped, chunkStart, chunkEnd);
+        current.builder.processFeature(feature);
+    }
+
+    /**
+     * Moves all file pointers later in the file, as when a part indexed as if it were at the start of a file is
+     * placed after others
+     *
+     * @param compressedOffset position in the file of the first block of this part
+     */
+    void offsetFilePointers(final long compressedOffset) {
+        for (final ReferenceIndex referenceIndex : references) {
+            referenceIndex.builder.offsetFilePointers(compressedOffset);
+            referenceIndex.metaData.offsetFilePointers(compressedOffset);
+        }
+    }
+
+    /** The index content for one reference, within one or more parts of the file */
+    private class ReferenceIndex {
+        private final int reference;
+        private final BinningIndexBuilder builder;
+        private final BAMIndexMetaData metaData = new BAMIndexMetaData();
+
+        ReferenceIndex(final int reference, final int sequenceLength) {
+            this.reference = reference;
+            this.builder = new BinningIndexBuilder(reference, sequenceLength, minShift, depth);
+        }
+
+        void merge(final ReferenceIndex later) {
+            builder.merge(later.builder);
+            metaData.merge(later.metaData);
+        }
+
+        BAMIndexContent content() {
+            final BinningIndexContent content = builder.generateIndexContent();
+            if (content == null) return null;
+            return new BAMIndexContent(content.getReferenceSequence(), content.getBins(), metaData, content.getLinearIndex());
+        }
+    }
+
+    /**
+     * Combines the index content of consecutive parts of a file, in file order, and writes each reference as
+     * soon as it is complete.  The result is the same as indexing the whole file at once.
+     */
+    static final class Merger {
+        private final int numReferences;
+        private final BAMIndexWriter writer;
+        private long noCoordinateRecords = 0;
+        private int nextToWrite = 0;
+        private ReferenceIndex pending = null;
+
+        /**
+         * @param numReferences number of references in the sequence dictionary
+         * @param writer        index writer, which is not closed here
+         */
+        Merger(final int numReferences, final BAMIndexWriter writer) {
+            this.numReferences = numReferences;
+            this.writer = writer;
+        }
+
+        /**
+         * @param shard content of the part of the file following those already added
+         */
+        void add(final BAMShardIndex shard) {
+            noCoordinateRecords += shard.noCoordinateRecords;
+            for (final ReferenceIndex referenceIndex : shard.references) {
+                if (pending != null && referenceIndex.reference == pending.reference) {
+                    pending.merge(referenceIndex);
+                    continue;
+                }
+                if (pending != null && referenceIndex.reference < pending.reference) {
+                    throw new SAMException("Unexpected reference " + referenceIndex.reference +
+                            " when constructing index for " + pending.reference);
+                }
+                // the pending reference, and any before this one, are complete
+                writeReferencesBefore(referenceIndex.reference);
+                pending = referenceIndex;
+            }
+        }
+
+        /**
+         * Writes the remaining references and the count of records without coordinates
+         */
+        void finish() {
+            writeReferencesBefore(numReferences);
+            writer.writeNoCoordinateRecordCount(noCoordinateRecords);
+        }
+
+        private void writeReferencesBefore(final int reference) {
+            while (nextToWrite < reference) {
+                writer.writeReference(pending != null && pending.reference == nextToWrite ? pending.content() : null);
+                nextToWrite++;
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Class for writing binary CSI index files.  The content is expected to have been built by a
+ * {@link BinningIndexBuilder} with the same min_shift and depth, so that its linear index has one entry per
+ * 2^min_shift window; those entries supply the offset stored with each bin.
+ */
+class BinaryCSIIndexWriter implements BAMIndexWriter {
+
+    private final int nRef;
+    private final int minShift;
+    private final int depth;
+    private final BinaryCodec codec;
+    private int count = 0;
+
+    /**
+     * @param nRef     Number of reference sequences
+     * @param output   CSI index output file
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth    number of levels below the root bin
+     */
+    public BinaryCSIIndexWriter(final int nRef, final File output, final int minShift, final int depth) {
+        this.nRef = nRef;
+        this.minShift = minShift;
+        this.depth = depth;
+        try {
+            codec = new BinaryCodec(new BlockCompressedOutputStream(output));
+            writeHeader();
+        } catch (final Exception e) {
+            throw new SAMException("Exception opening output file " + output, e);
+        }
+    }
+
+    /**
+     * @param nRef     Number of reference sequences.
+     * @param output   CSI index output stream, to which BGZF-compressed data is written.  This stream will be closed
+     *                 when BinaryCSIIndexWriter.close() is called.
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth    number of levels below the root bin
+     */
+    public BinaryCSIIndexWriter(final int nRef, final OutputStream output, final int minShift, final int depth) {
+        this.nRef = nRef;
+        this.minShift = minShift;
+        this.depth = depth;
+        try {
+            codec = new BinaryCodec(new BlockCompressedOutputStream(output, null));
+            writeHeader();
+        } catch (final Exception e) {
+            throw new SAMException("Exception opening output stream", e);
+        }
+    }
+
+    /**
+     * Write this content as binary output
+     */
+    @Override
+    public void writeReference(final BAMIndexContent content) {
+        if (content == null) {
+            codec.writeInt(0);
+            count++;
+            return;
+        }
+
+        if (content.getReferenceSequence() != count) {
+            throw new SAMException("Unexpectedly writing reference " + content.getReferenceSequence() +
+                    ", expecting reference " + count);
+        }
+        count++;
+
+        final BAMIndexContent.BinList bins = content.getBins();
+        final int size = bins == null ? 0 : content.getNumberOfNonNullBins();
+        if (size == 0) {
+            codec.writeInt(0);
+            return;
+        }
+
+        final BAMIndexMetaData metaData = content.getMetaData();
+        final int metaDataBin = GenomicIndexUtil.getMetaDataBinNumber(depth);
+        codec.writeInt(size + ((metaData != null) ? 1 : 0));
+        for (final Bin bin : bins) {
+            if (bin.getBinNumber() >= metaDataBin) {
+                throw new SAMException("Unexpected bin number when writing CSI index " + bin.getBinNumber());
+            }
+            writeBin(bin, content.getLinearIndex());
+        }
+        if (metaData != null) {
+            codec.writeInt(metaDataBin);
+            codec.writeLong(0);
+            codec.writeInt(2);
+            codec.writeLong(metaData.getFirstOffset());
+            codec.writeLong(metaData.getLastOffset());
+            codec.writeLong(metaData.getAlignedRecordCount());
+            codec.writeLong(metaData.getUnalignedRecordCount());
+        }
+    }
+
+    private void writeBin(final Bin bin, final LinearIndex linearIndex) {
+        codec.writeInt(bin.getBinNumber());
+        // the offset of a bin is the linear index entry for the first window it covers
+        final long binStart = GenomicIndexUtil.getBinStart(bin.getBinNumber(), minShift, depth);
+        final int binStartPos = (int) Math.min(binStart + 1, Integer.MAX_VALUE);
+        codec.writeLong(linearIndex == null ? 0 : linearIndex.getMinimumOffset(binStartPos, minShift));
+        final List<Chunk> chunkList = bin.getChunkList();
+        if (chunkList == null) {
+            codec.writeInt(0);
+            return;
+        }
+        codec.writeInt(chunkList.size());
+        for (final Chunk c : chunkList) {
+            codec.writeLong(c.getChunkStart());
+            codec.writeLong(c.getChunkEnd());
+        }
+    }
+
+    /**
+     * Writes out the count of records without coordinates
+     */
+    @Override
+    public void writeNoCoordinateRecordCount(final Long count) {
+        codec.writeLong(count == null ? 0 : count);
+    }
+
+    /**
+     * Any necessary processing at the end of the file
+     */
+    @Override
+    public void close() {
+        codec.close();
+    }
+
+    private void writeHeader() {
+        codec.writeBytes(CSIIndex.CSI_INDEX_MAGIC);
+        codec.writeInt(minShift);
+        codec.writeInt(depth);
+        codec.writeInt(0); // no auxiliary data for BAM
+        codec.writeInt(nRef);
+    }
+}
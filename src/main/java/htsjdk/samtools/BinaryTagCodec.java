@@ -277,14 +277,7 @@ public class BinaryTagCodec {
         while (byteBuffer.hasRemaining()) {
             final short tag = byteBuffer.getShort();
             final byte tagType = byteBuffer.get();
-            final SAMBinaryTagAndValue tmp;
-            if (tagType != 'B') {
-                tmp = new SAMBinaryTagAndValue(tag, readSingleValue(tagType, byteBuffer, validationStringency));
-            } else {
-                final TagValueAndUnsignedArrayFlag valueAndFlag = readArray(byteBuffer, validationStringency);
-                if (valueAndFlag.isUnsignedArray) tmp = new SAMBinaryTagAndUnsignedArrayValue(tag, valueAndFlag.value);
-                else tmp = new SAMBinaryTagAndValue(tag, valueAndFlag.value);
-            }
+            final SAMBinaryTagAndValue tmp = readTagValue(tag, tagType, byteBuffer, validationStringency);
 
             // If samjdk wrote the BAM then the attributes will be in lowest->highest tag order, to inserting at the
             // head each time will be very inefficient. To fix that we check here to see if the tag should go right on
@@ -305,6 +298,89 @@ public class BinaryTagCodec {
         return head;
     }
 
+    /**
+     * Find and convert a single tag from little-endian disk representation to in-memory representation, skipping
+     * over the others without decoding them.
+     * @param binaryRep Byte buffer containing file representation of tags.
+     * @param offset Where in binaryRep tags start.
+     * @param length How many bytes in binaryRep are tag storage.
+     * @param tag Binary representation of the tag to find, as created by SAMTagUtil.
+     * @return The tag and its value, or null if the tag is not present.  If the tag appears more than once, the
+     * last is returned, as it would be by {@link #readTags}.
+     */
+    public static SAMBinaryTagAndValue readTag(final byte[] binaryRep, final int offset, final int length,
+                                               final short tag, final ValidationStringency validationStringency) {
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(binaryRep, offset, length);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        SAMBinaryTagAndValue result = null;
+        while (byteBuffer.hasRemaining()) {
+            final short currentTag = byteBuffer.getShort();
+            final byte tagType = byteBuffer.get();
+            if (currentTag == tag) {
+                result = readTagValue(tag, tagType, byteBuffer, validationStringency);
+            } else {
+                skipValue(tagType, byteBuffer);
+            }
+        }
+        return result;
+    }
+
+    private static SAMBinaryTagAndValue readTagValue(final short tag, final byte tagType, final ByteBuffer byteBuffer,
+                                                     final ValidationStringency validationStringency) {
+        if (tagType != 'B') {
+            return new SAMBinaryTagAndValue(tag, readSingleValue(tagType, byteBuffer, validationStringency));
+        } else {
+            final TagValueAndUnsignedArrayFlag valueAndFlag = readArray(byteBuffer, validationStringency);
+            if (valueAndFlag.isUnsignedArray) return new SAMBinaryTagAndUnsignedArrayValue(tag, valueAndFlag.value);
+            else return new SAMBinaryTagAndValue(tag, valueAndFlag.value);
+        }
+    }
+
+    /**
+     * Advance past a value of the specified type without converting it.
+     * @param tagType What type to skip.
+     * @param byteBuffer Little-ending byte buffer positioned at the value.
+     */
+    private static void skipValue(final byte tagType, final ByteBuffer byteBuffer) {
+        switch (tagType) {
+            case 'Z':
+            case 'H':
+                while (byteBuffer.get() != 0) {}
+                break;
+            case 'A':
+            case 'c':
+            case 'C':
+                byteBuffer.position(byteBuffer.position() + 1);
+                break;
+            case 's':
+            case 'S':
+                byteBuffer.position(byteBuffer.position() + 2);
+                break;
+            case 'i':
+            case 'I':
+            case 'f':
+                byteBuffer.position(byteBuffer.position() + 4);
+                break;
+            case 'B':
+                final byte arrayType = byteBuffer.get();
+                final int length = byteBuffer.getInt();
+                final int elementSize;
+                switch (Character.toLowerCase(arrayType)) {
+                    case 'c': elementSize = 1; break;
+                    case 's': elementSize = 2; break;
+                    case 'i':
+                    case 'f': elementSize = 4; break;
+                    default:
+                        throw new SAMFormatException("Unrecognized tag array type: " + (char)arrayType);
+                }
+                byteBuffer.position(byteBuffer.position() + length * elementSize);
+                break;
+            default:
+                throw new SAMFormatException("Unrecognized tag type: " + (char)tagType);
+        }
+    }
+
     /**
      * Read value of specified non-array type.
      * @param tagType What type to read.
@@ -25,6 +25,7 @@ package htsjdk.samtools;
 
 import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static htsjdk.samtools.GenomicIndexUtil.MAX_BINS;
@@ -34,12 +35,15 @@ import static htsjdk.samtools.GenomicIndexUtil.MAX_BINS;
  */
 public class BinningIndexBuilder {
     private final int referenceSequence;
+    // binning scheme; BAI and Tabix always use 14 and 5, CSI indices may use others
+    private final int minShift;
+    private final int depth;
     // the bins for the current reference
-    private final Bin[] bins; // made only as big as needed for each reference
+    private Bin[] bins; // made only as big as needed for each reference
     private int binsSeen = 0;
 
-    // linear index for the current reference
-    private final long[] index = new long[LinearIndex.MAX_LINEAR_INDEX_SIZE];
+    // linear index for the current reference, with one entry per 2^minShift window
+    private long[] index;
     private int largestIndexSeen = -1;
 
 
@@ -49,11 +53,38 @@ public class BinningIndexBuilder {
      * @param sequenceLength 0 implies unknown length.  Known length will reduce memory use.
      */
     public BinningIndexBuilder(final int referenceSequence, final int sequenceLength) {
+        this(referenceSequence, sequenceLength, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH);
+    }
+
+    /**
+     * Builder for a CSI-style binning scheme.  The linear index of the resulting content has one entry per
+     * 2^minShift window, which is what a CSI writer needs to compute the offset stored with each bin.
+     *
+     * @param referenceSequence
+     * @param sequenceLength 0 implies unknown length.  Known length will reduce memory use.
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth number of levels below the root bin
+     */
+    public BinningIndexBuilder(final int referenceSequence, final int sequenceLength, final int minShift, final int depth) {
         this.referenceSequence = referenceSequence;
+        this.minShift = minShift;
+        this.depth = depth;
         final int numBins;
-        if (sequenceLength <= 0) numBins = MAX_BINS + 1;
-        else numBins = AbstractBAMFileIndex.getMaxBinNumberForSequenceLength(sequenceLength) + 1;
+        final int numWindows;
+        if (minShift == GenomicIndexUtil.BAI_MIN_SHIFT && depth == GenomicIndexUtil.BAI_DEPTH) {
+            if (sequenceLength <= 0) numBins = MAX_BINS + 1;
+            else numBins = AbstractBAMFileIndex.getMaxBinNumberForSequenceLength(sequenceLength) + 1;
+            // the linear index grows if features run past the declared length
+            if (sequenceLength <= 0) numWindows = LinearIndex.MAX_LINEAR_INDEX_SIZE;
+            else numWindows = (sequenceLength >> minShift) + 1;
+        } else {
+            // with unknown length, start at the size BAI would use and grow as needed
+            if (sequenceLength <= 0) numWindows = LinearIndex.MAX_LINEAR_INDEX_SIZE;
+            else numWindows = (sequenceLength >> minShift) + 1;
+            numBins = GenomicIndexUtil.getFirstBinInLevel(depth) + numWindows;
+        }
         bins = new Bin[numBins];
+        index = new long[numWindows];
     }
 
     public BinningIndexBuilder(final int referenceSequence) {
@@ -78,6 +109,11 @@ public class BinningIndexBuilder {
         final int binNum = binNumber == null ? computeIndexingBin(feature) : binNumber;
 
 
+        if (binNum >= bins.length) {
+            // a feature extends past the sequence length known at construction
+            bins = Arrays.copyOf(bins, Math.max(binNum + 1, bins.length * 2));
+        }
+
         // is there a bin already represented for this index?  if not, add one
         final Bin bin;
         if (bins[binNum] != null) {
@@ -116,19 +152,23 @@ public class BinningIndexBuilder {
 
         // the smallest file offset that appears in the 16k window for this bin
         final int featureEnd = feature.getEnd();
-        int startWindow = LinearIndex.convertToLinearIndexOffset(feature.getStart()); // the 16k window
+        int startWindow = LinearIndex.convertToLinearIndexOffset(feature.getStart(), minShift); // the 16k window
         final int endWindow;
 
         if (featureEnd == GenomicIndexUtil.UNSET_GENOMIC_LOCATION) {   // assume feature uses one position
             // Next line for C (samtools index) compatibility. Differs only when on a window boundary
-            startWindow = LinearIndex.convertToLinearIndexOffset(feature.getStart() - 1);
+            startWindow = LinearIndex.convertToLinearIndexOffset(feature.getStart() - 1, minShift);
             endWindow = startWindow;
         } else {
-            endWindow = LinearIndex.convertToLinearIndexOffset(featureEnd);
+            endWindow = LinearIndex.convertToLinearIndexOffset(featureEnd, minShift);
         }
 
         if (endWindow > largestIndexSeen) {
             largestIndexSeen = endWindow;
+            if (endWindow >= index.length) {
+                // features may extend past the declared sequence length
+                index = Arrays.copyOf(index, Math.max(endWindow + 1, index.length * 2));
+            }
         }
 
         // set linear index at every 16K window that this feature overlaps
@@ -139,6 +179,85 @@ public class BinningIndexBuilder {
         }
     }
 
+    /**
+     * Folds in the features gathered by another builder for a later portion of the same reference, so that
+     * separate parts of a file can be indexed independently.  All of the chunks in later must follow
+     * those already processed here.  The result is the same as if this builder had processed every feature.
+     *
+     * @param later builder for the same reference and binning scheme, holding features that follow these
+     */
+    public void merge(final BinningIndexBuilder later) {
+        if (later.referenceSequence != referenceSequence || later.minShift != minShift || later.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge index content for reference " + later.referenceSequence +
+                    " into content for reference " + referenceSequence + " with a different binning scheme");
+        }
+
+        // process bins
+        if (later.bins.length > bins.length) {
+            bins = Arrays.copyOf(bins, later.bins.length);
+        }
+        for (int binNum = 0; binNum < later.bins.length; binNum++) {
+            final Bin laterBin = later.bins[binNum];
+            if (laterBin == null || !laterBin.containsChunks()) continue;
+
+            final Bin bin = bins[binNum];
+            if (bin == null) {
+                bins[binNum] = laterBin;
+                binsSeen++;
+                continue;
+            }
+
+            // the first chunk of the later portion may need to be coalesced with the last chunk here
+            final List<Chunk> laterChunks = laterBin.getChunkList();
+            final Chunk lastChunk = bin.getLastChunk();
+            final Chunk firstChunk = laterChunks.get(0);
+            int firstToAdd = 0;
+            if (BlockCompressedFilePointerUtil.areInSameOrAdjacentBlocks(lastChunk.getChunkEnd(), firstChunk.getChunkStart())) {
+                lastChunk.setChunkEnd(firstChunk.getChunkEnd());  // coalesced
+                firstToAdd = 1;
+            }
+            if (firstToAdd < laterChunks.size()) {
+                bin.getChunkList().addAll(laterChunks.subList(firstToAdd, laterChunks.size()));
+                bin.setLastChunk(laterBin.getLastChunk());
+            }
+        }
+
+        // process linear index
+        if (later.largestIndexSeen > largestIndexSeen) {
+            if (later.largestIndexSeen >= index.length) {
+                index = Arrays.copyOf(index, later.largestIndexSeen + 1);
+            }
+            largestIndexSeen = later.largestIndexSeen;
+        }
+        for (int win = 0; win <= later.largestIndexSeen; win++) {
+            final long offset = later.index[win];
+            if (offset != 0 && (index[win] == 0 || offset < index[win])) {
+                index[win] = offset;
+            }
+        }
+    }
+
+    /**
+     * Moves every file pointer seen so far later in the file.  Used when features are indexed as if their part of
+     * the file started at its beginning, and that part is then placed after others.
+     *
+     * @param compressedOffset position in the file of the first block of the part indexed by this builder
+     */
+    public void offsetFilePointers(final long compressedOffset) {
+        final long delta = compressedOffset << 16;
+        if (delta == 0) return;
+        for (final Bin bin : bins) {
+            if (bin == null) continue;
+            for (final Chunk chunk : bin.getChunkList()) {
+                chunk.setChunkStart(chunk.getChunkStart() + delta);
+                chunk.setChunkEnd(chunk.getChunkEnd() + delta);
+            }
+        }
+        for (int win = 0; win <= largestIndexSeen; win++) {
+            if (index[win] != 0) index[win] += delta;
+        }
+    }
+
     /**
      * Creates the BAMIndexContent for this reference.
      * Requires all features of the reference have already been processed.
@@ -182,6 +301,6 @@ public class BinningIndexBuilder {
             // then treat this as a one base feature for indexing purposes.
             end = start + 1;
         }
-        return GenomicIndexUtil.regionToBin(start, end);
+        return GenomicIndexUtil.regionToBin(start, end, minShift, depth);
     }
 }
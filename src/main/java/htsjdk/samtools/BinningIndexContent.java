@@ -118,7 +118,23 @@ public class BinningIndexContent {
      * @return List of Chunks overlapping the given region.  May return null if there are none.
      */
     public List<Chunk> getChunksOverlapping(final int startPos, final int endPos) {
-        final BitSet overlappingBins = GenomicIndexUtil.regionToBins(startPos,endPos);
+        return getChunksOverlapping(startPos, endPos, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH);
+    }
+
+    /**
+     * Variant of {@link #getChunksOverlapping(int, int)} for content built with a CSI binning scheme, whose linear
+     * index has one entry per 2^minShift window.
+     *
+     * @param startPos 1-based, inclusive
+     * @param endPos 1-based, inclusive
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth number of levels below the root bin
+     * @return List of Chunks overlapping the given region.  May return null if there are none.
+     */
+    public List<Chunk> getChunksOverlapping(final int startPos, final int endPos, final int minShift, final int depth) {
+        final BitSet overlappingBins = (minShift == GenomicIndexUtil.BAI_MIN_SHIFT && depth == GenomicIndexUtil.BAI_DEPTH)
+                ? GenomicIndexUtil.regionToBins(startPos, endPos)
+                : GenomicIndexUtil.regionToBins(startPos, endPos, minShift, depth);
         if (overlappingBins == null) return null;
 
         // System.out.println("# Sequence target TID: " + referenceIndex);
@@ -137,7 +153,7 @@ public class BinningIndexContent {
             return null;
         }
 
-        return Chunk.optimizeChunkList(chunkList, getLinearIndex().getMinimumOffset(startPos));
+        return Chunk.optimizeChunkList(chunkList, getLinearIndex().getMinimumOffset(startPos, minShift));
     }
     /**
      * This class is used to encapsulate the list of Bins store in the BAMIndexContent
@@ -36,7 +36,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * {@link htsjdk.samtools.BAMFileReader BAMFileReader} analogue for CRAM files.
@@ -334,6 +336,14 @@ public class CRAMFileReader extends SamReader.ReaderImplementation implements Sa
         return new BAMFileSpan(new Chunk(iterator.firstContainerOffset << 16, Long.MAX_VALUE));
     }
 
+    /**
+     * CRAM files are not divided; the single span returned covers all reads.
+     */
+    @Override
+    public List<SAMFileSpan> splitFilePointerSpanningReads(final int numShards) {
+        return Collections.singletonList(getFilePointerSpanningReads());
+    }
+
     private static final SAMRecordIterator emptyIterator = new SAMRecordIterator() {
 
         @Override
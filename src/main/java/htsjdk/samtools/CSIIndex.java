@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeEOFException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A coordinate-sorted index (.csi) for a BAM file.  CSI generalizes the BAI binning scheme: the width of the smallest
+ * bins (min_shift) and the number of levels (depth) are recorded in the file, so references longer than 2^29 bases
+ * can be indexed.  There is no separate linear index; instead each bin carries the smallest virtual file offset of
+ * any record overlapping the bin's first window.
+ *
+ * The whole index is read into memory when it is constructed, since the file is BGZF-compressed and cannot be
+ * accessed randomly the way a .bai can.  The linear index of each {@link BinningIndexContent} returned by
+ * {@link #getContent(int)} is rebuilt from the bin offsets, with one entry per 2^min_shift window.
+ */
+public class CSIIndex implements BinningBAMIndex {
+
+    public static final String CSI_INDEX_SUFFIX = ".csi";
+
+    static final byte[] CSI_INDEX_MAGIC = "CSI\1".getBytes();
+
+    private final int minShift;
+    private final int depth;
+    private final byte[] auxData;
+    private final BinningIndexContent[] contents;
+    private final BAMIndexMetaData[] metaData;
+    private final Long noCoordinateCount;
+
+    /**
+     * @param file CSI index file, which is BGZF-compressed.
+     */
+    public CSIIndex(final File file) {
+        this(openFile(file), file.getAbsolutePath());
+    }
+
+    /**
+     * @param stream CSI index stream, positioned at the start of the index.  The stream is closed when the index
+     *               has been read.
+     */
+    public CSIIndex(final SeekableStream stream) {
+        this(new BlockCompressedInputStream(stream), stream.getSource());
+    }
+
+    /**
+     * @param inputStream decompressed CSI index content, positioned at the magic number.  The caller is responsible
+     *                    for closing the stream.
+     */
+    public CSIIndex(final InputStream inputStream) {
+        this(new BinaryCodec(inputStream), "input stream", false);
+    }
+
+    private CSIIndex(final BlockCompressedInputStream inputStream, final String source) {
+        this(new BinaryCodec(inputStream), source, true);
+    }
+
+    private CSIIndex(final BinaryCodec codec, final String source, final boolean close) {
+        try {
+            final byte[] magic = new byte[CSI_INDEX_MAGIC.length];
+            codec.readBytes(magic);
+            if (!Arrays.equals(magic, CSI_INDEX_MAGIC)) {
+                throw new SAMFormatException("Invalid CSI index file header in " + source);
+            }
+            minShift = codec.readInt();
+            depth = codec.readInt();
+            if (minShift <= 0 || depth <= 0 || minShift + 3 * depth > 62) {
+                throw new SAMFormatException("Invalid CSI binning scheme min_shift=" + minShift + ", depth=" + depth +
+                        " in " + source);
+            }
+            auxData = new byte[codec.readInt()];
+            codec.readBytes(auxData);
+            final int numReferences = codec.readInt();
+            contents = new BinningIndexContent[numReferences];
+            metaData = new BAMIndexMetaData[numReferences];
+            for (int i = 0; i < numReferences; ++i) {
+                readReference(i, codec);
+            }
+            noCoordinateCount = readOptionalLong(codec);
+        } catch (final RuntimeEOFException e) {
+            throw new SAMFormatException("Premature end of CSI index " + source, e);
+        } finally {
+            if (close) CloserUtil.close(codec.getInputStream());
+        }
+    }
+
+    private static BlockCompressedInputStream openFile(final File file) {
+        try {
+            return new BlockCompressedInputStream(file);
+        } catch (final IOException e) {
+            throw new SAMException("Unable to open CSI index " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private void readReference(final int reference, final BinaryCodec codec) {
+        final int metaDataBin = GenomicIndexUtil.getMetaDataBinNumber(depth);
+        final int numBins = codec.readInt();
+        final List<Bin> bins = new ArrayList<>(numBins);
+        final List<Long> binOffsets = new ArrayList<>(numBins);
+        int maxBinNumber = -1;
+        for (int i = 0; i < numBins; ++i) {
+            final int binNumber = codec.readInt();
+            final long binOffset = codec.readLong();
+            final int numChunks = codec.readInt();
+            final List<Chunk> chunks = new ArrayList<>(numChunks);
+            for (int j = 0; j < numChunks; ++j) {
+                final long chunkBegin = codec.readLong();
+                final long chunkEnd = codec.readLong();
+                chunks.add(new Chunk(chunkBegin, chunkEnd));
+            }
+            if (binNumber == metaDataBin) {
+                metaData[reference] = new BAMIndexMetaData(chunks);
+            } else {
+                final Bin bin = new Bin(reference, binNumber);
+                bin.setChunkList(chunks);
+                bins.add(bin);
+                binOffsets.add(binOffset);
+                maxBinNumber = Math.max(maxBinNumber, binNumber);
+            }
+        }
+        if (bins.isEmpty()) return;
+
+        final Bin[] binArray = new Bin[maxBinNumber + 1];
+        int maxWindow = 0;
+        for (final Bin bin : bins) {
+            if (binArray[bin.getBinNumber()] != null) {
+                throw new SAMFormatException("Bin " + bin.getBinNumber() + " appears more than once in CSI index");
+            }
+            binArray[bin.getBinNumber()] = bin;
+            maxWindow = Math.max(maxWindow, getFirstWindow(bin.getBinNumber()));
+        }
+
+        // Each bin offset is the linear index entry of the bin's first window, so put them back there and fill
+        // the gaps with the preceding entry, which is never larger than the true value.
+        final long[] linearIndex = new long[maxWindow + 1];
+        for (int i = 0; i < bins.size(); ++i) {
+            final int window = getFirstWindow(bins.get(i).getBinNumber());
+            final long binOffset = binOffsets.get(i);
+            if (linearIndex[window] == 0 || binOffset < linearIndex[window]) {
+                linearIndex[window] = binOffset;
+            }
+        }
+        for (int i = 1; i < linearIndex.length; ++i) {
+            if (linearIndex[i] == 0) linearIndex[i] = linearIndex[i - 1];
+        }
+        contents[reference] = new BinningIndexContent(reference, new BinningIndexContent.BinList(binArray, bins.size()),
+                new LinearIndex(reference, 0, linearIndex));
+    }
+
+    private int getFirstWindow(final int binNumber) {
+        return (int) (GenomicIndexUtil.getBinStart(binNumber, minShift, depth) >> minShift);
+    }
+
+    private static Long readOptionalLong(final BinaryCodec codec) {
+        final byte[] buffer = new byte[8];
+        final int bytesRead = codec.readBytesOrFewer(buffer, 0, buffer.length);
+        if (bytesRead < buffer.length) return null;
+        return ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    /**
+     * @return log2 of the width of the smallest bins
+     */
+    public int getMinShift() {
+        return minShift;
+    }
+
+    /**
+     * @return number of levels below the root bin
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return format-specific data stored in the header, e.g. the Tabix description of a text file.  Empty for BAM.
+     */
+    public byte[] getAuxData() {
+        return auxData;
+    }
+
+    @Override
+    public int getNumberOfReferences() {
+        return contents.length;
+    }
+
+    /**
+     * @return the binning content for the given reference, or null if nothing was indexed on it
+     */
+    public BinningIndexContent getContent(final int reference) {
+        return reference < contents.length ? contents[reference] : null;
+    }
+
+    @Override
+    public Long getNoCoordinateCount() {
+        return noCoordinateCount;
+    }
+
+    @Override
+    public long[] getLinearIndexEntries(final int reference) {
+        final BinningIndexContent content = getContent(reference);
+        return content != null ? content.getLinearIndex().getIndexEntries() : new long[0];
+    }
+
+    @Override
+    public BAMFileSpan getSpanOverlapping(final int referenceIndex, final int startPos, final int endPos) {
+        final BinningIndexContent content = getContent(referenceIndex);
+        if (content == null) return null;
+        final List<Chunk> chunkList = content.getChunksOverlapping(startPos, endPos, minShift, depth);
+        if (chunkList == null) return null;
+        return new BAMFileSpan(chunkList);
+    }
+
+    @Override
+    public long getStartOfLastLinearBin() {
+        long lastLinearIndexPointer = -1;
+        for (final BinningIndexContent content : contents) {
+            if (content != null && content.getLinearIndex().size() > 0) {
+                final long[] entries = content.getLinearIndex().getIndexEntries();
+                lastLinearIndexPointer = entries[entries.length - 1];
+            }
+        }
+        return lastLinearIndexPointer;
+    }
+
+    @Override
+    public BAMIndexMetaData getMetaData(final int reference) {
+        if (reference >= metaData.length) {
+            return null;
+        }
+        return metaData[reference] != null ? metaData[reference] : new BAMIndexMetaData(null);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -28,17 +28,20 @@ import htsjdk.samtools.seekablestream.SeekableStream;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.WeakHashMap;
+import java.util.Map;
 
 /**
- * Class for reading BAM file indices, caching each contig as it's loaded and
- * dropping values when the next contig is loaded.
+ * Class for reading BAM file indices, caching the content of each contig as it's loaded.  The content is kept in
+ * compact primitive arrays, and the {@link Defaults#BAM_INDEX_CACHED_REFERENCES} most recently used contigs are kept,
+ * so that queries alternating between contigs do not read the index again.
  */
 class CachingBAMFileIndex extends AbstractBAMFileIndex implements BrowseableBAMIndex
 {
-    private Integer mLastReferenceRetrieved = null;
-    private final WeakHashMap<Integer,BAMIndexContent> mQueriesByReference = new WeakHashMap<Integer,BAMIndexContent>();
+    // Least recently used first
+    private final Map<Integer,CompactBAMIndexContent> mQueriesByReference =
+            new ReferenceCache(Math.max(1, Defaults.BAM_INDEX_CACHED_REFERENCES));
 
     public CachingBAMFileIndex(final File file, final SAMSequenceDictionary dictionary) {
         super(file, dictionary);
@@ -62,7 +65,7 @@ class CachingBAMFileIndex extends AbstractBAMFileIndex implements BrowseableBAMI
      *         May return null if there is no content overlapping the region.
      */
     public BAMFileSpan getSpanOverlapping(final int referenceIndex, final int startPos, final int endPos) {
-        final BAMIndexContent queryResults = getQueryResults(referenceIndex);
+        final CompactBAMIndexContent queryResults = getCompactContent(referenceIndex);
 
         if(queryResults == null)
             return null;
@@ -98,7 +101,7 @@ class CachingBAMFileIndex extends AbstractBAMFileIndex implements BrowseableBAMI
             return null;
 
         final int referenceSequence = bin.getReferenceSequence();
-        final BAMIndexContent indexQuery = getQueryResults(referenceSequence);
+        final CompactBAMIndexContent indexQuery = getCompactContent(referenceSequence);
 
         if(indexQuery == null)
             return null;
@@ -106,64 +109,76 @@ class CachingBAMFileIndex extends AbstractBAMFileIndex implements BrowseableBAMI
         final int binLevel = getLevelForBin(bin);
         final int firstLocusInBin = getFirstLocusInBin(bin);
 
-        // Add the specified bin to the tree if it exists.
-        final List<Bin> binTree = new ArrayList<Bin>();
-        if(indexQuery.containsBin(bin))
-            binTree.add(indexQuery.getBins().getBin(bin.getBinNumber()));
+        // Add the chunks of the specified bin and its parents, if they exist.
+        List<Chunk> chunkList = new ArrayList<Chunk>();
+        final List<Chunk> binChunks = indexQuery.getChunksInBin(bin.getBinNumber());
+        if(binChunks != null)
+            chunkList.addAll(binChunks);
 
         int currentBinLevel = binLevel;
         while(--currentBinLevel >= 0) {
             final int binStart = getFirstBinInLevel(currentBinLevel);
             final int binWidth = getMaxAddressibleGenomicLocation()/getLevelSize(currentBinLevel);
             final int binNumber = firstLocusInBin/binWidth + binStart;
-            final Bin parentBin = indexQuery.getBins().getBin(binNumber);
-            if(parentBin != null && indexQuery.containsBin(parentBin))
-                binTree.add(parentBin);
-        }
-
-        List<Chunk> chunkList = new ArrayList<Chunk>();
-        for(final Bin coveringBin: binTree) {
-            for(final Chunk chunk: coveringBin.getChunkList())
-                chunkList.add(chunk.clone());
+            final List<Chunk> parentChunks = indexQuery.getChunksInBin(binNumber);
+            if(parentChunks != null)
+                chunkList.addAll(parentChunks);
         }
 
         final int start = getFirstLocusInBin(bin);
-        chunkList = Chunk.optimizeChunkList(chunkList,indexQuery.getLinearIndex().getMinimumOffset(start));
+        chunkList = Chunk.optimizeChunkList(chunkList,indexQuery.getMinimumOffset(start));
         return new BAMFileSpan(chunkList);
     }
 
     /**
-     * Looks up the cached BAM query results if they're still in the cache and not expired.  Otherwise,
-     * retrieves the cache results from disk.
-     * @param referenceIndex The reference to load.  CachingBAMFileIndex only stores index data for entire references. 
+     * Retrieves the index content for a reference, in the form used to build and write indexes.  This is created
+     * afresh from the cached content on each call.
+     * @param referenceIndex The reference to load.  CachingBAMFileIndex only stores index data for entire references.
      * @return The index information for this reference.
      */
     protected BAMIndexContent getQueryResults(final int referenceIndex) {
-        // WeakHashMap is a bit weird in that its lookups are done via equals() equality, but expirations must be
-        // handled via == equality.  This implementation jumps through a few hoops to make sure that == equality still
-        // holds even in the context of boxing/unboxing.
-
-        // If this query is for the same reference index as the last query, return it.
-        if(mLastReferenceRetrieved!=null && mLastReferenceRetrieved == referenceIndex)
-            return mQueriesByReference.get(referenceIndex);
-
-        // If not, check to see whether it's available in the cache.
-        BAMIndexContent queryResults = mQueriesByReference.get(referenceIndex);
-        if(queryResults != null) {
-            mLastReferenceRetrieved = referenceIndex;
-            mQueriesByReference.put(referenceIndex,queryResults);
-            return queryResults;
+        final CompactBAMIndexContent content = getCompactContent(referenceIndex);
+        return content == null ? null : content.toBAMIndexContent(getMaxBinNumberForReference(referenceIndex));
+    }
+
+    /**
+     * Looks up the cached index content if it's still in the cache.  Otherwise, reads it from disk, possibly
+     * evicting the least recently used reference from the cache.
+     * @param referenceIndex The reference to load.
+     * @return The index information for this reference, or null if the index has no such reference.
+     */
+    CompactBAMIndexContent getCompactContent(final int referenceIndex) {
+        CompactBAMIndexContent content = mQueriesByReference.get(referenceIndex);
+        if (content == null) {
+            content = readCompactContent(referenceIndex);
+            if (content != null) {
+                mQueriesByReference.put(referenceIndex, content);
+            }
         }
+        return content;
+    }
+
+    /**
+     * @return the number of references whose index content is currently cached.
+     */
+    int getNumberOfCachedReferences() {
+        return mQueriesByReference.size();
+    }
+
+    /** Keeps the content of the most recently used references, evicting the least recently used. */
+    private static class ReferenceCache extends LinkedHashMap<Integer,CompactBAMIndexContent> {
+        private static final long serialVersionUID = 1L;
 
-        // If not in the cache, attempt to load it from disk.
-        queryResults = query(referenceIndex,1,-1);
-        if(queryResults != null) {
-            mLastReferenceRetrieved = referenceIndex;
-            mQueriesByReference.put(referenceIndex,queryResults);
-            return queryResults;
+        private final int maxCachedReferences;
+
+        ReferenceCache(final int maxCachedReferences) {
+            super(16, 0.75f, true);
+            this.maxCachedReferences = maxCachedReferences;
         }
 
-        // Not even available on disk.
-        return null;
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer,CompactBAMIndexContent> eldest) {
+            return size() > maxCachedReferences;
+        }
     }
 }
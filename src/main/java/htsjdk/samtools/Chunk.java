@@ -166,4 +166,31 @@ public class Chunk implements Cloneable, Serializable,Comparable<Chunk> {
         }
         return result;
     }
+
+    /**
+     * Merges chunks that are separated by at most the given number of compressed bytes, so that the gap between them
+     * is read through rather than seeking over it.  The merged chunks cover records that were not in the input
+     * chunks, so this is only useful for callers that filter the records they read.
+     * @param chunks sorted list of non-overlapping chunks, as returned by {@link #optimizeChunkList(List, long)}.
+     * @param maximumGap the largest gap in compressed bytes between the block addresses of consecutive chunks to read
+     *                   through.
+     * @return a new sorted list of chunks; the input chunks are not modified.
+     */
+    public static List<Chunk> coalesceChunkList(final List<Chunk> chunks, final long maximumGap) {
+        final List<Chunk> result = new ArrayList<Chunk>();
+        Chunk lastChunk = null;
+        for (final Chunk chunk : chunks) {
+            if (lastChunk != null &&
+                    BlockCompressedFilePointerUtil.getBlockAddress(chunk.getChunkStart()) -
+                            BlockCompressedFilePointerUtil.getBlockAddress(lastChunk.getChunkEnd()) <= maximumGap) {
+                if (chunk.getChunkEnd() > lastChunk.getChunkEnd()) {
+                    lastChunk.setChunkEnd(chunk.getChunkEnd());
+                }
+            } else {
+                lastChunk = new Chunk(chunk.getChunkStart(), chunk.getChunkEnd());
+                result.add(lastChunk);
+            }
+        }
+        return result;
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The index content for one reference, held in primitive arrays rather than as {@link Bin}, {@link Chunk} and
+ * {@link LinearIndex} objects.  This takes a fraction of the heap of the equivalent {@link BAMIndexContent}, so that
+ * many references (and many indexes) can be kept in memory at once.  Chunks are only created when they are returned
+ * from a query.
+ */
+final class CompactBAMIndexContent {
+    private final int mReferenceSequence;
+
+    // Bin numbers in ascending order.  The chunks of the bin at index i are at indices
+    // mBinChunkStarts[i] (inclusive) to mBinChunkStarts[i+1] (exclusive) of mChunkBegins and mChunkEnds.
+    private final int[] mBinNumbers;
+    private final int[] mBinChunkStarts;
+    private final long[] mChunkBegins;
+    private final long[] mChunkEnds;
+
+    // Linear index entries, starting at the first 16kb window of the reference.
+    private final long[] mLinearIndex;
+
+    // Begin and end offsets of the pseudo-bin holding meta data, or empty if there is none.
+    private final long[] mMetaDataChunks;
+
+    /**
+     * @param referenceSequence Content corresponds to this reference.
+     * @param binNumbers the bin numbers, in any order, excluding the meta data pseudo-bin.
+     * @param binChunkStarts for the bin at each index of binNumbers, the index of its first chunk in chunkBegins and
+     *                       chunkEnds.  Has one more element than binNumbers, holding the total number of chunks.
+     * @param chunkBegins chunk begin offsets, grouped by bin in the same order as binNumbers.
+     * @param chunkEnds chunk end offsets, grouped by bin in the same order as binNumbers.
+     * @param linearIndex entries of the linear index for the whole reference.
+     * @param metaDataChunks begin and end offsets of the meta data chunks.
+     */
+    CompactBAMIndexContent(final int referenceSequence, final int[] binNumbers, final int[] binChunkStarts,
+                           final long[] chunkBegins, final long[] chunkEnds, final long[] linearIndex,
+                           final long[] metaDataChunks) {
+        if (binChunkStarts.length != binNumbers.length + 1 || chunkBegins.length != chunkEnds.length ||
+                binChunkStarts[binNumbers.length] != chunkBegins.length || metaDataChunks.length % 2 != 0) {
+            throw new IllegalArgumentException("Inconsistent index content for reference " + referenceSequence);
+        }
+        mReferenceSequence = referenceSequence;
+        mLinearIndex = linearIndex;
+        mMetaDataChunks = metaDataChunks;
+
+        if (isSorted(binNumbers)) {
+            mBinNumbers = binNumbers;
+            mBinChunkStarts = binChunkStarts;
+            mChunkBegins = chunkBegins;
+            mChunkEnds = chunkEnds;
+        } else {
+            // Index files need not list bins in order, so sort them together with their chunks
+            final Integer[] order = new Integer[binNumbers.length];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(binNumbers[a], binNumbers[b]));
+            mBinNumbers = new int[binNumbers.length];
+            mBinChunkStarts = new int[binChunkStarts.length];
+            mChunkBegins = new long[chunkBegins.length];
+            mChunkEnds = new long[chunkEnds.length];
+            int chunkIndex = 0;
+            for (int i = 0; i < order.length; ++i) {
+                final int from = binChunkStarts[order[i]];
+                final int count = binChunkStarts[order[i] + 1] - from;
+                mBinNumbers[i] = binNumbers[order[i]];
+                mBinChunkStarts[i] = chunkIndex;
+                System.arraycopy(chunkBegins, from, mChunkBegins, chunkIndex, count);
+                System.arraycopy(chunkEnds, from, mChunkEnds, chunkIndex, count);
+                chunkIndex += count;
+            }
+            mBinChunkStarts[order.length] = chunkIndex;
+        }
+    }
+
+    private static boolean isSorted(final int[] values) {
+        for (int i = 1; i < values.length; ++i) {
+            if (values[i - 1] > values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reference for this Content
+     */
+    int getReferenceSequence() {
+        return mReferenceSequence;
+    }
+
+    /**
+     * @return the number of bins, excluding the meta data pseudo-bin.
+     */
+    int getNumberOfBins() {
+        return mBinNumbers.length;
+    }
+
+    /**
+     * Does this content have anything in this bin?
+     */
+    boolean containsBin(final int binNumber) {
+        return Arrays.binarySearch(mBinNumbers, binNumber) >= 0;
+    }
+
+    /**
+     * @return new copies of the chunks in the given bin, or null if there is no such bin.
+     */
+    List<Chunk> getChunksInBin(final int binNumber) {
+        final int binIndex = Arrays.binarySearch(mBinNumbers, binNumber);
+        if (binIndex < 0) {
+            return null;
+        }
+        final List<Chunk> chunks = new ArrayList<Chunk>(mBinChunkStarts[binIndex + 1] - mBinChunkStarts[binIndex]);
+        addChunks(binIndex, chunks);
+        return chunks;
+    }
+
+    private void addChunks(final int binIndex, final List<Chunk> chunks) {
+        for (int i = mBinChunkStarts[binIndex]; i < mBinChunkStarts[binIndex + 1]; ++i) {
+            chunks.add(new Chunk(mChunkBegins[i], mChunkEnds[i]));
+        }
+    }
+
+    /**
+     * @see LinearIndex#getMinimumOffset(int)
+     */
+    long getMinimumOffset(final int startPos) {
+        final int start = (startPos <= 0) ? 0 : startPos - 1;
+        final int regionLinearBin = start >> LinearIndex.BAM_LIDX_SHIFT;
+        return regionLinearBin < mLinearIndex.length ? mLinearIndex[regionLinearBin] : 0;
+    }
+
+    /**
+     * @param startPos 1-based, inclusive
+     * @param endPos 1-based, inclusive
+     * @return List of Chunks overlapping the given region.  May return null if there are none.
+     * @see BinningIndexContent#getChunksOverlapping(int, int)
+     */
+    List<Chunk> getChunksOverlapping(final int startPos, final int endPos) {
+        final BitSet overlappingBins = GenomicIndexUtil.regionToBins(startPos, endPos);
+        if (overlappingBins == null) return null;
+
+        final List<Chunk> chunkList = new ArrayList<Chunk>();
+        int binIndex = 0;
+        for (int bin = overlappingBins.nextSetBit(0); bin >= 0 && binIndex < mBinNumbers.length; bin = overlappingBins.nextSetBit(bin + 1)) {
+            // Both the bins and the set bits are in ascending order, so the search can start from the last match
+            binIndex = Arrays.binarySearch(mBinNumbers, binIndex, mBinNumbers.length, bin);
+            if (binIndex >= 0) {
+                addChunks(binIndex, chunkList);
+            } else {
+                binIndex = -binIndex - 1;
+            }
+        }
+
+        if (chunkList.isEmpty()) {
+            return null;
+        }
+
+        return Chunk.optimizeChunkList(chunkList, getMinimumOffset(startPos));
+    }
+
+    /**
+     * @return the meta data chunks for this content
+     */
+    BAMIndexMetaData getMetaData() {
+        final List<Chunk> chunks = new ArrayList<Chunk>(mMetaDataChunks.length / 2);
+        for (int i = 0; i < mMetaDataChunks.length; i += 2) {
+            chunks.add(new Chunk(mMetaDataChunks[i], mMetaDataChunks[i + 1]));
+        }
+        return new BAMIndexMetaData(chunks);
+    }
+
+    /**
+     * @param maxBinNumber the size of the sparse bin array to create, less one; extended if any bin is larger.
+     * @return the same content, as the objects used to build and write indexes.
+     */
+    BAMIndexContent toBAMIndexContent(final int maxBinNumber) {
+        final int lastBin = mBinNumbers.length == 0 ? 0 : mBinNumbers[mBinNumbers.length - 1];
+        final Bin[] bins = new Bin[Math.max(maxBinNumber, lastBin) + 1];
+        for (int binIndex = 0; binIndex < mBinNumbers.length; ++binIndex) {
+            final List<Chunk> chunks = new ArrayList<Chunk>(mBinChunkStarts[binIndex + 1] - mBinChunkStarts[binIndex]);
+            addChunks(binIndex, chunks);
+            final Bin bin = new Bin(mReferenceSequence, mBinNumbers[binIndex]);
+            bin.setChunkList(chunks);
+            bin.setLastChunk(chunks.isEmpty() ? null : chunks.get(chunks.size() - 1));
+            bins[mBinNumbers[binIndex]] = bin;
+        }
+        return new BAMIndexContent(mReferenceSequence, bins, mBinNumbers.length, getMetaData(),
+                new LinearIndex(mReferenceSequence, 0, mLinearIndex.clone()));
+    }
+}
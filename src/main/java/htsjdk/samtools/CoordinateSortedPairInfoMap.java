@@ -25,14 +25,21 @@ package htsjdk.samtools;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 import htsjdk.samtools.util.FileAppendStreamLRUCache;
 import htsjdk.samtools.util.IOUtil;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -47,6 +54,11 @@ import java.util.Set;
  * a record for a given reference sequence index, all the records for that sequence are loaded from temp file into RAM, so there
  * must be sufficient RAM to hold all the records for one reference sequence.  If the records are not processed in
  * reference sequence order, loading and unloading of records will cause performance to be terrible.
+ *
+ * By default, the records for each reference sequence are spilled to a separate temp file, and a limited number of those
+ * files are held open.  A map created with {@link #newSingleSpillFileInstance(Codec)} instead appends the records for all
+ * reference sequences to a single temp file, keeping an index of the extents of the file that belong to each reference
+ * sequence, so that no more than one file is ever open, which is preferable when there are many reference sequences.
  * @param <KEY> KEY + reference sequence index are used to identify the record being stored or retrieved.
  * @param <REC> The type of record being retrieved.
  */
@@ -59,12 +71,17 @@ public class CoordinateSortedPairInfoMap<KEY, REC> implements Iterable<Map.Entry
     private final File workDir = IOUtil.createTempDir("CSPI.", null);
     private int sequenceIndexOfMapInRam = INVALID_SEQUENCE_INDEX;
     private Map<KEY, REC> mapInRam = null;
-    private final FileAppendStreamLRUCache outputStreams;
+    private final SpillStore spillStore;
     private final Codec<KEY, REC> elementCodec;
     // Key is reference index (which is in the range [-1 .. max sequence index].
     // Value is the number of records on disk for this index.
     private final Map<Integer, Integer> sizeOfMapOnDisk = new HashMap<Integer, Integer>();
 
+    /** For testing */
+    File getWorkDir() {
+        return workDir;
+    }
+
     // No other methods may be called when iteration is in progress, because iteration depends on and changes
     // internal state.
     private boolean iterationInProgress = false;
@@ -72,7 +89,21 @@ public class CoordinateSortedPairInfoMap<KEY, REC> implements Iterable<Map.Entry
     public CoordinateSortedPairInfoMap(final int maxOpenFiles, final Codec<KEY, REC> elementCodec) {
         this.elementCodec = elementCodec;
         workDir.deleteOnExit();
-        outputStreams = new FileAppendStreamLRUCache(maxOpenFiles);
+        spillStore = new FilePerSequenceSpillStore(maxOpenFiles);
+    }
+
+    private CoordinateSortedPairInfoMap(final Codec<KEY, REC> elementCodec) {
+        this.elementCodec = elementCodec;
+        workDir.deleteOnExit();
+        spillStore = new SingleFileSpillStore();
+    }
+
+    /**
+     * Create a map that spills the records for all reference sequences to a single append-only temp file, and loads
+     * the records for a reference sequence by reading its extents of that file.
+     */
+    public static <KEY, REC> CoordinateSortedPairInfoMap<KEY, REC> newSingleSpillFileInstance(final Codec<KEY, REC> elementCodec) {
+        return new CoordinateSortedPairInfoMap<KEY, REC>(elementCodec);
     }
 
     /**
@@ -95,15 +126,14 @@ public class CoordinateSortedPairInfoMap<KEY, REC> implements Iterable<Map.Entry
 
             // Spill map in RAM to disk
             if (mapInRam != null) {
-                final File spillFile = makeFileForSequence(sequenceIndexOfMapInRam);
-                if (spillFile.exists()) throw new IllegalStateException(spillFile + " should not exist.");
                 if (!mapInRam.isEmpty()) {
                     // Do not create file or entry in sizeOfMapOnDisk if there is nothing to write.
-                    final OutputStream os = getOutputStreamForSequence(sequenceIndexOfMapInRam);
+                    final OutputStream os = spillStore.getOutputStreamForSpill(sequenceIndexOfMapInRam);
                     elementCodec.setOutputStream(os);
                     for (final Map.Entry<KEY, REC> entry : mapInRam.entrySet()) {
                         elementCodec.encode(entry.getKey(), entry.getValue());
                     }
+                    spillStore.doneWriting(sequenceIndexOfMapInRam);
                     sizeOfMapOnDisk.put(sequenceIndexOfMapInRam, mapInRam.size());
                     mapInRam.clear();
                 }
@@ -114,17 +144,12 @@ public class CoordinateSortedPairInfoMap<KEY, REC> implements Iterable<Map.Entry
             sequenceIndexOfMapInRam = sequenceIndex;
 
             // Load map from disk if it existed
-            File mapOnDisk = makeFileForSequence(sequenceIndex);
-            if (outputStreams.containsKey(mapOnDisk)) {
-                outputStreams.remove(mapOnDisk).close();
-            }
             final Integer numRecords = sizeOfMapOnDisk.remove(sequenceIndex);
-            if (mapOnDisk.exists()) {
+            final InputStream is = spillStore.getInputStream(sequenceIndex);
+            if (is != null) {
                 if (numRecords == null)
-                    throw new IllegalStateException("null numRecords for " + mapOnDisk);
-                FileInputStream is = null;
+                    throw new IllegalStateException("null numRecords for sequence " + sequenceIndex);
                 try {
-                    is = new FileInputStream(mapOnDisk);
                     elementCodec.setInputStream(is);
                     for (int i = 0; i < numRecords; ++i) {
                         final Map.Entry<KEY, REC> keyAndRecord = elementCodec.decode();
@@ -136,9 +161,9 @@ public class CoordinateSortedPairInfoMap<KEY, REC> implements Iterable<Map.Entry
                 } finally {
                     CloserUtil.close(is);
                 }
-                htsjdk.samtools.util.IOUtil.deleteFiles(mapOnDisk);
+                spillStore.remove(sequenceIndex);
             } else if (numRecords != null && numRecords > 0)
-                throw new IllegalStateException("Non-zero numRecords but " + mapOnDisk + " does not exist");
+                throw new IllegalStateException("Non-zero numRecords but nothing on disk for sequence " + sequenceIndex);
         } catch (IOException e) {
             throw new SAMException("Error loading new map from disk.", e);
         }
@@ -161,25 +186,20 @@ public class CoordinateSortedPairInfoMap<KEY, REC> implements Iterable<Map.Entry
             mapInRam.put(key, record);
         } else {
             // Append to file
-            final OutputStream os = getOutputStreamForSequence(sequenceIndex);
+            final OutputStream os = spillStore.getOutputStream(sequenceIndex);
             elementCodec.setOutputStream(os);
             elementCodec.encode(key, record);
+            try {
+                spillStore.doneWriting(sequenceIndex);
+            } catch (IOException e) {
+                throw new SAMException("Error writing map to disk.", e);
+            }
             Integer prevCount = sizeOfMapOnDisk.get(sequenceIndex);
             if (prevCount == null) prevCount = 0;
             sizeOfMapOnDisk.put(sequenceIndex,  prevCount + 1);
         }
     }
 
-    private File makeFileForSequence(final int index) {
-        final File file = new File(workDir, index + ".tmp");
-        file.deleteOnExit();
-        return file;
-    }
-
-    private OutputStream getOutputStreamForSequence(final int mateSequenceIndex) {
-        return outputStreams.get(makeFileForSequence(mateSequenceIndex));
-    }
-
     public int size() {
         int total = sizeInRam();
         for (final Integer mapSize : sizeOfMapOnDisk.values()) {
@@ -263,6 +283,258 @@ public class CoordinateSortedPairInfoMap<KEY, REC> implements Iterable<Map.Entry
         }
     }
 
+    /**
+     * Where records that are not in RAM are kept, by reference sequence index.
+     */
+    private interface SpillStore {
+        /** @return A stream to which encoded records for the sequence can be appended. */
+        OutputStream getOutputStream(int sequenceIndex);
+
+        /** @return A stream to which the map in RAM for the sequence is written when it is spilled. */
+        OutputStream getOutputStreamForSpill(int sequenceIndex);
+
+        /** Called after records have been written to a stream obtained from this store. */
+        void doneWriting(int sequenceIndex) throws IOException;
+
+        /** @return A stream of all records stored for the sequence, or null if there are none. */
+        InputStream getInputStream(int sequenceIndex) throws IOException;
+
+        /** Discard the records stored for the sequence, after they have been loaded into RAM. */
+        void remove(int sequenceIndex) throws IOException;
+    }
+
+    /**
+     * Stores the records for each sequence in its own file, with a limited number of files open for appending.
+     */
+    private class FilePerSequenceSpillStore implements SpillStore {
+        private final FileAppendStreamLRUCache outputStreams;
+
+        FilePerSequenceSpillStore(final int maxOpenFiles) {
+            outputStreams = new FileAppendStreamLRUCache(maxOpenFiles);
+        }
+
+        private File makeFileForSequence(final int index) {
+            final File file = new File(workDir, index + ".tmp");
+            file.deleteOnExit();
+            return file;
+        }
+
+        public OutputStream getOutputStream(final int sequenceIndex) {
+            return outputStreams.get(makeFileForSequence(sequenceIndex));
+        }
+
+        public OutputStream getOutputStreamForSpill(final int sequenceIndex) {
+            final File spillFile = makeFileForSequence(sequenceIndex);
+            if (spillFile.exists()) throw new IllegalStateException(spillFile + " should not exist.");
+            return getOutputStream(sequenceIndex);
+        }
+
+        public void doneWriting(final int sequenceIndex) {
+            // Streams are flushed when they are closed.
+        }
+
+        public InputStream getInputStream(final int sequenceIndex) throws IOException {
+            final File mapOnDisk = makeFileForSequence(sequenceIndex);
+            if (outputStreams.containsKey(mapOnDisk)) {
+                outputStreams.remove(mapOnDisk).close();
+            }
+            return mapOnDisk.exists() ? new FileInputStream(mapOnDisk) : null;
+        }
+
+        public void remove(final int sequenceIndex) {
+            IOUtil.deleteFiles(makeFileForSequence(sequenceIndex));
+        }
+    }
+
+    /**
+     * Appends the records for all sequences to a single file.  Records for each sequence are buffered in RAM and
+     * appended as a contiguous extent, so that loading a sequence takes one read per extent.  Space belonging to
+     * sequences that have been loaded is reclaimed by rewriting the file once it is mostly unused.
+     */
+    private class SingleFileSpillStore implements SpillStore {
+        /** A sequence's buffer is appended to the file once it reaches this size. */
+        private static final int EXTENT_SIZE = 64 * 1024;
+        /** All buffers are appended to the file once they hold this many bytes in total. */
+        private static final int MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+        /** The file is not compacted until it holds at least this many bytes of loaded sequences. */
+        private static final long MIN_COMPACTION_BYTES = 16L * 1024 * 1024;
+
+        private File spillFile;
+        private FileChannel channel;
+        /** Writes at the channel's position, which is always the end of the file. */
+        private OutputStream channelOutputStream;
+
+        /** Records for each sequence that have not yet been appended to the file. */
+        private final Map<Integer, ExposedByteArrayOutputStream> buffers = new HashMap<Integer, ExposedByteArrayOutputStream>();
+        /** Offsets and lengths of the parts of the file that belong to each sequence. */
+        private final Map<Integer, Extents> extentsBySequence = new HashMap<Integer, Extents>();
+
+        private long bufferedBytes = 0;
+        private int sizeBeforeWrite = 0;
+        private long fileLength = 0;
+        private long liveBytes = 0;
+
+        public OutputStream getOutputStream(final int sequenceIndex) {
+            ExposedByteArrayOutputStream buffer = buffers.get(sequenceIndex);
+            if (buffer == null) {
+                buffer = new ExposedByteArrayOutputStream();
+                buffers.put(sequenceIndex, buffer);
+            }
+            sizeBeforeWrite = buffer.size();
+            return buffer;
+        }
+
+        public OutputStream getOutputStreamForSpill(final int sequenceIndex) {
+            if (buffers.containsKey(sequenceIndex) || extentsBySequence.containsKey(sequenceIndex)) {
+                throw new IllegalStateException("Records for sequence " + sequenceIndex + " should not be on disk.");
+            }
+            return getOutputStream(sequenceIndex);
+        }
+
+        public void doneWriting(final int sequenceIndex) throws IOException {
+            final ExposedByteArrayOutputStream buffer = buffers.get(sequenceIndex);
+            bufferedBytes += buffer.size() - sizeBeforeWrite;
+            if (buffer.size() >= EXTENT_SIZE) {
+                append(sequenceIndex, buffers.remove(sequenceIndex));
+            } else if (bufferedBytes >= MAX_BUFFERED_BYTES) {
+                for (final Map.Entry<Integer, ExposedByteArrayOutputStream> entry : buffers.entrySet()) {
+                    append(entry.getKey(), entry.getValue());
+                }
+                buffers.clear();
+            }
+        }
+
+        /** Write a sequence's buffer to the end of the file and record its extent. */
+        private void append(final int sequenceIndex, final ExposedByteArrayOutputStream buffer) throws IOException {
+            if (channel == null) {
+                spillFile = File.createTempFile("spill.", ".tmp", workDir);
+                spillFile.deleteOnExit();
+                channel = new RandomAccessFile(spillFile, "rw").getChannel();
+                channelOutputStream = Channels.newOutputStream(channel);
+            }
+            Extents extents = extentsBySequence.get(sequenceIndex);
+            if (extents == null) {
+                extents = new Extents();
+                extentsBySequence.put(sequenceIndex, extents);
+            }
+            extents.add(fileLength, buffer.size());
+            buffer.writeTo(channelOutputStream);
+            fileLength += buffer.size();
+            liveBytes += buffer.size();
+            bufferedBytes -= buffer.size();
+        }
+
+        public InputStream getInputStream(final int sequenceIndex) throws IOException {
+            final Extents extents = extentsBySequence.get(sequenceIndex);
+            final ExposedByteArrayOutputStream buffer = buffers.get(sequenceIndex);
+            if (extents == null && buffer == null) {
+                return null;
+            }
+            final long totalLength = (extents == null ? 0 : extents.totalLength) + (buffer == null ? 0 : buffer.size());
+            if (totalLength > Integer.MAX_VALUE - 8) {
+                throw new SAMException("Too many records on disk for sequence " + sequenceIndex);
+            }
+            final byte[] bytes = new byte[(int) totalLength];
+            int offset = 0;
+            if (extents != null) {
+                for (int i = 0; i < extents.numExtents; ++i) {
+                    readFully(extents.offsets[i], bytes, offset, extents.lengths[i]);
+                    offset += extents.lengths[i];
+                }
+            }
+            if (buffer != null) {
+                System.arraycopy(buffer.getBuffer(), 0, bytes, offset, buffer.size());
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        private void readFully(long position, final byte[] bytes, final int offset, final int length) throws IOException {
+            final ByteBuffer dst = ByteBuffer.wrap(bytes, offset, length);
+            while (dst.hasRemaining()) {
+                final int n = channel.read(dst, position);
+                if (n < 0) throw new SAMException("Unexpected end of " + spillFile);
+                position += n;
+            }
+        }
+
+        public void remove(final int sequenceIndex) throws IOException {
+            final ExposedByteArrayOutputStream buffer = buffers.remove(sequenceIndex);
+            if (buffer != null) {
+                bufferedBytes -= buffer.size();
+            }
+            final Extents extents = extentsBySequence.remove(sequenceIndex);
+            if (extents != null) {
+                liveBytes -= extents.totalLength;
+                if (extentsBySequence.isEmpty()) {
+                    deleteFile();
+                } else if (fileLength - liveBytes >= MIN_COMPACTION_BYTES && fileLength - liveBytes > liveBytes) {
+                    compact();
+                }
+            }
+        }
+
+        /** Close and delete the file once no sequence has records in it.  append() starts a new one if needed. */
+        private void deleteFile() {
+            CloserUtil.close(channel);
+            IOUtil.deleteFiles(spillFile);
+            channel = null;
+            channelOutputStream = null;
+            spillFile = null;
+            fileLength = 0;
+            liveBytes = 0;
+        }
+
+        /** Rewrite the file with only the extents of sequences that have not been loaded, one per sequence. */
+        private void compact() throws IOException {
+            final FileChannel oldChannel = channel;
+            final File oldFile = spillFile;
+            channel = null;
+            fileLength = 0;
+            liveBytes = 0;
+            final Map<Integer, Extents> oldExtents = new HashMap<Integer, Extents>(extentsBySequence);
+            extentsBySequence.clear();
+            final ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+            for (final Map.Entry<Integer, Extents> entry : oldExtents.entrySet()) {
+                final Extents extents = entry.getValue();
+                buffer.reset();
+                for (int i = 0; i < extents.numExtents; ++i) {
+                    final ByteBuffer dst = ByteBuffer.allocate(extents.lengths[i]);
+                    long position = extents.offsets[i];
+                    while (dst.hasRemaining()) {
+                        final int n = oldChannel.read(dst, position);
+                        if (n < 0) throw new SAMException("Unexpected end of " + oldFile);
+                        position += n;
+                    }
+                    buffer.write(dst.array(), 0, extents.lengths[i]);
+                }
+                // append() deducts the buffer from bufferedBytes, but these bytes were never counted there.
+                bufferedBytes += buffer.size();
+                append(entry.getKey(), buffer);
+            }
+            CloserUtil.close(oldChannel);
+            IOUtil.deleteFiles(oldFile);
+        }
+    }
+
+    /** The parts of the spill file that hold the records for one sequence, in the order they were written. */
+    private static class Extents {
+        long[] offsets = new long[4];
+        int[] lengths = new int[4];
+        int numExtents = 0;
+        long totalLength = 0;
+
+        void add(final long offset, final int length) {
+            if (numExtents == offsets.length) {
+                offsets = Arrays.copyOf(offsets, numExtents * 2);
+                lengths = Arrays.copyOf(lengths, numExtents * 2);
+            }
+            offsets[numExtents] = offset;
+            lengths[numExtents] = length;
+            ++numExtents;
+            totalLength += length;
+        }
+    }
+
     /**
      * Client must implement this class, which defines the way in which records are written to and
      * read from file.
@@ -51,4 +51,41 @@ public class DefaultSAMRecordFactory implements SAMRecordFactory {
                              insertSize,
                              variableLengthBlock);
     }
+
+    /**
+     * Create a new BAM Record that refers to its variable-length block in place, without copying it.
+     * Subclasses that override the other createBAMRecord method should override this one as well.
+     */
+    @Override
+    public BAMRecord createBAMRecord(final SAMFileHeader header,
+                                     final int referenceSequenceIndex,
+                                     final int alignmentStart,
+                                     final short readNameLength,
+                                     final short mappingQuality,
+                                     final int indexingBin,
+                                     final int cigarLen,
+                                     final int flags,
+                                     final int readLen,
+                                     final int mateReferenceSequenceIndex,
+                                     final int mateAlignmentStart,
+                                     final int insertSize,
+                                     final byte[] buffer,
+                                     final int variableLengthBlockOffset,
+                                     final int variableLengthBlockLength) {
+        return new BAMRecord(header,
+                             referenceSequenceIndex,
+                             alignmentStart,
+                             readNameLength,
+                             mappingQuality,
+                             indexingBin,
+                             cigarLen,
+                             flags,
+                             readLen,
+                             mateReferenceSequenceIndex,
+                             mateAlignmentStart,
+                             insertSize,
+                             buffer,
+                             variableLengthBlockOffset,
+                             variableLengthBlockLength);
+    }
 }
@@ -45,6 +45,41 @@ public class Defaults {
     /** Compresion level to be used for writing BAM and other block-compressed outputs.  Default = 5. */
     public static final int COMPRESSION_LEVEL;
 
+    /** Number of threads used by each BlockCompressedOutputStream to deflate blocks.  0 means blocks are deflated
+     *  on the writing thread.  Gains little when an index is created while writing, since recording the file
+     *  pointer of each record waits for all pending blocks to be written.  Default = 0.
+     */
+    public static final int BGZF_COMPRESSION_THREADS;
+
+    /** Number of threads used by each BlockCompressedInputStream to inflate blocks ahead of the reader.  0 means
+     *  blocks are inflated on the reading thread as they are needed.  Default = 0.
+     */
+    public static final int BGZF_DECOMPRESSION_THREADS;
+
+    /** Number of threads used by each BAM or SAM reader to decode records when
+     *  {@link SamReaderFactory.Option#DECODE_RECORDS_IN_PARALLEL} is set.  Default = the number of available processors.
+     */
+    public static final int BAM_DECODING_THREADS;
+
+    /** Number of references whose index content is kept in memory by each cached BAM index.  Default = 8. */
+    public static final int BAM_INDEX_CACHED_REFERENCES;
+
+    /** Largest gap, in compressed bytes, between the chunks of a BAM index query that is read through rather than
+     *  seeked over when {@link SamReaderFactory.Option#PREFETCH_QUERY_CHUNKS} is set.  Default = 64k.
+     */
+    public static final int BAM_QUERY_CHUNK_GAP;
+
+    /** Should SortingCollection sort spilled records with a parallel sort and write them to disk on a background
+     *  thread, so that records can continue to be added while a spill is in progress?  This may double the number
+     *  of records held in memory.  Default = false.
+     */
+    public static final boolean SORTING_COLLECTION_BACKGROUND_SPILL;
+
+    /** Number of threads used by each SortingCollection iterator to decode records from temporary files ahead of
+     *  the merge.  0 means records are decoded on the iterating thread as they are needed.  Default = 0.
+     */
+    public static final int SORTING_COLLECTION_READ_AHEAD_THREADS;
+
     /** Buffer size, in bytes, used whenever reading/writing files or streams.  Default = 128k. */
     public static final int BUFFER_SIZE;
 
@@ -57,6 +92,16 @@ public class Defaults {
     /** Should BlockCompressedOutputStream attempt to load libIntelDeflater? */
     public static final boolean TRY_USE_INTEL_DEFLATER;
 
+    /** Should BlockGunzipper reuse inflaters across readers via a {@link htsjdk.samtools.util.zip.PooledInflaterFactory}?
+     *  Default = false.
+     */
+    public static final boolean USE_INFLATER_POOL;
+
+    /** Fully qualified name of an {@link htsjdk.samtools.util.zip.InflaterFactory} subclass to use for decompressing
+     *  BGZF blocks.  If empty or the class cannot be used, the standard JDK inflater is used.  Default = "".
+     */
+    public static final String INFLATER_FACTORY;
+
     /**
      * The reference FASTA file.  If this is not set, the file is null.  This file may be required for reading
      * writing SAM files (ex. CRAM).
@@ -97,8 +142,17 @@ public class Defaults {
             USE_ASYNC_IO_FOR_TRIBBLE = getBooleanProperty("use_async_io_tribble", false);
         }
         COMPRESSION_LEVEL = getIntProperty("compression_level", 5);
+        BGZF_COMPRESSION_THREADS = getIntProperty("bgzf_compression_threads", 0);
+        BGZF_DECOMPRESSION_THREADS = getIntProperty("bgzf_decompression_threads", 0);
+        BAM_DECODING_THREADS = getIntProperty("bam_decoding_threads", Runtime.getRuntime().availableProcessors());
+        BAM_INDEX_CACHED_REFERENCES = getIntProperty("bam_index_cached_references", 8);
+        BAM_QUERY_CHUNK_GAP = getIntProperty("bam_query_chunk_gap", 64 * 1024);
+        SORTING_COLLECTION_BACKGROUND_SPILL = getBooleanProperty("sorting_collection_background_spill", false);
+        SORTING_COLLECTION_READ_AHEAD_THREADS = getIntProperty("sorting_collection_read_ahead_threads", 0);
         BUFFER_SIZE = getIntProperty("buffer_size", 1024 * 128);
         TRY_USE_INTEL_DEFLATER = getBooleanProperty("try_use_intel_deflater", false);
+        USE_INFLATER_POOL = getBooleanProperty("use_inflater_pool", false);
+        INFLATER_FACTORY = getStringProperty("inflater_factory", "");
         if (BUFFER_SIZE == 0) {
             NON_ZERO_BUFFER_SIZE = 1024 * 128;
         } else {
@@ -123,8 +177,17 @@ public class Defaults {
         result.put("USE_ASYNC_IO_FOR_SAMTOOLS", USE_ASYNC_IO_FOR_SAMTOOLS);
         result.put("USE_ASYNC_IO_FOR_TRIBBLE", USE_ASYNC_IO_FOR_TRIBBLE);
         result.put("COMPRESSION_LEVEL", COMPRESSION_LEVEL);
+        result.put("BGZF_COMPRESSION_THREADS", BGZF_COMPRESSION_THREADS);
+        result.put("BGZF_DECOMPRESSION_THREADS", BGZF_DECOMPRESSION_THREADS);
+        result.put("BAM_DECODING_THREADS", BAM_DECODING_THREADS);
+        result.put("BAM_INDEX_CACHED_REFERENCES", BAM_INDEX_CACHED_REFERENCES);
+        result.put("BAM_QUERY_CHUNK_GAP", BAM_QUERY_CHUNK_GAP);
+        result.put("SORTING_COLLECTION_BACKGROUND_SPILL", SORTING_COLLECTION_BACKGROUND_SPILL);
+        result.put("SORTING_COLLECTION_READ_AHEAD_THREADS", SORTING_COLLECTION_READ_AHEAD_THREADS);
         result.put("BUFFER_SIZE", BUFFER_SIZE);
         result.put("TRY_USE_INTEL_DEFLATER", TRY_USE_INTEL_DEFLATER);
+        result.put("USE_INFLATER_POOL", USE_INFLATER_POOL);
+        result.put("INFLATER_FACTORY", INFLATER_FACTORY);
         result.put("NON_ZERO_BUFFER_SIZE", NON_ZERO_BUFFER_SIZE);
         result.put("REFERENCE_FASTA", REFERENCE_FASTA);
         result.put("USE_CRAM_REF_DOWNLOAD", USE_CRAM_REF_DOWNLOAD);
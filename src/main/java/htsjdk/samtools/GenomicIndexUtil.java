@@ -46,6 +46,16 @@ public class GenomicIndexUtil {
 
     public static final int MAX_LINEAR_INDEX_SIZE = MAX_BINS+1-LEVEL_STARTS[LEVEL_STARTS.length-1];
 
+    /**
+     * Width, in bits, of the smallest bins of a BAI or Tabix index.  CSI indices record their own value.
+     */
+    public static final int BAI_MIN_SHIFT = 14;
+
+    /**
+     * Number of levels below the root bin in a BAI or Tabix index.  CSI indices record their own value.
+     */
+    public static final int BAI_DEPTH = 5;
+
 
     /**
      * E.g. for a SAMRecord with no genomic coordinate.
@@ -97,4 +107,78 @@ public class GenomicIndexUtil {
         return bitSet;
     }
 
+    /**
+     * Calculate the bin given an alignment in [beg,end) for a binning scheme with the given smallest bin width and
+     * number of levels, as used by CSI indices.  With minShift == 14 and depth == 5 this is the same as
+     * {@link #regionToBin(int, int)}.
+     * @param beg 0-based start of read (inclusive)
+     * @param end 0-based end of read (exclusive)
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth number of levels below the root bin
+     */
+    public static int regionToBin(final long beg, long end, final int minShift, final int depth) {
+        --end;
+        int shift = minShift;
+        for (int level = depth; level > 0; --level, shift += 3) {
+            if (beg >> shift == end >> shift) return getFirstBinInLevel(level) + (int) (beg >> shift);
+        }
+        return 0;
+    }
+
+    /**
+     * Get candidate bins for the specified region, for a binning scheme with the given smallest bin width and
+     * number of levels.  With minShift == 14 and depth == 5 this is the same as {@link #regionToBins(int, int)}.
+     * @param startPos 1-based start of target region, inclusive.
+     * @param endPos 1-based end of target region, inclusive.
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth number of levels below the root bin
+     * @return bit set for each bin that may contain SAMRecords in the target region.
+     */
+    public static BitSet regionToBins(final int startPos, final int endPos, final int minShift, final int depth) {
+        final long maxPos = (1L << (minShift + 3 * depth)) - 1;
+        final long start = (startPos <= 0) ? 0 : Math.min(startPos - 1, maxPos);
+        final long end = (endPos <= 0) ? maxPos : Math.min(endPos - 1, maxPos);
+        if (start > end) {
+            return null;
+        }
+        final BitSet bitSet = new BitSet(getFirstBinInLevel(depth) + (int) (end >> minShift) + 1);
+        int shift = minShift + 3 * depth;
+        for (int level = 0; level <= depth; ++level, shift -= 3) {
+            final int firstBin = getFirstBinInLevel(level);
+            bitSet.set(firstBin + (int) (start >> shift), firstBin + (int) (end >> shift) + 1);
+        }
+        return bitSet;
+    }
+
+    /**
+     * @return the number of the first bin in the given level of a binning index, where level 0 is the root bin
+     */
+    public static int getFirstBinInLevel(final int level) {
+        return ((1 << (3 * level)) - 1) / 7;
+    }
+
+    /**
+     * @return the level of the given bin number, where level 0 is the root bin
+     */
+    public static int getLevelForBin(final int binNumber) {
+        int level = 0;
+        while (binNumber >= getFirstBinInLevel(level + 1)) ++level;
+        return level;
+    }
+
+    /**
+     * @return the 0-based genomic position of the first base covered by the given bin
+     */
+    public static long getBinStart(final int binNumber, final int minShift, final int depth) {
+        final int level = getLevelForBin(binNumber);
+        return ((long) (binNumber - getFirstBinInLevel(level))) << (minShift + 3 * (depth - level));
+    }
+
+    /**
+     * @return the number of the pseudo-bin that holds per-reference meta data in an index with the given depth.
+     * For BAI indices this is {@link #MAX_BINS}.
+     */
+    public static int getMetaDataBinNumber(final int depth) {
+        return getFirstBinInLevel(depth + 1) + 1;
+    }
 }
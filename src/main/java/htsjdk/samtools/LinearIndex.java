@@ -71,8 +71,12 @@ public class LinearIndex {
     }
 
     public static int convertToLinearIndexOffset(final int contigPos) {
+        return convertToLinearIndexOffset(contigPos, BAM_LIDX_SHIFT);
+    }
+
+    public static int convertToLinearIndexOffset(final int contigPos, final int shift) {
         final int indexPos = (contigPos <= 0) ? 0 : contigPos-1;
-        return indexPos >> BAM_LIDX_SHIFT;
+        return indexPos >> shift;
     }
 
     /**
@@ -81,8 +85,19 @@ public class LinearIndex {
      * @return The minimum offset, in chunk format, of any read appearing in this position.
      */
     public long getMinimumOffset(final int startPos) {
+        return getMinimumOffset(startPos, BAM_LIDX_SHIFT);
+    }
+
+    /**
+     * Gets the minimum offset of any alignment start appearing in this index, for a linear index whose windows
+     * are 2^shift bases wide, as built for CSI indices.
+     * @param startPos Starting position for this query.
+     * @param shift log2 of the width of each linear index window.
+     * @return The minimum offset, in chunk format, of any read appearing in this position.
+     */
+    public long getMinimumOffset(final int startPos, final int shift) {
         final int start = (startPos <= 0) ? 0 : startPos-1;
-        final int regionLinearBin = start >> BAM_LIDX_SHIFT;
+        final int regionLinearBin = start >> shift;
         // System.out.println("# regionLinearBin: " + regionLinearBin);
         long minimumOffset = 0;
         if (regionLinearBin-mIndexStart < mIndexEntries.length)
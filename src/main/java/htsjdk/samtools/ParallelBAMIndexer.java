@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+
+/**
+ * Builds a BAM or CSI index for an existing BAM file using several threads.
+ *
+ * The file is divided at record boundaries found by {@link BAMRecordStartFinder}, and each part is indexed
+ * independently.  Only the fixed-length fields of each record and its cigar are read; nothing else is decoded.
+ * The index content of the parts ({@link BAMShardIndex}) is then merged in file order, which produces the same
+ * index as {@link BAMIndexer} does when reading the file sequentially.
+ */
+final class ParallelBAMIndexer {
+    // more parts than threads, so that a thread that finishes early can take another
+    private static final int SHARDS_PER_THREAD = 4;
+
+    private static final ThreadFactory THREAD_FACTORY = new DaemonThreadFactory("ParallelBAMIndexer-");
+
+    private final File bamFile;
+    private final SAMSequenceDictionary dictionary;
+    private final int minShift;
+    private final int depth;
+
+    private ParallelBAMIndexer(final File bamFile, final SAMSequenceDictionary dictionary, final int minShift, final int depth) {
+        this.bamFile = bamFile;
+        this.dictionary = dictionary;
+        this.minShift = minShift;
+        this.depth = depth;
+    }
+
+    /**
+     * @param bamFile      coordinate-sorted BAM file to index
+     * @param numThreads   number of threads reading the file
+     * @param minShift     log2 of the width of the smallest bins
+     * @param depth        number of levels below the root bin
+     * @param createWriter given the number of references, creates the writer for the index
+     */
+    static void createIndex(final File bamFile, final int numThreads, final int minShift, final int depth,
+                            final Function<Integer, BAMIndexWriter> createWriter) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+        final SAMFileHeader header = SamReaderFactory.makeDefault().getFileHeader(bamFile);
+        BAMIndexer.checkSortOrder(header);
+        final ParallelBAMIndexer indexer = new ParallelBAMIndexer(bamFile, header.getSequenceDictionary(), minShift, depth);
+        final List<Long> shardStarts = indexer.findShardStarts(header, numThreads * SHARDS_PER_THREAD);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads, THREAD_FACTORY);
+        try {
+            final List<Future<BAMShardIndex>> shards = new ArrayList<>(shardStarts.size());
+            for (int i = 0; i < shardStarts.size(); i++) {
+                final long start = shardStarts.get(i);
+                final long end = i + 1 < shardStarts.size() ? shardStarts.get(i + 1) : Long.MAX_VALUE;
+                shards.add(executor.submit(() -> indexer.indexShard(start, end)));
+            }
+            indexer.write(shards, createWriter.apply(indexer.dictionary.size()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the virtual file pointers at which each part starts, beginning with the first record
+     */
+    private List<Long> findShardStarts(final SAMFileHeader header, final int numShards) {
+        final long firstRecord = SAMUtils.findVirtualOffsetOfFirstRecordInBam(bamFile);
+        final List<Long> starts = new ArrayList<>(numShards);
+        starts.add(firstRecord);
+        final SeekableFileStream stream;
+        try {
+            stream = new SeekableFileStream(bamFile);
+        } catch (final IOException e) {
+            throw new SAMException("Unable to open " + bamFile, e);
+        }
+        try {
+            final BAMRecordStartFinder finder = new BAMRecordStartFinder(stream, header);
+            final long firstAddress = BlockCompressedFilePointerUtil.getBlockAddress(firstRecord);
+            final long span = stream.length() - firstAddress;
+            for (int i = 1; i < numShards; i++) {
+                final long recordStart = finder.findRecordStart(firstAddress + span * i / numShards);
+                if (recordStart == -1) break;
+                if (recordStart > starts.get(starts.size() - 1)) {
+                    starts.add(recordStart);
+                }
+            }
+        } catch (final IOException e) {
+            throw new SAMException("Exception reading " + bamFile, e);
+        } finally {
+            CloserUtil.close(stream);
+        }
+        return starts;
+    }
+
+    /**
+     * Indexes the records starting in [start, end)
+     */
+    private BAMShardIndex indexShard(final long start, final long end) throws IOException {
+        final BAMShardIndex shard = new BAMShardIndex(dictionary, minShift, depth);
+        final IndexedRecord record = new IndexedRecord(shard.isBAIScheme());
+        final byte[] blockSize = new byte[4];
+        byte[] buffer = new byte[1024];
+
+        try (final BlockCompressedInputStream in = new BlockCompressedInputStream(bamFile)) {
+            in.seek(start);
+            while (in.getFilePointer() < end) {
+                final long recordStart = in.getFilePointer();
+                if (!readFully(in, blockSize, 4)) break;
+                final int length = unpackInt(blockSize, 0);
+                if (length > buffer.length) {
+                    buffer = new byte[length];
+                }
+                if (!readFully(in, buffer, length)) {
+                    throw new SAMFormatException("Premature EOF reading BAM record at " +
+                            BlockCompressedFilePointerUtil.asString(recordStart) + " in " + bamFile);
+                }
+                final long recordEnd = in.getFilePointer();
+
+                if (unpackInt(buffer, 4) == -1) {
+                    // no coordinate, only counted
+                    shard.incrementNoCoordinateRecordCount();
+                    continue;
+                }
+                record.set(buffer, recordStart, recordEnd);
+                try {
+                    shard.processFeature(unpackInt(buffer, 0), record.unmapped, recordStart, recordEnd, record);
+                } catch (final SAMException e) {
+                    throw new SAMException("Exception creating index for record at " +
+                            BlockCompressedFilePointerUtil.asString(recordStart) + " in " + bamFile, e);
+                }
+            }
+        }
+        return shard;
+    }
+
+    /**
+     * Merges the parts in file order and writes the index
+     */
+    private void write(final List<Future<BAMShardIndex>> shards, final BAMIndexWriter writer) {
+        final BAMShardIndex.Merger merger = new BAMShardIndex.Merger(dictionary.size(), writer);
+        try {
+            for (final Future<BAMShardIndex> shard : shards) {
+                merger.add(shard.get());
+            }
+            merger.finish();
+        } catch (final InterruptedException e) {
+            throw new SAMException("Interrupted while creating index for " + bamFile, e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof SAMException) {
+                throw (SAMException) e.getCause();
+            }
+            throw new SAMException("Exception creating index for " + bamFile, e.getCause());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static boolean readFully(final BlockCompressedInputStream in, final byte[] buffer, final int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int n = in.read(buffer, total, length - total);
+            if (n <= 0) {
+                if (total == 0) return false;
+                throw new SAMFormatException("Premature EOF in BAM record");
+            }
+            total += n;
+        }
+        return true;
+    }
+
+    private static int unpackInt(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) |
+                ((buffer[offset + 2] & 0xFF) << 16) | ((buffer[offset + 3] & 0xFF) << 24);
+    }
+
+    private static int unpackShort(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * The fields of a record needed for indexing, taken directly from its encoded form.
+     * Reused for every record in a part; the builder keeps only the chunk.
+     */
+    private static class IndexedRecord implements BinningIndexBuilder.FeatureToBeIndexed {
+        private final boolean useStoredBin;
+        private int start;
+        private int end;
+        private int bin;
+        private boolean unmapped;
+        private long chunkStart;
+        private long chunkEnd;
+
+        /**
+         * @param useStoredBin whether the bin stored in the record is for the binning scheme being built
+         */
+        IndexedRecord(final boolean useStoredBin) {
+            this.useStoredBin = useStoredBin;
+        }
+
+        /**
+         * @param record encoded record, not including its block_size
+         */
+        void set(final byte[] record, final long chunkStart, final long chunkEnd) {
+            start = unpackInt(record, 4) + 1;
+            final int readNameLength = record[8] & 0xFF;
+            bin = unpackShort(record, 10);
+            final int cigarLength = unpackShort(record, 12);
+            unmapped = (unpackShort(record, 14) & SAMFlag.READ_UNMAPPED.intValue()) != 0;
+            if (unmapped) {
+                end = SAMRecord.NO_ALIGNMENT_START;
+            } else {
+                int referenceLength = 0;
+                for (int i = 0, offset = 32 + readNameLength; i < cigarLength; i++, offset += 4) {
+                    final int cigarElement = unpackInt(record, offset);
+                    if (CigarOperator.binaryToEnum(cigarElement & 0xF).consumesReferenceBases()) {
+                        referenceLength += cigarElement >>> 4;
+                    }
+                }
+                end = start + referenceLength - 1;
+            }
+            this.chunkStart = chunkStart;
+            this.chunkEnd = chunkEnd;
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return end;
+        }
+
+        @Override
+        public Integer getIndexingBin() {
+            // bin stored in the record is for the BAI scheme; otherwise let the builder compute it
+            return useStoredBin ? bin : null;
+        }
+
+        @Override
+        public Chunk getChunk() {
+            return new Chunk(chunkStart, chunkEnd);
+        }
+    }
+}
@@ -108,7 +108,7 @@ public class SAMBinaryTagAndValue implements Serializable {
         }
     }
 
-    private boolean valueEquals(SAMBinaryTagAndValue that) {
+    boolean valueEquals(SAMBinaryTagAndValue that) {
         if (this.value instanceof byte[]) {
             return that.value instanceof byte[] ?
                 Arrays.equals((byte[])this.value, (byte[])that.value) : false;
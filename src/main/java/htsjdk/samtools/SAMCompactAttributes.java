@@ -0,0 +1,368 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.StringUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable, compact store for the attributes of a SAMRecord.  Rather than a linked list of
+ * {@link SAMBinaryTagAndValue} nodes holding boxed values, the attributes are held in their BAM encoding in a single
+ * byte array, with the binary tags (as created by {@link SAMTagUtil}) and the offset of each tag's encoding in
+ * parallel primitive arrays.  A record holding a dozen attributes therefore costs four arrays instead of two dozen
+ * objects, lookups scan a short[] rather than chasing pointers, and numeric values can be read without boxing.
+ *
+ * Because values are stored as they would be in a BAM file, they are returned as they would be after reading back
+ * from BAM, e.g. Byte and Short values are returned as Integer.
+ *
+ * @see SAMRecord#compactAttributes()
+ */
+public final class SAMCompactAttributes implements Serializable {
+    public static final long serialVersionUID = 1L;
+
+    // Number of bytes for the tag name and type that precede each value.
+    private static final int FIXED_TAG_SIZE = 3;
+
+    private final short[] tags;
+    private final int[] offsets;
+    private final byte[] data;
+
+    private SAMCompactAttributes(final short[] tags, final int[] offsets, final byte[] data) {
+        this.tags = tags;
+        this.offsets = offsets;
+        this.data = data;
+    }
+
+    /**
+     * @param attributes Head of a list of attributes.  May be null.
+     * @return A compact copy of the list of attributes, or null if the list is empty.
+     */
+    public static SAMCompactAttributes fromBinaryTagAndValues(final SAMBinaryTagAndValue attributes) {
+        if (attributes == null) return null;
+
+        int count = 0;
+        int size = 0;
+        for (SAMBinaryTagAndValue attribute = attributes; attribute != null; attribute = attribute.getNext()) {
+            ++count;
+            size += BinaryTagCodec.getTagSize(attribute.value);
+        }
+
+        final short[] tags = new short[count];
+        final int[] offsets = new int[count];
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        final BinaryTagCodec tagCodec = new BinaryTagCodec(new BinaryCodec(bytes));
+        int i = 0;
+        int offset = 0;
+        for (SAMBinaryTagAndValue attribute = attributes; attribute != null; attribute = attribute.getNext()) {
+            tags[i] = attribute.tag;
+            offsets[i] = offset;
+            tagCodec.writeTag(attribute.tag, attribute.value, attribute.isUnsignedArray());
+            offset += BinaryTagCodec.getTagSize(attribute.value);
+            ++i;
+        }
+        return new SAMCompactAttributes(tags, offsets, bytes.toByteArray());
+    }
+
+    /**
+     * @return Number of attributes held.
+     */
+    public int size() {
+        return tags.length;
+    }
+
+    /**
+     * @return Binary representation of the index'th tag.
+     */
+    public short getTag(final int index) {
+        return tags[index];
+    }
+
+    /**
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @return True if the tag is present.
+     */
+    public boolean hasAttribute(final short tag) {
+        return indexOf(tag) != -1;
+    }
+
+    /**
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @return The value of the tag, boxed as SAMRecord.getAttribute() would return it, or null if not present.
+     */
+    public Object getAttribute(final short tag) {
+        final SAMBinaryTagAndValue attribute = find(tag);
+        return attribute == null ? null : attribute.value;
+    }
+
+    /**
+     * Reads an integer-valued tag without boxing.
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @param defaultValue Returned if the tag is not present.
+     * @throws SAMException if the value is not an integer, or does not fit in a signed 32-bit int.
+     */
+    public int getIntegerAttribute(final short tag, final int defaultValue) {
+        final int index = indexOf(tag);
+        if (index == -1) return defaultValue;
+        final int position = offsets[index] + FIXED_TAG_SIZE;
+        switch (getType(index)) {
+            case 'c':
+                return data[position];
+            case 'C':
+                return data[position] & 0xff;
+            case 's':
+                return (short) readUShort(position);
+            case 'S':
+                return readUShort(position);
+            case 'i':
+                return readInt(position);
+            case 'I':
+                final long value = readInt(position) & 0xffffffffL;
+                if (value > Integer.MAX_VALUE) {
+                    throw new SAMException("Value for tag " + SAMTagUtil.getSingleton().makeStringTag(tag) +
+                            " is not in Integer range: " + value);
+                }
+                return (int) value;
+            default:
+                throw new SAMException("Value for tag " + SAMTagUtil.getSingleton().makeStringTag(tag) +
+                        " is not an integer: " + (char) getType(index));
+        }
+    }
+
+    /**
+     * Reads a float-valued tag without boxing.
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @param defaultValue Returned if the tag is not present.
+     * @throws SAMException if the value is not a float.
+     */
+    public float getFloatAttribute(final short tag, final float defaultValue) {
+        final int index = indexOf(tag);
+        if (index == -1) return defaultValue;
+        if (getType(index) != 'f') {
+            throw new SAMException("Value for tag " + SAMTagUtil.getSingleton().makeStringTag(tag) +
+                    " is not a Float: " + (char) getType(index));
+        }
+        return Float.intBitsToFloat(readInt(offsets[index] + FIXED_TAG_SIZE));
+    }
+
+    /**
+     * Reads a character-valued tag without boxing.
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @param defaultValue Returned if the tag is not present.
+     * @throws SAMException if the value is not a character.
+     */
+    public char getCharacterAttribute(final short tag, final char defaultValue) {
+        final int index = indexOf(tag);
+        if (index == -1) return defaultValue;
+        if (getType(index) != 'A') {
+            throw new SAMException("Value for tag " + SAMTagUtil.getSingleton().makeStringTag(tag) +
+                    " is not a Character: " + (char) getType(index));
+        }
+        return (char) data[offsets[index] + FIXED_TAG_SIZE];
+    }
+
+    /**
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @return The value of the tag, or null if not present.
+     * @throws SAMException if the value is not a String.
+     */
+    public String getStringAttribute(final short tag) {
+        final int index = indexOf(tag);
+        if (index == -1) return null;
+        if (getType(index) != 'Z') {
+            throw new SAMException("Value for tag " + SAMTagUtil.getSingleton().makeStringTag(tag) +
+                    " is not a String: " + (char) getType(index));
+        }
+        final int start = offsets[index] + FIXED_TAG_SIZE;
+        int end = start;
+        while (data[end] != 0) ++end;
+        return StringUtil.bytesToString(data, start, end - start);
+    }
+
+    /**
+     * @return Size in bytes of the BAM encoding of these attributes.
+     */
+    public int getBinarySize() {
+        return data.length;
+    }
+
+    /**
+     * Writes these attributes in BAM encoding, exactly as {@link BinaryTagCodec#writeTag} would have.
+     */
+    public void write(final BinaryCodec binaryCodec) {
+        binaryCodec.writeBytes(data);
+    }
+
+    /**
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @return The tag and its value, or null if the tag is not present.
+     */
+    SAMBinaryTagAndValue find(final short tag) {
+        final int index = indexOf(tag);
+        return index == -1 ? null : get(index);
+    }
+
+    /**
+     * Decodes a single attribute, so that read-only callers can walk the attributes in list order without
+     * decoding the whole list.
+     * @return The index'th tag and its value.
+     */
+    SAMBinaryTagAndValue get(final int index) {
+        final int end = index + 1 < offsets.length ? offsets[index + 1] : data.length;
+        return BinaryTagCodec.readTag(data, offsets[index], end - offsets[index], tags[index], ValidationStringency.SILENT);
+    }
+
+    /**
+     * @return A newly-decoded list of all the attributes.
+     */
+    SAMBinaryTagAndValue toBinaryTagAndValues() {
+        return BinaryTagCodec.readTags(data, 0, data.length, ValidationStringency.SILENT);
+    }
+
+    /**
+     * @param attributes Head of a list of attributes.  May be null.
+     * @return True if the list {@link #toBinaryTagAndValues()} would decode equals the given list, decoding one
+     * attribute at a time.
+     */
+    boolean listEquals(final SAMBinaryTagAndValue attributes) {
+        int i = 0;
+        for (SAMBinaryTagAndValue attribute = attributes; attribute != null; attribute = attribute.getNext(), ++i) {
+            if (i == tags.length || tags[i] != attribute.tag) return false;
+            final SAMBinaryTagAndValue decoded = get(i);
+            if (decoded.getClass() != attribute.getClass() || !decoded.valueEquals(attribute)) return false;
+        }
+        return i == tags.length;
+    }
+
+    /**
+     * @return The same value as hashCode() of the list {@link #toBinaryTagAndValues()} would decode, computed
+     * without decoding.  That list is ordered by tag, and its hashCode() depends only on its head.
+     */
+    int listHashCode() {
+        int head = 0;
+        for (int i = 1; i < tags.length; ++i) {
+            if (tags[i] < tags[head]) head = i;
+        }
+        final int position = offsets[head] + FIXED_TAG_SIZE;
+        final int valueHash;
+        switch (getType(head)) {
+            case 'A':
+                // Decoded as (char) of the signed byte
+                valueHash = (char) data[position];
+                break;
+            case 'c':
+                valueHash = data[position];
+                break;
+            case 'C':
+                valueHash = data[position] & 0xff;
+                break;
+            case 's':
+                valueHash = (short) readUShort(position);
+                break;
+            case 'S':
+                valueHash = readUShort(position);
+                break;
+            case 'i':
+            case 'I': // Integer.hashCode() of an int, or Long.hashCode() of a value below 2^32, are the low 32 bits
+                valueHash = readInt(position);
+                break;
+            case 'f':
+                valueHash = Float.hashCode(Float.intBitsToFloat(readInt(position)));
+                break;
+            case 'Z': {
+                // String.hashCode() of the bytes as ISO-8859-1, as StringUtil.bytesToString decodes them
+                int h = 0;
+                for (int j = position; data[j] != 0; ++j) h = 31 * h + (data[j] & 0xff);
+                valueHash = h;
+                break;
+            }
+            case 'B': {
+                // Arrays.hashCode() of the decoded array
+                final byte arrayType = data[position];
+                final int length = readInt(position + 1);
+                final int start = position + 5;
+                int h = 1;
+                for (int j = 0; j < length; ++j) {
+                    switch (arrayType) {
+                        case 'c':
+                        case 'C':
+                            h = 31 * h + data[start + j];
+                            break;
+                        case 's':
+                        case 'S':
+                            h = 31 * h + (short) readUShort(start + 2 * j);
+                            break;
+                        case 'i':
+                        case 'I':
+                            h = 31 * h + readInt(start + 4 * j);
+                            break;
+                        default:
+                            h = 31 * h + Float.hashCode(Float.intBitsToFloat(readInt(start + 4 * j)));
+                    }
+                }
+                valueHash = h;
+                break;
+            }
+            default:
+                // Rare types, such as 'H', are decoded
+                return find(tags[head]).hashCode();
+        }
+        return 31 * tags[head] + valueHash;
+    }
+
+    private int indexOf(final short tag) {
+        for (int i = tags.length - 1; i >= 0; --i) {
+            if (tags[i] == tag) return i;
+        }
+        return -1;
+    }
+
+    private byte getType(final int index) {
+        return data[offsets[index] + 2];
+    }
+
+    private int readUShort(final int position) {
+        return (data[position] & 0xff) | (data[position + 1] & 0xff) << 8;
+    }
+
+    private int readInt(final int position) {
+        return (data[position] & 0xff) | (data[position + 1] & 0xff) << 8 |
+                (data[position + 2] & 0xff) << 16 | (data[position + 3] & 0xff) << 24;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.equals(data, ((SAMCompactAttributes) o).data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(data);
+    }
+}
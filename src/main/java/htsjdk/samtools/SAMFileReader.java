@@ -31,6 +31,7 @@ import htsjdk.samtools.util.*;
 
 import java.io.*;
 import java.net.URL;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.zip.GZIPInputStream;
 
@@ -365,6 +366,16 @@ public class SAMFileReader implements SamReader, SamReader.Indexing {
         return mReader.getFilePointerSpanningReads();
     }
 
+    /**
+     * Divides the reads in the file into spans of roughly equal size, each starting at a record.
+     *
+     * @param numShards the number of spans wanted.  Fewer may be returned.
+     * @return spans in file order that together cover all reads in the file.
+     */
+    public List<SAMFileSpan> splitFilePointerSpanningReads(final int numShards) {
+        return mReader.splitFilePointerSpanningReads(numShards);
+    }
+
     /**
      * Iterate over records that match the given interval.  Only valid to call this if hasIndex() == true.
      * <p/>
@@ -148,8 +148,11 @@ public abstract class SAMFileWriterImpl implements SAMFileWriter
                 sortOrderChecker = new SAMSortOrderChecker(sortOrder);
             }
         } else if (!sortOrder.equals(SAMFileHeader.SortOrder.unsorted)) {
+            // Coordinate sorting radix sorts records by a packed key, and compares them only when keys are equal.
             alignmentSorter = SortingCollection.newInstance(SAMRecord.class,
-                    new BAMRecordCodec(header), makeComparator(), maxRecordsInRam, tmpDir);
+                    new BAMRecordCodec(header), makeComparator(), maxRecordsInRam,
+                    sortOrder == SAMFileHeader.SortOrder.coordinate ? SAMRecordCoordinateComparator::getPackedSortKey : null,
+                    tmpDir);
         }
     }
 
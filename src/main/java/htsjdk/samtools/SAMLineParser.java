@@ -26,12 +26,16 @@ package htsjdk.samtools;
 import htsjdk.samtools.util.StringUtil;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
- * this class enables creation of a SAMRecord object from a String in SAM text format.
+ * this class enables creation of a SAMRecord object from a String in SAM text format, or from the bytes of a line
+ * of SAM text.  Lines given as bytes are tokenized in place, so that Strings are only created for the fields that
+ * are held as Strings in the SAMRecord.
  */
 public class SAMLineParser {
 
@@ -59,7 +63,8 @@ public class SAMLineParser {
      * optimization. The size is arbitrary -- merely large enough to handle the
      * maximum number of fields we might expect from a reasonable SAM file.
      */
-    private final String[] mFields = new String[10000];
+    private final int[] mFieldStarts = new int[10000];
+    private final int[] mFieldEnds = new int[10000];
 
     /**
      * Add information about the origin (reader and position) to SAM records.
@@ -73,7 +78,17 @@ public class SAMLineParser {
     private final TextTagCodec tagCodec = new TextTagCodec();
 
     private int currentLineNumber;
+    // The line being parsed.  currentLine is only created from currentLineBytes if needed for an error message.
     private String currentLine;
+    private byte[] currentLineBytes;
+    private int currentLineOffset;
+    private int currentLineEnd;
+    // Reused to hold lines given as Strings while they are parsed
+    private byte[] stringLineBytes = new byte[0];
+
+    // The most recent reference name, and the bytes it was parsed from, to save creating the same String repeatedly.
+    private byte[] lastReferenceNameBytes = new byte[0];
+    private String lastReferenceName;
 
     //
     // Constructors
@@ -160,15 +175,78 @@ public class SAMLineParser {
         return this.validationStringency;
     }
 
-    private int parseInt(final String s, final String fieldName) {
-        final int ret;
-        try {
-            ret = Integer.parseInt(s);
-        } catch (NumberFormatException e) {
+    /**
+     * Parses a field as a decimal int, with the same syntax as Integer.parseInt().
+     */
+    private int parseInt(final int field, final String fieldName) {
+        final byte[] bytes = currentLineBytes;
+        int i = mFieldStarts[field];
+        final int end = mFieldEnds[field];
+        final boolean negative = i < end && bytes[i] == '-';
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            ++i;
+        }
+        if (i == end) {
+            throw reportFatalErrorParsingLine("Non-numeric value in "
+                    + fieldName + " column");
+        }
+        long value = 0;
+        for (; i < end; ++i) {
+            final int digit = bytes[i] - '0';
+            // stop before a long could overflow; the range is checked below
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+                throw reportFatalErrorParsingLine("Non-numeric value in "
+                        + fieldName + " column");
+            }
+            value = value * 10 + digit;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
             throw reportFatalErrorParsingLine("Non-numeric value in "
                     + fieldName + " column");
         }
-        return ret;
+        return (int) value;
+    }
+
+    private boolean fieldEquals(final int field, final char c) {
+        return mFieldEnds[field] - mFieldStarts[field] == 1 && currentLineBytes[mFieldStarts[field]] == c;
+    }
+
+    private String fieldToString(final int field) {
+        return bytesToString(mFieldStarts[field], mFieldEnds[field]);
+    }
+
+    /**
+     * Converts bytes of the current line to a String, decoding them as UTF-8 if they are not all ASCII, as they
+     * would have been when the line was read as a String.
+     */
+    private String bytesToString(final int start, final int end) {
+        for (int i = start; i < end; ++i) {
+            if (currentLineBytes[i] < 0) {
+                return new String(currentLineBytes, start, end - start, StandardCharsets.UTF_8);
+            }
+        }
+        return StringUtil.bytesToString(currentLineBytes, start, end - start);
+    }
+
+    /**
+     * @return The truncated reference name in the given field, reusing the String created for the previous field
+     * parsed if it is the same.
+     */
+    private String parseReferenceName(final int field) {
+        final int start = mFieldStarts[field];
+        final int length = mFieldEnds[field] - start;
+        boolean same = length == lastReferenceNameBytes.length;
+        for (int i = 0; same && i < length; ++i) {
+            same = currentLineBytes[start + i] == lastReferenceNameBytes[i];
+        }
+        if (!same) {
+            lastReferenceNameBytes = Arrays.copyOfRange(currentLineBytes, start, start + length);
+            lastReferenceName = SAMSequenceRecord.truncateSequenceName(fieldToString(field));
+        }
+        return lastReferenceName;
     }
 
     private void validateReferenceName(final String rname, final String fieldName) {
@@ -199,7 +277,8 @@ public class SAMLineParser {
     }
 
     /**
-     * Parse a SAM line.
+     * Parse a SAM line.  The line is first copied into a buffer of bytes held by the parser, so
+     * {@link #parseLine(byte[], int, int, int)} is cheaper for callers that already have the bytes.
      *
      * @param line       line to parse
      * @param lineNumber line number in the file. If the line number is not known
@@ -207,20 +286,87 @@ public class SAMLineParser {
      * @return a new SAMRecord object
      */
     public SAMRecord parseLine(final String line, final int lineNumber) {
+        final int length = line.length();
+        if (stringLineBytes.length < length) {
+            stringLineBytes = new byte[Math.max(length, 2 * stringLineBytes.length)];
+        }
+        for (int i = 0; i < length; ++i) {
+            final char c = line.charAt(i);
+            if (c >= 0x80) {
+                // Rare, so let the charset handle it rather than encoding by hand
+                final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                return parseLine(bytes, 0, bytes.length, lineNumber, line);
+            }
+            stringLineBytes[i] = (byte) c;
+        }
+        return parseLine(stringLineBytes, 0, length, lineNumber, line);
+    }
+
+    /**
+     * Parse a SAM line given as bytes, without its line terminator.
+     *
+     * @param line       buffer holding the line to parse.  Not retained by the parser or the SAMRecord created.
+     * @param offset     where in the buffer the line starts.
+     * @param length     length of the line in bytes.
+     * @param lineNumber line number in the file. If the line number is not known
+     *                   can be <=0.
+     * @return a new SAMRecord object
+     */
+    public SAMRecord parseLine(final byte[] line, final int offset, final int length, final int lineNumber) {
+        return parseLine(line, offset, length, lineNumber, null);
+    }
 
-        final String mCurrentLine = line;
+    private SAMRecord parseLine(final byte[] line, final int offset, final int length, final int lineNumber,
+                                final String lineString) {
         this.currentLineNumber = lineNumber;
-        this.currentLine = line;
+        this.currentLine = lineString;
+        this.currentLineBytes = line;
+        this.currentLineOffset = offset;
+        this.currentLineEnd = offset + length;
+        try {
+            return parseCurrentLine();
+        } finally {
+            this.currentLine = null;
+            this.currentLineBytes = null;
+        }
+    }
+
+    /**
+     * Splits the current line into tab-separated fields in the same way as StringUtil.split().
+     * @return the number of fields
+     */
+    private int splitFields() {
+        final byte[] bytes = currentLineBytes;
+        final int maxFields = mFieldStarts.length;
+        int numFields = 0;
+        int start = currentLineOffset;
+        for (int i = currentLineOffset; i < currentLineEnd && numFields < maxFields; ++i) {
+            if (bytes[i] == '\t') {
+                mFieldStarts[numFields] = start;
+                mFieldEnds[numFields] = i;
+                ++numFields;
+                start = i + 1;
+            }
+        }
+        // Add the trailing field, if there is room and it is not empty, or if it is the only field.
+        if (numFields < maxFields && (start < currentLineEnd || numFields == 0)) {
+            mFieldStarts[numFields] = start;
+            mFieldEnds[numFields] = currentLineEnd;
+            ++numFields;
+        }
+        return numFields;
+    }
 
-        final int numFields = StringUtil.split(mCurrentLine, mFields, '\t');
+    private SAMRecord parseCurrentLine() {
+        final int numFields = splitFields();
         if (numFields < NUM_REQUIRED_FIELDS) {
             throw reportFatalErrorParsingLine("Not enough fields");
         }
-        if (numFields == mFields.length) {
+        if (numFields == mFieldStarts.length) {
             reportErrorParsingLine("Too many fields in SAM text record.");
         }
         for (int i = 0; i < numFields; ++i) {
-            if (mFields[i].isEmpty()) {
+            if (mFieldStarts[i] == mFieldEnds[i]) {
                 reportErrorParsingLine("Empty field at position " + i + " (zero-based)");
             }
         }
@@ -230,23 +376,22 @@ public class SAMLineParser {
         if (mParentReader != null)
             samRecord.setFileSource(new SAMFileSource(mParentReader, null));
         samRecord.setHeader(this.mFileHeader);
-        samRecord.setReadName(mFields[QNAME_COL]);
+        samRecord.setReadName(fieldToString(QNAME_COL));
 
-        final int flags = parseInt(mFields[FLAG_COL], "FLAG");
+        final int flags = parseInt(FLAG_COL, "FLAG");
         samRecord.setFlags(flags);
 
-        String rname = mFields[RNAME_COL];
-        if (!rname.equals("*")) {
-            rname = SAMSequenceRecord.truncateSequenceName(rname);
+        if (!fieldEquals(RNAME_COL, '*')) {
+            final String rname = parseReferenceName(RNAME_COL);
             validateReferenceName(rname, "RNAME");
             samRecord.setReferenceName(rname);
         } else if (!samRecord.getReadUnmappedFlag()) {
             reportErrorParsingLine("RNAME is not specified but flags indicate mapped");
         }
 
-        final int pos = parseInt(mFields[POS_COL], "POS");
-        final int mapq = parseInt(mFields[MAPQ_COL], "MAPQ");
-        final String cigar = mFields[CIGAR_COL];
+        final int pos = parseInt(POS_COL, "POS");
+        final int mapq = parseInt(MAPQ_COL, "MAPQ");
+        final String cigar = fieldToString(CIGAR_COL);
         if (!SAMRecord.NO_ALIGNMENT_REFERENCE_NAME.equals(samRecord
                 .getReferenceName())) {
             if (pos == 0) {
@@ -270,8 +415,7 @@ public class SAMLineParser {
         samRecord.setMappingQuality(mapq);
         samRecord.setCigarString(cigar);
 
-        String mateRName = mFields[MRNM_COL];
-        if (mateRName.equals("*")) {
+        if (fieldEquals(MRNM_COL, '*')) {
             if (samRecord.getReadPairedFlag() && !samRecord.getMateUnmappedFlag()) {
                 reportErrorParsingLine("MRNM not specified but flags indicate mate mapped");
             }
@@ -279,9 +423,7 @@ public class SAMLineParser {
             if (!samRecord.getReadPairedFlag()) {
                 reportErrorParsingLine("MRNM specified but flags indicate unpaired");
             }
-            if (!"=".equals(mateRName)) {
-                mateRName = SAMSequenceRecord.truncateSequenceName(mateRName);
-            }
+            final String mateRName = fieldEquals(MRNM_COL, '=') ? "=" : parseReferenceName(MRNM_COL);
             validateReferenceName(mateRName, "MRNM");
             if (mateRName.equals("=")) {
                 if (samRecord.getReferenceName() == null) {
@@ -293,8 +435,8 @@ public class SAMLineParser {
             }
         }
 
-        final int matePos = parseInt(mFields[MPOS_COL], "MPOS");
-        final int isize = parseInt(mFields[ISIZE_COL], "ISIZE");
+        final int matePos = parseInt(MPOS_COL, "MPOS");
+        final int isize = parseInt(ISIZE_COL, "ISIZE");
         if (!samRecord.getMateReferenceName().equals(
                 SAMRecord.NO_ALIGNMENT_REFERENCE_NAME)) {
             if (matePos == 0) {
@@ -310,26 +452,35 @@ public class SAMLineParser {
         }
         samRecord.setMateAlignmentStart(matePos);
         samRecord.setInferredInsertSize(isize);
-        if (!mFields[SEQ_COL].equals("*")) {
-            validateReadBases(mFields[SEQ_COL]);
-            samRecord.setReadString(mFields[SEQ_COL]);
+        if (!fieldEquals(SEQ_COL, '*')) {
+            final byte[] bases = Arrays.copyOfRange(currentLineBytes, mFieldStarts[SEQ_COL], mFieldEnds[SEQ_COL]);
+            validateReadBases(bases);
+            SAMUtils.normalizeBases(bases);
+            samRecord.setReadBases(bases);
         } else {
             samRecord.setReadBases(SAMRecord.NULL_SEQUENCE);
         }
-        if (!mFields[QUAL_COL].equals("*")) {
+        if (!fieldEquals(QUAL_COL, '*')) {
             if (samRecord.getReadBases() == SAMRecord.NULL_SEQUENCE) {
                 reportErrorParsingLine("QUAL should not be specified if SEQ is not specified");
             }
-            if (samRecord.getReadString().length() != mFields[QUAL_COL].length()) {
+            final int start = mFieldStarts[QUAL_COL];
+            final byte[] quals = new byte[mFieldEnds[QUAL_COL] - start];
+            // as for the read string, which is "*" if there are no bases
+            final int readStringLength = Math.max(samRecord.getReadLength(), 1);
+            if (readStringLength != quals.length) {
                 reportErrorParsingLine("length(QUAL) != length(SEQ)");
             }
-            samRecord.setBaseQualityString(mFields[QUAL_COL]);
+            for (int i = 0; i < quals.length; ++i) {
+                quals[i] = (byte) SAMUtils.fastqToPhred((char) (currentLineBytes[start + i] & 0xff));
+            }
+            samRecord.setBaseQualities(quals);
         } else {
             samRecord.setBaseQualities(SAMRecord.NULL_QUALS);
         }
 
         for (int i = NUM_REQUIRED_FIELDS; i < numFields; ++i) {
-            parseTag(samRecord, mFields[i]);
+            parseTag(samRecord, mFieldStarts[i], mFieldEnds[i]);
         }
 
         // Only call samRecord.isValid() if errors would be reported since the validation
@@ -346,15 +497,15 @@ public class SAMLineParser {
         return samRecord;
     }
 
-    private void validateReadBases(final String bases) {
+    private void validateReadBases(final byte[] bases) {
         /*
         * Using regex is slow, so check for invalid characters via
         * isValidReadBase(), which hopefully the JIT will optimize. if
         * (!VALID_BASES.matcher(bases).matches()) {
         * reportErrorParsingLine("Invalid character in read bases"); }
         */
-        for (int i = 0; i < bases.length(); ++i) {
-            if (!isValidReadBase(bases.charAt(i))) {
+        for (final byte base : bases) {
+            if (!isValidReadBase((char) base)) {
                 reportErrorParsingLine("Invalid character in read bases");
                 return;
             }
@@ -401,6 +552,126 @@ public class SAMLineParser {
         }
     }
 
+    /**
+     * Parses a tag from the given range of the current line.  The common forms of tags are decoded directly from the
+     * bytes.  Anything else, including anything malformed, is handed to {@link TextTagCodec} as a String so that it is
+     * handled and reported exactly as it would be otherwise.
+     */
+    private void parseTag(final SAMRecord samRecord, final int start, final int end) {
+        final byte[] bytes = currentLineBytes;
+        // Fast path requires a two-character ASCII tag name, a single-character type, and a non-empty value
+        if (end - start >= 6 && bytes[start + 2] == ':' && bytes[start + 4] == ':' &&
+                bytes[start] > 0 && bytes[start] != ':' && bytes[start + 1] > 0 && bytes[start + 1] != ':') {
+            final short tag = (short) (bytes[start + 1] << 8 | bytes[start]);
+            final int valueStart = start + 5;
+            switch (bytes[start + 3]) {
+                case 'Z':
+                    samRecord.setAttribute(tag, bytesToString(valueStart, end));
+                    return;
+                case 'A':
+                    if (end - valueStart == 1 && bytes[valueStart] > 0) {
+                        samRecord.setAttribute(tag, (char) bytes[valueStart]);
+                        return;
+                    }
+                    break;
+                case 'i':
+                    if (parseLongValue(valueStart, end)) {
+                        if (parsedLong >= Integer.MIN_VALUE && parsedLong <= Integer.MAX_VALUE) {
+                            samRecord.setAttribute(tag, (int) parsedLong);
+                            return;
+                        } else if (SAMUtils.isValidUnsignedIntegerAttribute(parsedLong)) {
+                            samRecord.setAttribute(tag, parsedLong);
+                            return;
+                        }
+                    }
+                    break;
+                case 'B':
+                    if (parseIntegralArray(samRecord, tag, valueStart, end)) {
+                        return;
+                    }
+                    break;
+            }
+        }
+        parseTag(samRecord, bytesToString(start, end));
+    }
+
+    // Result of parseLongValue(), to avoid boxing
+    private long parsedLong;
+
+    /**
+     * Parses a signed decimal long from the current line into parsedLong.
+     * @return false if the bytes are not a decimal number that fits in a long.
+     */
+    private boolean parseLongValue(int start, final int end) {
+        final byte[] bytes = currentLineBytes;
+        final boolean negative = start < end && bytes[start] == '-';
+        if (start < end && (bytes[start] == '-' || bytes[start] == '+')) {
+            ++start;
+        }
+        // 18 digits cannot overflow
+        if (start == end || end - start > 18) {
+            return false;
+        }
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+        }
+        parsedLong = negative ? -value : value;
+        return true;
+    }
+
+    /**
+     * Parses a B tag value with an integral element type, e.g. "c,1,-2,3", and sets it on the record.
+     * @return false if the value is not of that form or an element is out of range, without setting the tag.
+     */
+    private boolean parseIntegralArray(final SAMRecord samRecord, final short tag, final int start, final int end) {
+        final byte[] bytes = currentLineBytes;
+        if (end - start < 3 || bytes[start + 1] != ',') {
+            return false;
+        }
+        final byte elementType = bytes[start];
+        final boolean isUnsigned = Character.isUpperCase(elementType);
+        final long minValue;
+        final long maxValue;
+        switch (elementType) {
+            case 'c': minValue = Byte.MIN_VALUE; maxValue = Byte.MAX_VALUE; break;
+            case 'C': minValue = 0; maxValue = 0xffL; break;
+            case 's': minValue = Short.MIN_VALUE; maxValue = Short.MAX_VALUE; break;
+            case 'S': minValue = 0; maxValue = 0xffffL; break;
+            case 'i': minValue = Integer.MIN_VALUE; maxValue = Integer.MAX_VALUE; break;
+            case 'I': minValue = 0; maxValue = 0xffffffffL; break;
+            default: return false;
+        }
+        int numElements = 1;
+        for (int i = start + 2; i < end; ++i) {
+            if (bytes[i] == ',') ++numElements;
+        }
+        final Object array;
+        switch (Character.toLowerCase(elementType)) {
+            case 'c': array = new byte[numElements]; break;
+            case 's': array = new short[numElements]; break;
+            default: array = new int[numElements]; break;
+        }
+        int elementStart = start + 2;
+        for (int element = 0; element < numElements; ++element) {
+            int elementEnd = elementStart;
+            while (elementEnd < end && bytes[elementEnd] != ',') ++elementEnd;
+            if (!parseLongValue(elementStart, elementEnd) || parsedLong < minValue || parsedLong > maxValue) {
+                return false;
+            }
+            if (array instanceof byte[]) ((byte[]) array)[element] = (byte) parsedLong;
+            else if (array instanceof short[]) ((short[]) array)[element] = (short) parsedLong;
+            else ((int[]) array)[element] = (int) parsedLong;
+            elementStart = elementEnd + 1;
+        }
+        samRecord.setAttribute(tag, array, isUnsigned);
+        return true;
+    }
+
     private void parseTag(final SAMRecord samRecord, final String tag) {
         Map.Entry<String, Object> entry = null;
         try {
@@ -456,6 +727,10 @@ public class SAMLineParser {
     }
 
     private String makeErrorString(final String reason) {
+        if (this.currentLine == null && this.currentLineBytes != null) {
+            this.currentLine = new String(this.currentLineBytes, this.currentLineOffset,
+                    this.currentLineEnd - this.currentLineOffset, StandardCharsets.UTF_8);
+        }
         String fileMessage = "";
         if (mFile != null) {
             fileMessage = "File " + mFile + "; ";
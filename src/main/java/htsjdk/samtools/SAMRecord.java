@@ -176,6 +176,8 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
     private int mMateAlignmentStart = 0;
     private int mInferredInsertSize = 0;
     private SAMBinaryTagAndValue mAttributes = null;
+    // When set, holds the attributes in place of mAttributes.  See compactAttributes().
+    private SAMCompactAttributes mCompactAttributes = null;
     protected Integer mReferenceIndex = null;
     protected Integer mMateReferenceIndex = null;
     private Integer mIndexingBin = null;
@@ -1116,6 +1118,10 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
         if (val instanceof Integer) {
             return (Integer)val;
         }
+        return toIntegerValue(tag, val);
+    }
+
+    private static int toIntegerValue(final String tag, final Object val) {
         if (!(val instanceof Number)) {
             throw new RuntimeException("Value for tag " + tag + " is not Number: " + val.getClass());
         }
@@ -1313,7 +1319,7 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
      * @throws SAMException if the tag is not present.
      */
     public boolean isUnsignedArrayAttribute(final String tag) {
-        final SAMBinaryTagAndValue tmp = this.mAttributes.find(SAMTagUtil.getSingleton().makeBinaryTag(tag));
+        final SAMBinaryTagAndValue tmp = findAttribute(SAMTagUtil.getSingleton().makeBinaryTag(tag));
         if (tmp != null) return tmp.isUnsignedArray();
         throw new SAMException("Tag " + tag + " is not present in this SAMRecord");
     }
@@ -1331,12 +1337,60 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
      * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
      */
     public Object getAttribute(final short tag) {
+        final SAMBinaryTagAndValue tmp = findAttribute(tag);
+        if (tmp != null) return tmp.value;
+        else return null;
+    }
+
+    /**
+     * Get an integer-valued tag as a primitive.  If the attributes have been compacted, the value is read from
+     * their encoding without boxing.
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @param defaultValue Returned if the tag is not present.
+     * @return The value of the tag, converted into a signed int if possible.
+     * @throws RuntimeException If the value is not an integer type, or will not fit in a signed int.
+     */
+    public int getIntegerAttribute(final short tag, final int defaultValue) {
+        if (mCompactAttributes != null) return mCompactAttributes.getIntegerAttribute(tag, defaultValue);
+        final Object val = getAttribute(tag);
+        if (val == null) return defaultValue;
+        if (val instanceof Integer) return (Integer) val;
+        return toIntegerValue(SAMTagUtil.getSingleton().makeStringTag(tag), val);
+    }
+
+    /**
+     * Get a float-valued tag as a primitive.  If the attributes have been compacted, the value is read from their
+     * encoding without boxing.
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @param defaultValue Returned if the tag is not present.
+     */
+    public float getFloatAttribute(final short tag, final float defaultValue) {
+        if (mCompactAttributes != null) return mCompactAttributes.getFloatAttribute(tag, defaultValue);
+        final Object val = getAttribute(tag);
+        return val == null ? defaultValue : (Float) val;
+    }
+
+    /**
+     * Get a character-valued tag as a primitive.  If the attributes have been compacted, the value is read from
+     * their encoding without boxing.
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @param defaultValue Returned if the tag is not present.
+     */
+    public char getCharacterAttribute(final short tag, final char defaultValue) {
+        if (mCompactAttributes != null) return mCompactAttributes.getCharacterAttribute(tag, defaultValue);
+        final Object val = getAttribute(tag);
+        return val == null ? defaultValue : (Character) val;
+    }
+
+    /**
+     * Looks up a single attribute.  Subclasses that hold attributes in another form may decode just this one.
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @return The tag and its value, or null if the tag is not present.
+     */
+    protected SAMBinaryTagAndValue findAttribute(final short tag) {
+        if (this.mCompactAttributes != null) return this.mCompactAttributes.find(tag);
         if (this.mAttributes == null) return null;
-        else {
-            final SAMBinaryTagAndValue tmp = this.mAttributes.find(tag);
-            if (tmp != null) return tmp.value;
-            else return null;
-        }
+        return this.mAttributes.find(tag);
     }
 
     /**
@@ -1404,6 +1458,7 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
     }
 
     protected void setAttribute(final short tag, final Object value, final boolean isUnsignedArray) {
+        expandCompactAttributes();
         if (value == null) {
             if (this.mAttributes != null) {
                 // setting a tag value to null removes the tag:
@@ -1430,6 +1485,7 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
      */
     public void clearAttributes() {
         mAttributes = null;
+        mCompactAttributes = null;
     }
 
     /**
@@ -1437,15 +1493,53 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
      */
     protected void setAttributes(final SAMBinaryTagAndValue attributes) {
         mAttributes = attributes;
+        mCompactAttributes = null;
     }
 
     /**
-     * @return Pointer to the first of the tags.  Returns null if there are no tags.
+     * @return Pointer to the first of the tags.  Returns null if there are no tags.  If the attributes have been
+     * compacted, they are converted back to the list form, so that they are decoded only once.
      */
     protected SAMBinaryTagAndValue getBinaryAttributes() {
+        expandCompactAttributes();
         return mAttributes;
     }
 
+    /**
+     * Replaces the in-memory list of attributes with a {@link SAMCompactAttributes}, which holds them in their BAM
+     * encoding in a few primitive arrays.  This greatly reduces the heap held by records that are retained in
+     * memory with several attributes, and allows them to be written to BAM without re-encoding the attributes.
+     * Attributes may still be read as usual, and {@link #getIntegerAttribute(short, int)} and similar methods read
+     * them without boxing.  Setting an attribute, or reading the whole list of attributes, e.g. with
+     * {@link #getAttributes()}, converts the record back to the list form.
+     *
+     * Note that the values of Byte and Short attributes will subsequently be returned as Integer, just as they
+     * would after writing to and reading from BAM.
+     */
+    public void compactAttributes() {
+        if (mCompactAttributes != null) return;
+        final SAMBinaryTagAndValue attributes = getBinaryAttributes();
+        if (attributes != null) {
+            mCompactAttributes = SAMCompactAttributes.fromBinaryTagAndValues(attributes);
+            mAttributes = null;
+        }
+    }
+
+    /**
+     * @return The compacted attributes of this record, or null if {@link #compactAttributes()} has not been called
+     * since the attributes were last modified or converted back to the list form, or the record has no attributes.
+     */
+    public SAMCompactAttributes getCompactAttributes() {
+        return mCompactAttributes;
+    }
+
+    private void expandCompactAttributes() {
+        if (mCompactAttributes != null) {
+            mAttributes = mCompactAttributes.toBinaryTagAndValues();
+            mCompactAttributes = null;
+        }
+    }
+
     /**
      * @return reference name, null if this is unmapped
      */
@@ -1641,7 +1735,7 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
      * @return binary file size of attribute, if known, else -1
      */
     public int getAttributesBinarySize() {
-        return -1;
+        return mCompactAttributes != null ? mCompactAttributes.getBinarySize() : -1;
     }
 
     /**
@@ -1663,7 +1757,13 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
         addField(buffer, getInferredInsertSize(), 0, "*");
         addField(buffer, getReadString(), null, "*");
         addField(buffer, getBaseQualityString(), null, "*");
-        if (mAttributes != null) {
+        if (mCompactAttributes != null) {
+            // Decode one attribute at a time rather than undoing the compaction
+            for (int i = 0; i < mCompactAttributes.size(); ++i) {
+                final SAMBinaryTagAndValue entry = mCompactAttributes.get(i);
+                addField(buffer, formatTagValue(entry.tag, entry.value));
+            }
+        } else if (mAttributes != null) {
             SAMBinaryTagAndValue entry = getBinaryAttributes();
             while (entry != null) {
                 addField(buffer, formatTagValue(entry.tag, entry.value));
@@ -1719,6 +1819,37 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
         }
     }
 
+    /**
+     * Restore all data members to the state of a newly constructed record with the given header, so that this
+     * instance can be reused for another record.  Used by readers that recycle records.  If a subclass overrides
+     * this method, it should also call the super method.
+     */
+    protected void resetForReuse(final SAMFileHeader header) {
+        mReadName = null;
+        mReadBases = NULL_SEQUENCE;
+        mBaseQualities = NULL_QUALS;
+        mReferenceName = NO_ALIGNMENT_REFERENCE_NAME;
+        mAlignmentStart = NO_ALIGNMENT_START;
+        mAlignmentEnd = NO_ALIGNMENT_START;
+        mMappingQuality = NO_MAPPING_QUALITY;
+        mCigarString = NO_ALIGNMENT_CIGAR;
+        mCigar = null;
+        mAlignmentBlocks = null;
+        mFlags = 0;
+        mMateReferenceName = NO_ALIGNMENT_REFERENCE_NAME;
+        mMateAlignmentStart = 0;
+        mInferredInsertSize = 0;
+        mAttributes = null;
+        mCompactAttributes = null;
+        mReferenceIndex = null;
+        mMateReferenceIndex = null;
+        mIndexingBin = null;
+        mValidationStringency = ValidationStringency.SILENT;
+        mFileSource = null;
+        mHeader = header;
+        transientAttributes = null;
+    }
+
     /**
      * Force all lazily-initialized data members to be initialized.  If a subclass overrides this method,
      * typically it should also call  super method.
@@ -1785,8 +1916,18 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
         samRecord.eagerDecode();
 
         if (mReadName != null ? !mReadName.equals(samRecord.mReadName) : samRecord.mReadName != null) return false;
-        if (mAttributes != null ? !mAttributes.equals(samRecord.mAttributes) : samRecord.mAttributes != null)
-            return false;
+        if (mCompactAttributes != null && samRecord.mCompactAttributes != null) {
+            if (!mCompactAttributes.equals(samRecord.mCompactAttributes)) return false;
+        } else if (mCompactAttributes != null) {
+            if (!mCompactAttributes.listEquals(samRecord.getBinaryAttributes())) return false;
+        } else if (samRecord.mCompactAttributes != null) {
+            if (!samRecord.mCompactAttributes.listEquals(getBinaryAttributes())) return false;
+        } else {
+            final SAMBinaryTagAndValue attributes = getBinaryAttributes();
+            final SAMBinaryTagAndValue otherAttributes = samRecord.getBinaryAttributes();
+            if (attributes != null ? !attributes.equals(otherAttributes) : otherAttributes != null)
+                return false;
+        }
         if (!Arrays.equals(mBaseQualities, samRecord.mBaseQualities)) return false;
         if (mCigar != null ? !mCigar.equals(samRecord.mCigar) : samRecord.mCigar != null)
             return false;
@@ -1813,7 +1954,11 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
         result = 31 * result + (mMateReferenceName != null ? mMateReferenceName.hashCode() : 0);
         result = 31 * result + mMateAlignmentStart;
         result = 31 * result + mInferredInsertSize;
-        result = 31 * result + (mAttributes != null ? mAttributes.hashCode() : 0);
+        if (mCompactAttributes != null) {
+            result = 31 * result + mCompactAttributes.listHashCode();
+        } else {
+            result = 31 * result + (mAttributes != null ? mAttributes.hashCode() : 0);
+        }
         result = 31 * result + (mReferenceIndex != null ? mReferenceIndex.hashCode() : 0);
         result = 31 * result + (mMateReferenceIndex != null ? mMateReferenceIndex.hashCode() : 0);
         result = 31 * result + (mIndexingBin != null ? mIndexingBin.hashCode() : 0);
@@ -2150,9 +2295,14 @@ public class SAMRecord implements Cloneable, Locatable, Serializable {
         newSAM.mReferenceIndex = this.mReferenceIndex;
         newSAM.mMateReferenceIndex = this.mMateReferenceIndex;
         newSAM.setValidationStringency(getValidationStringency());
-        SAMBinaryTagAndValue attributes = getBinaryAttributes();
-        if (null != attributes) {
-            newSAM.setAttributes(attributes.deepCopy());
+        if (mCompactAttributes != null) {
+            // immutable, so may be shared
+            newSAM.mCompactAttributes = mCompactAttributes;
+        } else {
+            SAMBinaryTagAndValue attributes = getBinaryAttributes();
+            if (null != attributes) {
+                newSAM.setAttributes(attributes.deepCopy());
+            }
         }
         newSAM.setIndexingBin(getIndexingBin());
 
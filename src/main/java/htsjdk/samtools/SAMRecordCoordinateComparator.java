@@ -69,6 +69,36 @@ public class SAMRecordCoordinateComparator implements SAMRecordComparator, Seria
         else return (samRecord1.getReadNegativeStrandFlag()? 1: -1);
     }
 
+    /** Number of bits of the packed sort key that hold the reference index. */
+    private static final int REFERENCE_INDEX_BITS = 30;
+    private static final long UNMAPPED_REFERENCE_SLOT = (1L << REFERENCE_INDEX_BITS) - 1;
+
+    /**
+     * Pack the leading fields of the coordinate sort order into a single long, so that records can be sorted by
+     * key (see {@link htsjdk.samtools.util.SortingCollection}) and only compared when
+     * their keys are equal.  From most to least significant, the key holds the reference index (with unmapped
+     * records last), the alignment start and the negative strand flag.  If one record's key is less than
+     * another's, this comparator orders it first.
+     *
+     * @param samRecord Must have a non-null SAMFileHeader if its reference index has not been resolved.
+     * @return A non-negative key.
+     */
+    public static long getPackedSortKey(final SAMRecord samRecord) {
+        final int refIndex = samRecord.getReferenceIndex();
+        final long strand = samRecord.getReadNegativeStrandFlag() ? 1 : 0;
+        if (refIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+            // Alignment start does not take part in the order of unmapped records.
+            return (UNMAPPED_REFERENCE_SLOT << 33) | strand;
+        }
+        if (refIndex >= UNMAPPED_REFERENCE_SLOT - 1) {
+            // Too many references to pack; all such records share a key and are ordered by compare().
+            return (UNMAPPED_REFERENCE_SLOT - 1) << 33;
+        }
+        // Offset the start so that the whole int range is ordered correctly in 32 unsigned bits.
+        final long start = (long) samRecord.getAlignmentStart() - Integer.MIN_VALUE;
+        return ((long) refIndex << 33) | (start << 1) | strand;
+    }
+
     private int compareInts(int i1, int i2) {
         if (i1 < i2) return -1;
         else if (i1 > i2) return 1;
@@ -1,5 +1,7 @@
 package htsjdk.samtools;
 
+import java.util.Arrays;
+
 /**
  * Factory interface which allows plugging in of different classes for generating instances of
  * SAMRecord and BAMRecord when reading from SAM/BAM files.
@@ -25,4 +27,29 @@ public interface SAMRecordFactory {
                                      final int mateAlignmentStart,
                                      final int insertSize,
                                      final byte[] variableLengthBlock);
+
+    /**
+     * Create a new BAM Record whose variable-length block is a slice of a buffer that may be shared with other
+     * records.  The buffer is not modified after this call.  By default the slice is copied and passed to
+     * {@link #createBAMRecord(SAMFileHeader, int, int, short, short, int, int, int, int, int, int, int, byte[])}.
+     */
+    default BAMRecord createBAMRecord(final SAMFileHeader header,
+                                      final int referenceSequenceIndex,
+                                      final int alignmentStart,
+                                      final short readNameLength,
+                                      final short mappingQuality,
+                                      final int indexingBin,
+                                      final int cigarLen,
+                                      final int flags,
+                                      final int readLen,
+                                      final int mateReferenceSequenceIndex,
+                                      final int mateAlignmentStart,
+                                      final int insertSize,
+                                      final byte[] buffer,
+                                      final int variableLengthBlockOffset,
+                                      final int variableLengthBlockLength) {
+        return createBAMRecord(header, referenceSequenceIndex, alignmentStart, readNameLength, mappingQuality,
+                indexingBin, cigarLen, flags, readLen, mateReferenceSequenceIndex, mateAlignmentStart, insertSize,
+                Arrays.copyOfRange(buffer, variableLengthBlockOffset, variableLengthBlockOffset + variableLengthBlockLength));
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Growable char buffer into which a line of SAM text is formatted before being handed to a Writer in
+ * a single call.  Numbers are formatted directly into the buffer so that encoding a record does not
+ * create a String per field.  The buffer is reused from line to line, so an instance must not be
+ * shared between threads.
+ */
+final class SAMTextLineBuffer {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Integral floats of smaller magnitude than this are printed by Float.toString() as plain decimals. */
+    private static final float MAX_PLAIN_INTEGRAL_FLOAT = 1.0e7f;
+
+    private char[] buffer = new char[INITIAL_CAPACITY];
+    private int length = 0;
+
+    /** Discard the contents of the buffer, retaining its capacity. */
+    void clear() {
+        length = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void append(final char c) {
+        ensureCapacity(1);
+        buffer[length++] = c;
+    }
+
+    void append(final String s) {
+        final int len = s.length();
+        ensureCapacity(len);
+        s.getChars(0, len, buffer, length);
+        length += len;
+    }
+
+    /** Append each byte as the char with the same value, as is done for SAM read bases. */
+    void appendBytes(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        for (final byte b : bytes) {
+            buffer[length++] = (char) (b & 0xff);
+        }
+    }
+
+    /** Append the decimal representation of value, identical to Integer.toString(). */
+    void appendInt(final int value) {
+        appendLong(value);
+    }
+
+    /** Append the decimal representation of value, identical to Long.toString(). */
+    void appendLong(final long value) {
+        // Accumulate in negative space so that Long.MIN_VALUE needs no special case.
+        long remaining = value < 0 ? value : -value;
+        int numDigits = 1;
+        for (long bound = -10; remaining <= bound && numDigits < 19; bound *= 10) {
+            ++numDigits;
+        }
+        final int numChars = value < 0 ? numDigits + 1 : numDigits;
+        ensureCapacity(numChars);
+        if (value < 0) {
+            buffer[length] = '-';
+        }
+        int pos = length + numChars;
+        do {
+            buffer[--pos] = (char) ('0' - (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        length += numChars;
+    }
+
+    /**
+     * Append the representation of value produced by Float.toString().  Integral values in the range
+     * that Float.toString() prints without an exponent are formatted in place; all others are delegated
+     * to Float.toString() so that the output is unchanged.
+     */
+    void appendFloat(final float value) {
+        if (value == (int) value && Math.abs(value) < MAX_PLAIN_INTEGRAL_FLOAT &&
+                (value != 0.0f || Float.floatToRawIntBits(value) == 0)) {
+            appendInt((int) value);
+            append('.');
+            append('0');
+        } else {
+            append(Float.toString(value));
+        }
+    }
+
+    /** Write the contents of the buffer to out. */
+    void writeTo(final Writer out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    private void ensureCapacity(final int additional) {
+        final int required = length + additional;
+        if (required > buffer.length) {
+            final char[] newBuffer = new char[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+}
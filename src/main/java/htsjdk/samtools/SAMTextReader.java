@@ -24,11 +24,23 @@
 package htsjdk.samtools;
 
 
-import htsjdk.samtools.util.BufferedLineReader;
+import htsjdk.samtools.util.BufferedByteLineReader;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.DaemonThreadFactory;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -37,13 +49,22 @@ import java.io.InputStream;
 class SAMTextReader extends SamReader.ReaderImplementation {
 
 
+    private static final int PARSING_BATCH_BYTES = 256 * 1024;
+
     private SAMRecordFactory samRecordFactory;
-    private BufferedLineReader mReader;
+    private BufferedByteLineReader mReader;
     private SAMFileHeader mFileHeader = null;
-    private String mCurrentLine = null;
+    // Length of the current line, which is held by mReader, or -1 at EOF
+    private int mCurrentLineLength = -1;
     private RecordIterator mIterator = null;
     private File mFile = null;
 
+    private int mParsingThreads = 0;
+    private ExecutorService mParsingService = null;
+    private static final ThreadFactory PARSING_THREAD_FACTORY = new DaemonThreadFactory("SAMTextReader-parser-");
+    // Parsers not currently in use by a parsing thread.  Each batch takes one for as long as it is being parsed.
+    private final Queue<SAMLineParser> mIdleParsers = new ConcurrentLinkedQueue<>();
+
     private ValidationStringency validationStringency = ValidationStringency.DEFAULT_STRINGENCY;
 
     /**
@@ -57,7 +78,7 @@ class SAMTextReader extends SamReader.ReaderImplementation {
      * @param stream Need not be buffered, as this class provides buffered reading.
      */
     public SAMTextReader(final InputStream stream, final ValidationStringency validationStringency, final SAMRecordFactory factory) {
-        mReader = new BufferedLineReader(stream);
+        mReader = new BufferedByteLineReader(stream);
         this.validationStringency = validationStringency;
         this.samRecordFactory = factory;
         readHeader();
@@ -99,6 +120,32 @@ class SAMTextReader extends SamReader.ReaderImplementation {
         this.samRecordFactory = factory;
     }
 
+    /**
+     * Parse lines on the given number of worker threads rather than on the thread iterating.  Records are still
+     * returned in file order.  The {@link SAMRecordFactory} in use must be safe to call from several threads.
+     * @param threads number of parsing threads, or 0 to parse on the iterating thread.
+     */
+    void setParsingThreads(final int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Negative number of parsing threads: " + threads);
+        }
+        if (mIterator != null) {
+            throw new IllegalStateException("Cannot change the number of parsing threads while iteration is in progress");
+        }
+        if (mParsingService != null) {
+            mParsingService.shutdown();
+            mParsingService = null;
+        }
+        mParsingThreads = threads;
+    }
+
+    private ExecutorService getParsingService() {
+        if (mParsingService == null) {
+            mParsingService = Executors.newFixedThreadPool(mParsingThreads, PARSING_THREAD_FACTORY);
+        }
+        return mParsingService;
+    }
+
     @Override
     public SamReader.Type type() {
         return SamReader.Type.SAM_TYPE;
@@ -113,6 +160,11 @@ class SAMTextReader extends SamReader.ReaderImplementation {
     }
 
     public void close() {
+        if (mParsingService != null) {
+            mParsingService.shutdownNow();
+            mParsingService = null;
+        }
+        mIdleParsers.clear();
         if (mReader != null) {
             try {
                 mReader.close();
@@ -201,9 +253,8 @@ class SAMTextReader extends SamReader.ReaderImplementation {
         advanceLine();
     }
 
-    private String advanceLine() {
-        mCurrentLine = mReader.readLine();
-        return mCurrentLine;
+    private void advanceLine() {
+        mCurrentLineLength = mReader.readLineBytes();
     }
 
     /**
@@ -211,27 +262,52 @@ class SAMTextReader extends SamReader.ReaderImplementation {
      */
     private class RecordIterator implements CloseableIterator<SAMRecord> {
 
-        private final SAMLineParser parser = new SAMLineParser(samRecordFactory, validationStringency,
-                mFileHeader, mParentReader, mFile);
+        private final SAMLineParser parser = newParser();
+
+        // Only used when parsing on worker threads
+        private final ExecutorService parsingService;
+        private final Deque<Future<LineBatch>> parsingBatches = new ArrayDeque<>();
+        private LineBatch currentBatch = null;
 
         private RecordIterator() {
             if (mReader == null) {
                 throw new IllegalStateException("Reader is closed.");
             }
+            this.parsingService = mParsingThreads > 0 ? getParsingService() : null;
+        }
+
+        private SAMLineParser newParser() {
+            return new SAMLineParser(samRecordFactory, validationStringency, mFileHeader, mParentReader, mFile);
         }
 
         public void close() {
+            for (final Future<LineBatch> batch : parsingBatches) {
+                batch.cancel(true);
+            }
+            parsingBatches.clear();
             SAMTextReader.this.close();
         }
 
         public boolean hasNext() {
-            return mCurrentLine != null;
+            if (parsingService != null) {
+                return advanceParsedBatch();
+            }
+            return mCurrentLineLength >= 0;
         }
 
         public SAMRecord next() {
             if (!hasNext()) {
                 throw new IllegalStateException("Cannot call next() on exhausted iterator");
             }
+            if (parsingService != null) {
+                final int i = currentBatch.next++;
+                final SAMRecord record = currentBatch.records[i];
+                currentBatch.records[i] = null;
+                if (currentBatch.failures[i] != null) {
+                    throw currentBatch.failures[i];
+                }
+                return record;
+            }
             try {
                 return parseLine();
             } finally {
@@ -245,9 +321,102 @@ class SAMTextReader extends SamReader.ReaderImplementation {
 
         private SAMRecord parseLine() {
 
-            return parser.parseLine(mCurrentLine, mReader.getLineNumber());
+            return parser.parseLine(mReader.getLineBytes(), 0, mCurrentLineLength, mReader.getLineNumber());
         }
 
+        /**
+         * Ensures that currentBatch has a record left to return, reading lines and handing them to the parsing
+         * threads as batches are consumed.
+         * @return false if there are no more records.
+         */
+        private boolean advanceParsedBatch() {
+            try {
+                while (currentBatch == null || currentBatch.next == currentBatch.size) {
+                    while (mCurrentLineLength >= 0 && parsingBatches.size() < 2 * mParsingThreads) {
+                        parsingBatches.addLast(parsingService.submit(readLines()));
+                    }
+                    if (parsingBatches.isEmpty()) {
+                        return false;
+                    }
+                    currentBatch = parsingBatches.removeFirst().get();
+                }
+                return true;
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while parsing SAM records", exc);
+            } catch (final ExecutionException exc) {
+                final Throwable cause = exc.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new SAMException("Error parsing SAM records", cause);
+            }
+        }
+
+        /** Copies lines, starting with the current one, into a new batch until the batch is full or EOF. */
+        private LineBatch readLines() {
+            final LineBatch batch = new LineBatch();
+            byte[] bytes = new byte[PARSING_BATCH_BYTES];
+            int length = 0;
+            int[] offsets = new int[1024];
+            int[] lineNumbers = new int[1024];
+            while (mCurrentLineLength >= 0 && length < PARSING_BATCH_BYTES) {
+                if (bytes.length - length < mCurrentLineLength) {
+                    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + mCurrentLineLength));
+                }
+                if (batch.size + 1 == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    lineNumbers = Arrays.copyOf(lineNumbers, lineNumbers.length * 2);
+                }
+                System.arraycopy(mReader.getLineBytes(), 0, bytes, length, mCurrentLineLength);
+                offsets[batch.size] = length;
+                lineNumbers[batch.size] = mReader.getLineNumber();
+                length += mCurrentLineLength;
+                ++batch.size;
+                advanceLine();
+            }
+            offsets[batch.size] = length;
+            batch.bytes = bytes;
+            batch.offsets = offsets;
+            batch.lineNumbers = lineNumbers;
+            return batch;
+        }
+
+        /**
+         * A batch of lines read by the iterator, which is parsed on a worker thread and then handed back to the
+         * iterator in file order.
+         */
+        private class LineBatch implements Callable<LineBatch> {
+            // The lines, one after another, with line i at [offsets[i], offsets[i + 1])
+            private byte[] bytes;
+            private int[] offsets;
+            private int[] lineNumbers;
+            private int size = 0;
+
+            private SAMRecord[] records;
+            // The exception thrown parsing each line, if any, to be thrown when the iterator reaches that record
+            private RuntimeException[] failures;
+            private int next = 0;
+
+            @Override
+            public LineBatch call() {
+                SAMLineParser parser = mIdleParsers.poll();
+                if (parser == null) {
+                    parser = newParser();
+                }
+                records = new SAMRecord[size];
+                failures = new RuntimeException[size];
+                for (int i = 0; i < size; ++i) {
+                    try {
+                        records[i] = parser.parseLine(bytes, offsets[i], offsets[i + 1] - offsets[i], lineNumbers[i]);
+                    } catch (final RuntimeException e) {
+                        failures[i] = e;
+                    }
+                }
+                mIdleParsers.offer(parser);
+                bytes = null;
+                return this;
+            }
+        }
     }
 }
 
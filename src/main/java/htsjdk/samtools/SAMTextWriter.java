@@ -37,13 +37,15 @@ import java.io.Writer;
  * Writer for text-format SAM files.
  */
 public class SAMTextWriter extends SAMFileWriterImpl {
-    private static final String FIELD_SEPARATOR = "\t";
+    private static final char FIELD_SEPARATOR = '\t';
 
     private final Writer out;
     // For error reporting only.
     private final File file;
     private final TextTagCodec tagCodec = new TextTagCodec();
     private final SAMTagUtil tagUtil = new SAMTagUtil();
+    // Each line is formatted here and then written with a single call.
+    private final SAMTextLineBuffer lineBuffer = new SAMTextLineBuffer();
 
     /**
      * Constructs a SAMTextWriter that outputs to a Writer.
@@ -90,54 +92,74 @@ public class SAMTextWriter extends SAMFileWriterImpl {
      * @param alignment SAMRecord.
      */
     public void writeAlignment(final SAMRecord alignment) {
-        try {
-            out.write(alignment.getReadName());
-            out.write(FIELD_SEPARATOR);
-            out.write(Integer.toString(alignment.getFlags()));
-            out.write(FIELD_SEPARATOR);
-            out.write(alignment.getReferenceName());
-            out.write(FIELD_SEPARATOR);
-            out.write(Integer.toString(alignment.getAlignmentStart()));
-            out.write(FIELD_SEPARATOR);
-            out.write(Integer.toString(alignment.getMappingQuality()));
-            out.write(FIELD_SEPARATOR);
-            out.write(alignment.getCigarString());
-            out.write(FIELD_SEPARATOR);
-
-            //  == is OK here because these strings are interned
-            if (alignment.getReferenceName() == alignment.getMateReferenceName() &&
-                    SAMRecord.NO_ALIGNMENT_REFERENCE_NAME != alignment.getReferenceName()) {
-                out.write("=");
-            } else {
-                out.write(alignment.getMateReferenceName());
+        lineBuffer.clear();
+        lineBuffer.append(alignment.getReadName());
+        lineBuffer.append(FIELD_SEPARATOR);
+        lineBuffer.appendInt(alignment.getFlags());
+        lineBuffer.append(FIELD_SEPARATOR);
+        lineBuffer.append(alignment.getReferenceName());
+        lineBuffer.append(FIELD_SEPARATOR);
+        lineBuffer.appendInt(alignment.getAlignmentStart());
+        lineBuffer.append(FIELD_SEPARATOR);
+        lineBuffer.appendInt(alignment.getMappingQuality());
+        lineBuffer.append(FIELD_SEPARATOR);
+        lineBuffer.append(alignment.getCigarString());
+        lineBuffer.append(FIELD_SEPARATOR);
+
+        //  == is OK here because these strings are interned
+        if (alignment.getReferenceName() == alignment.getMateReferenceName() &&
+                SAMRecord.NO_ALIGNMENT_REFERENCE_NAME != alignment.getReferenceName()) {
+            lineBuffer.append('=');
+        } else {
+            lineBuffer.append(alignment.getMateReferenceName());
+        }
+        lineBuffer.append(FIELD_SEPARATOR);
+        lineBuffer.appendInt(alignment.getMateAlignmentStart());
+        lineBuffer.append(FIELD_SEPARATOR);
+        lineBuffer.appendInt(alignment.getInferredInsertSize());
+        lineBuffer.append(FIELD_SEPARATOR);
+        final byte[] readBases = alignment.getReadBases();
+        if (readBases.length == 0) {
+            lineBuffer.append(SAMRecord.NULL_SEQUENCE_STRING);
+        } else {
+            lineBuffer.appendBytes(readBases);
+        }
+        lineBuffer.append(FIELD_SEPARATOR);
+        final byte[] baseQualities = alignment.getBaseQualities();
+        if (baseQualities.length == 0) {
+            lineBuffer.append(SAMRecord.NULL_QUALS_STRING);
+        } else {
+            for (final byte quality : baseQualities) {
+                lineBuffer.append(SAMUtils.phredToFastq(quality));
+            }
+        }
+        final SAMCompactAttributes compactAttributes = alignment.getCompactAttributes();
+        if (compactAttributes != null) {
+            // Decode one attribute at a time rather than undoing the compaction
+            for (int i = 0; i < compactAttributes.size(); ++i) {
+                writeAttribute(compactAttributes.get(i));
             }
-            out.write(FIELD_SEPARATOR);
-            out.write(Integer.toString(alignment.getMateAlignmentStart()));
-            out.write(FIELD_SEPARATOR);
-            out.write(Integer.toString(alignment.getInferredInsertSize()));
-            out.write(FIELD_SEPARATOR);
-            out.write(alignment.getReadString());
-            out.write(FIELD_SEPARATOR);
-            out.write(alignment.getBaseQualityString());
+        } else {
             SAMBinaryTagAndValue attribute = alignment.getBinaryAttributes();
             while (attribute != null) {
-                out.write(FIELD_SEPARATOR);
-                final String encodedTag;
-                if (attribute.isUnsignedArray()) {
-                    encodedTag = tagCodec.encodeUnsignedArray(tagUtil.makeStringTag(attribute.tag), attribute.value);
-                } else {
-                    encodedTag = tagCodec.encode(tagUtil.makeStringTag(attribute.tag), attribute.value);
-                }
-                out.write(encodedTag);
+                writeAttribute(attribute);
                 attribute = attribute.getNext();
             }
-            out.write("\n");
+        }
+        lineBuffer.append('\n');
 
+        try {
+            lineBuffer.writeTo(out);
         } catch (IOException e) {
             throw new RuntimeIOException(e);
         }
     }
 
+    private void writeAttribute(final SAMBinaryTagAndValue attribute) {
+        lineBuffer.append(FIELD_SEPARATOR);
+        tagCodec.encode(tagUtil.makeStringTag(attribute.tag), attribute.value, attribute.isUnsignedArray(), lineBuffer);
+    }
+
     /* This method is called by SAMRecord.getSAMString(). */
     private static SAMTextWriter textWriter = null;
     private static StringWriter stringWriter = null;
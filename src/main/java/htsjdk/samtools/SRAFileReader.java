@@ -130,6 +130,30 @@ public class SRAFileReader extends SamReader.ReaderImplementation implements Sam
         return new BAMFileSpan(new Chunk(0, recordRangeInfo.getTotalRecordRangeLength()));
     }
 
+    /**
+     * Spans of an SRA file are ranges of record numbers, so the records are divided into ranges of equal length
+     */
+    @Override
+    public List<SAMFileSpan> splitFilePointerSpanningReads(final int numShards) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("numShards must be at least 1: " + numShards);
+        }
+        final long total = recordRangeInfo.getTotalRecordRangeLength();
+        if (total <= 0) {
+            throw new RuntimeException("Cannot create file span - SRA file is empty");
+        }
+        final List<SAMFileSpan> shards = new ArrayList<SAMFileSpan>(numShards);
+        long start = 0;
+        for (int i = 1; i <= numShards; i++) {
+            final long end = total * i / numShards;
+            if (end > start) {
+                shards.add(new BAMFileSpan(new Chunk(start, end)));
+                start = end;
+            }
+        }
+        return shards;
+    }
+
     @Override
     public CloseableIterator<SAMRecord> query(QueryInterval[] intervals, boolean contained) {
         BAMFileSpan span = new BAMFileSpan();
@@ -76,6 +76,19 @@ public class SamFiles {
             return indexFile;
         }
 
+        // Fall back to a CSI index, foo.bam.csi or foo.csi
+        if (fileName.endsWith(BamFileIoUtils.BAM_FILE_EXTENSION)) {
+            indexFile = new File(samFile.getParent(), samFile.getName() + CSIIndex.CSI_INDEX_SUFFIX);
+            if (indexFile.isFile()) {
+                return indexFile;
+            }
+            final String csi = fileName.substring(0, fileName.length() - BamFileIoUtils.BAM_FILE_EXTENSION.length()) + CSIIndex.CSI_INDEX_SUFFIX;
+            indexFile = new File(samFile.getParent(), csi);
+            if (indexFile.isFile()) {
+                return indexFile;
+            }
+        }
+
         return null;
     }
 }
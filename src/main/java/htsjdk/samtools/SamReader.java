@@ -4,6 +4,8 @@ import htsjdk.samtools.util.CloseableIterator;
 
 import java.io.Closeable;
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Describes functionality for objects that produce {@link SAMRecord}s and associated information.
@@ -106,6 +108,18 @@ public interface SamReader extends Iterable<SAMRecord>, Closeable {
          */
         public SAMFileSpan getFilePointerSpanningReads();
 
+        /**
+         * Divides the reads in the file into spans of roughly equal size, each starting at a record, so that
+         * the file can be processed in parts by independent readers with {@link #iterator(SAMFileSpan)}.
+         * Formats that cannot be divided return a single span.
+         *
+         * @param numShards the number of spans wanted.  Fewer may be returned.
+         * @return spans in file order that together cover all reads in the file.
+         */
+        public default List<SAMFileSpan> splitFilePointerSpanningReads(final int numShards) {
+            return Collections.singletonList(getFilePointerSpanningReads());
+        }
+
     }
 
     public SAMFileHeader getFileHeader();
@@ -329,6 +343,10 @@ public interface SamReader extends Iterable<SAMRecord>, Closeable {
 
         SAMFileSpan getFilePointerSpanningReads();
 
+        default List<SAMFileSpan> splitFilePointerSpanningReads(int numShards) {
+            return Collections.singletonList(getFilePointerSpanningReads());
+        }
+
         CloseableIterator<SAMRecord> query(QueryInterval[] intervals, boolean contained);
 
         CloseableIterator<SAMRecord> queryAlignmentStart(String sequence, int start);
@@ -464,6 +482,11 @@ public interface SamReader extends Iterable<SAMRecord>, Closeable {
             return p.getFilePointerSpanningReads();
         }
 
+        @Override
+        public List<SAMFileSpan> splitFilePointerSpanningReads(final int numShards) {
+            return p.splitFilePointerSpanningReads(numShards);
+        }
+
         @Override
         public SAMFileHeader getFileHeader() {
             return p.getFileHeader();
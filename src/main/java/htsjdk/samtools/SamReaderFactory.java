@@ -2,6 +2,7 @@ package htsjdk.samtools;
 
 import htsjdk.samtools.cram.ref.CRAMReferenceSource;
 import htsjdk.samtools.cram.ref.ReferenceSource;
+import htsjdk.samtools.seekablestream.SeekableMemoryMappedFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.sra.SRAAccession;
 import htsjdk.samtools.util.BlockCompressedInputStream;
@@ -10,6 +11,7 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.zip.InflaterFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -66,6 +68,10 @@ public abstract class SamReaderFactory {
     /** Set this factory's {@link htsjdk.samtools.SAMRecordFactory} to the provided one, then returns itself. */
     abstract public SamReaderFactory samRecordFactory(final SAMRecordFactory samRecordFactory);
 
+    /** Set the {@link InflaterFactory} used by readers of block-compressed files, then returns itself.
+     * If this method is not called, {@link InflaterFactory#getDefaultInflaterFactory()} is used. */
+    abstract public SamReaderFactory inflaterFactory(final InflaterFactory inflaterFactory);
+
     /** Enables the provided {@link Option}s, then returns itself. */
     abstract public SamReaderFactory enable(final Option... options);
 
@@ -126,6 +132,7 @@ public abstract class SamReaderFactory {
         private SAMRecordFactory samRecordFactory;
         private CustomReaderFactory customReaderFactory;
         private CRAMReferenceSource referenceSource;
+        private InflaterFactory inflaterFactory = InflaterFactory.getDefaultInflaterFactory();
 
         private SamReaderFactoryImpl(final EnumSet<Option> enabledOptions, final ValidationStringency validationStringency, final SAMRecordFactory samRecordFactory) {
             this.enabledOptions = EnumSet.copyOf(enabledOptions);
@@ -159,6 +166,12 @@ public abstract class SamReaderFactory {
             return this;
         }
 
+        @Override
+        public SamReaderFactory inflaterFactory(final InflaterFactory inflaterFactory) {
+            this.inflaterFactory = inflaterFactory;
+            return this;
+        }
+
         @Override
         public SamReaderFactory enable(final Option... options) {
             Collections.addAll(this.enabledOptions, options);
@@ -252,7 +265,8 @@ public abstract class SamReaderFactory {
                                 false,
                                 asynchronousIO,
                                 validationStringency,
-                                this.samRecordFactory
+                                this.samRecordFactory,
+                                this.inflaterFactory
                         );
                     } else {
                         throw new SAMFormatException("Unrecognized file format: " + data.asUnbufferedSeekableStream());
@@ -270,13 +284,18 @@ public abstract class SamReaderFactory {
                     if (SamStreams.isBAMFile(bufferedStream)) {
                         if (sourceFile == null || !sourceFile.isFile()) {
                             // Handle case in which file is a named pipe, e.g. /dev/stdin or created by mkfifo
-                            primitiveSamReader = new BAMFileReader(bufferedStream, indexFile, false, asynchronousIO, validationStringency, this.samRecordFactory);
+                            primitiveSamReader = new BAMFileReader(bufferedStream, indexFile, false, asynchronousIO, validationStringency, this.samRecordFactory, this.inflaterFactory);
+                        } else if (enabledOptions.contains(Option.MEMORY_MAP_BAM_FILES)) {
+                            bufferedStream.close();
+                            primitiveSamReader = new BAMFileReader(new SeekableMemoryMappedFileStream(sourceFile),
+                                    indexFile != null ? indexFile : SamFiles.findIndex(sourceFile),
+                                    false, asynchronousIO, validationStringency, this.samRecordFactory, this.inflaterFactory);
                         } else {
                             bufferedStream.close();
-                            primitiveSamReader = new BAMFileReader(sourceFile, indexFile, false, asynchronousIO, validationStringency, this.samRecordFactory);
+                            primitiveSamReader = new BAMFileReader(sourceFile, indexFile, false, asynchronousIO, validationStringency, this.samRecordFactory, this.inflaterFactory);
                         }
                     } else if (BlockCompressedInputStream.isValidFile(bufferedStream)) {
-                        primitiveSamReader = new SAMTextReader(new BlockCompressedInputStream(bufferedStream), validationStringency, this.samRecordFactory);
+                        primitiveSamReader = new SAMTextReader(new BlockCompressedInputStream(bufferedStream, true, this.inflaterFactory), validationStringency, this.samRecordFactory);
                     } else if (SamStreams.isGzippedSAMFile(bufferedStream)) {
                         primitiveSamReader = new SAMTextReader(new GZIPInputStream(bufferedStream), validationStringency, this.samRecordFactory);
                     } else if (SamStreams.isCRAMFile(bufferedStream)) {
@@ -469,6 +488,153 @@ public abstract class SamReaderFactory {
                 logDebugIgnoringOption(reader, this);
             }
 
+        },
+
+        /**
+         * The factory's {@link SamReader}s will read local BAM files through a memory mapping of the file rather than
+         * through a {@link java.io.RandomAccessFile}.  This avoids a system call and a copy for every block read, which
+         * benefits workloads issuing many small queries.  Streams and remote resources are not affected.
+         *
+         * @see SeekableMemoryMappedFileStream
+         */
+        MEMORY_MAP_BAM_FILES {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                // Already taken into account when the underlying stream was opened
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final SRAFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+        },
+
+        /**
+         * The factory's BAM and SAM {@link htsjdk.samtools.SamReader}s will decode records in batches on
+         * {@link Defaults#BAM_DECODING_THREADS} worker threads, rather than on the thread iterating over them.
+         * Records are still returned in file order.  Combined with {@link #EAGERLY_DECODE}, BAM records are also fully
+         * decoded on the worker threads.  The {@link SAMRecordFactory} in use must be safe to call from several threads.
+         */
+        DECODE_RECORDS_IN_PARALLEL {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.setDecodingThreads(Math.max(1, Defaults.BAM_DECODING_THREADS));
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                underlyingReader.setParsingThreads(Math.max(1, Defaults.BAM_DECODING_THREADS));
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final SRAFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+        },
+
+        /**
+         * The factory's BAM {@link htsjdk.samtools.SamReader}s will decode consecutive records into shared buffers,
+         * with each {@link BAMRecord} referring to its slice in place, rather than allocating an array per record.
+         * When streaming through a file, this replaces an allocation per record by one per 64KB of records.
+         * A record keeps its whole buffer reachable until it is eagerly decoded or garbage collected, so this is
+         * not recommended when a small fraction of the records is kept for a long time.
+         *
+         * @see BAMRecordCodec#setSharedBufferSize(int)
+         */
+        SHARE_RECORD_BUFFERS {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.setShareRecordBuffers(true);
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final SRAFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+        },
+
+        /**
+         * The factory's BAM {@link htsjdk.samtools.SamReader}s will reuse a small ring of {@link SAMRecord} instances,
+         * created by the {@link SAMRecordFactory}, rather than creating a new record for each one read.  This is meant
+         * for streaming through a file: a record returned by an iterator is only valid until the following call to
+         * next(), so a caller that retains records must copy them with {@link SAMRecord#deepCopy()}.  Fields that are
+         * decoded lazily (e.g. the cigar and attributes) still allocate when they are accessed.
+         * Ignored in combination with {@link #DECODE_RECORDS_IN_PARALLEL}.
+         */
+        RECYCLE_RECORDS {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.setRecycleRecords(true);
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final SRAFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+        },
+
+        /**
+         * The factory's BAM {@link htsjdk.samtools.SamReader}s will read the compressed data for the chunks of index
+         * queries on a background thread, ahead of decoding it, and will read through gaps of up to
+         * {@link Defaults#BAM_QUERY_CHUNK_GAP} compressed bytes between chunks rather than seeking over them.  This
+         * helps most for queries with many intervals over files on a network or other high-latency storage.
+         */
+        PREFETCH_QUERY_CHUNKS {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.setPrefetchQueryChunks(true);
+                underlyingReader.setQueryChunkGap(Math.max(0, Defaults.BAM_QUERY_CHUNK_GAP));
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final SRAFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
         };
 
         public static EnumSet<Option> DEFAULTS = EnumSet.noneOf(Option.class);
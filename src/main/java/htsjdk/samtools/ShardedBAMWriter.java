@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.DaemonThreadFactory;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a BAM file whose records are supplied in consecutive shards, compressing the shards in parallel.
+ *
+ * Each shard is encoded on a worker thread into its own temporary BGZF stream, with no header and no terminator
+ * block.  When the writer is closed the header, the shards and a terminator block are concatenated block by
+ * block, as {@link BamFileIoUtils#gatherWithBlockCopying} does for whole BAM files, so nothing is compressed
+ * twice.  If an index is wanted, each shard is indexed while it is written as if it started at the beginning of
+ * a file; the shard's index content is then moved to where the shard lands in the output and merged with that
+ * of the shards around it.
+ *
+ * For example, the output of a sort divided into ranges of the sort order can be written on all cores:
+ * <pre>
+ *     try (final ShardedBAMWriter writer = new ShardedBAMWriter(output, header, true, numThreads)) {
+ *         for (final List&lt;SAMRecord&gt; range : sortedRanges) writer.addShard(range);
+ *     }
+ * </pre>
+ */
+public class ShardedBAMWriter implements Closeable {
+    private static final ThreadFactory THREAD_FACTORY = new DaemonThreadFactory("ShardedBAMWriter-");
+    private static final Log log = Log.getInstance(ShardedBAMWriter.class);
+
+    /** How long close() waits for shards that are still being written when it gives up on the output. */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private final File output;
+    private final SAMFileHeader header;
+    private final File indexFile;
+    private final int compressionLevel;
+    private final File tmpDir;
+    private final ExecutorService executor;
+    private final List<Future<Shard>> shards = new ArrayList<>();
+    private final List<File> tmpFiles = Collections.synchronizedList(new ArrayList<>());
+    private boolean closed = false;
+
+    /**
+     * @param output      the BAM file to write
+     * @param header      header of the output, which must be coordinate sorted if createIndex is true
+     * @param createIndex whether to write a BAM index alongside the output
+     * @param numThreads  number of shards to compress at once
+     */
+    public ShardedBAMWriter(final File output, final SAMFileHeader header, final boolean createIndex, final int numThreads) {
+        this(output, header, createIndex, numThreads, BlockCompressedOutputStream.getDefaultCompressionLevel(),
+                new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param output           the BAM file to write
+     * @param header           header of the output, which must be coordinate sorted if createIndex is true
+     * @param createIndex      whether to write a BAM index alongside the output
+     * @param numThreads       number of shards to compress at once
+     * @param compressionLevel 1 <= compressionLevel <= 9
+     * @param tmpDir           where compressed shards are kept until they are concatenated
+     */
+    public ShardedBAMWriter(final File output, final SAMFileHeader header, final boolean createIndex, final int numThreads,
+                            final int compressionLevel, final File tmpDir) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+        IOUtil.assertFileIsWritable(output);
+        if (createIndex) {
+            BAMIndexer.checkSortOrder(header);
+            indexFile = new File(output.getParentFile(), IOUtil.basename(output) + BAMIndex.BAMIndexSuffix);
+        } else {
+            indexFile = null;
+        }
+        this.output = output;
+        this.header = header;
+        this.compressionLevel = compressionLevel;
+        this.tmpDir = tmpDir;
+        this.executor = Executors.newFixedThreadPool(numThreads, THREAD_FACTORY);
+    }
+
+    /**
+     * Queues a shard of records to be compressed.  Shards appear in the output in the order in which they are
+     * added, and when indexing, each must follow the previous one in coordinate order.  The records are read on
+     * a worker thread, so they must not be modified until {@link #close()} returns.
+     *
+     * @param records the records of the shard, in the order in which they are to be written
+     */
+    public void addShard(final Iterable<SAMRecord> records) {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        shards.add(executor.submit(() -> writeShard(records)));
+    }
+
+    /**
+     * Waits for all shards to be compressed, then writes the output and its index
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try (final OutputStream out = IOUtil.maybeBufferOutputStream(new FileOutputStream(output))) {
+            final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            BAMFileWriter.writeHeader(headerBytes, header);
+            headerBytes.writeTo(out);
+            long position = headerBytes.size();
+
+            final BAMIndexWriter indexWriter = indexFile == null ? null :
+                    new BinaryBAMIndexWriter(header.getSequenceDictionary().size(), indexFile);
+            final BAMShardIndex.Merger merger = indexWriter == null ? null :
+                    new BAMShardIndex.Merger(header.getSequenceDictionary().size(), indexWriter);
+            try {
+                for (final Future<Shard> future : shards) {
+                    final Shard shard = future.get();
+                    Files.copy(shard.file.toPath(), out);
+                    if (merger != null) {
+                        shard.index.offsetFilePointers(position);
+                        merger.add(shard.index);
+                    }
+                    position += shard.file.length();
+                    IOUtil.deleteFiles(shard.file);
+                    tmpFiles.remove(shard.file);
+                }
+                out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+                if (merger != null) merger.finish();
+            } finally {
+                if (indexWriter != null) indexWriter.close();
+            }
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Exception writing " + output, e);
+        } catch (final InterruptedException e) {
+            throw new SAMException("Interrupted while writing " + output, e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeIOException("Exception writing " + output, e.getCause());
+        } finally {
+            executor.shutdownNow();
+            // A shard still being written could otherwise create or write its file after it has been deleted.
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    log.warn("Shards of " + output + " were still being written after " + SHUTDOWN_TIMEOUT_SECONDS +
+                            " seconds; some temporary files may not be deleted until the JVM exits.");
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted waiting for shards of " + output + " to stop; some temporary files may not " +
+                        "be deleted until the JVM exits.");
+            }
+            IOUtil.deleteFiles(tmpFiles);
+        }
+    }
+
+    /**
+     * Encodes and compresses the records of a shard to a temporary file, indexing them if required
+     */
+    private Shard writeShard(final Iterable<SAMRecord> records) throws IOException {
+        final File file = IOUtil.newTempFile("ShardedBAMWriter.", ".bam.part", new File[]{tmpDir});
+        tmpFiles.add(file);
+        final BAMShardIndex index = indexFile == null ? null : new BAMShardIndex(header.getSequenceDictionary(),
+                GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH);
+
+        try (final OutputStream out = IOUtil.maybeBufferOutputStream(new FileOutputStream(file))) {
+            final BlockCompressedOutputStream blockOut = new BlockCompressedOutputStream(out, null, compressionLevel, 0);
+            final BAMRecordCodec codec = new BAMRecordCodec(header);
+            codec.setOutputStream(blockOut, file.getAbsolutePath());
+            for (final SAMRecord record : records) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The writer is being closed because of an error, so the shard will never be used.
+                    throw new InterruptedIOException("Writing of shard " + file + " was cancelled");
+                }
+                if (index == null) {
+                    codec.encode(record);
+                    continue;
+                }
+                final long start = blockOut.getFilePointer();
+                codec.encode(record);
+                final long end = blockOut.getFilePointer();
+                if (record.getAlignmentStart() == SAMRecord.NO_ALIGNMENT_START) {
+                    index.incrementNoCoordinateRecordCount();
+                } else {
+                    index.processFeature(record.getReferenceIndex(), record.getReadUnmappedFlag(), start, end,
+                            new IndexedRecord(record, start, end));
+                }
+            }
+            // writes any partly filled block, but not the terminator that close() would add
+            blockOut.flush();
+        }
+        return new Shard(file, index);
+    }
+
+    /** A compressed shard waiting to be concatenated, and its index content */
+    private static class Shard {
+        private final File file;
+        private final BAMShardIndex index;
+
+        Shard(final File file, final BAMShardIndex index) {
+            this.file = file;
+            this.index = index;
+        }
+    }
+
+    /** Index information for a record written to a shard */
+    private static class IndexedRecord implements BinningIndexBuilder.FeatureToBeIndexed {
+        private final SAMRecord record;
+        private final long start;
+        private final long end;
+
+        IndexedRecord(final SAMRecord record, final long start, final long end) {
+            this.record = record;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int getStart() {
+            return record.getAlignmentStart();
+        }
+
+        @Override
+        public int getEnd() {
+            return record.getAlignmentEnd();
+        }
+
+        @Override
+        public Integer getIndexingBin() {
+            final Integer binNumber = record.getIndexingBin();
+            return (binNumber == null ? record.computeIndexingBin() : binNumber);
+        }
+
+        @Override
+        public Chunk getChunk() {
+            return new Chunk(start, end);
+        }
+    }
+}
@@ -129,6 +129,106 @@ public class TextTagCodec {
         return tagName + ":B:" + getArrayType(array, true) + "," + encodeArrayValue(widened);
     }
 
+    /**
+     * Append the SAM text representation of a tag, i.e. name:type:value, to buffer.  Produces the same
+     * text as encode() or encodeUnsignedArray(), but formats numeric values and array elements directly
+     * into the buffer rather than creating intermediate Strings.
+     * @param tagName Two-character tag name.
+     * @param value Tag value as appropriate Object subclass.
+     * @param isUnsignedArray true if value is an array whose elements should be written as unsigned.
+     * @param buffer Where the encoded tag is appended.
+     */
+    void encode(final String tagName, final Object value, final boolean isUnsignedArray, final SAMTextLineBuffer buffer) {
+        if (isUnsignedArray) {
+            if (!value.getClass().isArray() || Array.getLength(value) == 0) {
+                // Let the String implementation report the problem.
+                buffer.append(encodeUnsignedArray(tagName, value));
+                return;
+            }
+            final char arrayType = getArrayType(value, true);
+            buffer.append(tagName);
+            buffer.append(":B:");
+            buffer.append(arrayType);
+            encodeArrayElements(value, true, buffer);
+            return;
+        }
+        final char tagType = BinaryTagCodec.getTagValueType(value);
+        switch (tagType) {
+            case 'Z':
+                appendTagPrefix(tagName, 'Z', buffer);
+                buffer.append((String) value);
+                break;
+            case 'A':
+                appendTagPrefix(tagName, 'A', buffer);
+                buffer.append(((Character) value).charValue());
+                break;
+            case 'f':
+                appendTagPrefix(tagName, 'f', buffer);
+                buffer.appendFloat((Float) value);
+                break;
+            case 'B':
+                if (Array.getLength(value) == 0) {
+                    buffer.append(encode(tagName, value));
+                    return;
+                }
+                final char arrayType = getArrayType(value, false);
+                appendTagPrefix(tagName, 'B', buffer);
+                buffer.append(arrayType);
+                encodeArrayElements(value, false, buffer);
+                break;
+            case 'c':
+            case 'C':
+            case 's':
+            case 'S':
+            case 'i':
+            case 'I':
+                final long longVal = ((Number) value).longValue();
+                // as the spec says: [-2^31, 2^32)
+                if (longVal < Integer.MIN_VALUE || longVal > BinaryCodec.MAX_UINT) {
+                    throw new IllegalArgumentException("Value for tag " + tagName + " cannot be stored in either a signed or unsigned 32-bit integer: " + longVal);
+                }
+                appendTagPrefix(tagName, 'i', buffer);
+                buffer.appendLong(longVal);
+                break;
+            default:
+                buffer.append(encode(tagName, value));
+        }
+    }
+
+    private static void appendTagPrefix(final String tagName, final char tagType, final SAMTextLineBuffer buffer) {
+        buffer.append(tagName);
+        buffer.append(':');
+        buffer.append(tagType);
+        buffer.append(':');
+    }
+
+    /**
+     * Append each element of a primitive array, preceded by a comma.
+     */
+    private static void encodeArrayElements(final Object array, final boolean isUnsigned, final SAMTextLineBuffer buffer) {
+        if (array instanceof byte[]) {
+            for (final byte b : (byte[]) array) {
+                buffer.append(',');
+                buffer.appendInt(isUnsigned ? b & 0xff : b);
+            }
+        } else if (array instanceof short[]) {
+            for (final short s : (short[]) array) {
+                buffer.append(',');
+                buffer.appendInt(isUnsigned ? s & 0xffff : s);
+            }
+        } else if (array instanceof int[]) {
+            for (final int i : (int[]) array) {
+                buffer.append(',');
+                buffer.appendLong(isUnsigned ? i & 0xffffffffL : i);
+            }
+        } else {
+            for (final float f : (float[]) array) {
+                buffer.append(',');
+                buffer.appendFloat(f);
+            }
+        }
+    }
+
     /**
      * Encode a standard header tag, which should not have a type field.
      * @param tagName 2-character String.
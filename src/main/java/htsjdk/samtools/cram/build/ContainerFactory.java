@@ -24,7 +24,6 @@ import htsjdk.samtools.cram.encoding.ExternalCompressor;
 import htsjdk.samtools.cram.encoding.writer.DataWriterFactory;
 import htsjdk.samtools.cram.encoding.writer.Writer;
 import htsjdk.samtools.cram.io.DefaultBitOutputStream;
-import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
 import htsjdk.samtools.cram.structure.Block;
 import htsjdk.samtools.cram.structure.BlockContentType;
 import htsjdk.samtools.cram.structure.CompressionHeader;
@@ -32,6 +31,7 @@ import htsjdk.samtools.cram.structure.Container;
 import htsjdk.samtools.cram.structure.CramCompressionRecord;
 import htsjdk.samtools.cram.structure.Slice;
 import htsjdk.samtools.cram.structure.SubstitutionMatrix;
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 
 import java.io.IOException;
 import java.util.ArrayList;
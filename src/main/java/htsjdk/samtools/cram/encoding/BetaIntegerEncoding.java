@@ -17,10 +17,10 @@
  */
 package htsjdk.samtools.cram.encoding;
 
-import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
 import htsjdk.samtools.cram.io.ITF8;
 import htsjdk.samtools.cram.structure.EncodingID;
 import htsjdk.samtools.cram.structure.EncodingParams;
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -17,9 +17,9 @@
  */
 package htsjdk.samtools.cram.encoding;
 
-import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
 import htsjdk.samtools.cram.structure.EncodingID;
 import htsjdk.samtools.cram.structure.EncodingParams;
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 
 import java.io.InputStream;
 import java.util.Map;
@@ -19,10 +19,10 @@ package htsjdk.samtools.cram.encoding.huffman.codec;
 
 import htsjdk.samtools.cram.encoding.BitCodec;
 import htsjdk.samtools.cram.encoding.Encoding;
-import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
 import htsjdk.samtools.cram.io.ITF8;
 import htsjdk.samtools.cram.structure.EncodingID;
 import htsjdk.samtools.cram.structure.EncodingParams;
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
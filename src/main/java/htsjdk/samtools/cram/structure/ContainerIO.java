@@ -3,7 +3,7 @@ package htsjdk.samtools.cram.structure;
 import htsjdk.samtools.cram.build.CramIO;
 import htsjdk.samtools.cram.common.CramVersionPolicies;
 import htsjdk.samtools.cram.common.Version;
-import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 import htsjdk.samtools.util.Log;
 import org.apache.commons.compress.utils.CountingOutputStream;
 
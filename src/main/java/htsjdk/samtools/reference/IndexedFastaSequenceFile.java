@@ -28,13 +28,18 @@ import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.seekablestream.SeekablePathStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.GZIIndex;
 import htsjdk.samtools.util.IOUtil;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
@@ -45,6 +50,11 @@ import java.util.Iterator;
 /**
  * A fasta file driven by an index for fast, concurrent lookups.  Supports two interfaces:
  * the ReferenceSequenceFile for old-style, stateful lookups and a direct getter.
+ *
+ * The fasta may also be compressed with bgzip, in which case a .gzi index must be stored alongside it
+ * (e.g. reference.fasta.gz.gzi, as written by <code>bgzip -i</code> or {@link GZIIndex#writeIndex(Path)}).
+ * The .fai offsets are then offsets into the uncompressed sequence, and lookups seek directly to the
+ * BGZF block containing the requested bases.
  */
 public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implements Closeable {
     /**
@@ -52,6 +62,17 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
      */
     private final SeekableByteChannel channel;
 
+    /**
+     * The interface facilitating direct access to a bgzip-compressed fasta; null if the fasta is not compressed.
+     * Lookups are serialized on this stream, because it holds the current block.
+     */
+    private final BlockCompressedInputStream bgzfStream;
+
+    /**
+     * Maps uncompressed offsets onto BGZF blocks; null if the fasta is not compressed.
+     */
+    private final GZIIndex gziIndex;
+
     /**
      * A representation of the sequence index, stored alongside the fasta in a .fasta.fai file.
      */
@@ -87,12 +108,29 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
      * @param index Pre-built FastaSequenceIndex, for the case in which one does not exist on disk.
      */
     public IndexedFastaSequenceFile(final Path path, final FastaSequenceIndex index) {
+        this(path, index, isBgzipped(path) ? loadRequiredGziIndex(path) : null);
+    }
+
+    /**
+     * Open the given bgzip-compressed, indexed fasta sequence file.  Throw an exception if the file cannot be opened.
+     * @param path The file to open.
+     * @param index Pre-built FastaSequenceIndex, for the case in which one does not exist on disk.
+     * @param gziIndex Pre-built GZIIndex for the compressed file, or null if the file is not compressed.
+     */
+    public IndexedFastaSequenceFile(final Path path, final FastaSequenceIndex index, final GZIIndex gziIndex) {
         super(path);
         if (index == null) throw new IllegalArgumentException("Null index for fasta " + path);
         this.index = index;
+        this.gziIndex = gziIndex;
         IOUtil.assertFileIsReadable(path);
         try {
-            this.channel = Files.newByteChannel(path);
+            if (gziIndex == null) {
+                this.channel = Files.newByteChannel(path);
+                this.bgzfStream = null;
+            } else {
+                this.channel = null;
+                this.bgzfStream = new BlockCompressedInputStream(new SeekablePathStream(path));
+            }
         } catch (IOException e) {
             throw new SAMException("Fasta file should be readable but is not: " + path, e);
         }
@@ -130,8 +168,7 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
     }
 
     public static boolean canCreateIndexedFastaReader(final File fastaFile) {
-        return (fastaFile.exists() &&
-                findFastaIndex(fastaFile) != null);
+        return canCreateIndexedFastaReader(fastaFile.toPath());
     }
 
     private static Path findFastaIndex(Path fastaFile) {
@@ -151,8 +188,38 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
     }
 
     public static boolean canCreateIndexedFastaReader(final Path fastaFile) {
-        return (Files.exists(fastaFile) &&
-            findFastaIndex(fastaFile) != null);
+        if (!Files.exists(fastaFile) || findFastaIndex(fastaFile) == null) {
+            return false;
+        }
+        if (isBgzipped(fastaFile)) {
+            return Files.exists(getGziIndexFileName(fastaFile));
+        }
+        // Plain gzip cannot be read at random, even with a .fai index.
+        return !fastaFile.getFileName().toString().endsWith(".gz");
+    }
+
+    private static Path getGziIndexFileName(Path fastaFile) {
+        return fastaFile.resolveSibling(fastaFile.getFileName() + GZIIndex.DEFAULT_EXTENSION);
+    }
+
+    private static GZIIndex loadRequiredGziIndex(final Path fastaFile) {
+        final Path gziFile = getGziIndexFileName(fastaFile);
+        if (!Files.exists(gziFile)) {
+            throw new SAMException(gziFile + " not found, but is required to read the bgzip-compressed fasta " + fastaFile);
+        }
+        try {
+            return GZIIndex.loadIndex(gziFile);
+        } catch (IOException e) {
+            throw new SAMException("Error reading GZI index " + gziFile, e);
+        }
+    }
+
+    private static boolean isBgzipped(final Path fastaFile) {
+        try (final InputStream in = new BufferedInputStream(Files.newInputStream(fastaFile))) {
+            return BlockCompressedInputStream.isValidFile(in);
+        } catch (IOException e) {
+            throw new SAMException("Fasta file should be readable but is not: " + fastaFile, e);
+        }
     }
 
     /**
@@ -241,7 +308,7 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
             startOffset += Math.max((int)(startOffset%bytesPerLine - basesPerLine + 1),0);
 
             try {
-                startOffset += readFromPosition(channel, channelBuffer, indexEntry.getLocation()+startOffset);
+                startOffset += readFromPosition(channelBuffer, indexEntry.getLocation()+startOffset);
             }
             catch(IOException ex) {
                 throw new SAMException("Unable to load " + contig + "(" + start + ", " + stop + ") from " + getAbsolutePath(), ex);
@@ -274,16 +341,24 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
     }
 
     /**
-     * Reads a sequence of bytes from this channel into the given buffer,
-     * starting at the given file position.
-     * @param channel the channel to read from
+     * Reads a sequence of bytes from the fasta into the given buffer,
+     * starting at the given (uncompressed) position.
      * @param buffer the buffer into which bytes are to be transferred
      * @param position the position to start reading at
      * @return the number of bytes read
      * @throws IOException if an I/O error occurs while reading
      */
-    private static int readFromPosition(final SeekableByteChannel channel, final ByteBuffer buffer, long position) throws IOException {
-        if (channel instanceof FileChannel) { // special case to take advantage of native code path
+    private int readFromPosition(final ByteBuffer buffer, long position) throws IOException {
+        if (bgzfStream != null) {
+            synchronized (bgzfStream) {
+                bgzfStream.seek(gziIndex.getVirtualOffsetForSeek(position));
+                final int count = bgzfStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (count > 0) {
+                    buffer.position(buffer.position() + count);
+                }
+                return count;
+            }
+        } else if (channel instanceof FileChannel) { // special case to take advantage of native code path
             return ((FileChannel) channel).read(buffer,position);
         } else {
             long oldPos = channel.position();
@@ -323,6 +398,10 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
 
     @Override
     public void close() throws IOException {
-        channel.close();
+        if (bgzfStream != null) {
+            bgzfStream.close();
+        } else {
+            channel.close();
+        }
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.seekablestream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A SeekableStream over a local file that is memory mapped rather than read through a RandomAccessFile,
+ * so that reads are served by copying out of the page cache without a system call per read.  This is
+ * primarily useful as the backing stream of a {@link htsjdk.samtools.util.BlockCompressedInputStream}
+ * for random-access workloads that issue many small queries against the same file.
+ *
+ * Since a single mapping is limited to 2GB, files are mapped in consecutive chunks and reads that
+ * span a chunk boundary are split across chunks.
+ *
+ * Note that the JDK provides no way to release a mapping explicitly, so the address space is only
+ * reclaimed once the mappings are garbage collected after close().
+ */
+public class SeekableMemoryMappedFileStream extends SeekableStream {
+
+    /** Size of each mapped chunk of the file. */
+    static final long DEFAULT_MAPPING_SIZE = 1L << 30;
+
+    private final File file;
+    private final long length;
+    private final long mappingSize;
+    private MappedByteBuffer[] mappings;
+    private long position = 0;
+
+    public SeekableMemoryMappedFileStream(final File file) throws IOException {
+        this(file, DEFAULT_MAPPING_SIZE);
+    }
+
+    /**
+     * @param mappingSize maximum size of each mapped chunk of the file, 0 < mappingSize <= Integer.MAX_VALUE.
+     */
+    SeekableMemoryMappedFileStream(final File file, final long mappingSize) throws IOException {
+        if (mappingSize <= 0 || mappingSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid mapping size: " + mappingSize);
+        }
+        this.file = file;
+        this.mappingSize = mappingSize;
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            this.length = channel.size();
+            this.mappings = new MappedByteBuffer[(int) ((length + mappingSize - 1) / mappingSize)];
+            for (int i = 0; i < mappings.length; ++i) {
+                final long start = i * mappingSize;
+                mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(mappingSize, length - start));
+            }
+        } finally {
+            // The mappings remain valid after the channel is closed
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return position;
+    }
+
+    @Override
+    public void seek(final long position) throws IOException {
+        if (position < 0) {
+            throw new IOException("Invalid seek position: " + position);
+        }
+        this.position = position;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        if (position >= this.length) {
+            return length == 0 ? 0 : -1;
+        }
+        final int bytesToRead = (int) Math.min(length, this.length - position);
+        int bytesRead = 0;
+        while (bytesRead < bytesToRead) {
+            final MappedByteBuffer mapping = mappings[(int) (position / mappingSize)];
+            mapping.position((int) (position % mappingSize));
+            final int count = Math.min(bytesToRead - bytesRead, mapping.remaining());
+            mapping.get(buffer, offset + bytesRead, count);
+            bytesRead += count;
+            position += count;
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (position >= length) {
+            return -1;
+        }
+        final int value = mappings[(int) (position / mappingSize)].get((int) (position % mappingSize)) & 0xFF;
+        ++position;
+        return value;
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return position >= length;
+    }
+
+    @Override
+    public String getSource() {
+        return file.getAbsolutePath();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mappings = null;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mappings == null) {
+            throw new IOException("Stream is closed: " + file);
+        }
+    }
+}
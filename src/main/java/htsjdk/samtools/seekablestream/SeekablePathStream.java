@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.seekablestream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A {@link SeekableStream} over a {@link Path}, so that files on any NIO file system can be read
+ * wherever htsjdk expects a SeekableStream.
+ */
+public class SeekablePathStream extends SeekableStream {
+
+    private final Path path;
+    private final SeekableByteChannel sbc;
+    private final ByteBuffer oneByteBuf = ByteBuffer.allocate(1);
+
+    public SeekablePathStream(final Path path) throws IOException {
+        this.path = path;
+        this.sbc = Files.newByteChannel(path);
+    }
+
+    @Override
+    public long length() {
+        try {
+            return sbc.size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return sbc.position() >= sbc.size();
+    }
+
+    @Override
+    public void seek(final long position) throws IOException {
+        sbc.position(position);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return sbc.position();
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long initPos = position();
+        sbc.position(initPos + n);
+        return position() - initPos;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(buffer, offset, length);
+        int n = 0;
+        while (n < length) {
+            final int count = sbc.read(buf);
+            if (count < 0) {
+                return n > 0 ? n : count;
+            }
+            n += count;
+        }
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        oneByteBuf.clear();
+        final int n = sbc.read(oneByteBuf);
+        return n == 1 ? oneByteBuf.array()[0] & 0xff : n;
+    }
+
+    @Override
+    public String getSource() {
+        return path.toAbsolutePath().toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sbc.close();
+    }
+}
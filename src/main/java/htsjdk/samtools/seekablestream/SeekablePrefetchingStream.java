@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package htsjdk.samtools.seekablestream;
+
+import htsjdk.samtools.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A wrapper around a SeekableStream that reads ranges of the stream on a background thread before the caller
+ * gets to them, so that the latency of the underlying storage overlaps with whatever the caller does with the
+ * data it has already read.  The caller announces the ranges it is going to read with {@link #prefetch(long, long)},
+ * in the order in which it will read them.  Reads of data that has not been prefetched go straight to the wrapped
+ * stream.
+ *
+ * Prefetched ranges are read in pieces of at most bufferSize bytes, and at most bufferCount pieces are held
+ * ahead of the caller.  A piece is discarded once the caller seeks or reads past it.
+ *
+ * Note that this class is not thread-safe, apart from its use of the wrapped stream, which is only ever accessed
+ * by one thread at a time.
+ */
+public class SeekablePrefetchingStream extends SeekableStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private static final ThreadFactory THREAD_FACTORY = new DaemonThreadFactory("SeekablePrefetchingStream-");
+
+    private final SeekableStream wrappedStream;
+    private final int bufferSize;
+    private final int bufferCount;
+    private long position;
+    private ExecutorService prefetchService = null;
+
+    // Ranges that have been announced but not yet scheduled, and pieces that have been scheduled, both in read order.
+    private final Deque<long[]> pendingRanges = new ArrayDeque<>();
+    private final Deque<Piece> pieces = new ArrayDeque<>();
+
+    public SeekablePrefetchingStream(final SeekableStream stream, final int bufferSize, final int bufferCount) throws IOException {
+        if (bufferSize <= 0 || bufferCount <= 0) {
+            throw new IllegalArgumentException("Buffer size and count must be positive: " + bufferSize + ", " + bufferCount);
+        }
+        this.wrappedStream = stream;
+        this.bufferSize = bufferSize;
+        this.bufferCount = bufferCount;
+        this.position = stream.position();
+    }
+
+    public SeekablePrefetchingStream(final SeekableStream stream) throws IOException {
+        this(stream, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Read the given range of the stream in the background.  Ranges must be announced in the order in which they
+     * will be read, and a range is only read once, so a range that the caller skips is wasted work.
+     *
+     * @param start the offset of the first byte to read
+     * @param end the offset after the last byte to read
+     */
+    public void prefetch(final long start, final long end) {
+        if (end <= start) {
+            return;
+        }
+        final long[] last = pendingRanges.peekLast();
+        if (last != null && last[1] >= start) {
+            last[1] = Math.max(last[1], end);
+        } else {
+            pendingRanges.addLast(new long[]{start, end});
+        }
+        schedulePieces();
+    }
+
+    /**
+     * Abandon all ranges that have been announced, whether or not they have been read yet.
+     */
+    public void cancelPrefetch() {
+        pendingRanges.clear();
+        for (final Piece piece : pieces) {
+            piece.data.cancel(false);
+        }
+        pieces.clear();
+    }
+
+    private void schedulePieces() {
+        while (pieces.size() < bufferCount && !pendingRanges.isEmpty()) {
+            final long[] range = pendingRanges.peekFirst();
+            final long start = range[0];
+            final long end = Math.min(range[1], start + bufferSize);
+            if (end == range[1]) {
+                pendingRanges.removeFirst();
+            } else {
+                range[0] = end;
+            }
+            if (prefetchService == null) {
+                prefetchService = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+            }
+            pieces.addLast(new Piece(start, end, prefetchService.submit(() -> readRange(start, (int) (end - start)))));
+        }
+    }
+
+    private byte[] readRange(final long start, final int length) throws IOException {
+        final byte[] buffer = new byte[length];
+        int bytesRead = 0;
+        synchronized (wrappedStream) {
+            wrappedStream.seek(start);
+            while (bytesRead < length) {
+                final int count = wrappedStream.read(buffer, bytesRead, length - bytesRead);
+                if (count <= 0) {
+                    break;
+                }
+                bytesRead += count;
+            }
+        }
+        // A piece may run past the end of the stream; keep what there is.
+        return bytesRead == length ? buffer : Arrays.copyOf(buffer, bytesRead);
+    }
+
+    /**
+     * Drops the pieces that the current position is past, and returns the first remaining piece, or null.
+     */
+    private Piece currentPiece() {
+        boolean dropped = false;
+        while (!pieces.isEmpty() && pieces.peekFirst().end <= position) {
+            pieces.removeFirst().data.cancel(false);
+            dropped = true;
+        }
+        if (dropped) {
+            schedulePieces();
+        }
+        return pieces.peekFirst();
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        final Piece piece = currentPiece();
+        if (piece != null && piece.start <= position) {
+            final byte[] data;
+            try {
+                data = piece.data.get();
+            } catch (final InterruptedException e) {
+                throw new IOException("Interrupted waiting for prefetched data", e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IOException("Exception prefetching data", cause);
+            }
+            final int pieceOffset = (int) (position - piece.start);
+            if (pieceOffset < data.length) {
+                final int count = Math.min(length, data.length - pieceOffset);
+                System.arraycopy(data, pieceOffset, buffer, offset, count);
+                position += count;
+                return count;
+            }
+            // The piece was cut short by the end of the stream
+            return -1;
+        }
+        // Not prefetched; read directly, but not into the next piece
+        final int toRead = piece == null ? length : (int) Math.min(length, piece.start - position);
+        final int count;
+        synchronized (wrappedStream) {
+            wrappedStream.seek(position);
+            count = wrappedStream.read(buffer, offset, toRead);
+        }
+        if (count > 0) {
+            position += count;
+        }
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int count = read(b, 0, 1);
+        return count == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long length = length();
+        final long skipped = length < 0 ? Math.max(0, n) : Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void seek(final long position) throws IOException {
+        this.position = position;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return position;
+    }
+
+    @Override
+    public long length() {
+        return wrappedStream.length();
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        synchronized (wrappedStream) {
+            wrappedStream.seek(position);
+            return wrappedStream.eof();
+        }
+    }
+
+    @Override
+    public String getSource() {
+        return wrappedStream.getSource();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cancelPrefetch();
+        if (prefetchService != null) {
+            prefetchService.shutdown();
+            prefetchService = null;
+        }
+        synchronized (wrappedStream) {
+            wrappedStream.close();
+        }
+    }
+
+    /** A range of the wrapped stream that is read in the background. */
+    private static class Piece {
+        private final long start;
+        private final long end;
+        private final Future<byte[]> data;
+
+        private Piece(final long start, final long end, final Future<byte[]> data) {
+            this.start = start;
+            this.end = end;
+            this.data = data;
+        }
+    }
+}
@@ -24,12 +24,15 @@
 package htsjdk.samtools.util;
 
 
+import htsjdk.samtools.Defaults;
 import htsjdk.samtools.FileTruncatedException;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.seekablestream.SeekableBufferedStream;
 import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableHTTPStream;
+import htsjdk.samtools.seekablestream.SeekablePrefetchingStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.zip.InflaterFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -39,7 +42,17 @@ import java.io.RandomAccessFile;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /*
  * Utility class for reading BGZF block compressed files.  The caller can treat this file like any other InputStream.
@@ -47,6 +60,10 @@ import java.util.Arrays;
  * The advantage of BGZF over conventional GZip format is that BGZF allows for seeking without having to read the
  * entire file up to the location being sought.  Note that seeking is only possible if the ctor(File) is used.
  *
+ * If {@link #setDecompressionThreads(int)} is called with a positive number of threads, the stream reads ahead
+ * of the caller and inflates the next few blocks concurrently on a pool of worker threads.  Blocks are still
+ * handed to the caller in file order, and seek() discards any read-ahead work that is in flight.
+ *
  * c.f. http://samtools.sourceforge.net/SAM1.pdf for details of BGZF format
  */
 public class BlockCompressedInputStream extends InputStream implements LocationAware {
@@ -57,7 +74,20 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
     private int mCurrentOffset = 0;
     private long mBlockAddress = 0;
     private int mLastBlockLength = 0;
-    private final BlockGunzipper blockGunzipper = new BlockGunzipper();
+    private final InflaterFactory inflaterFactory;
+    private final BlockGunzipper blockGunzipper;
+    private boolean checkCrcs = false;
+
+    // Only used when inflating on worker threads.  Blocks that have been read but not yet handed to the caller
+    // are kept in file order, and blocks the caller is done with are recycled to avoid reallocating buffers.
+    private static final ThreadFactory THREAD_FACTORY = new DaemonThreadFactory("BlockCompressedInputStream-inflater-");
+    private int decompressionThreads = 0;
+    private ExecutorService inflaterPool = null;
+    private final Deque<InflationTask> readAheadBlocks = new ArrayDeque<InflationTask>();
+    private final Deque<ReadAheadBlock> freeBlocks = new ArrayDeque<ReadAheadBlock>();
+    private ReadAheadBlock mCurrentReadAheadBlock = null;
+    private long mReadAheadAddress = 0;
+    private boolean mReadAheadEof = false;
 
 
     /**
@@ -71,6 +101,16 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
      * Note that seek() is not supported if this ctor is used.
      */
     public BlockCompressedInputStream(final InputStream stream, final boolean allowBuffering) {
+        this(stream, allowBuffering, InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    /**
+     * Note that seek() is not supported if this ctor is used.
+     * @param inflaterFactory provides the inflaters used to decompress blocks.
+     */
+    public BlockCompressedInputStream(final InputStream stream, final boolean allowBuffering, final InflaterFactory inflaterFactory) {
+        this.inflaterFactory = inflaterFactory;
+        this.blockGunzipper = new BlockGunzipper(inflaterFactory);
         if (allowBuffering) {
             mStream = IOUtil.toBufferedStream(stream);
         }
@@ -86,24 +126,52 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
      */
     public BlockCompressedInputStream(final File file)
         throws IOException {
+        this(file, InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    /**
+     * Use this ctor if you wish to call seek()
+     * @param inflaterFactory provides the inflaters used to decompress blocks.
+     */
+    public BlockCompressedInputStream(final File file, final InflaterFactory inflaterFactory)
+        throws IOException {
+        this.inflaterFactory = inflaterFactory;
+        this.blockGunzipper = new BlockGunzipper(inflaterFactory);
         mFile = new SeekableFileStream(file);
         mStream = null;
+        decompressionThreads = Defaults.BGZF_DECOMPRESSION_THREADS;
 
     }
 
     public BlockCompressedInputStream(final URL url) {
+        this.inflaterFactory = InflaterFactory.getDefaultInflaterFactory();
+        this.blockGunzipper = new BlockGunzipper(inflaterFactory);
         mFile = new SeekableBufferedStream(new SeekableHTTPStream(url));
         mStream = null;
+        decompressionThreads = Defaults.BGZF_DECOMPRESSION_THREADS;
     }
 
     /**
      * For providing some arbitrary data source.  No additional buffering is
      * provided, so if the underlying source is not buffered, wrap it in a
-     * SeekableBufferedStream before passing to this ctor.
+     * SeekableBufferedStream before passing to this ctor.  For local files, a
+     * {@link htsjdk.samtools.seekablestream.SeekableMemoryMappedFileStream} avoids a
+     * system call and a copy for every block read.
      */
     public BlockCompressedInputStream(final SeekableStream strm) {
+        this(strm, InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    /**
+     * For providing some arbitrary data source, as above.
+     * @param inflaterFactory provides the inflaters used to decompress blocks.
+     */
+    public BlockCompressedInputStream(final SeekableStream strm, final InflaterFactory inflaterFactory) {
+        this.inflaterFactory = inflaterFactory;
+        this.blockGunzipper = new BlockGunzipper(inflaterFactory);
         mFile = strm;
         mStream = null;
+        decompressionThreads = Defaults.BGZF_DECOMPRESSION_THREADS;
     }
 
     /**
@@ -112,9 +180,67 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
      * operation and should be used accordingly.
      */
     public void setCheckCrcs(final boolean check) {
+        this.checkCrcs = check;
         this.blockGunzipper.setCheckCrcs(check);
     }
 
+    /**
+     * Sets the number of worker threads used to inflate blocks ahead of the caller.  With 0 threads, blocks are
+     * inflated on the calling thread as they are needed.  With n > 0 threads, up to 2n blocks are read and
+     * inflated ahead of the current position.  Must be called before any data is read from the stream.
+     * The default is {@link Defaults#BGZF_DECOMPRESSION_THREADS} for seekable sources, and 0 for InputStreams,
+     * because reading ahead consumes more of the underlying stream than the caller has asked for.
+     */
+    public void setDecompressionThreads(final int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Invalid number of decompression threads: " + threads);
+        }
+        if (mCurrentBlock != null) {
+            throw new IllegalStateException("Cannot change the number of decompression threads after reading has started");
+        }
+        this.decompressionThreads = threads;
+    }
+
+    /**
+     * Reads the compressed data between the given virtual file pointers on a background thread, ahead of the
+     * caller seeking to and reading it.  Ranges must be given in the order in which they will be read.  This is
+     * meant for reading a list of chunks from a slow source, where it overlaps the latency of the next read with
+     * the processing of the current chunk.  Has no effect if seek() is not supported.
+     *
+     * @param startPointer virtual file pointer of the start of the range
+     * @param endPointer virtual file pointer of the end of the range
+     * @see SeekablePrefetchingStream
+     */
+    public void prefetch(final long startPointer, final long endPointer)
+        throws IOException {
+        if (mFile == null) {
+            return;
+        }
+        if (!(mFile instanceof SeekablePrefetchingStream)) {
+            mFile = new SeekablePrefetchingStream(mFile);
+        }
+        final long start = BlockCompressedFilePointerUtil.getBlockAddress(startPointer);
+        long end = BlockCompressedFilePointerUtil.getBlockAddress(endPointer);
+        if (BlockCompressedFilePointerUtil.getBlockOffset(endPointer) != 0) {
+            // The range ends part way through a block, which must be read in full
+            end += BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+        }
+        final long length = mFile.length();
+        if (length > 0) {
+            end = Math.min(end, length);
+        }
+        ((SeekablePrefetchingStream) mFile).prefetch(start, end);
+    }
+
+    /**
+     * Abandons any ranges passed to {@link #prefetch(long, long)} that have not been read yet.
+     */
+    public void cancelPrefetch() {
+        if (mFile instanceof SeekablePrefetchingStream) {
+            ((SeekablePrefetchingStream) mFile).cancelPrefetch();
+        }
+    }
+
     /**
      * @return the number of bytes that can be read (or skipped over) from this input stream without blocking by the
      * next caller of a method for this input stream. The next caller might be the same thread or another thread.
@@ -141,10 +267,15 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
     }
 
     /**
-     * Closes the underlying InputStream or RandomAccessFile
+     * Closes the underlying InputStream or RandomAccessFile, and gives inflaters back to the InflaterFactory
      */
     public void close()
         throws IOException {
+        discardReadAheadBlocks();
+        if (inflaterPool != null) {
+            inflaterPool.shutdownNow();
+            inflaterPool = null;
+        }
         if (mFile != null) {
             mFile.close();
             mFile = null;
@@ -152,9 +283,18 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
             mStream.close();
             mStream = null;
         }
+        blockGunzipper.close();
+        if (mCurrentReadAheadBlock != null) {
+            mCurrentReadAheadBlock.gunzipper.close();
+        }
+        for (final ReadAheadBlock block : freeBlocks) {
+            block.gunzipper.close();
+        }
         // Encourage garbage collection
         mFileBuffer = null;
         mCurrentBlock = null;
+        mCurrentReadAheadBlock = null;
+        freeBlocks.clear();
     }
 
     /**
@@ -294,9 +434,12 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
         if (mBlockAddress == compressedOffset && mCurrentBlock != null) {
             available = mCurrentBlock.length;
         } else {
+            discardReadAheadBlocks();
             mFile.seek(compressedOffset);
             mBlockAddress = compressedOffset;
             mLastBlockLength = 0;
+            mReadAheadAddress = compressedOffset;
+            mReadAheadEof = false;
             readBlock();
             available = available();
         }
@@ -308,7 +451,8 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
     }
 
     private boolean eof() throws IOException {
-        if (mFile.eof()) {
+        // When reading ahead the underlying file is positioned after the last block that has been read ahead
+        if (mFile.eof() && readAheadBlocks.isEmpty()) {
             return true;
         }
         // If the last remaining block is the size of the EMPTY_GZIP_BLOCK, this is the same as being at EOF.
@@ -365,41 +509,66 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
 
     private void readBlock()
         throws IOException {
-
+        if (decompressionThreads > 0) {
+            readAheadBlock();
+            return;
+        }
         if (mFileBuffer == null) {
             mFileBuffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
         }
-        int count = readBytes(mFileBuffer, 0, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-        if (count == 0) {
+        final int blockLength = readCompressedBlock(mFileBuffer);
+        if (blockLength == 0) {
             // Handle case where there is no empty gzip block at end.
             mCurrentOffset = 0;
             mBlockAddress += mLastBlockLength;
             mCurrentBlock = new byte[0];
             return;
         }
+        inflateBlock(mFileBuffer, blockLength);
+        mCurrentOffset = 0;
+        mBlockAddress += mLastBlockLength;
+        mLastBlockLength = blockLength;
+    }
+
+    /**
+     * Reads the next compressed block from the underlying stream into the given buffer.
+     * @return the length of the compressed block, or 0 if the end of the file has been reached.
+     */
+    private int readCompressedBlock(final byte[] compressedBlock)
+        throws IOException {
+        int count = readBytes(compressedBlock, 0, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+        if (count == 0) {
+            return 0;
+        }
         if (count != BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH) {
             throw new IOException("Premature end of file");
         }
-        final int blockLength = unpackInt16(mFileBuffer, BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
-        if (blockLength < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH || blockLength > mFileBuffer.length) {
+        final int blockLength = unpackInt16(compressedBlock, BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+        if (blockLength < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH || blockLength > compressedBlock.length) {
             throw new IOException("Unexpected compressed block length: " + blockLength);
         }
         final int remaining = blockLength - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
-        count = readBytes(mFileBuffer, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, remaining);
+        count = readBytes(compressedBlock, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, remaining);
         if (count != remaining) {
             throw new FileTruncatedException("Premature end of file");
         }
-        inflateBlock(mFileBuffer, blockLength);
-        mCurrentOffset = 0;
-        mBlockAddress += mLastBlockLength;
-        mLastBlockLength = blockLength;
+        return blockLength;
     }
 
     private void inflateBlock(final byte[] compressedBlock, final int compressedLength)
         throws IOException {
-        final int uncompressedLength = unpackInt32(compressedBlock, compressedLength-4);
-        byte[] buffer = mCurrentBlock;
+        final byte[] buffer = mCurrentBlock;
         mCurrentBlock = null;
+        mCurrentBlock = inflateBlock(blockGunzipper, compressedBlock, compressedLength, buffer);
+    }
+
+    /**
+     * Inflates the given compressed block, reusing buffer for the output if it is the right size.
+     * @return the inflated data, with length equal to the uncompressed length of the block.
+     */
+    private static byte[] inflateBlock(final BlockGunzipper gunzipper, final byte[] compressedBlock,
+                                       final int compressedLength, byte[] buffer) {
+        final int uncompressedLength = unpackInt32(compressedBlock, compressedLength-4);
         if (buffer == null || buffer.length != uncompressedLength) {
             try {
                 buffer = new byte[uncompressedLength];
@@ -407,8 +576,155 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
                 throw new RuntimeIOException("BGZF file has invalid uncompressedLength: " + uncompressedLength, e);
             }
         }
-        blockGunzipper.unzipBlock(buffer, compressedBlock, compressedLength);
-        mCurrentBlock = buffer;
+        gunzipper.unzipBlock(buffer, compressedBlock, compressedLength);
+        return buffer;
+    }
+
+    /**
+     * Makes the next read-ahead block the current block, and tops up the blocks being inflated ahead of it.
+     */
+    private void readAheadBlock()
+        throws IOException {
+        if (inflaterPool == null) {
+            inflaterPool = Executors.newFixedThreadPool(decompressionThreads, THREAD_FACTORY);
+        }
+        fillReadAheadBlocks();
+        if (readAheadBlocks.isEmpty()) {
+            // Handle case where there is no empty gzip block at end.
+            mCurrentOffset = 0;
+            mBlockAddress += mLastBlockLength;
+            mCurrentBlock = new byte[0];
+            return;
+        }
+        final InflationTask task = readAheadBlocks.removeFirst();
+        final ReadAheadBlock block;
+        try {
+            block = task.future.get();
+        } catch (final InterruptedException e) {
+            // The block may still be being inflated, so leave it to discardReadAheadBlocks()
+            readAheadBlocks.addFirst(task);
+            throw new IOException("Interrupted waiting for BGZF block to be inflated", e);
+        } catch (final ExecutionException e) {
+            freeBlocks.addLast(task.block);
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException("Exception inflating BGZF block", cause);
+        }
+        if (mCurrentReadAheadBlock != null) {
+            freeBlocks.addLast(mCurrentReadAheadBlock);
+        }
+        mCurrentReadAheadBlock = block;
+        mCurrentBlock = block.uncompressedBlock;
+        mCurrentOffset = 0;
+        mBlockAddress = block.blockAddress;
+        mLastBlockLength = block.compressedLength;
+        fillReadAheadBlocks();
+    }
+
+    /**
+     * Reads compressed blocks from the underlying stream and submits them for inflation until 2 blocks per
+     * thread are in flight or the end of the file is reached.
+     */
+    private void fillReadAheadBlocks()
+        throws IOException {
+        while (!mReadAheadEof && readAheadBlocks.size() < 2 * decompressionThreads) {
+            final ReadAheadBlock block = freeBlocks.isEmpty() ? new ReadAheadBlock(inflaterFactory) : freeBlocks.removeFirst();
+            block.gunzipper.setCheckCrcs(checkCrcs);
+            try {
+                block.compressedLength = readCompressedBlock(block.compressedBlock);
+            } catch (final IOException | RuntimeException e) {
+                // Don't report a problem until the caller actually reaches the block that could not be read
+                final CompletableFuture<ReadAheadBlock> failure = new CompletableFuture<ReadAheadBlock>();
+                failure.completeExceptionally(e);
+                final InflationTask failed = new InflationTask(block);
+                failed.future = failure;
+                readAheadBlocks.addLast(failed);
+                mReadAheadEof = true;
+                return;
+            }
+            if (block.compressedLength == 0) {
+                mReadAheadEof = true;
+                freeBlocks.addLast(block);
+                return;
+            }
+            block.blockAddress = mReadAheadAddress;
+            mReadAheadAddress += block.compressedLength;
+            final InflationTask task = new InflationTask(block);
+            task.future = inflaterPool.submit(task);
+            readAheadBlocks.addLast(task);
+        }
+    }
+
+    /**
+     * Abandons any blocks that have been read ahead, and recycles them so that their inflaters are returned to the
+     * InflaterFactory when the stream is closed.  Blocks that a worker thread has not started on are recycled
+     * immediately; for the others, this waits for the worker to finish with the block.
+     */
+    private void discardReadAheadBlocks() {
+        for (final InflationTask task : readAheadBlocks) {
+            if (task.claimed.compareAndSet(false, true)) {
+                task.future.cancel(false);
+            } else {
+                try {
+                    task.future.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // The block may still be in use, so it cannot be recycled.
+                    continue;
+                } catch (final ExecutionException e) {
+                    // The block is being discarded anyway.
+                }
+            }
+            freeBlocks.addLast(task.block);
+        }
+        readAheadBlocks.clear();
+    }
+
+    /**
+     * A read-ahead block that has been handed to the inflater pool.  Whichever of the worker thread and
+     * {@link #discardReadAheadBlocks()} claims the task first owns the block, so that a block is never recycled
+     * while a worker is inflating it.
+     */
+    private static class InflationTask implements Callable<ReadAheadBlock> {
+        private final ReadAheadBlock block;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private Future<ReadAheadBlock> future;
+
+        InflationTask(final ReadAheadBlock block) {
+            this.block = block;
+        }
+
+        @Override
+        public ReadAheadBlock call() {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            return block.call();
+        }
+    }
+
+    /**
+     * A compressed block that has been read ahead of the caller, together with the buffer and gunzipper
+     * used to inflate it on a worker thread.
+     */
+    private static class ReadAheadBlock implements Callable<ReadAheadBlock> {
+        private final byte[] compressedBlock = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        private final BlockGunzipper gunzipper;
+        private int compressedLength = 0;
+        private long blockAddress = 0;
+        private byte[] uncompressedBlock = null;
+
+        ReadAheadBlock(final InflaterFactory inflaterFactory) {
+            gunzipper = new BlockGunzipper(inflaterFactory);
+        }
+
+        @Override
+        public ReadAheadBlock call() {
+            uncompressedBlock = inflateBlock(gunzipper, compressedBlock, compressedLength, uncompressedBlock);
+            return this;
+        }
     }
 
     private int readBytes(final byte[] buffer, final int offset, final int length)
@@ -448,12 +764,12 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
         return bytesRead;
     }
 
-    private int unpackInt16(final byte[] buffer, final int offset) {
+    private static int unpackInt16(final byte[] buffer, final int offset) {
         return ((buffer[offset] & 0xFF) |
                 ((buffer[offset+1] & 0xFF) << 8));
     }
 
-    private int unpackInt32(final byte[] buffer, final int offset) {
+    private static int unpackInt32(final byte[] buffer, final int offset) {
         return ((buffer[offset] & 0xFF) |
                 ((buffer[offset+1] & 0xFF) << 8) |
                 ((buffer[offset+2] & 0xFF) << 16) |
@@ -23,11 +23,20 @@
  */
 package htsjdk.samtools.util;
 
+import htsjdk.samtools.Defaults;
 import htsjdk.samtools.util.zip.DeflaterFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 
@@ -44,6 +53,14 @@ import java.util.zip.Deflater;
  * number of buffered bytes has not reached threshold.  close(), on the other hand, must be called
  * when done writing in order to force the last gzip block to be written.
  *
+ * If constructed with compressionThreads > 0, filled blocks are deflated on a pool of worker threads and
+ * the compressed blocks are written to the underlying stream in the order they were filled.  The output
+ * is byte-for-byte identical to that of the synchronous mode.  Because the address of a block is not known
+ * until all preceding blocks have been compressed, {@link #getFilePointer()} waits for outstanding blocks
+ * to be written.  Callers that need the position of every record (e.g. when building an index on the fly)
+ * should instead use {@link #getProvisionalFilePointer()}, which never waits, and convert the result with
+ * {@link #resolveFilePointer(long)} once {@link #isFilePointerResolvable(long)} returns true.
+ *
  * c.f. http://samtools.sourceforge.net/SAM1.pdf for details of BGZF file format.
  */
 public class BlockCompressedOutputStream
@@ -55,6 +72,10 @@ public class BlockCompressedOutputStream
 
     private static int defaultCompressionLevel = BlockCompressedStreamConstants.DEFAULT_COMPRESSION_LEVEL;
 
+    private static int defaultCompressionThreads = Defaults.BGZF_COMPRESSION_THREADS;
+
+    private static final ThreadFactory THREAD_FACTORY = new DaemonThreadFactory("BlockCompressedOutputStream-deflater-");
+
     /**
      * Sets the GZip compression level for subsequent BlockCompressedOutputStream object creation
      * that do not specify the compression level.
@@ -71,31 +92,48 @@ public class BlockCompressedOutputStream
         return defaultCompressionLevel;
     }
 
+    /**
+     * Sets the number of deflater threads for subsequent BlockCompressedOutputStream object creation
+     * that do not specify the number of threads.  Deflating on worker threads gains little if
+     * {@link #getFilePointer()} is called after every record, because each call waits for all blocks in flight
+     * to be compressed and written; see {@link #getProvisionalFilePointer()}.
+     * @param compressionThreads 0 to compress on the writing thread, otherwise the size of the deflater pool
+     */
+    public static void setDefaultCompressionThreads(final int compressionThreads) {
+        if (compressionThreads < 0) {
+            throw new IllegalArgumentException("Invalid number of compression threads: " + compressionThreads);
+        }
+        defaultCompressionThreads = compressionThreads;
+    }
+
+    public static int getDefaultCompressionThreads() {
+        return defaultCompressionThreads;
+    }
+
     private final BinaryCodec codec;
-    private final byte[] uncompressedBuffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+    private final int compressionLevel;
+    private GzipBlock currentBlock;
     private int numUncompressedBytes = 0;
-    private final byte[] compressedBuffer =
-            new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
-                    BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
-    private final Deflater deflater;
-
-    // A second deflater is created for the very unlikely case where the regular deflation actually makes
-    // things bigger, and the compressed block is too big.  It should be possible to downshift the
-    // primary deflater to NO_COMPRESSION level, recompress, and then restore it to its original setting,
-    // but in practice that doesn't work.
-    // The motivation for deflating at NO_COMPRESSION level is that it will predictably produce compressed
-    // output that is 10 bytes larger than the input, and the threshold at which a block is generated is such that
-    // the size of tbe final gzip block will always be <= 64K.  This is preferred over the previous method,
-    // which would attempt to compress up to 64K bytes, and if the resulting compressed block was too large,
-    // try compressing fewer input bytes (aka "downshifting').  The problem with downshifting is that
-    // getFilePointer might return an inaccurate value.
-    // I assume (AW 29-Oct-2013) that there is no value in using hardware-assisted deflater for no-compression mode,
-    // so just use JDK standard.
-    private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
-    private final CRC32 crc32 = new CRC32();
     private File file = null;
     private long mBlockAddress = 0;
 
+    // Sequence numbers of the block being filled, and of the next block to be written to the underlying stream.
+    private long blocksFilled = 0;
+    private long blocksWritten = 0;
+
+    // Addresses of the blocks written since firstRetainedBlock, kept so that provisional file pointers into them
+    // can be resolved.  Nothing is retained until the first provisional file pointer is requested.
+    private long firstRetainedBlock = -1;
+    private final Deque<Long> retainedBlockAddresses = new ArrayDeque<Long>();
+
+    // Only used when compressing on worker threads.  Blocks that have been handed to the executor are kept
+    // in the order they were filled so that they can be written out in that order, and finished blocks are
+    // recycled to avoid reallocating buffers and deflaters.
+    private final ExecutorService deflaterPool;
+    private final int maxBlocksInFlight;
+    private final Deque<Future<GzipBlock>> blocksInFlight = new ArrayDeque<Future<GzipBlock>>();
+    private final Deque<GzipBlock> freeBlocks = new ArrayDeque<GzipBlock>();
+
 
     // Really a local variable, but allocate once to reduce GC burden.
     private final byte[] singleByteArray = new byte[1];
@@ -127,10 +165,17 @@ public class BlockCompressedOutputStream
      * @param compressionLevel 1 <= compressionLevel <= 9
      */
     public BlockCompressedOutputStream(final File file, final int compressionLevel) {
-        this.file = file;
-        codec = new BinaryCodec(file, true);
-        deflater = DeflaterFactory.makeDeflater(compressionLevel, true);
-        log.debug("Using deflater: " + deflater.getClass().getSimpleName());
+        this(file, compressionLevel, defaultCompressionThreads);
+    }
+
+    /**
+     * Prepare to compress at the given compression level, using the given number of deflater threads
+     * @param compressionLevel 1 <= compressionLevel <= 9
+     * @param compressionThreads 0 to compress on the writing thread, otherwise the size of the deflater pool.
+     *                           See {@link #setDefaultCompressionThreads(int)} for when this does not help.
+     */
+    public BlockCompressedOutputStream(final File file, final int compressionLevel, final int compressionThreads) {
+        this(new BinaryCodec(file, true), file, compressionLevel, compressionThreads);
     }
 
     /**
@@ -142,13 +187,34 @@ public class BlockCompressedOutputStream
     }
 
     public BlockCompressedOutputStream(final OutputStream os, final File file, final int compressionLevel) {
-        this.file = file;
-        codec = new BinaryCodec(os);
+        this(os, file, compressionLevel, defaultCompressionThreads);
+    }
+
+    public BlockCompressedOutputStream(final OutputStream os, final File file, final int compressionLevel,
+                                       final int compressionThreads) {
+        this(new BinaryCodec(os), file, compressionLevel, compressionThreads);
         if (file != null) {
             codec.setOutputFileName(file.getAbsolutePath());
         }
-        deflater = DeflaterFactory.makeDeflater(compressionLevel, true);
-        log.debug("Using deflater: " + deflater.getClass().getSimpleName());
+    }
+
+    private BlockCompressedOutputStream(final BinaryCodec codec, final File file, final int compressionLevel,
+                                        final int compressionThreads) {
+        if (compressionThreads < 0) {
+            throw new IllegalArgumentException("Invalid number of compression threads: " + compressionThreads);
+        }
+        this.file = file;
+        this.codec = codec;
+        this.compressionLevel = compressionLevel;
+        this.currentBlock = new GzipBlock(compressionLevel);
+        log.debug("Using deflater: " + currentBlock.deflater.getClass().getSimpleName());
+        if (compressionThreads > 0) {
+            deflaterPool = Executors.newFixedThreadPool(compressionThreads, THREAD_FACTORY);
+            maxBlocksInFlight = 2 * compressionThreads;
+        } else {
+            deflaterPool = null;
+            maxBlocksInFlight = 0;
+        }
     }
 
     /**
@@ -187,8 +253,10 @@ public class BlockCompressedOutputStream
      */
     @Override
     public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException {
-        assert(numUncompressedBytes < uncompressedBuffer.length);
+        assert(numUncompressedBytes < currentBlock.uncompressedBuffer.length);
         while (numBytes > 0) {
+            // The current block is swapped for a fresh one when compressing on worker threads
+            final byte[] uncompressedBuffer = currentBlock.uncompressedBuffer;
             final int bytesToWrite = Math.min(uncompressedBuffer.length - numUncompressedBytes, numBytes);
             System.arraycopy(bytes, startIndex, uncompressedBuffer, numUncompressedBytes, bytesToWrite);
             numUncompressedBytes += bytesToWrite;
@@ -212,6 +280,7 @@ public class BlockCompressedOutputStream
         while (numUncompressedBytes > 0) {
             deflateBlock();
         }
+        writeBlocksInFlight(0);
         codec.getOutputStream().flush();
     }
 
@@ -222,7 +291,13 @@ public class BlockCompressedOutputStream
      */
     @Override
     public void close() throws IOException {
-        flush();
+        try {
+            flush();
+        } finally {
+            if (deflaterPool != null) {
+                deflaterPool.shutdownNow();
+            }
+        }
         // For debugging...
         // if (numberOfThrottleBacks > 0) {
         //     System.err.println("In BlockCompressedOutputStream, had to throttle back " + numberOfThrottleBacks +
@@ -253,69 +328,112 @@ public class BlockCompressedOutputStream
     /** Encode virtual file pointer
      * Upper 48 bits is the byte offset into the compressed stream of a block.
      * Lower 16 bits is the byte offset into the uncompressed stream inside the block.
+     *
+     * When compressing on worker threads, this waits until all blocks filled so far have been written, because
+     * the address of the current block depends on the compressed sizes of all of the blocks before it.  Calling
+     * this after every record therefore serializes compression with writing; use
+     * {@link #getProvisionalFilePointer()} instead.
      */
     public long getFilePointer(){
+        try {
+            writeBlocksInFlight(0);
+        } catch (final IOException e) {
+            throw new RuntimeIOException(e);
+        }
         return BlockCompressedFilePointerUtil.makeFilePointer(mBlockAddress, numUncompressedBytes);
     }
 
+    /**
+     * Like {@link #getFilePointer()}, but never waits for blocks being compressed on worker threads.  In place of
+     * the address of the current block, the result holds its sequence number in the stream, so it can only be
+     * compared with other provisional file pointers until it is converted by {@link #resolveFilePointer(long)}.
+     * Provisional file pointers must be resolved in the order in which they were obtained.
+     */
+    public long getProvisionalFilePointer() {
+        if (firstRetainedBlock == -1) {
+            firstRetainedBlock = blocksFilled;
+        }
+        return BlockCompressedFilePointerUtil.makeFilePointer(blocksFilled, numUncompressedBytes);
+    }
+
+    /**
+     * @return true if the address of the block of the given provisional file pointer is known, i.e. all of the
+     * blocks before it have been written.  This is always the case when compressing on the writing thread.
+     */
+    public boolean isFilePointerResolvable(final long provisionalFilePointer) {
+        return BlockCompressedFilePointerUtil.getBlockAddress(provisionalFilePointer) <= blocksWritten;
+    }
+
+    /**
+     * Converts a file pointer returned by {@link #getProvisionalFilePointer()} to the virtual file pointer that
+     * {@link #getFilePointer()} would have returned at the same position.  Addresses of blocks before the given
+     * one are discarded, so provisional file pointers obtained earlier can no longer be resolved.
+     * @throws IllegalArgumentException if the pointer is not resolvable, or was obtained before one already resolved.
+     */
+    public long resolveFilePointer(final long provisionalFilePointer) {
+        final long block = BlockCompressedFilePointerUtil.getBlockAddress(provisionalFilePointer);
+        if (block > blocksWritten || firstRetainedBlock == -1 || block < firstRetainedBlock) {
+            throw new IllegalArgumentException("Cannot resolve provisional file pointer in block " + block);
+        }
+        while (firstRetainedBlock < block) {
+            retainedBlockAddresses.removeFirst();
+            ++firstRetainedBlock;
+        }
+        final long address = block == blocksWritten ? mBlockAddress : retainedBlockAddresses.getFirst();
+        return BlockCompressedFilePointerUtil.makeFilePointer(address,
+                BlockCompressedFilePointerUtil.getBlockOffset(provisionalFilePointer));
+    }
+
     @Override
     public long getPosition() {
         return getFilePointer();
     }
 
     /**
-     * Attempt to write the data in uncompressedBuffer to the underlying file in a gzip block.
-     * If the entire uncompressedBuffer does not fit in the maximum allowed size, reduce the amount
-     * of data to be compressed, and slide the excess down in uncompressedBuffer so it can be picked
-     * up in the next deflate event.
-     * @return size of gzip block that was written.
+     * Compress the data in the current block and write it to the underlying file in a gzip block, or,
+     * when compressing on worker threads, hand the current block to the deflater pool and continue
+     * filling a fresh one.
      */
-    private int deflateBlock() {
+    private void deflateBlock() throws IOException {
         if (numUncompressedBytes == 0) {
-            return 0;
+            return;
         }
-        final int bytesToCompress = numUncompressedBytes;
-        // Compress the input
-        deflater.reset();
-        deflater.setInput(uncompressedBuffer, 0, bytesToCompress);
-        deflater.finish();
-        int compressedSize = deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
-
-        // If it didn't all fit in compressedBuffer.length, set compression level to NO_COMPRESSION
-        // and try again.  This should always fit.
-        if (!deflater.finished()) {
-            noCompressionDeflater.reset();
-            noCompressionDeflater.setInput(uncompressedBuffer, 0, bytesToCompress);
-            noCompressionDeflater.finish();
-            compressedSize = noCompressionDeflater.deflate(compressedBuffer, 0, compressedBuffer.length);
-            if (!noCompressionDeflater.finished()) {
-                throw new IllegalStateException("unpossible");
-            }
+        currentBlock.numUncompressedBytes = numUncompressedBytes;
+        numUncompressedBytes = 0;
+        ++blocksFilled;
+        if (deflaterPool == null) {
+            writeGzipBlock(currentBlock.deflate());
+        } else {
+            writeBlocksInFlight(maxBlocksInFlight - 1);
+            blocksInFlight.addLast(deflaterPool.submit(currentBlock));
+            currentBlock = freeBlocks.isEmpty() ? new GzipBlock(compressionLevel) : freeBlocks.removeFirst();
         }
-        // Data compressed small enough, so write it out.
-        crc32.reset();
-        crc32.update(uncompressedBuffer, 0, bytesToCompress);
-
-        final int totalBlockSize = writeGzipBlock(compressedSize, bytesToCompress, crc32.getValue());
-        assert(bytesToCompress <= numUncompressedBytes);
+    }
 
-        // Clear out from uncompressedBuffer the data that was written
-        if (bytesToCompress == numUncompressedBytes) {
-            numUncompressedBytes = 0;
-        } else {
-            System.arraycopy(uncompressedBuffer, bytesToCompress, uncompressedBuffer, 0,
-                    numUncompressedBytes - bytesToCompress);
-            numUncompressedBytes -= bytesToCompress;
+    /**
+     * Waits for the oldest blocks in flight to be compressed and writes them out, in order, until no more
+     * than maxRemaining blocks are still in flight.
+     */
+    private void writeBlocksInFlight(final int maxRemaining) throws IOException {
+        while (blocksInFlight.size() > maxRemaining) {
+            final GzipBlock block;
+            try {
+                block = blocksInFlight.removeFirst().get();
+            } catch (final InterruptedException e) {
+                throw new IOException("Interrupted waiting for BGZF block to be compressed", e);
+            } catch (final ExecutionException e) {
+                throw new IOException("Exception compressing BGZF block", e.getCause());
+            }
+            writeGzipBlock(block);
+            freeBlocks.addLast(block);
         }
-        mBlockAddress += totalBlockSize;
-        return totalBlockSize;
     }
 
     /**
-     * Writes the entire gzip block, assuming the compressed data is stored in compressedBuffer
-     * @return  size of gzip block that was written.
+     * Writes the entire gzip block, assuming the compressed data is stored in the block's compressedBuffer,
+     * and advances the address of the next block.
      */
-    private int writeGzipBlock(final int compressedSize, final int uncompressedSize, final long crc) {
+    private void writeGzipBlock(final GzipBlock block) {
         // Init gzip header
         codec.writeByte(BlockCompressedStreamConstants.GZIP_ID1);
         codec.writeByte(BlockCompressedStreamConstants.GZIP_ID2);
@@ -328,14 +446,86 @@ public class BlockCompressedOutputStream
         codec.writeByte(BlockCompressedStreamConstants.BGZF_ID1);
         codec.writeByte(BlockCompressedStreamConstants.BGZF_ID2);
         codec.writeShort(BlockCompressedStreamConstants.BGZF_LEN);
-        final int totalBlockSize = compressedSize + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH +
+        final int totalBlockSize = block.compressedSize + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH +
                 BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
 
         // I don't know why we store block size - 1, but that is what the spec says
         codec.writeShort((short)(totalBlockSize - 1));
-        codec.writeBytes(compressedBuffer, 0, compressedSize);
-        codec.writeInt((int)crc);
-        codec.writeInt(uncompressedSize);
-        return totalBlockSize;
+        codec.writeBytes(block.compressedBuffer, 0, block.compressedSize);
+        codec.writeInt((int)block.crc);
+        codec.writeInt(block.numUncompressedBytes);
+        if (firstRetainedBlock != -1 && blocksWritten >= firstRetainedBlock) {
+            retainedBlockAddresses.addLast(mBlockAddress);
+        }
+        mBlockAddress += totalBlockSize;
+        ++blocksWritten;
+    }
+
+    /**
+     * The buffers and deflaters needed to compress a single gzip block.  When compressing on worker threads
+     * each block in flight is owned by exactly one thread at a time, so no further synchronization is needed.
+     */
+    private static class GzipBlock implements Callable<GzipBlock> {
+        private final byte[] uncompressedBuffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+        private int numUncompressedBytes = 0;
+        private final byte[] compressedBuffer =
+                new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
+                        BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+        private int compressedSize = 0;
+        private long crc = 0;
+        private final Deflater deflater;
+
+        // A second deflater is created for the very unlikely case where the regular deflation actually makes
+        // things bigger, and the compressed block is too big.  It should be possible to downshift the
+        // primary deflater to NO_COMPRESSION level, recompress, and then restore it to its original setting,
+        // but in practice that doesn't work.
+        // The motivation for deflating at NO_COMPRESSION level is that it will predictably produce compressed
+        // output that is 10 bytes larger than the input, and the threshold at which a block is generated is such that
+        // the size of tbe final gzip block will always be <= 64K.  This is preferred over the previous method,
+        // which would attempt to compress up to 64K bytes, and if the resulting compressed block was too large,
+        // try compressing fewer input bytes (aka "downshifting').  The problem with downshifting is that
+        // getFilePointer might return an inaccurate value.
+        // I assume (AW 29-Oct-2013) that there is no value in using hardware-assisted deflater for no-compression mode,
+        // so just use JDK standard.
+        private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+        private final CRC32 crc32 = new CRC32();
+
+        GzipBlock(final int compressionLevel) {
+            deflater = DeflaterFactory.makeDeflater(compressionLevel, true);
+        }
+
+        @Override
+        public GzipBlock call() {
+            return deflate();
+        }
+
+        /**
+         * Compress the first numUncompressedBytes of uncompressedBuffer into compressedBuffer and compute the CRC.
+         * @return this block
+         */
+        GzipBlock deflate() {
+            // Compress the input
+            deflater.reset();
+            deflater.setInput(uncompressedBuffer, 0, numUncompressedBytes);
+            deflater.finish();
+            compressedSize = deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+
+            // If it didn't all fit in compressedBuffer.length, set compression level to NO_COMPRESSION
+            // and try again.  This should always fit.
+            if (!deflater.finished()) {
+                noCompressionDeflater.reset();
+                noCompressionDeflater.setInput(uncompressedBuffer, 0, numUncompressedBytes);
+                noCompressionDeflater.finish();
+                compressedSize = noCompressionDeflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+                if (!noCompressionDeflater.finished()) {
+                    throw new IllegalStateException("unpossible");
+                }
+            }
+            // Data compressed small enough, so compute the checksum.
+            crc32.reset();
+            crc32.update(uncompressedBuffer, 0, numUncompressedBytes);
+            crc = crc32.getValue();
+            return this;
+        }
     }
 }
@@ -24,6 +24,7 @@
 package htsjdk.samtools.util;
 
 import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.util.zip.InflaterFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -40,13 +41,38 @@ import java.util.zip.Inflater;
  * This code requires that the GZIP header conform to the GZIP blocks written to BAM files, with
  * a specific subfield and no other optional stuff.
  *
+ * The inflater is obtained from an {@link InflaterFactory}, and should be given back to it by calling
+ * {@link #close()} when the gunzipper is no longer needed.
+ *
  * @author alecw@broadinstitute.org
  */
 public class BlockGunzipper {
-    private final Inflater inflater = new Inflater(true); // GZIP mode
+    private final InflaterFactory inflaterFactory;
+    private Inflater inflater;
     private final CRC32 crc32 = new CRC32();
     private boolean checkCrcs = false;
 
+    /** Uses {@link InflaterFactory#getDefaultInflaterFactory()} */
+    public BlockGunzipper() {
+        this(InflaterFactory.getDefaultInflaterFactory());
+    }
+
+    public BlockGunzipper(final InflaterFactory inflaterFactory) {
+        this.inflaterFactory = inflaterFactory;
+        this.inflater = inflaterFactory.makeInflater(true); // GZIP mode
+    }
+
+    /**
+     * Gives the inflater back to the factory it came from.  If the gunzipper is used again afterwards,
+     * a new inflater is obtained.
+     */
+    public void close() {
+        if (inflater != null) {
+            inflaterFactory.releaseInflater(inflater, true);
+            inflater = null;
+        }
+    }
+
     /** Allows the caller to decide whether or not to check CRCs on when uncompressing blocks. */
     public void setCheckCrcs(final boolean check) {
         this.checkCrcs = check;
@@ -89,6 +115,9 @@ public class BlockGunzipper {
             byteBuffer.position(byteBuffer.position() + deflatedSize);
             int expectedCrc = byteBuffer.getInt();
             int uncompressedSize = byteBuffer.getInt();
+            if (inflater == null) {
+                inflater = inflaterFactory.makeInflater(true);
+            }
             inflater.reset();
 
             // Decompress
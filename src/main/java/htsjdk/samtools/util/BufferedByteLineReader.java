@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import htsjdk.samtools.Defaults;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Implementation of LineReader that reads lines as bytes, so that callers parsing ASCII text can tokenize each line
+ * in place rather than decoding it into a String first.  Lines are terminated by LF, CR or CR LF, as for
+ * {@link BufferedLineReader}, and {@link #readLine()} decodes them as UTF-8 in the same way.
+ */
+public class BufferedByteLineReader implements LineReader {
+
+    private final InputStream in;
+    private final byte[] buffer;
+    // Next byte to read in buffer
+    private int position = 0;
+    // Number of bytes in buffer
+    private int limit = 0;
+    // True if the last line read ended in CR, so that a following LF is part of the same line terminator
+    private boolean skipLF = false;
+
+    private byte[] line = new byte[256];
+    private int lineNumber = 0;
+
+    public BufferedByteLineReader(final InputStream in) {
+        this(in, Defaults.NON_ZERO_BUFFER_SIZE);
+    }
+
+    public BufferedByteLineReader(final InputStream in, final int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Read a line, without its terminator, into the array returned by {@link #getLineBytes()}.
+     *
+     * @return the length of the line read, or -1 if EOF has been reached.
+     */
+    public int readLineBytes() {
+        ++lineNumber;
+        if (!skipNewlineAfterCR()) {
+            return -1;
+        }
+        int length = 0;
+        while (true) {
+            if (position == limit && !fill()) {
+                return length > 0 ? length : -1;
+            }
+            final int start = position;
+            while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+                ++position;
+            }
+            final int chunk = position - start;
+            if (length + chunk > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + chunk));
+            }
+            System.arraycopy(buffer, start, line, length, chunk);
+            length += chunk;
+            if (position < limit) {
+                skipLF = buffer[position] == '\r';
+                ++position;
+                return length;
+            }
+        }
+    }
+
+    /**
+     * @return the line most recently read by {@link #readLineBytes()}, from offset 0.  The contents are only valid
+     * until the next line is read.
+     */
+    public byte[] getLineBytes() {
+        return line;
+    }
+
+    /**
+     * Read a line and remove the line terminator
+     *
+     * @return the line read, or null if EOF has been reached.
+     */
+    public String readLine() {
+        final int length = readLineBytes();
+        if (length < 0) {
+            return null;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 1-based number of line most recently read
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Non-destructive one-character look-ahead.
+     *
+     * @return If not eof, the next character that would be read.  If eof, -1.
+     */
+    public int peek() {
+        if (!skipNewlineAfterCR() || (position == limit && !fill())) {
+            return -1;
+        }
+        final byte b = buffer[position];
+        if (b == '\r') {
+            return '\n';
+        }
+        return b & 0xff;
+    }
+
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    /**
+     * Skips the LF of a CR LF terminator that straddled the previous read.
+     * @return false if EOF, else true
+     */
+    private boolean skipNewlineAfterCR() {
+        if (skipLF) {
+            if (position == limit && !fill()) {
+                return false;
+            }
+            skipLF = false;
+            if (buffer[position] == '\n') {
+                ++position;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Refills the buffer once all of it has been consumed.
+     * @return false if EOF, else true
+     */
+    private boolean fill() {
+        try {
+            int n;
+            do {
+                n = in.read(buffer, 0, buffer.length);
+            } while (n == 0);
+            position = 0;
+            limit = Math.max(n, 0);
+            return n > 0;
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+}
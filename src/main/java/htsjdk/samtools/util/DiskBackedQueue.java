@@ -34,11 +34,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A single-ended FIFO queue. Writes elements to temporary files when the queue gets too big.
@@ -49,6 +57,10 @@ import java.util.Queue;
  * This avoids issues arising from conflicts between the input and output streams.
  * This could perhaps be avoided by creating a version of BAMRecordCodec that operates on RandomAccessFiles or channels.
  * <p/>
+ * If asynchronous I/O is requested, records that overflow to disk are encoded and written in batches on a background
+ * thread, and records on disk are decoded in batches ahead of the head of the queue, so that add() and poll() rarely
+ * wait for the disk.  A failure to write records may then be reported by a later call than the add() that spilled them.
+ * <p/>
  *
  *
  * Created by bradt on 4/28/14.
@@ -74,6 +86,36 @@ public class DiskBackedQueue<E> implements Queue<E> {
      */
     private final SortingCollection.Codec<E> codec;
 
+    /** If true, records are written to and read from disk on a background thread. */
+    private final boolean useAsyncIo;
+
+    /** Number of records written or read by each background task. */
+    private final int asyncBatchSize;
+
+    /** Largest number of records written or read by each background task. */
+    private static final int MAX_ASYNC_BATCH_SIZE = 1024;
+
+    private static final ThreadFactory IO_THREAD_FACTORY = new DaemonThreadFactory("DiskBackedQueue-io-");
+
+    /**
+     * Single thread that performs all reads and writes of diskRecords, in the order in which they were submitted.
+     * Created when first needed.
+     */
+    private ThreadPoolExecutor ioService = null;
+
+    /** Records spilled by add() that have not yet been handed to the background thread. */
+    private List<E> pendingWrites = null;
+
+    /** The most recently submitted batch of writes. */
+    private Future<?> lastWrite = null;
+
+    /** Records that have been read back from disk, and the index of the next one to be returned. */
+    private List<E> readBatch = Collections.emptyList();
+    private int readBatchIndex = 0;
+
+    /** The batch of records being read from disk ahead of the head of the queue. */
+    private Future<List<E>> nextReadBatch = null;
+
 
     /**
      * Prepare to accumulate records
@@ -83,7 +125,7 @@ public class DiskBackedQueue<E> implements Queue<E> {
      * @param tmpDirs Where to write files of records that will not fit in RAM
      */
     private DiskBackedQueue(final SortingCollection.Codec<E> codec,
-                            final int maxRecordsInRam, final List<File> tmpDirs) {
+                            final int maxRecordsInRam, final List<File> tmpDirs, final boolean useAsyncIo) {
         if (maxRecordsInRam < 0) {
             throw new IllegalArgumentException("maxRecordsInRamQueue must be >= 0");
         }
@@ -95,6 +137,8 @@ public class DiskBackedQueue<E> implements Queue<E> {
         this.codec = codec;
         this.maxRecordsInRamQueue = (maxRecordsInRam == 0) ? 0 : maxRecordsInRam - 1; // the first of our ram records is stored as headRecord
         this.ramRecords = new ArrayDeque<E>(this.maxRecordsInRamQueue);
+        this.useAsyncIo = useAsyncIo;
+        this.asyncBatchSize = Math.max(1, Math.min(MAX_ASYNC_BATCH_SIZE, this.maxRecordsInRamQueue));
     }
 
     /**
@@ -107,7 +151,23 @@ public class DiskBackedQueue<E> implements Queue<E> {
     public static <T> DiskBackedQueue<T> newInstance(final SortingCollection.Codec<T> codec,
                                                      final int maxRecordsInRam,
                                                      final List<File> tmpDir) {
-        return new DiskBackedQueue<T>(codec, maxRecordsInRam, tmpDir);
+        return new DiskBackedQueue<T>(codec, maxRecordsInRam, tmpDir, false);
+    }
+
+    /**
+     * Syntactic sugar around the ctor, to save some typing of type parameters
+     *
+     * @param codec For writing records to file and reading them back into RAM
+     * @param maxRecordsInRam how many records to accumulate in memory before spilling to disk
+     * @param tmpDir Where to write files of records that will not fit in RAM
+     * @param useAsyncIo If true, write records to disk and read them back on a background thread.  Records must not
+     *                   be modified after they have been added to the queue.
+     */
+    public static <T> DiskBackedQueue<T> newInstance(final SortingCollection.Codec<T> codec,
+                                                     final int maxRecordsInRam,
+                                                     final List<File> tmpDir,
+                                                     final boolean useAsyncIo) {
+        return new DiskBackedQueue<T>(codec, maxRecordsInRam, tmpDir, useAsyncIo);
     }
 
     public boolean canAdd() {
@@ -225,6 +285,19 @@ public class DiskBackedQueue<E> implements Queue<E> {
     public void clear() {
         this.headRecord = null;
         this.ramRecords.clear();
+        // Let any background I/O finish before its streams are closed; its records are being discarded anyway.
+        this.pendingWrites = null;
+        try {
+            awaitAsyncIo(this.lastWrite);
+            awaitAsyncIo(this.nextReadBatch);
+        } catch (final RuntimeException e) {
+            // ignore
+        }
+        this.lastWrite = null;
+        this.nextReadBatch = null;
+        this.readBatch = Collections.emptyList();
+        this.readBatchIndex = 0;
+        this.numRecordsOnDisk = 0;
         this.closeIOResources();
         this.outputStream = null;
         this.inputStream = null;
@@ -254,6 +327,17 @@ public class DiskBackedQueue<E> implements Queue<E> {
                 this.outputStream = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(this.diskRecords), Defaults.BUFFER_SIZE);
                 this.codec.setOutputStream(this.outputStream);
             }
+            if (this.useAsyncIo) {
+                if (this.pendingWrites == null) {
+                    this.pendingWrites = new ArrayList<E>(this.asyncBatchSize);
+                }
+                this.pendingWrites.add(record);
+                this.numRecordsOnDisk++;
+                if (this.pendingWrites.size() == this.asyncBatchSize) {
+                    submitPendingWrites();
+                }
+                return;
+            }
             this.codec.encode(record);
             this.outputStream.flush();
             this.numRecordsOnDisk++;
@@ -262,6 +346,113 @@ public class DiskBackedQueue<E> implements Queue<E> {
         }
     }
 
+    /**
+     * Hand the records spilled since the last batch to the background thread to be written.  Waits for the previous
+     * batch to be written first, so that at most two batches of spilled records are held in memory.
+     */
+    private void submitPendingWrites() {
+        if (this.pendingWrites == null) {
+            return;
+        }
+        awaitAsyncIo(this.lastWrite);
+        final List<E> batch = this.pendingWrites;
+        this.pendingWrites = null;
+        this.lastWrite = getIoService().submit(() -> {
+            for (final E record : batch) {
+                this.codec.encode(record);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Submit a task to the background thread that reads the next batch of records from disk.  On the first read,
+     * the output stream is flushed so that every record written so far can be read.
+     */
+    private void submitNextRead(final File file) {
+        final boolean firstRead = (this.inputStream == null);
+        if (firstRead) {
+            submitPendingWrites();
+            // The stream is opened here rather than on the background thread so that it can always be closed.
+            try {
+                this.inputStream = new FileInputStream(file);
+            } catch (final IOException e) {
+                throw new RuntimeIOException("DiskBackedQueue encountered an error reading from a file", e);
+            }
+        }
+        final InputStream fileInputStream = this.inputStream;
+        this.nextReadBatch = getIoService().submit(() -> {
+            if (firstRead) {
+                this.outputStream.flush();
+                this.codec.setInputStream(tempStreamFactory.wrapTempInputStream(fileInputStream, Defaults.BUFFER_SIZE));
+            }
+            final List<E> records = new ArrayList<E>(this.asyncBatchSize);
+            E record;
+            while (records.size() < this.asyncBatchSize && (record = this.codec.decode()) != null) {
+                records.add(record);
+            }
+            return records;
+        });
+    }
+
+    /**
+     * Return the next record read from disk by the background thread, or null if there are no more.
+     */
+    private E readFileRecordAsync(final File file) {
+        if (this.readBatchIndex == this.readBatch.size()) {
+            if (this.nextReadBatch == null) {
+                if (this.inputStream != null) {
+                    return null;
+                }
+                submitNextRead(file);
+            }
+            this.readBatch = awaitAsyncIo(this.nextReadBatch);
+            this.readBatchIndex = 0;
+            this.nextReadBatch = null;
+            // A short batch means that the end of the file has been reached.
+            if (this.readBatch.size() == this.asyncBatchSize) {
+                submitNextRead(file);
+            }
+            if (this.readBatch.isEmpty()) {
+                return null;
+            }
+        }
+        numRecordsOnDisk--;
+        return this.readBatch.get(this.readBatchIndex++);
+    }
+
+    /**
+     * Wait for a background task to complete, rethrowing any exception that it threw.
+     * @return The result of the task, or null if task is null.
+     */
+    private <T> T awaitAsyncIo(final Future<T> task) {
+        if (task == null) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for DiskBackedQueue I/O", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeIOException("Problem with DiskBackedQueue temporary file " + this.diskRecords + ". Try setting TMP_DIR to a file system with lots of space.", e.getCause());
+        }
+    }
+
+    private ThreadPoolExecutor getIoService() {
+        if (this.ioService == null) {
+            this.ioService = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), IO_THREAD_FACTORY);
+            // Don't keep an idle thread for a queue that is no longer spilling.
+            this.ioService.allowCoreThreadTimeOut(true);
+        }
+        return this.ioService;
+    }
+
     /**
      * Creates a new tmp file on one of the available temp filesystems, registers it for deletion
      * on JVM exit and then returns it.
@@ -277,7 +468,11 @@ public class DiskBackedQueue<E> implements Queue<E> {
     private void updateQueueHead() {
         if (!this.ramRecords.isEmpty()) {
             this.headRecord = this.ramRecords.poll();
-            if (0 < numRecordsOnDisk) this.canAdd = false;
+            if (0 < numRecordsOnDisk) {
+                this.canAdd = false;
+                // Nothing more can be added, so start reading the records on disk while those in RAM are consumed.
+                if (this.useAsyncIo && this.inputStream == null) submitNextRead(this.diskRecords);
+            }
         }
         else if (this.diskRecords != null) {
             this.headRecord = this.readFileRecord(this.diskRecords);
@@ -304,6 +499,9 @@ public class DiskBackedQueue<E> implements Queue<E> {
         if (file == null) {
             throw new IllegalStateException("The file to read from was null");
         }
+        if (this.useAsyncIo) {
+            return readFileRecordAsync(file);
+        }
         try {
             if (this.inputStream == null) {
                 inputStream = new FileInputStream(file);
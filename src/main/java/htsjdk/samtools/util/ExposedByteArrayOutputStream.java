@@ -15,10 +15,14 @@
  * limitations under the License.
  * ****************************************************************************
  */
-package htsjdk.samtools.cram.io;
+package htsjdk.samtools.util;
 
 import java.io.ByteArrayOutputStream;
 
+/**
+ * A ByteArrayOutputStream whose buffer can be read without copying it.  Only the first {@link #size()} bytes of
+ * {@link #getBuffer()} are valid.
+ */
 public class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
     public byte[] getBuffer() {
         return buf;
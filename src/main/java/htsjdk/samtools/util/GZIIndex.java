@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import htsjdk.samtools.SAMException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory representation of a .gzi index, as written by <code>bgzip -i</code> and <code>samtools faidx</code>
+ * for bgzip-compressed files.  The index maps offsets in the uncompressed data onto the BGZF block containing them,
+ * so that a position in the uncompressed stream (e.g. a location taken from a .fai index) can be turned into a
+ * virtual file pointer for {@link BlockCompressedInputStream#seek(long)}.
+ *
+ * On disk the index is a little-endian uint64 count of entries, followed by that many pairs of little-endian uint64
+ * (compressed offset, uncompressed offset), one for the start of each BGZF block after the first.  The first block,
+ * which always starts at (0, 0), is implicit.
+ */
+public class GZIIndex {
+    public static final String DEFAULT_EXTENSION = ".gzi";
+
+    private static final int ENTRY_LENGTH = 2 * Long.BYTES;
+
+    // Block start offsets, including the implicit first block at (0, 0).  Both arrays are sorted.
+    private final long[] compressedOffsets;
+    private final long[] uncompressedOffsets;
+
+    /**
+     * @param compressedOffsets file offset of the start of each BGZF block after the first.
+     * @param uncompressedOffsets offset in the uncompressed data of the start of each BGZF block after the first.
+     */
+    public GZIIndex(final long[] compressedOffsets, final long[] uncompressedOffsets) {
+        if (compressedOffsets.length != uncompressedOffsets.length) {
+            throw new IllegalArgumentException("Compressed and uncompressed offsets must have the same number of entries");
+        }
+        this.compressedOffsets = new long[compressedOffsets.length + 1];
+        this.uncompressedOffsets = new long[uncompressedOffsets.length + 1];
+        System.arraycopy(compressedOffsets, 0, this.compressedOffsets, 1, compressedOffsets.length);
+        System.arraycopy(uncompressedOffsets, 0, this.uncompressedOffsets, 1, uncompressedOffsets.length);
+        for (int i = 1; i < this.compressedOffsets.length; ++i) {
+            if (this.compressedOffsets[i] <= this.compressedOffsets[i - 1] ||
+                    this.uncompressedOffsets[i] < this.uncompressedOffsets[i - 1]) {
+                throw new IllegalArgumentException("GZI index entries are not in increasing order at entry " + (i - 1));
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries in the index, not counting the implicit first block.
+     */
+    public int size() {
+        return compressedOffsets.length - 1;
+    }
+
+    /**
+     * Converts an offset in the uncompressed data into a virtual file pointer that can be passed to
+     * {@link BlockCompressedInputStream#seek(long)}.
+     * @param uncompressedOffset 0-based offset into the uncompressed data.
+     * @return virtual file pointer addressing the same byte.
+     */
+    public long getVirtualOffsetForSeek(final long uncompressedOffset) {
+        if (uncompressedOffset < 0) {
+            throw new IllegalArgumentException("Negative uncompressed offset " + uncompressedOffset);
+        }
+        int i = Arrays.binarySearch(uncompressedOffsets, uncompressedOffset);
+        if (i < 0) {
+            // Not the start of a block, so it is inside the block before the insertion point.
+            i = -i - 2;
+        } else {
+            // Empty blocks share their uncompressed offset with the next block; move to the last of them.
+            while (i + 1 < uncompressedOffsets.length && uncompressedOffsets[i + 1] == uncompressedOffset) {
+                ++i;
+            }
+        }
+        final long blockOffset = uncompressedOffset - uncompressedOffsets[i];
+        if (blockOffset > BlockCompressedFilePointerUtil.MAX_OFFSET) {
+            throw new SAMException("Uncompressed offset " + uncompressedOffset + " is not covered by the GZI index");
+        }
+        return BlockCompressedFilePointerUtil.makeFilePointer(compressedOffsets[i], (int) blockOffset);
+    }
+
+    /**
+     * Writes the index in .gzi format.
+     * @param output stream to write to.  The stream is not closed.
+     */
+    public void writeIndex(final OutputStream output) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + size() * ENTRY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(size());
+        for (int i = 1; i < compressedOffsets.length; ++i) {
+            buffer.putLong(compressedOffsets[i]);
+            buffer.putLong(uncompressedOffsets[i]);
+        }
+        output.write(buffer.array());
+    }
+
+    /**
+     * Writes the index in .gzi format, replacing the given file if it exists.
+     */
+    public void writeIndex(final Path output) throws IOException {
+        try (final OutputStream out = Files.newOutputStream(output)) {
+            writeIndex(out);
+        }
+    }
+
+    /**
+     * Reads an index in .gzi format.
+     * @param input stream to read from.  The stream is not closed.
+     */
+    public static GZIIndex loadIndex(final InputStream input) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(ENTRY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(input, buffer.array(), Long.BYTES);
+        final long numEntries = buffer.getLong(0);
+        if (numEntries < 0 || numEntries >= Integer.MAX_VALUE) {
+            throw new SAMException("Invalid number of entries in GZI index: " + numEntries);
+        }
+        final long[] compressedOffsets = new long[(int) numEntries];
+        final long[] uncompressedOffsets = new long[(int) numEntries];
+        for (int i = 0; i < numEntries; ++i) {
+            readFully(input, buffer.array(), ENTRY_LENGTH);
+            compressedOffsets[i] = buffer.getLong(0);
+            uncompressedOffsets[i] = buffer.getLong(Long.BYTES);
+        }
+        return new GZIIndex(compressedOffsets, uncompressedOffsets);
+    }
+
+    /**
+     * Reads an index in .gzi format.
+     */
+    public static GZIIndex loadIndex(final Path input) throws IOException {
+        try (final InputStream in = new BufferedInputStream(Files.newInputStream(input))) {
+            return loadIndex(in);
+        }
+    }
+
+    /**
+     * Builds the index for a BGZF file by walking its block headers.  Only the header and footer of each block
+     * are examined; no data is inflated.
+     * @param bgzfFile BGZF file to index.
+     */
+    public static GZIIndex buildIndex(final Path bgzfFile) throws IOException {
+        final List<Long> compressedOffsets = new ArrayList<>();
+        final List<Long> uncompressedOffsets = new ArrayList<>();
+        final byte[] block = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        final ByteBuffer littleEndian = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        try (final InputStream in = new BufferedInputStream(Files.newInputStream(bgzfFile))) {
+            long compressedOffset = 0;
+            long uncompressedOffset = 0;
+            while (true) {
+                final int headerLength = readBytes(in, block, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+                if (headerLength == 0) {
+                    break;
+                }
+                if (headerLength != BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH ||
+                        !BlockCompressedInputStream.isValidFile(new ByteArrayInputStream(block, 0, headerLength))) {
+                    throw new SAMException("Invalid BGZF block header at offset " + compressedOffset + " in " + bgzfFile);
+                }
+                final int blockLength = (littleEndian.getShort(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) & 0xFFFF) + 1;
+                final int remaining = blockLength - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+                if (remaining < BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH ||
+                        readBytes(in, block, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, remaining) != remaining) {
+                    throw new SAMException("Truncated BGZF block at offset " + compressedOffset + " in " + bgzfFile);
+                }
+                final long uncompressedLength = littleEndian.getInt(blockLength - 4) & 0xFFFFFFFFL;
+                // Like bgzip, don't index empty blocks such as the EOF marker; there is nothing in them to seek to.
+                if (compressedOffset != 0 && uncompressedLength != 0) {
+                    compressedOffsets.add(compressedOffset);
+                    uncompressedOffsets.add(uncompressedOffset);
+                }
+                compressedOffset += blockLength;
+                uncompressedOffset += uncompressedLength;
+            }
+        }
+        return new GZIIndex(compressedOffsets.stream().mapToLong(Long::longValue).toArray(),
+                uncompressedOffsets.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    private static int readBytes(final InputStream in, final byte[] buffer, final int length) throws IOException {
+        return readBytes(in, buffer, 0, length);
+    }
+
+    private static int readBytes(final InputStream in, final byte[] buffer, final int offset, final int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int count = in.read(buffer, offset + total, length - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    private static void readFully(final InputStream in, final byte[] buffer, final int length) throws IOException {
+        if (readBytes(in, buffer, length) != length) {
+            throw new EOFException("Premature end of GZI index");
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final GZIIndex that = (GZIIndex) o;
+        return Arrays.equals(compressedOffsets, that.compressedOffsets) &&
+                Arrays.equals(uncompressedOffsets, that.uncompressedOffsets);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(compressedOffsets) + Arrays.hashCode(uncompressedOffsets);
+    }
+}
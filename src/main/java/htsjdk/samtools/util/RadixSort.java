@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import java.util.Arrays;
+
+/**
+ * Least-significant-digit radix sort of 64-bit keys, used to order records by a precomputed sort key
+ * without calling a comparator.
+ */
+final class RadixSort {
+    private static final int BITS_PER_DIGIT = 8;
+    private static final int NUM_BUCKETS = 1 << BITS_PER_DIGIT;
+    private static final int DIGIT_MASK = NUM_BUCKETS - 1;
+
+    private RadixSort() {
+    }
+
+    /**
+     * Determine the order of keys[0, n) by signed value.  The sort is stable, so equal keys keep their
+     * original relative order.
+     * @return the indices of the keys in ascending order of key.
+     */
+    static int[] sortedOrder(final long[] keys, final int n) {
+        long[] sortedKeys = new long[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; ++i) {
+            // Flip the sign bit so that unsigned digit order matches signed order.
+            sortedKeys[i] = keys[i] ^ Long.MIN_VALUE;
+            order[i] = i;
+        }
+        long[] scratchKeys = null;
+        int[] scratchOrder = null;
+        final int[] offsets = new int[NUM_BUCKETS];
+        for (int shift = 0; shift < Long.SIZE; shift += BITS_PER_DIGIT) {
+            Arrays.fill(offsets, 0);
+            for (int i = 0; i < n; ++i) {
+                ++offsets[(int) (sortedKeys[i] >>> shift) & DIGIT_MASK];
+            }
+            // Skip digits that are the same for every key, which is common in the high bits.
+            if (n == 0 || offsets[(int) (sortedKeys[0] >>> shift) & DIGIT_MASK] == n) {
+                continue;
+            }
+            int total = 0;
+            for (int bucket = 0; bucket < NUM_BUCKETS; ++bucket) {
+                final int count = offsets[bucket];
+                offsets[bucket] = total;
+                total += count;
+            }
+            if (scratchKeys == null) {
+                scratchKeys = new long[n];
+                scratchOrder = new int[n];
+            }
+            for (int i = 0; i < n; ++i) {
+                final int position = offsets[(int) (sortedKeys[i] >>> shift) & DIGIT_MASK]++;
+                scratchKeys[position] = sortedKeys[i];
+                scratchOrder[position] = order[i];
+            }
+            final long[] tmpKeys = sortedKeys;
+            sortedKeys = scratchKeys;
+            scratchKeys = tmpKeys;
+            final int[] tmpOrder = order;
+            order = scratchOrder;
+            scratchOrder = tmpOrder;
+        }
+        return order;
+    }
+}
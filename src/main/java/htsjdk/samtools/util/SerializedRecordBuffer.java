@@ -0,0 +1,455 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Records serialized by a {@link SortingCollection.Codec}, held in direct (off-heap) ByteBuffers with a total
+ * size bounded by a byte budget.  Only an index of record positions, lengths and optional sort keys is kept on
+ * the Java heap.
+ *
+ * Records are sorted by sorting the index.  If a sort key is supplied, the index is radix sorted by key, and only
+ * records with equal keys are decoded so that their order can be resolved with the comparator.  Without a sort
+ * key, all records in the buffer are decoded when it is sorted.
+ *
+ * The capacity of the direct buffers, whether or not it is filled, is counted against the byte budget along with
+ * the index.  Buffers are allocated in chunks of a fraction of the budget, so at most one partly filled chunk is
+ * left unused when the budget is reached.
+ *
+ * Not thread-safe.
+ */
+class SerializedRecordBuffer<T> {
+    /** Upper bound on the size of each direct ByteBuffer. */
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /** Unless this makes them larger than MAX_CHUNK_SIZE, chunks are this fraction of the byte budget. */
+    private static final int CHUNKS_PER_BUDGET = 16;
+
+    /** Approximate heap bytes used per record for its position, length, sort key and place in the sort order. */
+    static final int INDEX_BYTES_PER_RECORD = 24;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final long maxBytes;
+    private final int chunkSize;
+    private final boolean hasSortKeys;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int currentChunk = 0;
+
+    /** For each record, the chunk index in the upper 32 bits and the offset within the chunk in the lower 32 bits. */
+    private long[] positions = new long[INITIAL_INDEX_CAPACITY];
+    private int[] lengths = new int[INITIAL_INDEX_CAPACITY];
+    private long[] sortKeys;
+    private int numRecords = 0;
+
+    /** The total length of the records held. */
+    private long recordBytes = 0;
+
+    /** The total capacity of the chunks. */
+    private long bytesAllocated = 0;
+
+    /** Incremented by release(), so that streams opened before it can tell that their records are gone. */
+    private int releaseCount = 0;
+
+    /** Scratch space for copying records from direct buffers to an OutputStream. */
+    private byte[] copyBuffer = null;
+
+    /**
+     * @param maxBytes The number of bytes of records and index that the buffer may hold, unless it holds a single
+     *                 record that is larger than this.
+     * @param hasSortKeys If true, each record is added with a sort key.
+     */
+    SerializedRecordBuffer(final long maxBytes, final boolean hasSortKeys) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be > 0");
+        }
+        this.maxBytes = maxBytes;
+        this.chunkSize = (int) Math.max(1, Math.min(maxBytes / CHUNKS_PER_BUDGET, MAX_CHUNK_SIZE));
+        this.hasSortKeys = hasSortKeys;
+        this.sortKeys = hasSortKeys ? new long[INITIAL_INDEX_CAPACITY] : null;
+    }
+
+    int size() {
+        return numRecords;
+    }
+
+    /** @return The total length of the serialized records held. */
+    long getRecordBytes() {
+        return recordBytes;
+    }
+
+    /** @return The total capacity of the direct buffers currently allocated. */
+    long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    /**
+     * @return true if a record of the given serialized length can be added without the allocated chunks and the
+     * index exceeding the byte budget.  A record can always be added to an empty buffer.
+     */
+    boolean fits(final int length) {
+        if (numRecords == 0) {
+            return true;
+        }
+        final int target = targetChunk(length);
+        long allocated = bytesAllocated;
+        if (needsNewChunk(target, length)) {
+            allocated += newChunkSize(target, length) - capacityOf(target);
+        }
+        return allocated + (long) (numRecords + 1) * INDEX_BYTES_PER_RECORD <= maxBytes;
+    }
+
+    /**
+     * Copy a serialized record into the buffer.
+     * @param sortKey Ignored unless the buffer was created with sort keys.
+     */
+    void add(final byte[] bytes, final int length, final long sortKey) {
+        currentChunk = targetChunk(length);
+        if (needsNewChunk(currentChunk, length)) {
+            // Either no chunk has been allocated at this index yet, or a reused one is too small for this record.
+            final ByteBuffer newChunk = ByteBuffer.allocateDirect(newChunkSize(currentChunk, length));
+            bytesAllocated += newChunk.capacity() - capacityOf(currentChunk);
+            if (currentChunk < chunks.size()) {
+                free(chunks.set(currentChunk, newChunk));
+            } else {
+                chunks.add(newChunk);
+            }
+        }
+        final ByteBuffer chunk = chunks.get(currentChunk);
+        if (numRecords == positions.length) {
+            final int newCapacity = positions.length * 2;
+            positions = Arrays.copyOf(positions, newCapacity);
+            lengths = Arrays.copyOf(lengths, newCapacity);
+            if (hasSortKeys) {
+                sortKeys = Arrays.copyOf(sortKeys, newCapacity);
+            }
+        }
+        positions[numRecords] = ((long) currentChunk << 32) | chunk.position();
+        lengths[numRecords] = length;
+        if (hasSortKeys) {
+            sortKeys[numRecords] = sortKey;
+        }
+        ++numRecords;
+        recordBytes += length;
+        chunk.put(bytes, 0, length);
+    }
+
+    /**
+     * @return The index of the chunk that a record of the given length would be written to.  This is the current
+     * chunk unless the record does not fit in what remains of it.
+     */
+    private int targetChunk(final int length) {
+        if (currentChunk < chunks.size()) {
+            final ByteBuffer chunk = chunks.get(currentChunk);
+            if (chunk.remaining() < length && chunk.position() > 0) {
+                return currentChunk + 1;
+            }
+        }
+        return currentChunk;
+    }
+
+    private boolean needsNewChunk(final int target, final int length) {
+        return target == chunks.size() || chunks.get(target).remaining() < length;
+    }
+
+    private int capacityOf(final int chunk) {
+        return chunk < chunks.size() ? chunks.get(chunk).capacity() : 0;
+    }
+
+    /**
+     * @return The size of the chunk to allocate at target for a record of the given length, which is no more than
+     * what remains of the byte budget unless the record itself is larger than that.
+     */
+    private int newChunkSize(final int target, final int length) {
+        final long remaining = maxBytes - (bytesAllocated - capacityOf(target)) -
+                (long) (numRecords + 1) * INDEX_BYTES_PER_RECORD;
+        return (int) Math.max(length, Math.min(chunkSize, remaining));
+    }
+
+    /**
+     * Discard all records, retaining the allocated direct buffers for reuse.
+     */
+    void clear() {
+        for (final ByteBuffer chunk : chunks) {
+            chunk.clear();
+        }
+        currentChunk = 0;
+        numRecords = 0;
+        recordBytes = 0;
+    }
+
+    /**
+     * Discard all records and free the direct buffers immediately rather than when they are garbage collected.
+     * Streams opened before this is called can no longer be read.  The buffer may still be added to afterwards.
+     */
+    void release() {
+        clear();
+        for (final ByteBuffer chunk : chunks) {
+            free(chunk);
+        }
+        chunks.clear();
+        bytesAllocated = 0;
+        ++releaseCount;
+    }
+
+    /**
+     * Determine the order of the records.  Ties in the comparator are broken by the order in which records
+     * were added.
+     * @param comparator Defines the order of the records.  If sort keys were supplied, they must be consistent
+     *                   with the comparator, i.e. a record with a smaller key must compare less than a record
+     *                   with a larger key.
+     * @param decoder Used to decode records that cannot be ordered by sort key alone.
+     * @return the indices of the records in sorted order.
+     */
+    int[] sort(final Comparator<T> comparator, final SortingCollection.Codec<T> decoder) {
+        final int[] order;
+        if (hasSortKeys) {
+            order = RadixSort.sortedOrder(sortKeys, numRecords);
+        } else {
+            order = new int[numRecords];
+            for (int i = 0; i < numRecords; ++i) {
+                order[i] = i;
+            }
+        }
+        int runStart = 0;
+        while (runStart < numRecords) {
+            int runEnd = runStart + 1;
+            while (runEnd < numRecords && (!hasSortKeys || sortKeys[order[runEnd]] == sortKeys[order[runStart]])) {
+                ++runEnd;
+            }
+            if (runEnd - runStart > 1) {
+                sortRun(order, runStart, runEnd, comparator, decoder);
+            }
+            runStart = runEnd;
+        }
+        return order;
+    }
+
+    /** Decode the records in order[from, to) and reorder that range according to the comparator. */
+    private void sortRun(final int[] order, final int from, final int to, final Comparator<T> comparator,
+                         final SortingCollection.Codec<T> decoder) {
+        final int length = to - from;
+        final List<T> decoded = new ArrayList<>(length);
+        decoder.setInputStream(openStream(order, from, to));
+        for (int i = 0; i < length; ++i) {
+            decoded.add(decoder.decode());
+        }
+        final int[] runOrder = new int[length];
+        for (int i = 0; i < length; ++i) {
+            runOrder[i] = i;
+        }
+        mergeSort(runOrder, 0, length, (lhs, rhs) -> comparator.compare(decoded.get(lhs), decoded.get(rhs)));
+        final int[] unsorted = Arrays.copyOfRange(order, from, to);
+        for (int i = 0; i < length; ++i) {
+            order[from + i] = unsorted[runOrder[i]];
+        }
+    }
+
+    /**
+     * Write the serialized records to os in the given order.
+     */
+    void writeTo(final OutputStream os, final int[] order) throws IOException {
+        if (copyBuffer == null) {
+            copyBuffer = new byte[64 * 1024];
+        }
+        for (final int index : order) {
+            final ByteBuffer record = slice(index);
+            while (record.hasRemaining()) {
+                final int n = Math.min(record.remaining(), copyBuffer.length);
+                record.get(copyBuffer, 0, n);
+                os.write(copyBuffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * @return A stream of the serialized records order[from, to), one after another.
+     */
+    InputStream openStream(final int[] order, final int from, final int to) {
+        return new RecordInputStream(order, from, to);
+    }
+
+    private ByteBuffer slice(final int index) {
+        final int offset = (int) positions[index];
+        final ByteBuffer record = chunks.get((int) (positions[index] >>> 32)).duplicate();
+        record.limit(offset + lengths[index]);
+        record.position(offset);
+        return record;
+    }
+
+    private interface IndexComparator {
+        int compare(int lhs, int rhs);
+    }
+
+    /** Stable sort of a[from, to). */
+    private static void mergeSort(final int[] a, final int from, final int to, final IndexComparator comparator) {
+        mergeSort(a, new int[to - from], from, to, from, comparator);
+    }
+
+    /**
+     * @param scratch Holds at least to - from elements, where scratch[0] corresponds to a[scratchBase].
+     */
+    private static void mergeSort(final int[] a, final int[] scratch, final int from, final int to, final int scratchBase,
+                                  final IndexComparator comparator) {
+        if (to - from < 7) {
+            for (int i = from + 1; i < to; ++i) {
+                final int value = a[i];
+                int j = i;
+                while (j > from && comparator.compare(a[j - 1], value) > 0) {
+                    a[j] = a[j - 1];
+                    --j;
+                }
+                a[j] = value;
+            }
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        mergeSort(a, scratch, from, mid, scratchBase, comparator);
+        mergeSort(a, scratch, mid, to, scratchBase, comparator);
+        if (comparator.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, scratch, from - scratchBase, to - from);
+        int left = from - scratchBase;
+        int right = mid - scratchBase;
+        final int leftEnd = right;
+        final int rightEnd = to - scratchBase;
+        for (int i = from; i < to; ++i) {
+            if (right >= rightEnd || (left < leftEnd && comparator.compare(scratch[left], scratch[right]) <= 0)) {
+                a[i] = scratch[left++];
+            } else {
+                a[i] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Presents a sequence of serialized records as a single stream.
+     */
+    private class RecordInputStream extends InputStream {
+        private final int[] order;
+        private final int end;
+        private final int releaseCount = SerializedRecordBuffer.this.releaseCount;
+        private int next;
+        private ByteBuffer current = null;
+
+        RecordInputStream(final int[] order, final int from, final int to) {
+            this.order = order;
+            this.next = from;
+            this.end = to;
+        }
+
+        /** @return false if there are no more bytes. */
+        private boolean ensureAvailable() {
+            if (releaseCount != SerializedRecordBuffer.this.releaseCount) {
+                // Reading current now would touch freed memory.
+                throw new IllegalStateException("Serialized records were released while being read");
+            }
+            while (current == null || !current.hasRemaining()) {
+                if (next == end) {
+                    return false;
+                }
+                current = slice(order[next++]);
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            return ensureAvailable() ? current.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureAvailable()) {
+                return -1;
+            }
+            final int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Free the memory of a direct ByteBuffer, which must not be used afterwards.
+     */
+    private static void free(final ByteBuffer buffer) {
+        DIRECT_BUFFER_FREER.accept(buffer);
+    }
+
+    private static final Consumer<ByteBuffer> DIRECT_BUFFER_FREER = directBufferFreer();
+
+    /**
+     * There is no public API for freeing a direct ByteBuffer, so use the JVM's own means by reflection.  If neither
+     * is available, the memory is freed when the buffer is garbage collected.
+     */
+    private static Consumer<ByteBuffer> directBufferFreer() {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (final ReflectiveOperationException e) {
+                    // Leave it to the garbage collector.
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // Not Java 9 or later.
+        }
+        try {
+            // Java 8
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                try {
+                    clean.invoke(cleaner.invoke(buffer));
+                } catch (final ReflectiveOperationException e) {
+                    // Leave it to the garbage collector.
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return buffer -> { };
+        }
+    }
+}
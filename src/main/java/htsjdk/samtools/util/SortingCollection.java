@@ -32,16 +32,25 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 /**
  * Collection to which many records can be added.  After all records are added, the collection can be
@@ -55,6 +64,19 @@ import java.util.TreeSet;
  *
  * If Snappy DLL is available and snappy.disable system property is not set to true, then Snappy is used
  * to compress temporary files.
+ *
+ * If background spilling is enabled (see {@link #setSpillInBackground(boolean)}), records are sorted with a
+ * parallel sort, and each full buffer is sorted and written to disk on a background thread while add() fills
+ * a second buffer.  In that mode up to 2 * maxRecordsInRam records may be held in memory, and the comparator
+ * must be safe to call from several threads at once.
+ *
+ * If a sort key consistent with the comparator is supplied, records are radix sorted by key, and the comparator
+ * is only used to order records whose keys are equal.
+ *
+ * A collection created with {@link #newSerializedInstance} bounds memory by bytes rather than by number of records.
+ * Each record is encoded with the codec as it is added, and held in off-heap buffers until it is spilled or
+ * iterated.  Records are sorted by sorting an index of their positions, optionally ordered by a precomputed sort
+ * key so that only records with equal keys need to be decoded for comparison.
  */
 public class SortingCollection<T> implements Iterable<T> {
 
@@ -130,16 +152,66 @@ public class SortingCollection<T> implements Iterable<T> {
 
     private TempStreamFactory tempStreamFactory = new TempStreamFactory();
 
+    private boolean spillInBackground = Defaults.SORTING_COLLECTION_BACKGROUND_SPILL;
+
+    /** The spill currently being sorted and written on a background thread, if any. */
+    private Future<File> pendingSpill = null;
+
+    /** The buffer being written by pendingSpill, which may be refilled once that spill has completed. */
+    private T[] spillingRecords = null;
+
+    /** An empty buffer that add() can switch to when the current one is handed off to be spilled. */
+    private T[] spareRecords = null;
+
+    /** Number of threads decoding temporary files ahead of the merge, or 0 to decode on the iterating thread. */
+    private int readAheadThreads = Defaults.SORTING_COLLECTION_READ_AHEAD_THREADS;
+
+    private static final ThreadFactory READ_AHEAD_THREAD_FACTORY = new DaemonThreadFactory("SortingCollection-readahead-");
+
+    /** Largest number of records decoded at a time from each temporary file by a read-ahead thread. */
+    private static final int MAX_READ_AHEAD_BATCH_SIZE = 1024;
+
+    /** For a serialized collection, holds encoded records in place of ramRecords. */
+    private SerializedRecordBuffer<T> serializedRecords = null;
+    private SerializedRecordBuffer<T> spillingSerializedRecords = null;
+    private SerializedRecordBuffer<T> spareSerializedRecords = null;
+
+    /** For a serialized collection, the byte budget of each SerializedRecordBuffer. */
+    private final long maxBytesInRam;
+
+    /**
+     * For a serialized collection, the mean encoded size of the records in each temporary file, so that read-ahead
+     * can be bounded by bytes.  Written by background spills, hence concurrent.
+     */
+    private final Map<File, Long> meanRecordBytes = new ConcurrentHashMap<>();
+
+    /** An optional key consistent with the comparator, used to radix sort records before they are compared. */
+    private final ToLongFunction<T> sortKey;
+
+    /** For a serialized collection, where the codec encodes each record as it is added. */
+    private final ExposedByteArrayOutputStream stagingStream;
+
+    /** Order of serializedRecords for in-memory iteration, determined on first use. */
+    private int[] serializedOrder = null;
+
+    private static final ThreadFactory SPILL_THREAD_FACTORY = new DaemonThreadFactory("SortingCollection-spill-");
+
+    /** Threads that sort and write spills in the background.  Idle threads are discarded by the cached pool. */
+    private static final ExecutorService spillService = Executors.newCachedThreadPool(SPILL_THREAD_FACTORY);
+
     /**
      * Prepare to accumulate records to be sorted
      * @param componentType Class of the record to be sorted.  Necessary because of Java generic lameness.
      * @param codec For writing records to file and reading them back into RAM
      * @param comparator Defines output sort order
      * @param maxRecordsInRam how many records to accumulate before spilling to disk
+     * @param sortKey If non-null, a key for each record such that a record with a smaller key compares less than one
+     *                with a larger key.
      * @param tmpDir Where to write files of records that will not fit in RAM
      */
     private SortingCollection(final Class<T> componentType, final SortingCollection.Codec<T> codec,
-                             final Comparator<T> comparator, final int maxRecordsInRam, final File... tmpDir) {
+                             final Comparator<T> comparator, final int maxRecordsInRam,
+                             final ToLongFunction<T> sortKey, final File... tmpDir) {
         if (maxRecordsInRam <= 0) {
             throw new IllegalArgumentException("maxRecordsInRam must be > 0");
         }
@@ -153,6 +225,43 @@ public class SortingCollection<T> implements Iterable<T> {
         this.comparator = comparator;
         this.maxRecordsInRam = maxRecordsInRam;
         this.ramRecords = (T[])Array.newInstance(componentType, maxRecordsInRam);
+        this.maxBytesInRam = 0;
+        this.sortKey = sortKey;
+        this.stagingStream = null;
+    }
+
+    /**
+     * Prepare to accumulate records to be sorted, holding them in serialized form.
+     * @param codec For encoding records into memory and temporary files, and decoding them.  encode() must write each
+     *              record completely to the output stream before returning, and records must be decodable from
+     *              the concatenation of their individual encodings.
+     * @param comparator Defines output sort order
+     * @param maxBytesInRam how many bytes of buffers for encoded records and their index to allocate before spilling
+     *                      to disk
+     * @param sortKey If non-null, a key for each record such that a record with a smaller key compares less than one
+     *                with a larger key.
+     * @param tmpDir Where to write files of records that will not fit in RAM
+     */
+    private SortingCollection(final SortingCollection.Codec<T> codec, final Comparator<T> comparator,
+                              final long maxBytesInRam, final ToLongFunction<T> sortKey, final File... tmpDir) {
+        if (maxBytesInRam <= 0) {
+            throw new IllegalArgumentException("maxBytesInRam must be > 0");
+        }
+
+        if (tmpDir == null || tmpDir.length == 0) {
+            throw new IllegalArgumentException("At least one temp directory must be provided.");
+        }
+
+        this.tmpDirs = tmpDir;
+        this.codec = codec;
+        this.comparator = comparator;
+        this.maxRecordsInRam = Integer.MAX_VALUE;
+        this.ramRecords = null;
+        this.maxBytesInRam = maxBytesInRam;
+        this.sortKey = sortKey;
+        this.serializedRecords = new SerializedRecordBuffer<>(maxBytesInRam, sortKey != null);
+        this.stagingStream = new ExposedByteArrayOutputStream();
+        this.codec.setOutputStream(this.stagingStream);
     }
 
     public void add(final T rec) {
@@ -162,6 +271,17 @@ public class SortingCollection<T> implements Iterable<T> {
         if (iterationStarted) {
             throw new IllegalStateException("Cannot add after calling iterator()");
         }
+        if (this.serializedRecords != null) {
+            this.stagingStream.reset();
+            this.codec.encode(rec);
+            if (!this.serializedRecords.fits(this.stagingStream.size())) {
+                spillToDisk();
+            }
+            this.serializedRecords.add(this.stagingStream.getBuffer(), this.stagingStream.size(),
+                    this.sortKey == null ? 0 : this.sortKey.applyAsLong(rec));
+            ++numRecordsInRam;
+            return;
+        }
         if (numRecordsInRam == maxRecordsInRam) {
             spillToDisk();
         }
@@ -183,16 +303,35 @@ public class SortingCollection<T> implements Iterable<T> {
 
         doneAdding = true;
 
-        if (this.files.isEmpty()) {
+        if (this.files.isEmpty() && this.pendingSpill == null) {
             return;
         }
 
         if (this.numRecordsInRam > 0) {
             spillToDisk();
         }
+        waitForPendingSpill();
 
         // Facilitate GC
         this.ramRecords = null;
+        this.spareRecords = null;
+        releaseSerializedRecords();
+    }
+
+    /**
+     * Free the direct memory of any serialized record buffers now, rather than waiting for them to be garbage
+     * collected.  Must not be called while a spill is in progress.
+     */
+    private void releaseSerializedRecords() {
+        for (final SerializedRecordBuffer<T> records : Arrays.asList(this.serializedRecords,
+                this.spillingSerializedRecords, this.spareSerializedRecords)) {
+            if (records != null) {
+                records.release();
+            }
+        }
+        this.serializedRecords = null;
+        this.spillingSerializedRecords = null;
+        this.spareSerializedRecords = null;
     }
 
     /**
@@ -211,36 +350,223 @@ public class SortingCollection<T> implements Iterable<T> {
         this.destructiveIteration = destructiveIteration;
     }
 
+    /**
+     * @return True if records are sorted with a parallel sort and spilled to disk on a background thread.
+     */
+    public boolean isSpillInBackground() {
+        return spillInBackground;
+    }
+
+    /**
+     * Tell this collection to sort records with a parallel sort, and to sort and write each full buffer of records
+     * on a background thread while add() continues into a second buffer.  This overlaps spilling with the work of
+     * the caller, at the cost of holding up to twice as many records in memory.  The comparator must be thread-safe.
+     * Default is {@link Defaults#SORTING_COLLECTION_BACKGROUND_SPILL}.
+     */
+    public void setSpillInBackground(final boolean spillInBackground) {
+        this.spillInBackground = spillInBackground;
+    }
+
+    /**
+     * @return The number of threads that decode temporary files ahead of the merge when iterating.
+     */
+    public int getReadAheadThreads() {
+        return readAheadThreads;
+    }
+
+    /**
+     * Set the number of threads that decode records from temporary files in batches ahead of the merge when
+     * iterating, or 0 to decode each record on the iterating thread when it is needed.  Takes effect for iterators
+     * created after it is called.  Default is {@link Defaults#SORTING_COLLECTION_READ_AHEAD_THREADS}.
+     */
+    public void setReadAheadThreads(final int readAheadThreads) {
+        if (readAheadThreads < 0) {
+            throw new IllegalArgumentException("readAheadThreads must be >= 0");
+        }
+        this.readAheadThreads = readAheadThreads;
+    }
+
     /**
      * Sort the records in memory, write them to a file, and clear the buffer of records in memory.
      */
     private void spillToDisk() {
+        waitForPendingSpill();
+        if (this.serializedRecords != null) {
+            final SerializedRecordBuffer<T> records = this.serializedRecords;
+            final Codec<T> decoder = this.codec.clone();
+            this.numRecordsInRam = 0;
+            if (this.spillInBackground) {
+                if (this.spareSerializedRecords != null) {
+                    this.serializedRecords = this.spareSerializedRecords;
+                    this.spareSerializedRecords = null;
+                } else {
+                    this.serializedRecords = new SerializedRecordBuffer<>(this.maxBytesInRam, this.sortKey != null);
+                }
+                this.spillingSerializedRecords = records;
+                this.pendingSpill = spillService.submit(() -> writeSerializedRecords(records, decoder));
+            } else {
+                this.files.add(writeSerializedRecords(records, decoder));
+            }
+        } else if (this.spillInBackground) {
+            final T[] records = this.ramRecords;
+            final int numRecords = this.numRecordsInRam;
+            if (this.spareRecords != null) {
+                this.ramRecords = this.spareRecords;
+                this.spareRecords = null;
+            } else {
+                // An empty array of the same runtime type as the one being spilled.
+                this.ramRecords = Arrays.copyOf(Arrays.copyOf(records, 0), this.maxRecordsInRam);
+            }
+            this.numRecordsInRam = 0;
+            this.spillingRecords = records;
+            this.pendingSpill = spillService.submit(() -> {
+                sortRecords(records, numRecords);
+                return writeSortedRecords(records, numRecords);
+            });
+        } else {
+            sortRecords(this.ramRecords, this.numRecordsInRam);
+            this.files.add(writeSortedRecords(this.ramRecords, this.numRecordsInRam));
+            this.numRecordsInRam = 0;
+        }
+    }
+
+    /**
+     * Wait for the background spill in progress, if any, to finish, and record the file it wrote.
+     */
+    private void waitForPendingSpill() {
+        if (this.pendingSpill == null) {
+            return;
+        }
+        try {
+            this.files.add(this.pendingSpill.get());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while spilling records to disk", e);
+        } catch (final ExecutionException e) {
+            this.pendingSpill = null;
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeIOException("Problem spilling records to disk", e.getCause());
+        }
+        this.pendingSpill = null;
+        this.spareRecords = this.spillingRecords;
+        this.spillingRecords = null;
+        this.spareSerializedRecords = this.spillingSerializedRecords;
+        this.spillingSerializedRecords = null;
+    }
+
+    private void sortRecords(final T[] records, final int numRecords) {
+        if (this.sortKey != null) {
+            sortRecordsByKey(records, numRecords);
+        } else if (this.spillInBackground) {
+            Arrays.parallelSort(records, 0, numRecords, this.comparator);
+        } else {
+            Arrays.sort(records, 0, numRecords, this.comparator);
+        }
+    }
+
+    /**
+     * Radix sort the records by sort key, which is computed once per record, and then use the comparator only to
+     * order records with equal keys.
+     */
+    private void sortRecordsByKey(final T[] records, final int numRecords) {
+        final long[] keys = new long[numRecords];
+        for (int i = 0; i < numRecords; ++i) {
+            keys[i] = this.sortKey.applyAsLong(records[i]);
+        }
+        final int[] order = RadixSort.sortedOrder(keys, numRecords);
+        final T[] unsorted = Arrays.copyOf(records, numRecords);
+        for (int i = 0; i < numRecords; ++i) {
+            records[i] = unsorted[order[i]];
+        }
+        int runStart = 0;
+        while (runStart < numRecords) {
+            final long key = keys[order[runStart]];
+            int runEnd = runStart + 1;
+            while (runEnd < numRecords && keys[order[runEnd]] == key) {
+                ++runEnd;
+            }
+            if (runEnd - runStart > 1) {
+                Arrays.sort(records, runStart, runEnd, this.comparator);
+            }
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * Write the first numRecords of the given sorted records to a new temporary file, clearing them from the array.
+     * @return the file that was written.
+     */
+    private File writeSortedRecords(final T[] records, final int numRecords) {
         try {
-            Arrays.sort(this.ramRecords, 0, this.numRecordsInRam, this.comparator);
             final File f = newTempFile();
-            OutputStream os = null;
             try {
-                os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(f), Defaults.BUFFER_SIZE);
-                this.codec.setOutputStream(os);
-                for (int i = 0; i < this.numRecordsInRam; ++i) {
-                    this.codec.encode(ramRecords[i]);
-                    // Facilitate GC
-                    this.ramRecords[i] = null;
-                }
-
-                os.flush();
-            } catch (RuntimeIOException ex) {
-                throw new RuntimeIOException("Problem writing temporary file " + f.getAbsolutePath() +
-                        ".  Try setting TMP_DIR to a file system with lots of space.", ex);
-            } finally {
-                if (os != null) {
-                    os.close();
+                OutputStream os = null;
+                try {
+                    os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(f), Defaults.BUFFER_SIZE);
+                    this.codec.setOutputStream(os);
+                    for (int i = 0; i < numRecords; ++i) {
+                        this.codec.encode(records[i]);
+                        // Facilitate GC
+                        records[i] = null;
+                    }
+
+                    os.flush();
+                } catch (RuntimeIOException ex) {
+                    throw new RuntimeIOException("Problem writing temporary file " + f.getAbsolutePath() +
+                            ".  Try setting TMP_DIR to a file system with lots of space.", ex);
+                } finally {
+                    if (os != null) {
+                        os.close();
+                    }
                 }
+            } catch (IOException | RuntimeException | Error e) {
+                // The file is only added to this.files once it has been written, so nothing else will delete it.
+                IOUtil.deleteFiles(f);
+                throw e;
             }
 
-            this.numRecordsInRam = 0;
-            this.files.add(f);
+            return f;
+        }
+        catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
 
+    /**
+     * Sort the given serialized records, write them to a new temporary file, and clear the buffer.
+     * @param decoder For decoding records whose order cannot be determined from their sort keys.
+     * @return the file that was written.
+     */
+    private File writeSerializedRecords(final SerializedRecordBuffer<T> records, final Codec<T> decoder) {
+        try {
+            final int[] order = records.sort(this.comparator, decoder);
+            final File f = newTempFile();
+            try {
+                OutputStream os = null;
+                try {
+                    os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(f), Defaults.BUFFER_SIZE);
+                    records.writeTo(os, order);
+                    os.flush();
+                } catch (IOException | RuntimeIOException ex) {
+                    throw new RuntimeIOException("Problem writing temporary file " + f.getAbsolutePath() +
+                            ".  Try setting TMP_DIR to a file system with lots of space.", ex);
+                } finally {
+                    if (os != null) {
+                        os.close();
+                    }
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                // The file is only added to this.files once it has been written, so nothing else will delete it.
+                IOUtil.deleteFiles(f);
+                throw e;
+            }
+            this.meanRecordBytes.put(f, Math.max(1, records.getRecordBytes() / Math.max(1, records.size())));
+            records.clear();
+            return f;
         }
         catch (IOException e) {
             throw new RuntimeIOException(e);
@@ -266,7 +592,9 @@ public class SortingCollection<T> implements Iterable<T> {
         doneAdding();
 
         this.iterationStarted = true;
-        if (this.files.isEmpty()) {
+        if (this.files.isEmpty() && this.serializedRecords != null) {
+            return new SerializedInMemoryIterator();
+        } else if (this.files.isEmpty()) {
             return new InMemoryIterator();
         } else {
             return new MergingIterator();
@@ -280,7 +608,17 @@ public class SortingCollection<T> implements Iterable<T> {
         this.iterationStarted = true;
         this.cleanedUp = true;
 
+        if (this.pendingSpill != null) {
+            try {
+                waitForPendingSpill();
+            } catch (final RuntimeException e) {
+                // Nothing more can be done with a failed spill; delete whatever files were written.
+            }
+        }
+        releaseSerializedRecords();
+
         IOUtil.deleteFiles(this.files);
+        this.meanRecordBytes.clear();
     }
 
     /**
@@ -297,10 +635,31 @@ public class SortingCollection<T> implements Iterable<T> {
                                                        final Comparator<T> comparator,
                                                        final int maxRecordsInRAM,
                                                        final File... tmpDir) {
-        return new SortingCollection<T>(componentType, codec, comparator, maxRecordsInRAM, tmpDir);
+        return new SortingCollection<T>(componentType, codec, comparator, maxRecordsInRAM, null, tmpDir);
 
     }
 
+    /**
+     * Syntactic sugar around the ctor, to save some typing of type parameters
+     *
+     * @param componentType Class of the record to be sorted.  Necessary because of Java generic lameness.
+     * @param codec For writing records to file and reading them back into RAM
+     * @param comparator Defines output sort order
+     * @param maxRecordsInRAM how many records to accumulate in memory before spilling to disk
+     * @param sortKey If non-null, a key for each record such that a record with a smaller key compares less than one
+     *                with a larger key.  Records are radix sorted by key, and the comparator is only used to order
+     *                records with equal keys.
+     * @param tmpDir Where to write files of records that will not fit in RAM
+     */
+    public static <T> SortingCollection<T> newInstance(final Class<T> componentType,
+                                                       final SortingCollection.Codec<T> codec,
+                                                       final Comparator<T> comparator,
+                                                       final int maxRecordsInRAM,
+                                                       final ToLongFunction<T> sortKey,
+                                                       final File... tmpDir) {
+        return new SortingCollection<T>(componentType, codec, comparator, maxRecordsInRAM, sortKey, tmpDir);
+    }
+
     /**
      * Syntactic sugar around the ctor, to save some typing of type parameters
      *
@@ -319,6 +678,7 @@ public class SortingCollection<T> implements Iterable<T> {
                                         codec,
                                         comparator,
                                         maxRecordsInRAM,
+                                        null,
                                         tmpDirs.toArray(new File[tmpDirs.size()]));
 
     }
@@ -338,7 +698,30 @@ public class SortingCollection<T> implements Iterable<T> {
                                                        final int maxRecordsInRAM) {
 
         final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
-        return new SortingCollection<T>(componentType, codec, comparator, maxRecordsInRAM, tmpDir);
+        return new SortingCollection<T>(componentType, codec, comparator, maxRecordsInRAM, null, tmpDir);
+    }
+
+    /**
+     * Create a collection that holds records in serialized form, and spills to disk when the off-heap buffers
+     * allocated for the encoded records, plus their index, would exceed maxBytesInRAM.  If spilling in the
+     * background, a second buffer of up to maxBytesInRAM is filled while the first is spilled.
+     *
+     * @param codec For encoding records into memory and temporary files, and decoding them.  encode() must write each
+     *              record completely to the output stream before returning, and records must be decodable from
+     *              the concatenation of their individual encodings.
+     * @param comparator Defines output sort order
+     * @param maxBytesInRAM how many bytes of encoded records to accumulate in memory before spilling to disk
+     * @param sortKey If non-null, a key for each record such that a record with a smaller key compares less than one
+     *                with a larger key.  Records are ordered by key, and only records with equal keys are decoded
+     *                and compared with the comparator.  If null, all records are decoded for comparison when sorted.
+     * @param tmpDir Where to write files of records that will not fit in RAM
+     */
+    public static <T> SortingCollection<T> newSerializedInstance(final SortingCollection.Codec<T> codec,
+                                                                 final Comparator<T> comparator,
+                                                                 final long maxBytesInRAM,
+                                                                 final ToLongFunction<T> sortKey,
+                                                                 final File... tmpDir) {
+        return new SortingCollection<T>(codec, comparator, maxBytesInRAM, sortKey, tmpDir);
     }
 
     /**
@@ -348,10 +731,7 @@ public class SortingCollection<T> implements Iterable<T> {
         private int iterationIndex = 0;
 
         InMemoryIterator() {
-            Arrays.sort(SortingCollection.this.ramRecords,
-                        0,
-                        SortingCollection.this.numRecordsInRam,
-                        SortingCollection.this.comparator);
+            sortRecords(SortingCollection.this.ramRecords, SortingCollection.this.numRecordsInRam);
         }
 
         public void close() {
@@ -377,40 +757,145 @@ public class SortingCollection<T> implements Iterable<T> {
         }
     }
 
+    /**
+     * For iteration over a serialized collection when number of records added is less than the threshold for
+     * spilling to disk.
+     */
+    class SerializedInMemoryIterator implements CloseableIterator<T> {
+        private final Codec<T> decoder;
+        private int numRecordsRemaining;
+
+        SerializedInMemoryIterator() {
+            final SerializedRecordBuffer<T> records = SortingCollection.this.serializedRecords;
+            this.decoder = SortingCollection.this.codec.clone();
+            if (SortingCollection.this.serializedOrder == null) {
+                SortingCollection.this.serializedOrder = records.sort(SortingCollection.this.comparator, this.decoder);
+            }
+            final int[] order = SortingCollection.this.serializedOrder;
+            this.decoder.setInputStream(records.openStream(order, 0, order.length));
+            this.numRecordsRemaining = order.length;
+        }
+
+        public void close() {
+            // nothing to do
+        }
+
+        public boolean hasNext() {
+            return this.numRecordsRemaining > 0;
+        }
+
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            --this.numRecordsRemaining;
+            return this.decoder.decode();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * For iteration when spilling to disk has occurred.
      * Each file is has records in sort order within the file.
      * This iterator automatically closes when it iterates to the end, but if not iterating
      * to the end it is a good idea to call close().
      *
-     * Algorithm: MergingIterator maintains a PriorityQueue of PeekFileRecordIterators.
-     * Each PeekFileRecordIterator iterates through a file in which the records are sorted.
-     * The comparator for PeekFileRecordIterator used by the PriorityQueue peeks at the next record from
-     * the file, so the first element in the PriorityQueue is the file that has the next record to be emitted.
-     * In order to get the next record, the first PeekFileRecordIterator in the PriorityQueue is popped,
-     * the record is obtained from that iterator, and then if that iterator is not empty, it is pushed back into
-     * the PriorityQueue.  Because it now has a different record as its next element, it may go into another
-     * location in the PriorityQueue
+     * Algorithm: MergingIterator holds the next record from each file, and a tournament tree of losers over
+     * the files.  Each internal node of the tree records the file that lost the comparison at that node, and
+     * the overall winner is the file with the next record to be emitted.  After the winner's record is emitted,
+     * the file's next record is played back up the path from its leaf to the root, which takes exactly log2(n)
+     * comparisons and no rebalancing.  Ties are broken by file number, so records that compare equal are emitted
+     * in the order in which they were added.
+     *
+     * If read-ahead threads are enabled (see {@link #setReadAheadThreads(int)}), records are decoded from each file
+     * in batches on background threads ahead of the merge.
      */
     class MergingIterator implements CloseableIterator<T> {
-        private final PollableTreeSet<PeekFileRecordIterator> queue;
+        private final List<CloseableIterator<T>> sources = new ArrayList<>();
+
+        /** The next record from each source, or null if the source is exhausted. */
+        private final List<T> heads;
+
+        /** tree[0] is the winner, i.e. the source with the next record; tree[1..n) are the losers at each node. */
+        private final int[] tree;
+
+        private final ThreadPoolExecutor readAheadService;
 
         MergingIterator() {
-            this.queue = new PollableTreeSet<PeekFileRecordIterator>(new PeekFileRecordIteratorComparator());
-            int n = 0;
+            if (SortingCollection.this.readAheadThreads > 0) {
+                this.readAheadService = new ThreadPoolExecutor(readAheadThreads, readAheadThreads, 10, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), READ_AHEAD_THREAD_FACTORY);
+                // Don't leave idle threads behind if the iterator is abandoned without being closed.
+                this.readAheadService.allowCoreThreadTimeOut(true);
+            } else {
+                this.readAheadService = null;
+            }
+            final int numFiles = SortingCollection.this.files.size();
             for (final File f : SortingCollection.this.files) {
                 final FileRecordIterator it = new FileRecordIterator(f);
                 if (it.hasNext()) {
-                    this.queue.add(new PeekFileRecordIterator(it, n++));
+                    this.sources.add(this.readAheadService == null ? it :
+                            new ReadAheadFileRecordIterator(it, readAheadBatchSize(f, numFiles)));
                 }
                 else {
                     it.close();
                 }
             }
+            final int n = this.sources.size();
+            this.heads = new ArrayList<>(n);
+            this.tree = new int[Math.max(n, 1)];
+            for (int i = 0; i < n; ++i) {
+                this.heads.add(this.sources.get(i).next());
+            }
+            if (n > 0) {
+                // Play the initial tournament bottom up.  Leaves are at [n, 2n), node i has children 2i and 2i + 1.
+                final int[] winners = new int[2 * n];
+                for (int i = 0; i < n; ++i) {
+                    winners[n + i] = i;
+                }
+                for (int node = n - 1; node > 0; --node) {
+                    final int lhs = winners[2 * node];
+                    final int rhs = winners[2 * node + 1];
+                    if (beats(lhs, rhs)) {
+                        winners[node] = lhs;
+                        this.tree[node] = rhs;
+                    } else {
+                        winners[node] = rhs;
+                        this.tree[node] = lhs;
+                    }
+                }
+                this.tree[0] = winners[1];
+            }
+        }
+
+        /**
+         * Each source may hold two batches, the one being consumed and the one being decoded, so the batches of all
+         * the sources are sized to hold no more than the collection would hold in memory: maxRecordsInRam records,
+         * or for a serialized collection, maxBytesInRam bytes of encoded records.
+         */
+        private int readAheadBatchSize(final File f, final int numFiles) {
+            final long batchSize;
+            if (SortingCollection.this.maxBytesInRam > 0) {
+                batchSize = SortingCollection.this.maxBytesInRam / (2L * numFiles * meanRecordBytes.get(f));
+            } else {
+                batchSize = SortingCollection.this.maxRecordsInRam / (2L * numFiles);
+            }
+            return (int) Math.max(1, Math.min(MAX_READ_AHEAD_BATCH_SIZE, batchSize));
+        }
+
+        /** @return true if the next record of source lhs should be emitted before that of source rhs. */
+        private boolean beats(final int lhs, final int rhs) {
+            if (this.heads.get(lhs) == null) return false;
+            if (this.heads.get(rhs) == null) return true;
+            final int result = comparator.compare(this.heads.get(lhs), this.heads.get(rhs));
+            return result < 0 || (result == 0 && lhs < rhs);
         }
 
         public boolean hasNext() {
-            return !this.queue.isEmpty();
+            return !this.heads.isEmpty() && this.heads.get(this.tree[0]) != null;
         }
 
         public T next() {
@@ -418,13 +903,28 @@ public class SortingCollection<T> implements Iterable<T> {
                 throw new NoSuchElementException();
             }
 
-            final PeekFileRecordIterator fileIterator = queue.poll();
-            final T ret = fileIterator.next();
-            if (fileIterator.hasNext()) {
-                this.queue.add(fileIterator);
+            int winner = this.tree[0];
+            final T ret = this.heads.get(winner);
+            final CloseableIterator<T> source = this.sources.get(winner);
+            if (source.hasNext()) {
+                this.heads.set(winner, source.next());
             }
             else {
-                ((CloseableIterator<T>)fileIterator.getUnderlyingIterator()).close();
+                this.heads.set(winner, null);
+                source.close();
+            }
+
+            // Replay the winner's new record against the losers on the path to the root.
+            for (int node = (winner + this.heads.size()) / 2; node > 0; node /= 2) {
+                if (beats(this.tree[node], winner)) {
+                    final int loser = winner;
+                    winner = this.tree[node];
+                    this.tree[node] = loser;
+                }
+            }
+            this.tree[0] = winner;
+            if (!hasNext() && this.readAheadService != null) {
+                this.readAheadService.shutdown();
             }
 
             return ret;
@@ -435,9 +935,93 @@ public class SortingCollection<T> implements Iterable<T> {
         }
 
         public void close() {
-            while (!this.queue.isEmpty()) {
-                final PeekFileRecordIterator it = this.queue.poll();
-                ((CloseableIterator<T>)it.getUnderlyingIterator()).close();
+            for (int i = 0; i < this.heads.size(); ++i) {
+                if (this.heads.get(i) != null) {
+                    this.heads.set(i, null);
+                    this.sources.get(i).close();
+                }
+            }
+            if (this.readAheadService != null) {
+                this.readAheadService.shutdownNow();
+            }
+        }
+
+        /**
+         * Decodes batches of records from a file on the read-ahead threads.  While the caller consumes one batch,
+         * the next is decoded in the background.
+         */
+        class ReadAheadFileRecordIterator implements CloseableIterator<T> {
+            private final FileRecordIterator underlying;
+            private final int batchSize;
+            private List<T> batch = Collections.emptyList();
+            private int batchIndex = 0;
+            private Future<List<T>> nextBatch;
+
+            ReadAheadFileRecordIterator(final FileRecordIterator underlying, final int batchSize) {
+                this.underlying = underlying;
+                this.batchSize = batchSize;
+                this.nextBatch = readAheadService.submit(this::readBatch);
+            }
+
+            private List<T> readBatch() {
+                final List<T> records = new ArrayList<>(this.batchSize);
+                while (records.size() < this.batchSize && this.underlying.hasNext()) {
+                    records.add(this.underlying.next());
+                }
+                return records;
+            }
+
+            public boolean hasNext() {
+                if (this.batchIndex < this.batch.size()) {
+                    return true;
+                }
+                if (this.nextBatch == null) {
+                    return false;
+                }
+                try {
+                    this.batch = this.nextBatch.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while reading temporary file " + this.underlying.file, e);
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    } else if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new RuntimeIOException("Problem reading temporary file " + this.underlying.file, e.getCause());
+                }
+                this.batchIndex = 0;
+                // A short batch means the file has been exhausted.
+                this.nextBatch = this.batch.size() == this.batchSize ? readAheadService.submit(this::readBatch) : null;
+                return !this.batch.isEmpty();
+            }
+
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.batch.get(this.batchIndex++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            public void close() {
+                if (this.nextBatch != null) {
+                    // The batch is discarded, but the file must not be closed while it is being read.
+                    try {
+                        this.nextBatch.get();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (final ExecutionException e) {
+                        // Nothing more will be read from this file.
+                    }
+                    this.nextBatch = null;
+                }
+                this.batch = Collections.emptyList();
+                this.underlying.close();
             }
         }
     }
@@ -489,44 +1073,4 @@ public class SortingCollection<T> implements Iterable<T> {
             CloserUtil.close(this.is);
         }
     }
-
-
-    /**
-     * Just a typedef
-     */
-    class PeekFileRecordIterator extends PeekIterator<T> {
-        final int n; // A serial number used for tie-breaking in the sort
-        PeekFileRecordIterator(final Iterator<T> underlyingIterator, final int n) {
-            super(underlyingIterator);
-            this.n = n;
-        }
-    }
-
-    class PeekFileRecordIteratorComparator implements Comparator<PeekFileRecordIterator>, Serializable {
-        private static final long serialVersionUID = 1L;
-
-        public int compare(final PeekFileRecordIterator lhs, final PeekFileRecordIterator rhs) {
-            final int result = comparator.compare(lhs.peek(), rhs.peek());
-            if (result == 0) return lhs.n - rhs.n;
-            else return result;
-        }
-    }
-
-    /** Little class that provides the Java 1.5 TreeSet with a poll() method */
-    static class PollableTreeSet<T> extends TreeSet<T> {
-        PollableTreeSet(final Comparator<? super T> comparator) {
-            super(comparator);
-        }
-
-        public T poll() {
-            if (isEmpty()) {
-                return null;
-            }
-            else {
-                final T t = first();
-                remove(t);
-                return t;
-            }
-        }
-    }
 }
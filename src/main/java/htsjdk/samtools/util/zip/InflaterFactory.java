@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util.zip;
+
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.util.Log;
+
+import java.util.zip.Inflater;
+
+/**
+ * Creates the {@link Inflater}s used to decompress BGZF blocks.  The base implementation creates a new
+ * standard JDK inflater for every request and ends it as soon as it is released.
+ *
+ * Alternative implementations (e.g. a faster pure-Java or native inflater) can be plugged in by subclassing
+ * and either passing an instance to the readers that accept one, calling {@link #setDefaultInflaterFactory},
+ * or naming the subclass in {@link Defaults#INFLATER_FACTORY}.  A subclass named in Defaults must have a
+ * public no-argument constructor; if it cannot be loaded or instantiated, the standard JDK inflater is used.
+ *
+ * If {@link Defaults#USE_INFLATER_POOL} is true, the default factory is wrapped in a {@link PooledInflaterFactory}
+ * so that inflaters are reused across short-lived readers.
+ */
+public class InflaterFactory {
+
+    private static final Log log = Log.getInstance(InflaterFactory.class);
+
+    private static InflaterFactory defaultInflaterFactory = createDefaultInflaterFactory();
+
+    /**
+     * Returns an inflater ready for use.
+     * @param gzipCompatible if true, the inflater expects raw deflate data, as found in GZIP blocks.
+     */
+    public Inflater makeInflater(final boolean gzipCompatible) {
+        return new Inflater(gzipCompatible);
+    }
+
+    /**
+     * Called when the caller is done with an inflater obtained from {@link #makeInflater}.  The inflater must
+     * not be used by the caller afterwards.
+     * @param gzipCompatible the value that was passed to makeInflater when the inflater was created.
+     */
+    public void releaseInflater(final Inflater inflater, final boolean gzipCompatible) {
+        inflater.end();
+    }
+
+    /** Returns the factory used by readers that are not given one explicitly. */
+    public static InflaterFactory getDefaultInflaterFactory() {
+        return defaultInflaterFactory;
+    }
+
+    /** Sets the factory used by subsequently created readers that are not given one explicitly. */
+    public static void setDefaultInflaterFactory(final InflaterFactory inflaterFactory) {
+        if (inflaterFactory == null) {
+            throw new IllegalArgumentException("InflaterFactory must not be null");
+        }
+        defaultInflaterFactory = inflaterFactory;
+    }
+
+    private static InflaterFactory createDefaultInflaterFactory() {
+        InflaterFactory inflaterFactory = new InflaterFactory();
+        if (!Defaults.INFLATER_FACTORY.isEmpty()) {
+            try {
+                inflaterFactory = (InflaterFactory) Class.forName(Defaults.INFLATER_FACTORY).newInstance();
+                // Make sure it actually works (e.g. that any native library it depends on is available)
+                inflaterFactory.releaseInflater(inflaterFactory.makeInflater(true), true);
+            } catch (final ClassNotFoundException | IllegalAccessException |
+                    InstantiationException | LinkageError | RuntimeException e) {
+                log.warn(e, "Could not use InflaterFactory " + Defaults.INFLATER_FACTORY + ", using JDK inflater instead");
+                inflaterFactory = new InflaterFactory();
+            }
+        }
+        log.debug("Using inflater factory: " + inflaterFactory.getClass().getSimpleName());
+        return Defaults.USE_INFLATER_POOL ? new PooledInflaterFactory(inflaterFactory) : inflaterFactory;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util.zip;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * An {@link InflaterFactory} that keeps released inflaters in a bounded pool and hands them out again, rather
+ * than allocating (and eventually finalizing) a new inflater for every reader.  This matters when large numbers of
+ * short-lived readers are opened, e.g. for index-driven queries.  Inflaters are created by a delegate factory when
+ * the pool is empty, and given back to the delegate when the pool is full.
+ *
+ * This class is thread-safe, so a single instance may be shared by all readers.
+ */
+public class PooledInflaterFactory extends InflaterFactory {
+
+    /** Default maximum number of idle inflaters of each kind that are kept. */
+    public static final int DEFAULT_MAX_POOLED_INFLATERS = 64;
+
+    private final InflaterFactory delegate;
+    private final BlockingQueue<Inflater> gzipCompatibleInflaters;
+    private final BlockingQueue<Inflater> zlibInflaters;
+
+    public PooledInflaterFactory() {
+        this(new InflaterFactory());
+    }
+
+    public PooledInflaterFactory(final InflaterFactory delegate) {
+        this(delegate, DEFAULT_MAX_POOLED_INFLATERS);
+    }
+
+    /**
+     * @param delegate used to create inflaters when the pool is empty, and to release them when it is full.
+     * @param maxPooledInflaters maximum number of idle inflaters of each kind that are kept.
+     */
+    public PooledInflaterFactory(final InflaterFactory delegate, final int maxPooledInflaters) {
+        if (maxPooledInflaters <= 0) {
+            throw new IllegalArgumentException("Invalid maximum number of pooled inflaters: " + maxPooledInflaters);
+        }
+        this.delegate = delegate;
+        this.gzipCompatibleInflaters = new ArrayBlockingQueue<Inflater>(maxPooledInflaters);
+        this.zlibInflaters = new ArrayBlockingQueue<Inflater>(maxPooledInflaters);
+    }
+
+    @Override
+    public Inflater makeInflater(final boolean gzipCompatible) {
+        final Inflater inflater = getPool(gzipCompatible).poll();
+        return inflater != null ? inflater : delegate.makeInflater(gzipCompatible);
+    }
+
+    @Override
+    public void releaseInflater(final Inflater inflater, final boolean gzipCompatible) {
+        inflater.reset();
+        if (!getPool(gzipCompatible).offer(inflater)) {
+            delegate.releaseInflater(inflater, gzipCompatible);
+        }
+    }
+
+    /** @return the number of idle inflaters of the given kind currently in the pool. */
+    public int getNumPooledInflaters(final boolean gzipCompatible) {
+        return getPool(gzipCompatible).size();
+    }
+
+    private BlockingQueue<Inflater> getPool(final boolean gzipCompatible) {
+        return gzipCompatible ? gzipCompatibleInflaters : zlibInflaters;
+    }
+}
@@ -23,6 +23,7 @@
  */
 package htsjdk.tribble.index;
 
+import htsjdk.samtools.CSIIndex;
 import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.seekablestream.ISeekableStreamFactory;
@@ -78,7 +79,9 @@ public class IndexFactory {
         LINEAR(LinearIndex.MAGIC_NUMBER, LinearIndex.INDEX_TYPE, LinearIndexCreator.class, LinearIndex.class, LinearIndexCreator.DEFAULT_BIN_WIDTH),
         INTERVAL_TREE(IntervalTreeIndex.MAGIC_NUMBER, IntervalTreeIndex.INDEX_TYPE, IntervalIndexCreator.class, IntervalTreeIndex.class, IntervalIndexCreator.DEFAULT_FEATURE_COUNT),
         // Tabix index initialization requires additional information, so generic construction won't work, thus indexCreatorClass is null.
-        TABIX(TabixIndex.MAGIC_NUMBER, null, null, TabixIndex.class, -1);
+        TABIX(TabixIndex.MAGIC_NUMBER, null, null, TabixIndex.class, -1),
+        // Tabix index in CSI format; loaded by TabixIndex as well.
+        CSI(TabixIndex.CSI_MAGIC_NUMBER, null, null, TabixIndex.class, -1);
 
         private final int magicNumber;
         private final Integer tribbleIndexType;
@@ -182,7 +185,7 @@ public class IndexFactory {
         if (indexFile.endsWith(".gz")) {
             return new GZIPInputStream(inputStreamInitial);
         }
-        else if (indexFile.endsWith(TabixUtils.STANDARD_INDEX_EXTENSION)) {
+        else if (indexFile.endsWith(TabixUtils.STANDARD_INDEX_EXTENSION) || indexFile.endsWith(CSIIndex.CSI_INDEX_SUFFIX)) {
             return new BlockCompressedInputStream(inputStreamInitial);
         }
         else {
@@ -264,7 +267,8 @@ public class IndexFactory {
             case INTERVAL_TREE: return createIntervalIndex(inputFile, codec);
             case LINEAR:        return createLinearIndex(inputFile, codec);
             // Tabix index initialization requires additional information, so this construction method won't work.
-            case TABIX:         throw new UnsupportedOperationException("Tabix indices cannot be created through a generic interface");
+            case TABIX:
+            case CSI:           throw new UnsupportedOperationException("Tabix indices cannot be created through a generic interface");
         }
         throw new IllegalArgumentException("Unrecognized IndexType " + type);
     }
@@ -318,6 +322,27 @@ public class IndexFactory {
         return (TabixIndex)createIndex(inputFile, new FeatureIterator<FEATURE_TYPE, SOURCE_TYPE>(inputFile, codec), indexCreator);
     }
 
+    /**
+     * Creates a Tabix index in CSI format, with the given binning scheme.
+     *
+     * @param inputFile The file to be indexed.
+     * @param codec Mechanism for reading inputFile.
+     * @param tabixFormat Header fields for TabixIndex to be produced.
+     * @param sequenceDictionary May be null, but if present may reduce memory footprint for index creation.  Features
+     *                           in inputFile must be in the order defined by sequenceDictionary, if it is present.
+     * @param minShift log2 of the width of the smallest bins
+     * @param depth number of levels below the root bin
+     */
+    public static <FEATURE_TYPE extends Feature, SOURCE_TYPE> TabixIndex createTabixIndex(final File inputFile,
+                                                                                     final FeatureCodec<FEATURE_TYPE, SOURCE_TYPE> codec,
+                                                                                     final TabixFormat tabixFormat,
+                                                                                     final SAMSequenceDictionary sequenceDictionary,
+                                                                                     final int minShift,
+                                                                                     final int depth) {
+        final TabixIndexCreator indexCreator = new TabixIndexCreator(sequenceDictionary, tabixFormat, minShift, depth);
+        return (TabixIndex)createIndex(inputFile, new FeatureIterator<FEATURE_TYPE, SOURCE_TYPE>(inputFile, codec), indexCreator);
+    }
+
 
 
     private static Index createIndex(final File inputFile, final FeatureIterator iterator, final IndexCreator creator) {
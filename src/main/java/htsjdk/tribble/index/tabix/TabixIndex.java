@@ -25,7 +25,9 @@ package htsjdk.tribble.index.tabix;
 
 import htsjdk.samtools.Bin;
 import htsjdk.samtools.BinningIndexContent;
+import htsjdk.samtools.CSIIndex;
 import htsjdk.samtools.Chunk;
+import htsjdk.samtools.GenomicIndexUtil;
 import htsjdk.samtools.LinearIndex;
 import htsjdk.samtools.util.BlockCompressedInputStream;
 import htsjdk.samtools.util.BlockCompressedOutputStream;
@@ -38,32 +40,44 @@ import htsjdk.tribble.util.LittleEndianInputStream;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import htsjdk.tribble.util.TabixUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
 
 /**
  * This class represent a Tabix index that has been built in memory or read from a file.  It can be queried or
- * written to a file.
+ * written to a file.  The index may use the .tbi format, or the CSI format with a configurable binning scheme, in
+ * which case the Tabix header is carried in the CSI auxiliary data.
  */
 public class TabixIndex implements Index {
     private static final byte[] MAGIC = {'T', 'B', 'I', 1};
     public static final int MAGIC_NUMBER;
 
+    private static final byte[] CSI_MAGIC = {'C', 'S', 'I', 1};
+    public static final int CSI_MAGIC_NUMBER;
+
     static {
         final ByteBuffer bb = ByteBuffer.allocate(MAGIC.length);
         bb.put(MAGIC);
         bb.flip();
         MAGIC_NUMBER = bb.order(ByteOrder.LITTLE_ENDIAN).getInt();
+        CSI_MAGIC_NUMBER = ByteBuffer.wrap(CSI_MAGIC).order(ByteOrder.LITTLE_ENDIAN).getInt();
     }
 
     private final TabixFormat formatSpec;
     private final List<String> sequenceNames;
     private final BinningIndexContent[] indices;
+    // true if this index is read from or written as CSI, in which case the binning scheme may differ from .tbi
+    private final boolean csi;
+    private final int minShift;
+    private final int depth;
 
     /**
      * @param formatSpec    Information about how to interpret the file being indexed.  Unused by this class other than
@@ -72,12 +86,34 @@ public class TabixIndex implements Index {
      * @param indices       One for each element of sequenceNames
      */
     public TabixIndex(final TabixFormat formatSpec, final List<String> sequenceNames, final BinningIndexContent[] indices) {
+        this(formatSpec, sequenceNames, indices, false, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH);
+    }
+
+    /**
+     * Index to be written in CSI format.
+     *
+     * @param formatSpec    Information about how to interpret the file being indexed.
+     * @param sequenceNames Sequences in the file being indexed, in the order they appear in the file.
+     * @param indices       One for each element of sequenceNames, built with the given binning scheme.
+     * @param minShift      log2 of the width of the smallest bins
+     * @param depth         number of levels below the root bin
+     */
+    public TabixIndex(final TabixFormat formatSpec, final List<String> sequenceNames, final BinningIndexContent[] indices,
+                      final int minShift, final int depth) {
+        this(formatSpec, sequenceNames, indices, true, minShift, depth);
+    }
+
+    private TabixIndex(final TabixFormat formatSpec, final List<String> sequenceNames, final BinningIndexContent[] indices,
+                       final boolean csi, final int minShift, final int depth) {
         if (sequenceNames.size() != indices.length) {
             throw new IllegalArgumentException("sequenceNames.size() != indices.length");
         }
         this.formatSpec = formatSpec.clone();
         this.sequenceNames = Collections.unmodifiableList(new ArrayList<String>(sequenceNames));
         this.indices = indices;
+        this.csi = csi;
+        this.minShift = minShift;
+        this.depth = depth;
     }
 
     /**
@@ -97,12 +133,48 @@ public class TabixIndex implements Index {
 
     private TabixIndex(final InputStream inputStream, final boolean closeInputStream) throws IOException {
         final LittleEndianInputStream dis = new LittleEndianInputStream(inputStream);
-        if (dis.readInt() != MAGIC_NUMBER) {
+        final int magicNumber = dis.readInt();
+        formatSpec = new TabixFormat();
+        if (magicNumber == CSI_MAGIC_NUMBER) {
+            // Hand the magic number back so that CSIIndex sees the whole index.
+            final CSIIndex csiIndex = new CSIIndex(new SequenceInputStream(new ByteArrayInputStream(CSI_MAGIC), inputStream));
+            if (closeInputStream) CloserUtil.close(dis);
+            if (csiIndex.getAuxData().length == 0) {
+                throw new TribbleException("CSI index does not contain a Tabix header");
+            }
+            csi = true;
+            minShift = csiIndex.getMinShift();
+            depth = csiIndex.getDepth();
+            final int numSequences = csiIndex.getNumberOfReferences();
+            sequenceNames = readHeader(new LittleEndianInputStream(new ByteArrayInputStream(csiIndex.getAuxData())),
+                    numSequences, formatSpec);
+            indices = new BinningIndexContent[numSequences];
+            for (int i = 0; i < numSequences; ++i) {
+                indices[i] = csiIndex.getContent(i);
+            }
+            return;
+        }
+        if (magicNumber != MAGIC_NUMBER) {
             throw new TribbleException(String.format("Unexpected magic number 0x%x", MAGIC_NUMBER));
         }
+        csi = false;
+        minShift = GenomicIndexUtil.BAI_MIN_SHIFT;
+        depth = GenomicIndexUtil.BAI_DEPTH;
         final int numSequences = dis.readInt();
         indices = new BinningIndexContent[numSequences];
-        formatSpec = new TabixFormat();
+        sequenceNames = readHeader(dis, numSequences, formatSpec);
+        for (int i = 0; i < numSequences; ++i) {
+            indices[i] = loadSequence(i, dis);
+        }
+        if (closeInputStream) CloserUtil.close(dis);
+    }
+
+    /**
+     * Reads the format description and sequence names, which follow the sequence count in a .tbi and make up the
+     * auxiliary data of a Tabix CSI.
+     */
+    private static List<String> readHeader(final LittleEndianInputStream dis, final int numSequences,
+                                           final TabixFormat formatSpec) throws IOException {
         formatSpec.flags = dis.readInt();
         formatSpec.sequenceColumn = dis.readInt();
         formatSpec.startPositionColumn = dis.readInt();
@@ -123,11 +195,7 @@ public class TabixIndex implements Index {
         if (startPos != nameBlockSize) {
             throw new TribbleException("Tabix header format exception.  Sequence name block is longer than expected");
         }
-        for (int i = 0; i < numSequences; ++i) {
-            indices[i] = loadSequence(i, dis);
-        }
-        if (closeInputStream) CloserUtil.close(dis);
-        this.sequenceNames = Collections.unmodifiableList(sequenceNames);
+        return Collections.unmodifiableList(sequenceNames);
     }
 
     /**
@@ -144,7 +212,7 @@ public class TabixIndex implements Index {
         if (sequenceIndex == -1 || indices[sequenceIndex] == null) {
             return Collections.emptyList();
         }
-        final List<Chunk> chunks = indices[sequenceIndex].getChunksOverlapping(start, end);
+        final List<Chunk> chunks = indices[sequenceIndex].getChunksOverlapping(start, end, minShift, depth);
         if (chunks == null) {
             return Collections.emptyList();
         } else {
@@ -187,6 +255,7 @@ public class TabixIndex implements Index {
         final TabixIndex that = (TabixIndex) o;
 
         if (!formatSpec.equals(that.formatSpec)) return false;
+        if (csi != that.csi || minShift != that.minShift || depth != that.depth) return false;
         if (!Arrays.equals(indices, that.indices)) return false;
         return sequenceNames.equals(that.sequenceNames);
 
@@ -196,6 +265,13 @@ public class TabixIndex implements Index {
         return formatSpec;
     }
 
+    /**
+     * @return true if this index is written in CSI format rather than .tbi
+     */
+    public boolean isCSI() {
+        return csi;
+    }
+
     /**
      * Writes the index with BGZF.
      *
@@ -219,7 +295,8 @@ public class TabixIndex implements Index {
     @Override
     public void writeBasedOnFeatureFile(final File featureFile) throws IOException {
         if (!featureFile.isFile()) return;
-        write(new File(featureFile.getAbsolutePath() + TabixUtils.STANDARD_INDEX_EXTENSION));
+        write(new File(featureFile.getAbsolutePath() +
+                (csi ? CSIIndex.CSI_INDEX_SUFFIX : TabixUtils.STANDARD_INDEX_EXTENSION)));
     }
 
     /**
@@ -229,8 +306,33 @@ public class TabixIndex implements Index {
      */
     @Override
     public void write(final LittleEndianOutputStream los) throws IOException {
+        if (csi) {
+            writeCSI(los);
+            return;
+        }
         los.writeInt(MAGIC_NUMBER);
         los.writeInt(sequenceNames.size());
+        writeHeader(los);
+        for (final BinningIndexContent index : indices) {
+            writeSequence(index, los);
+        }
+    }
+
+    private void writeCSI(final LittleEndianOutputStream los) throws IOException {
+        final ByteArrayOutputStream auxData = new ByteArrayOutputStream();
+        writeHeader(new LittleEndianOutputStream(auxData));
+        los.writeInt(CSI_MAGIC_NUMBER);
+        los.writeInt(minShift);
+        los.writeInt(depth);
+        los.writeInt(auxData.size());
+        auxData.writeTo(los);
+        los.writeInt(sequenceNames.size());
+        for (final BinningIndexContent index : indices) {
+            writeCSISequence(index, los);
+        }
+    }
+
+    private void writeHeader(final LittleEndianOutputStream los) throws IOException {
         los.writeInt(formatSpec.flags);
         los.writeInt(formatSpec.sequenceColumn);
         los.writeInt(formatSpec.startPositionColumn);
@@ -244,8 +346,29 @@ public class TabixIndex implements Index {
             los.write(StringUtil.stringToBytes(sequenceName));
             los.write(0);
         }
-        for (final BinningIndexContent index : indices) {
-            writeSequence(index, los);
+    }
+
+    /**
+     * In CSI each bin carries the linear index entry of its first window in place of a separate linear index.
+     */
+    private void writeCSISequence(final BinningIndexContent indexContent, final LittleEndianOutputStream los) throws IOException {
+        if (indexContent == null) {
+            los.writeInt(0);
+        } else {
+            final BinningIndexContent.BinList binList = indexContent.getBins();
+            los.writeInt(binList.numberOfNonNullBins);
+            for (final Bin bin : binList) {
+                los.writeInt(bin.getBinNumber());
+                final long binStart = GenomicIndexUtil.getBinStart(bin.getBinNumber(), minShift, depth);
+                final int binStartPos = (int) Math.min(binStart + 1, Integer.MAX_VALUE);
+                los.writeLong(indexContent.getLinearIndex().getMinimumOffset(binStartPos, minShift));
+                final List<Chunk> chunkList = bin.getChunkList();
+                los.writeInt(chunkList.size());
+                for (final Chunk chunk : chunkList) {
+                    los.writeLong(chunk.getChunkStart());
+                    los.writeLong(chunk.getChunkEnd());
+                }
+            }
         }
     }
 
@@ -353,6 +476,7 @@ public class TabixIndex implements Index {
         final TabixIndex index = (TabixIndex) o;
 
         if (!formatSpec.equals(index.formatSpec)) return false;
+        if (csi != index.csi || minShift != index.minShift || depth != index.depth) return false;
         if (!Arrays.equals(indices, index.indices)) return false;
         if (!sequenceNames.equals(index.sequenceNames)) return false;
 
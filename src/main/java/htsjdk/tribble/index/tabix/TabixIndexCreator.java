@@ -26,6 +26,7 @@ package htsjdk.tribble.index.tabix;
 import htsjdk.samtools.BinningIndexBuilder;
 import htsjdk.samtools.BinningIndexContent;
 import htsjdk.samtools.Chunk;
+import htsjdk.samtools.GenomicIndexUtil;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.tribble.Feature;
 import htsjdk.tribble.index.Index;
@@ -49,6 +50,10 @@ public class TabixIndexCreator implements IndexCreator {
     // A sequence dictionary is not required, but if it is provided all sequences names must be present in it.
     // It is used to determine the length of a sequence in order to optimize index memory allocation.
     private final SAMSequenceDictionary sequenceDictionary;
+    // If true, a CSI index is produced with the given binning scheme; otherwise a .tbi
+    private final boolean csi;
+    private final int minShift;
+    private final int depth;
 
     private String currentSequenceName = null;
     private BinningIndexBuilder indexBuilder = null;
@@ -63,8 +68,34 @@ public class TabixIndexCreator implements IndexCreator {
      */
     public TabixIndexCreator(final SAMSequenceDictionary sequenceDictionary,
                              final TabixFormat formatSpec) {
+        this(sequenceDictionary, formatSpec, false, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH);
+    }
+
+    /**
+     * Creates a CSI index rather than a .tbi, e.g. for sequences longer than 2^29 bases.
+     *
+     * @param sequenceDictionary is not required, but if present all features added must refer to sequences in the
+     *                           dictionary.  It is used to optimize the memory needed to build the index.
+     * @param minShift           log2 of the width of the smallest bins
+     * @param depth              number of levels below the root bin
+     */
+    public TabixIndexCreator(final SAMSequenceDictionary sequenceDictionary,
+                             final TabixFormat formatSpec,
+                             final int minShift,
+                             final int depth) {
+        this(sequenceDictionary, formatSpec, true, minShift, depth);
+    }
+
+    private TabixIndexCreator(final SAMSequenceDictionary sequenceDictionary,
+                              final TabixFormat formatSpec,
+                              final boolean csi,
+                              final int minShift,
+                              final int depth) {
         this.sequenceDictionary = sequenceDictionary;
         this.formatSpec = formatSpec.clone();
+        this.csi = csi;
+        this.minShift = minShift;
+        this.depth = depth;
     }
 
     public TabixIndexCreator(final TabixFormat formatSpec) {
@@ -117,7 +148,7 @@ public class TabixIndexCreator implements IndexCreator {
         } else {
             sequenceLength = 0;
         }
-        indexBuilder = new BinningIndexBuilder(sequenceNames.size(), sequenceLength);
+        indexBuilder = new BinningIndexBuilder(sequenceNames.size(), sequenceLength, minShift, depth);
         sequenceNames.add(sequenceName);
         currentSequenceName = sequenceName;
         sequenceNamesSeen.add(sequenceName);
@@ -135,7 +166,8 @@ public class TabixIndexCreator implements IndexCreator {
         // but truncate the sequence dictionary before its end if there are sequences in the sequence dictionary without
         // any features.
         final BinningIndexContent[] indices = indexContents.toArray(new BinningIndexContent[sequenceNames.size()]);
-        return new TabixIndex(formatSpec, sequenceNames, indices);
+        return csi ? new TabixIndex(formatSpec, sequenceNames, indices, minShift, depth)
+                   : new TabixIndex(formatSpec, sequenceNames, indices);
     }
 
 
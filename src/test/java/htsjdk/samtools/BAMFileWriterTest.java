@@ -23,13 +23,16 @@
  */
 package htsjdk.samtools;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.nio.file.Files;
 
 /**
  * Test that BAM writing doesn't blow up.  For presorted writing, the resulting BAM file is read and contents are
@@ -183,6 +186,38 @@ public class BAMFileWriterTest {
         }
     }
 
+    /**
+     * An index built while compressing on worker threads, from provisional file pointers, is identical to one built
+     * while compressing on the writing thread.
+     */
+    @Test
+    public void testIndexWithCompressionThreads() throws Exception {
+        final File input = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+        final File tmpDir = IOUtil.createTempDir("BAMFileWriterTest.", null);
+        final int defaultCompressionThreads = BlockCompressedOutputStream.getDefaultCompressionThreads();
+        try {
+            final File[] bamFiles = new File[2];
+            final int[] compressionThreads = {0, 3};
+            for (int i = 0; i < bamFiles.length; ++i) {
+                BlockCompressedOutputStream.setDefaultCompressionThreads(compressionThreads[i]);
+                bamFiles[i] = new File(tmpDir, "threads" + compressionThreads[i] + BamFileIoUtils.BAM_FILE_EXTENSION);
+                try (final SamReader reader = SamReaderFactory.makeDefault().open(input);
+                     final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true)
+                             .makeBAMWriter(reader.getFileHeader(), true, bamFiles[i])) {
+                    for (final SAMRecord record : reader) {
+                        writer.addAlignment(record);
+                    }
+                }
+            }
+            Assert.assertEquals(Files.readAllBytes(bamFiles[1].toPath()), Files.readAllBytes(bamFiles[0].toPath()));
+            Assert.assertEquals(Files.readAllBytes(SamFiles.findIndex(bamFiles[1]).toPath()),
+                    Files.readAllBytes(SamFiles.findIndex(bamFiles[0]).toPath()));
+        } finally {
+            BlockCompressedOutputStream.setDefaultCompressionThreads(defaultCompressionThreads);
+            IOUtil.deleteDirectoryTree(tmpDir);
+        }
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void testNegativePresorted() throws Exception {
 
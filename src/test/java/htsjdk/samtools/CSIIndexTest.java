@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CSIIndexTest {
+    private static final File BAM_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+    private static final File BAI_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam.bai");
+
+    private static File createCSIIndex(final int minShift, final int depth) throws IOException {
+        final File csiFile = File.createTempFile("CSIIndexTest.", CSIIndex.CSI_INDEX_SUFFIX);
+        csiFile.deleteOnExit();
+        try (final SamReader reader = SamReaderFactory.makeDefault()
+                .enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(BAM_FILE)) {
+            BAMIndexer.createCSIIndex(reader, csiFile, minShift, depth);
+        }
+        return csiFile;
+    }
+
+    @DataProvider(name = "binningSchemes")
+    public Object[][] binningSchemes() {
+        return new Object[][]{
+                {14, 5},
+                {12, 6},
+                {16, 4},
+                {14, 6}
+        };
+    }
+
+    @Test(dataProvider = "binningSchemes")
+    public void testQueriesMatchBAI(final int minShift, final int depth) throws IOException {
+        final File csiFile = createCSIIndex(minShift, depth);
+        final SamReaderFactory factory = SamReaderFactory.makeDefault();
+        try (final SamReader baiReader = factory.open(SamInputResource.of(BAM_FILE).index(BAI_FILE));
+             final SamReader csiReader = factory.open(SamInputResource.of(BAM_FILE).index(csiFile))) {
+            Assert.assertTrue(csiReader.indexing().getIndex() instanceof CSIIndex);
+            final SAMSequenceDictionary dictionary = baiReader.getFileHeader().getSequenceDictionary();
+            final Random random = new Random(minShift * 31 + depth);
+            int recordsCompared = 0;
+            for (int i = 0; i < 200; ++i) {
+                final SAMSequenceRecord sequence = dictionary.getSequence(random.nextInt(dictionary.size()));
+                final int start = 1 + random.nextInt(sequence.getSequenceLength());
+                final int end = random.nextInt(10) == 0 ? 0 : start + random.nextInt(200000);
+                final boolean contained = random.nextBoolean();
+                final List<String> expected = readNames(baiReader.query(sequence.getSequenceName(), start, end, contained));
+                Assert.assertEquals(readNames(csiReader.query(sequence.getSequenceName(), start, end, contained)), expected,
+                        sequence.getSequenceName() + ":" + start + "-" + end);
+                recordsCompared += expected.size();
+            }
+            Assert.assertTrue(recordsCompared > 0);
+            Assert.assertEquals(readNames(csiReader.queryUnmapped()), readNames(baiReader.queryUnmapped()));
+        }
+    }
+
+    @Test(dataProvider = "binningSchemes")
+    public void testMetaDataMatchesBAI(final int minShift, final int depth) throws IOException {
+        final CSIIndex csiIndex = new CSIIndex(createCSIIndex(minShift, depth));
+        final CachingBAMFileIndex baiIndex = new CachingBAMFileIndex(BAI_FILE, null);
+        Assert.assertEquals(csiIndex.getMinShift(), minShift);
+        Assert.assertEquals(csiIndex.getDepth(), depth);
+        Assert.assertEquals(csiIndex.getNumberOfReferences(), baiIndex.getNumberOfReferences());
+        Assert.assertEquals(csiIndex.getNoCoordinateCount(), baiIndex.getNoCoordinateCount());
+        for (int i = 0; i < csiIndex.getNumberOfReferences(); ++i) {
+            final BAMIndexMetaData expected = baiIndex.getMetaData(i);
+            final BAMIndexMetaData actual = csiIndex.getMetaData(i);
+            Assert.assertEquals(actual.getAlignedRecordCount(), expected.getAlignedRecordCount());
+            Assert.assertEquals(actual.getUnalignedRecordCount(), expected.getUnalignedRecordCount());
+            Assert.assertEquals(actual.getFirstOffset(), expected.getFirstOffset());
+            Assert.assertEquals(actual.getLastOffset(), expected.getLastOffset());
+        }
+        Assert.assertNull(csiIndex.getSpanOverlapping(csiIndex.getNumberOfReferences(), 1, 1000));
+        baiIndex.close();
+        csiIndex.close();
+    }
+
+    @Test
+    public void testIndexStatsMatchBAI() throws IOException {
+        final File csiFile = createCSIIndex(14, 5);
+        final SamReaderFactory factory = SamReaderFactory.makeDefault();
+        try (final SamReader baiReader = factory.open(SamInputResource.of(BAM_FILE).index(BAI_FILE));
+             final SamReader csiReader = factory.open(SamInputResource.of(BAM_FILE).index(csiFile))) {
+            final BAMIndexMetaData[] expected = BAMIndexMetaData.getIndexStats(
+                    (BAMFileReader) ((SamReader.PrimitiveSamReaderToSamReaderAdapter) baiReader).underlyingReader());
+            final BAMIndexMetaData[] actual = BAMIndexMetaData.getIndexStats(
+                    (BAMFileReader) ((SamReader.PrimitiveSamReaderToSamReaderAdapter) csiReader).underlyingReader());
+            Assert.assertEquals(actual.length, expected.length);
+            for (int i = 0; i < expected.length; ++i) {
+                Assert.assertEquals(actual[i].getAlignedRecordCount(), expected[i].getAlignedRecordCount());
+                Assert.assertEquals(actual[i].getUnalignedRecordCount(), expected[i].getUnalignedRecordCount());
+                Assert.assertEquals(actual[i].getNoCoordinateRecordCount(), expected[i].getNoCoordinateRecordCount());
+            }
+            Assert.assertEquals(new CSIIndex(csiFile).getLinearIndexEntries(0),
+                    new CachingBAMFileIndex(BAI_FILE, null).getLinearIndexEntries(0));
+        }
+    }
+
+    @Test
+    public void testIndexStream() throws IOException {
+        final File csiFile = createCSIIndex(14, 5);
+        try (final SamReader reader = SamReaderFactory.makeDefault()
+                .open(SamInputResource.of(new SeekableFileStream(BAM_FILE)).index(new SeekableFileStream(csiFile)))) {
+            Assert.assertTrue(reader.indexing().getIndex() instanceof CSIIndex);
+            Assert.assertFalse(reader.indexing().hasBrowseableIndex());
+            final List<String> records = readNames(reader.query("chr1", 1, 0, false));
+            Assert.assertFalse(records.isEmpty());
+            try (final SamReader baiReader = SamReaderFactory.makeDefault().open(SamInputResource.of(BAM_FILE).index(BAI_FILE))) {
+                Assert.assertEquals(records, readNames(baiReader.query("chr1", 1, 0, false)));
+            }
+        }
+    }
+
+    @Test
+    public void testFindIndex() throws IOException {
+        final File directory = IOUtil.createTempDir("CSIIndexTest", null);
+        try {
+            final File bam = new File(directory, "index_test.bam");
+            Files.copy(BAM_FILE.toPath(), bam.toPath());
+            Assert.assertNull(SamFiles.findIndex(bam));
+            final File csi = new File(directory, "index_test.bam.csi");
+            Files.copy(createCSIIndex(14, 5).toPath(), csi.toPath());
+            Assert.assertEquals(SamFiles.findIndex(bam), csi);
+            try (final SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+                Assert.assertTrue(reader.hasIndex());
+                Assert.assertTrue(reader.indexing().getIndex() instanceof CSIIndex);
+            }
+        } finally {
+            IOUtil.deleteDirectoryTree(directory);
+        }
+    }
+
+    private static List<String> readNames(final CloseableIterator<SAMRecord> iterator) {
+        final List<String> names = new ArrayList<>();
+        while (iterator.hasNext()) {
+            names.add(iterator.next().getSAMString());
+        }
+        iterator.close();
+        return names;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Random;
+
+public class CachingBAMFileIndexTest {
+    private static final File BAM_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+    private static final File INDEX_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam.bai");
+
+    @Test
+    public void testSpansMatchDiskBasedIndex() {
+        final SAMSequenceDictionary dictionary = SamReaderFactory.makeDefault().getFileHeader(BAM_FILE).getSequenceDictionary();
+        final CachingBAMFileIndex cachingIndex = new CachingBAMFileIndex(INDEX_FILE, dictionary);
+        final DiskBasedBAMFileIndex diskIndex = new DiskBasedBAMFileIndex(INDEX_FILE, dictionary);
+        final int nReferences = cachingIndex.getNumberOfReferences();
+
+        // Queries alternate between references, so that some are answered from the cache and some are not
+        final Random random = new Random(1);
+        for (int i = 0; i < 2000; ++i) {
+            final int referenceIndex = random.nextInt(nReferences);
+            final int length = dictionary.getSequence(referenceIndex).getSequenceLength();
+            final int start = 1 + random.nextInt(length);
+            final int end = random.nextInt(10) == 0 ? -1 : start + random.nextInt(1000000);
+            final BAMFileSpan expected = diskIndex.getSpanOverlapping(referenceIndex, start, end);
+            final BAMFileSpan actual = cachingIndex.getSpanOverlapping(referenceIndex, start, end);
+            // The disk-based index returns an empty span where the caching index returns null
+            Assert.assertEquals(actual == null ? Collections.emptyList() : actual.getChunks(),
+                    expected == null ? Collections.emptyList() : expected.getChunks());
+            Assert.assertTrue(cachingIndex.getNumberOfCachedReferences() <= Math.max(1, Defaults.BAM_INDEX_CACHED_REFERENCES));
+        }
+        Assert.assertNull(cachingIndex.getSpanOverlapping(nReferences, 1, 1000));
+        cachingIndex.close();
+        diskIndex.close();
+    }
+
+    @Test
+    public void testQueryResultsMatchIndexContent() {
+        final CachingBAMFileIndex index = new CachingBAMFileIndex(INDEX_FILE, null);
+        for (int i = 0; i < index.getNumberOfReferences(); ++i) {
+            final BAMIndexContent expected = index.query(i, 1, -1);
+            final BAMIndexContent actual = index.getQueryResults(i);
+            Assert.assertEquals(actual, expected);
+            Assert.assertEquals(actual.getNumberOfNonNullBins(), expected.getNumberOfNonNullBins());
+            Assert.assertEquals(actual.getMetaData().getAlignedRecordCount(), expected.getMetaData().getAlignedRecordCount());
+            Assert.assertEquals(actual.getMetaData().getUnalignedRecordCount(), expected.getMetaData().getUnalignedRecordCount());
+            Assert.assertEquals(actual.getAllChunks(), expected.getAllChunks());
+        }
+        index.close();
+    }
+
+    @Test
+    public void testSpanOverlappingBin() {
+        final CachingBAMFileIndex index = new CachingBAMFileIndex(INDEX_FILE, null);
+        final BAMIndexContent content = index.query(1, 1, -1);
+        int binsTested = 0;
+        for (final Bin bin : content.getBins()) {
+            final BAMFileSpan span = index.getSpanOverlapping(bin);
+            // Every chunk of the bin itself must be covered by the span
+            for (final Chunk chunk : bin.getChunkList()) {
+                boolean covered = chunk.getChunkEnd() <= content.getLinearIndex().getMinimumOffset(index.getFirstLocusInBin(bin));
+                for (final Chunk spanChunk : span.getChunks()) {
+                    covered |= spanChunk.getChunkStart() <= chunk.getChunkStart() && chunk.getChunkEnd() <= spanChunk.getChunkEnd();
+                }
+                Assert.assertTrue(covered, "Chunk " + chunk + " of bin " + bin.getBinNumber() + " not in " + span);
+            }
+            ++binsTested;
+        }
+        Assert.assertTrue(binsTested > 0);
+        Assert.assertNull(index.getSpanOverlapping((Bin) null));
+        index.close();
+    }
+}
@@ -26,6 +26,10 @@ package htsjdk.samtools;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class ChunkTest {
     @Test
     public void testOverlaps() {
@@ -75,4 +79,25 @@ public class ChunkTest {
         Assert.assertFalse(new Chunk(1,5).isAdjacentTo(new Chunk(11,15)),"Disjoint block should not be adjacent");
         Assert.assertFalse(new Chunk(1,5).isAdjacentTo(new Chunk(2,3)),"Contained offset should not be adjacent");
     }
+
+    @Test
+    public void testCoalesceChunkList() {
+        final List<Chunk> chunks = Arrays.asList(
+                new Chunk(1<<16, 2<<16|0x10),
+                new Chunk(3<<16, 4<<16),
+                new Chunk(100<<16|0x20, 101<<16),
+                new Chunk(101<<16|0x40, 200<<16));
+
+        // Nothing is merged without a gap allowance other than chunks ending and starting in the same block
+        Assert.assertEquals(Chunk.coalesceChunkList(chunks, -1), chunks);
+        Assert.assertEquals(Chunk.coalesceChunkList(chunks, 0),
+                Arrays.asList(new Chunk(1<<16, 2<<16|0x10), new Chunk(3<<16, 4<<16), new Chunk(100<<16|0x20, 200<<16)));
+        Assert.assertEquals(Chunk.coalesceChunkList(chunks, 1),
+                Arrays.asList(new Chunk(1<<16, 4<<16), new Chunk(100<<16|0x20, 200<<16)));
+        Assert.assertEquals(Chunk.coalesceChunkList(chunks, 96),
+                Collections.singletonList(new Chunk(1<<16, 200<<16)));
+
+        // The input chunks are left alone
+        Assert.assertEquals(chunks.get(0), new Chunk(1<<16, 2<<16|0x10));
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CoordinateSortedPairInfoMapTest {
+
+    private static class StringCodec implements CoordinateSortedPairInfoMap.Codec<String, String> {
+        private DataOutputStream out;
+        private DataInputStream in;
+
+        public void setOutputStream(final OutputStream os) {
+            out = new DataOutputStream(os);
+        }
+
+        public void setInputStream(final InputStream is) {
+            in = new DataInputStream(is);
+        }
+
+        public void encode(final String key, final String record) {
+            try {
+                out.writeUTF(key);
+                out.writeUTF(record);
+            } catch (IOException e) {
+                throw new SAMException(e);
+            }
+        }
+
+        public Map.Entry<String, String> decode() {
+            try {
+                return new AbstractMap.SimpleEntry<String, String>(in.readUTF(), in.readUTF());
+            } catch (IOException e) {
+                throw new SAMException(e);
+            }
+        }
+    }
+
+    @DataProvider(name = "maps")
+    public Object[][] maps() {
+        return new Object[][]{
+                {new CoordinateSortedPairInfoMap<String, String>(2, new StringCodec())},
+                {CoordinateSortedPairInfoMap.newSingleSpillFileInstance(new StringCodec())},
+        };
+    }
+
+    /**
+     * Put records for many sequences while walking through the sequences in order, removing each record when
+     * its own sequence is reached, as mate tracking does.
+     */
+    @Test(dataProvider = "maps")
+    public void testPutAndRemoveAcrossSequences(final CoordinateSortedPairInfoMap<String, String> map) {
+        final int numSequences = 200;
+        for (int seq = 0; seq < numSequences; ++seq) {
+            for (int mateSeq = seq; mateSeq < numSequences; mateSeq += 7) {
+                map.put(mateSeq, seq + ":" + mateSeq, "value" + seq);
+            }
+        }
+        // Revisit a sequence that has already been loaded and spilled.
+        map.put(3, "late", "lateValue");
+
+        int removed = 0;
+        for (int seq = 0; seq < numSequences; ++seq) {
+            for (int mateSeq = seq % 7; mateSeq <= seq; mateSeq += 7) {
+                Assert.assertEquals(map.remove(seq, mateSeq + ":" + seq), "value" + mateSeq);
+                ++removed;
+            }
+            Assert.assertNull(map.remove(seq, "missing"));
+        }
+        Assert.assertEquals(map.size(), 1);
+        Assert.assertEquals(map.remove(3, "late"), "lateValue");
+        Assert.assertEquals(map.size(), 0);
+        Assert.assertTrue(removed > numSequences);
+    }
+
+    @Test(dataProvider = "maps")
+    public void testIterator(final CoordinateSortedPairInfoMap<String, String> map) {
+        final Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 1000; ++i) {
+            final int seq = (i * 31) % 50;
+            map.put(seq, "key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+        }
+        Assert.assertEquals(map.size(), expected.size());
+
+        final Map<String, String> actual = new HashMap<String, String>();
+        final CloseableIterator<Map.Entry<String, String>> it = map.iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, String> entry = it.next();
+            actual.put(entry.getKey(), entry.getValue());
+        }
+        it.close();
+        Assert.assertEquals(actual, expected);
+    }
+
+    @Test(dataProvider = "maps", expectedExceptions = SAMException.class)
+    public void testDuplicatePutDetectedOnLoad(final CoordinateSortedPairInfoMap<String, String> map) {
+        map.put(0, "a", "b");
+        map.put(1, "dup", "first");
+        map.put(1, "dup", "second");
+        map.remove(1, "dup");
+    }
+
+    /**
+     * Write enough data that the single spill file holds several extents per sequence and is compacted as
+     * sequences are loaded.
+     */
+    @Test(dataProvider = "maps")
+    public void testLargeRecords(final CoordinateSortedPairInfoMap<String, String> map) {
+        final int numSequences = 40;
+        final int recordsPerSequence = 600;
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        final String padding = sb.toString();
+        map.put(0, "first", "value");
+        for (int i = 0; i < recordsPerSequence; ++i) {
+            for (int seq = 1; seq < numSequences; ++seq) {
+                map.put(seq, seq + ":" + i, i + padding);
+            }
+        }
+        Assert.assertEquals(map.size(), 1 + (numSequences - 1) * recordsPerSequence);
+        for (int seq = 1; seq < numSequences; ++seq) {
+            for (int i = 0; i < recordsPerSequence; ++i) {
+                Assert.assertEquals(map.remove(seq, seq + ":" + i), i + padding);
+            }
+        }
+        Assert.assertEquals(map.remove(0, "first"), "value");
+        Assert.assertEquals(map.size(), 0);
+        // Once every sequence has been loaded, nothing is left on disk.
+        Assert.assertEquals(map.getWorkDir().list().length, 0);
+    }
+}
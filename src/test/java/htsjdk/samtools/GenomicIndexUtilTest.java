@@ -4,6 +4,8 @@ import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.BitSet;
+
 /**
  * Tests for GenomicIndexUtil.
  */
@@ -14,6 +16,39 @@ public class GenomicIndexUtilTest {
         Assert.assertEquals(GenomicIndexUtil.regionToBin(beg, end), bin);
     }
 
+    @Test(dataProvider = "testRegionToBinDataProvider")
+    public void testRegionToBinWithBAIScheme(final int beg, final int end, final int bin) {
+        Assert.assertEquals(GenomicIndexUtil.regionToBin(beg, end, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH), bin);
+    }
+
+    @Test(dataProvider = "testRegionToBinDataProvider")
+    public void testRegionToBinsWithBAIScheme(final int beg, final int end, final int bin) {
+        // regionToBins is 1-based and inclusive
+        final int start = beg + 1;
+        final int stop = Math.max(end, start);
+        Assert.assertEquals(GenomicIndexUtil.regionToBins(start, stop, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH),
+                GenomicIndexUtil.regionToBins(start, stop));
+    }
+
+    @Test
+    public void testDeeperScheme() {
+        // 2^32 bases with 16kb bins needs one more level than BAI
+        final int minShift = 14;
+        final int depth = 6;
+        final long beg = 3L << 30;
+        final int bin = GenomicIndexUtil.regionToBin(beg, beg + 1, minShift, depth);
+        Assert.assertEquals(bin, GenomicIndexUtil.getFirstBinInLevel(depth) + (int) (beg >> minShift));
+        Assert.assertEquals(GenomicIndexUtil.getLevelForBin(bin), depth);
+        Assert.assertEquals(GenomicIndexUtil.getBinStart(bin, minShift, depth), beg);
+        Assert.assertEquals(GenomicIndexUtil.regionToBin(0, 1L << 32, minShift, depth), 0);
+        Assert.assertEquals(GenomicIndexUtil.getMetaDataBinNumber(GenomicIndexUtil.BAI_DEPTH), GenomicIndexUtil.MAX_BINS);
+
+        final BitSet bins = GenomicIndexUtil.regionToBins(Integer.MAX_VALUE - 10, Integer.MAX_VALUE, minShift, depth);
+        Assert.assertTrue(bins.get(0));
+        Assert.assertTrue(bins.get(GenomicIndexUtil.regionToBin(Integer.MAX_VALUE - 11, Integer.MAX_VALUE, minShift, depth)));
+        Assert.assertEquals(bins.cardinality(), depth + 1);
+    }
+
     @DataProvider(name = "testRegionToBinDataProvider")
     public Object[][] testRegionToBinDataProvider() {
         return new Object[][] {
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParallelBAMIndexerTest {
+    private static final File BAM_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    private static SamReader openWithSource(final File bam) {
+        return SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(bam);
+    }
+
+    @DataProvider(name = "threads")
+    public Object[][] threads() {
+        return new Object[][]{{1}, {2}, {4}, {16}};
+    }
+
+    @Test(dataProvider = "threads")
+    public void testBAIMatchesSequentialIndex(final int numThreads) throws IOException {
+        final File sequential = File.createTempFile("ParallelBAMIndexerTest.", BAMIndex.BAMIndexSuffix);
+        final File parallel = File.createTempFile("ParallelBAMIndexerTest.", BAMIndex.BAMIndexSuffix);
+        sequential.deleteOnExit();
+        parallel.deleteOnExit();
+        try (final SamReader reader = openWithSource(BAM_FILE)) {
+            BAMIndexer.createIndex(reader, sequential);
+        }
+        BAMIndexer.createIndex(BAM_FILE, parallel, numThreads);
+        Assert.assertEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(sequential.toPath()));
+    }
+
+    @Test(dataProvider = "threads")
+    public void testCSIMatchesSequentialIndex(final int numThreads) throws IOException {
+        final File sequential = File.createTempFile("ParallelBAMIndexerTest.", CSIIndex.CSI_INDEX_SUFFIX);
+        final File parallel = File.createTempFile("ParallelBAMIndexerTest.", CSIIndex.CSI_INDEX_SUFFIX);
+        sequential.deleteOnExit();
+        parallel.deleteOnExit();
+        try (final SamReader reader = openWithSource(BAM_FILE)) {
+            BAMIndexer.createCSIIndex(reader, sequential, 12, 6);
+        }
+        BAMIndexer.createCSIIndex(BAM_FILE, parallel, 12, 6, numThreads);
+        Assert.assertEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(sequential.toPath()));
+    }
+
+    @Test
+    public void testRecordStartFinder() throws IOException {
+        final List<Long> recordStarts = new ArrayList<>();
+        final SAMFileHeader header;
+        try (final SamReader reader = openWithSource(BAM_FILE)) {
+            header = reader.getFileHeader();
+            for (final SAMRecord record : reader) {
+                recordStarts.add(((BAMFileSpan) record.getFileSource().getFilePointer()).getSingleChunk().getChunkStart());
+            }
+        }
+        final long firstRecord = recordStarts.get(0);
+        try (final SeekableFileStream stream = new SeekableFileStream(BAM_FILE)) {
+            final BAMRecordStartFinder finder = new BAMRecordStartFinder(stream, header);
+            final long firstAddress = BlockCompressedFilePointerUtil.getBlockAddress(firstRecord);
+            for (long offset = firstAddress + 1; offset < BAM_FILE.length(); offset += 9973) {
+                final long found = finder.findRecordStart(offset);
+                final long expected = firstRecordInBlockAtOrAfter(recordStarts, offset);
+                Assert.assertEquals(found, expected, "searching from " + offset);
+            }
+            Assert.assertEquals(finder.findRecordStart(BAM_FILE.length() - 1), -1L);
+        }
+    }
+
+    private static long firstRecordInBlockAtOrAfter(final List<Long> recordStarts, final long offset) {
+        for (final long recordStart : recordStarts) {
+            if (BlockCompressedFilePointerUtil.getBlockAddress(recordStart) >= offset) return recordStart;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class SAMCompactAttributesTest {
+    private static final SAMTagUtil TAG_UTIL = SAMTagUtil.getSingleton();
+
+    private static SAMRecord createRecord() {
+        final SAMRecord record = new SAMRecordSetBuilder().addFrag("test", 0, 1, false, false, "10M", null, 2);
+        record.setAttribute("XA", 'q');
+        record.setAttribute("XB", (short) -3);
+        record.setAttribute("XC", 250);
+        record.setAttribute("XD", -30000);
+        record.setAttribute("XE", 60000);
+        record.setAttribute("XF", Integer.MIN_VALUE);
+        record.setAttribute("XG", 3000000000L);
+        record.setAttribute("XH", 1.5f);
+        record.setAttribute("XI", "a string value");
+        record.setAttribute("XJ", new short[]{-1, 2, 3000});
+        record.setUnsignedArrayAttribute("XK", new int[]{-1, 7});
+        return record;
+    }
+
+    private static byte[] encode(final SAMRecord record) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BAMRecordCodec codec = new BAMRecordCodec(record.getHeader());
+        codec.setOutputStream(bytes);
+        codec.encode(record);
+        return bytes.toByteArray();
+    }
+
+    private static SAMRecord decode(final SAMFileHeader header, final byte[] bytes) {
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setInputStream(new ByteArrayInputStream(bytes));
+        return codec.decode();
+    }
+
+    @Test
+    public void testValuesMatchBAMRoundTrip() {
+        final SAMRecord record = createRecord();
+        final SAMRecord fromBAM = decode(record.getHeader(), encode(record));
+        record.compactAttributes();
+        Assert.assertNotNull(record.getCompactAttributes());
+        Assert.assertEquals(record.getCompactAttributes().size(), fromBAM.getAttributes().size());
+
+        for (final SAMRecord.SAMTagAndValue tagAndValue : fromBAM.getAttributes()) {
+            final Object value = record.getAttribute(tagAndValue.tag);
+            if (value instanceof short[]) {
+                Assert.assertEquals((short[]) value, (short[]) tagAndValue.value);
+            } else if (value instanceof int[]) {
+                Assert.assertEquals((int[]) value, (int[]) tagAndValue.value);
+            } else {
+                Assert.assertEquals(value, tagAndValue.value, tagAndValue.tag);
+            }
+            Assert.assertEquals(record.isUnsignedArrayAttribute(tagAndValue.tag), fromBAM.isUnsignedArrayAttribute(tagAndValue.tag));
+        }
+        Assert.assertNull(record.getAttribute("ZZ"));
+    }
+
+    @Test
+    public void testEquality() {
+        final SAMRecord record = createRecord();
+        final SAMRecord compacted = record.deepCopy();
+        compacted.compactAttributes();
+        final SAMRecord otherCompacted = record.deepCopy();
+        otherCompacted.compactAttributes();
+        // a Short attribute reads back as an Integer once compacted
+        final SAMRecord notCompacted = record.deepCopy();
+        notCompacted.setAttribute("XB", -3);
+
+        Assert.assertEquals(compacted, otherCompacted);
+        Assert.assertEquals(compacted.hashCode(), otherCompacted.hashCode());
+        Assert.assertEquals(compacted, notCompacted);
+        Assert.assertEquals(notCompacted, compacted);
+        Assert.assertEquals(compacted.hashCode(), notCompacted.hashCode());
+
+        notCompacted.setAttribute("XC", 251);
+        Assert.assertNotEquals(compacted, notCompacted);
+    }
+
+    /** Formatting and comparing a record read the compacted attributes without converting them back to a list. */
+    @Test
+    public void testReadOnlyCallersKeepAttributesCompact() {
+        final SAMRecord record = createRecord();
+        final SAMRecord compacted = decode(record.getHeader(), encode(record));
+        final String expected = compacted.getSAMString();
+        compacted.compactAttributes();
+        final SAMRecord notCompacted = decode(record.getHeader(), encode(record));
+
+        Assert.assertEquals(compacted.getSAMString(), expected);
+        Assert.assertNotNull(compacted.getCompactAttributes());
+        Assert.assertEquals(compacted, notCompacted);
+        Assert.assertEquals(notCompacted, compacted);
+        Assert.assertNotNull(compacted.getCompactAttributes());
+
+        notCompacted.setAttribute("XZ", 1);
+        Assert.assertNotEquals(compacted, notCompacted);
+        Assert.assertNotEquals(notCompacted, compacted);
+        Assert.assertNotNull(compacted.getCompactAttributes());
+
+        // format() does not support array values
+        final SAMRecord scalars = createRecord();
+        scalars.setAttribute("XJ", null);
+        scalars.setAttribute("XK", null);
+        final String expectedFormat = scalars.format();
+        scalars.compactAttributes();
+        Assert.assertEquals(scalars.format(), expectedFormat);
+        Assert.assertNotNull(scalars.getCompactAttributes());
+    }
+
+    @Test
+    public void testTypedAccessors() {
+        final SAMRecord record = createRecord();
+        record.compactAttributes();
+        final SAMCompactAttributes attributes = record.getCompactAttributes();
+
+        Assert.assertEquals(attributes.getCharacterAttribute(TAG_UTIL.makeBinaryTag("XA"), ' '), 'q');
+        Assert.assertEquals(attributes.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XB"), 0), -3);
+        Assert.assertEquals(attributes.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XC"), 0), 250);
+        Assert.assertEquals(attributes.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XD"), 0), -30000);
+        Assert.assertEquals(attributes.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XE"), 0), 60000);
+        Assert.assertEquals(attributes.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XF"), 0), Integer.MIN_VALUE);
+        Assert.assertEquals(attributes.getFloatAttribute(TAG_UTIL.makeBinaryTag("XH"), 0f), 1.5f);
+        Assert.assertEquals(attributes.getStringAttribute(TAG_UTIL.makeBinaryTag("XI")), "a string value");
+
+        Assert.assertFalse(attributes.hasAttribute(TAG_UTIL.makeBinaryTag("ZZ")));
+        Assert.assertEquals(attributes.getIntegerAttribute(TAG_UTIL.makeBinaryTag("ZZ"), -7), -7);
+        Assert.assertNull(attributes.getStringAttribute(TAG_UTIL.makeBinaryTag("ZZ")));
+    }
+
+    @DataProvider(name = "attributeValues")
+    public Object[][] attributeValues() {
+        return new Object[][]{
+                {'q'}, {(char) 0xe9}, {-3}, {250}, {-30000}, {60000}, {Integer.MIN_VALUE}, {3000000000L}, {1.5f},
+                {"a string value"}, {"caf\u00e9"}, {new byte[]{-1, 2}}, {new short[]{-1, 2, 3000}},
+                {new int[]{-1, 7}}, {new float[]{1.5f, Float.NaN}}
+        };
+    }
+
+    /** The hash of compacted attributes is computed from their encoding, and must match that of the decoded list. */
+    @Test(dataProvider = "attributeValues")
+    public void testHashCodeMatchesList(final Object value) {
+        final SAMRecord record = new SAMRecordSetBuilder().addFrag("test", 0, 1, false, false, "10M", null, 2);
+        record.setAttribute("ZZ", 1);
+        record.setAttribute("XA", value);
+        final SAMRecord fromBAM = decode(record.getHeader(), encode(record));
+        final SAMRecord compacted = decode(record.getHeader(), encode(record));
+        compacted.compactAttributes();
+        Assert.assertEquals(compacted.hashCode(), fromBAM.hashCode());
+        Assert.assertNotNull(compacted.getCompactAttributes());
+    }
+
+    @Test
+    public void testPrimitiveAccessorsOnRecord() {
+        final SAMRecord record = createRecord();
+        final SAMRecord compacted = createRecord();
+        compacted.compactAttributes();
+        for (final SAMRecord r : new SAMRecord[]{record, compacted}) {
+            Assert.assertEquals(r.getCharacterAttribute(TAG_UTIL.makeBinaryTag("XA"), ' '), 'q');
+            Assert.assertEquals(r.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XB"), 0), -3);
+            Assert.assertEquals(r.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XE"), 0), 60000);
+            Assert.assertEquals(r.getFloatAttribute(TAG_UTIL.makeBinaryTag("XH"), 0f), 1.5f);
+            Assert.assertEquals(r.getIntegerAttribute(TAG_UTIL.makeBinaryTag("ZZ"), -7), -7);
+            Assert.assertEquals(r.getFloatAttribute(TAG_UTIL.makeBinaryTag("ZZ"), 2f), 2f);
+            Assert.assertEquals(r.getCharacterAttribute(TAG_UTIL.makeBinaryTag("ZZ"), 'z'), 'z');
+        }
+        Assert.assertNotNull(compacted.getCompactAttributes());
+
+        // Reading the whole list converts the record back to the list form, so it is decoded only once.
+        Assert.assertEquals(compacted.getAttributes().size(), record.getAttributes().size());
+        Assert.assertNull(compacted.getCompactAttributes());
+        Assert.assertEquals(compacted.getIntegerAttribute(TAG_UTIL.makeBinaryTag("XE"), 0), 60000);
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testIntegerOutOfRange() {
+        final SAMRecord record = createRecord();
+        record.compactAttributes();
+        record.getCompactAttributes().getIntegerAttribute(TAG_UTIL.makeBinaryTag("XG"), 0);
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testIntegerOfWrongType() {
+        final SAMRecord record = createRecord();
+        record.compactAttributes();
+        record.getCompactAttributes().getIntegerAttribute(TAG_UTIL.makeBinaryTag("XI"), 0);
+    }
+
+    @Test
+    public void testEncodingUnchanged() {
+        final SAMRecord record = createRecord();
+        final byte[] expected = encode(record);
+        record.compactAttributes();
+        Assert.assertEquals(record.getAttributesBinarySize(), record.getCompactAttributes().getBinarySize());
+        Assert.assertEquals(encode(record), expected);
+        Assert.assertEquals(encode(record.deepCopy()), expected);
+    }
+
+    @Test
+    public void testSetAttributeAfterCompaction() {
+        final SAMRecord record = createRecord();
+        record.compactAttributes();
+        record.setAttribute("XC", null);
+        record.setAttribute("YY", "new");
+        Assert.assertNull(record.getCompactAttributes());
+        Assert.assertNull(record.getAttribute("XC"));
+        Assert.assertEquals(record.getAttribute("YY"), "new");
+        Assert.assertEquals(record.getIntegerAttribute("XE").intValue(), 60000);
+
+        record.clearAttributes();
+        record.compactAttributes();
+        Assert.assertNull(record.getCompactAttributes());
+        Assert.assertTrue(record.getAttributes().isEmpty());
+    }
+
+    @Test
+    public void testCompactBAMRecord() {
+        final SAMRecord record = createRecord();
+        final byte[] expected = encode(record);
+        final SAMRecord fromBAM = decode(record.getHeader(), expected);
+        fromBAM.compactAttributes();
+        Assert.assertEquals(fromBAM.getIntegerAttribute("XE").intValue(), 60000);
+        Assert.assertEquals(encode(fromBAM), expected);
+        fromBAM.setAttribute("XE", 5);
+        Assert.assertEquals(decode(record.getHeader(), encode(fromBAM)).getIntegerAttribute("XE").intValue(), 5);
+    }
+}
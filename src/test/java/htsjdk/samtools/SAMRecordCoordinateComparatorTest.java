@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloserUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SAMRecordCoordinateComparatorTest {
+    private final SAMRecordCoordinateComparator comparator = new SAMRecordCoordinateComparator();
+
+    /** Many records with few distinct positions, so that there are plenty of equal keys. */
+    private SAMRecordSetBuilder makeRecords(final int numRecords) {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(false, SAMFileHeader.SortOrder.unsorted);
+        final Random random = new Random(42);
+        for (int i = 0; i < numRecords; ++i) {
+            if (random.nextInt(10) == 0) {
+                builder.addUnmappedFragment("u" + i);
+            } else {
+                builder.addFrag("r" + random.nextInt(numRecords), random.nextInt(4), 1 + random.nextInt(20), random.nextBoolean());
+            }
+        }
+        return builder;
+    }
+
+    @Test
+    public void testPackedSortKeyIsConsistentWithCompare() {
+        final List<SAMRecord> records = new ArrayList<>(makeRecords(300).getRecords());
+        for (final SAMRecord lhs : records) {
+            final long lhsKey = SAMRecordCoordinateComparator.getPackedSortKey(lhs);
+            Assert.assertTrue(lhsKey >= 0);
+            for (final SAMRecord rhs : records) {
+                final long rhsKey = SAMRecordCoordinateComparator.getPackedSortKey(rhs);
+                if (lhsKey < rhsKey) {
+                    Assert.assertTrue(comparator.compare(lhs, rhs) < 0, lhs.getSAMString() + rhs.getSAMString());
+                } else if (lhsKey > rhsKey) {
+                    Assert.assertTrue(comparator.compare(lhs, rhs) > 0, lhs.getSAMString() + rhs.getSAMString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCoordinateSortingWriterMatchesComparator() throws Exception {
+        final SAMRecordSetBuilder builder = makeRecords(2000);
+        final SAMFileHeader header = builder.getHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        final List<SAMRecord> expected = new ArrayList<>(builder.getRecords());
+        expected.sort(comparator);
+
+        final File bam = File.createTempFile("coordinateSort.", ".bam");
+        bam.deleteOnExit();
+        final SAMFileWriter writer = new SAMFileWriterFactory().setMaxRecordsInRam(150).makeBAMWriter(header, false, bam);
+        for (final SAMRecord rec : builder.getRecords()) {
+            writer.addAlignment(rec);
+        }
+        writer.close();
+
+        final SamReader reader = SamReaderFactory.makeDefault().open(bam);
+        int i = 0;
+        for (final SAMRecord rec : reader) {
+            final SAMRecord expectedRecord = expected.get(i++);
+            Assert.assertEquals(rec.getReadName(), expectedRecord.getReadName());
+            Assert.assertEquals(rec.getReferenceIndex(), expectedRecord.getReferenceIndex());
+            Assert.assertEquals(rec.getAlignmentStart(), expectedRecord.getAlignmentStart());
+            Assert.assertEquals(rec.getFlags(), expectedRecord.getFlags());
+        }
+        Assert.assertEquals(i, expected.size());
+        CloserUtil.close(reader);
+    }
+}
@@ -960,4 +960,92 @@ public class SAMRecordUnitTest {
         SAMRecord.resolveNameFromIndex(1, null);
     }
 
+
+    private static byte[] encodeBAMRecord(final SAMRecord record) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BAMRecordCodec codec = new BAMRecordCodec(record.getHeader());
+        codec.setOutputStream(bytes);
+        codec.encode(record);
+        return bytes.toByteArray();
+    }
+
+    private static SAMRecord decodeBAMRecord(final SAMFileHeader header, final byte[] bytes) {
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setInputStream(new ByteArrayInputStream(bytes));
+        return codec.decode();
+    }
+
+    private SAMRecord createRecordWithManyTags() {
+        final SAMRecord record = createTestRecordHelper();
+        record.setAttribute("XA", 'q');
+        record.setAttribute("XB", -3);
+        record.setAttribute("XC", 250);
+        record.setAttribute("XD", -30000);
+        record.setAttribute("XE", 60000);
+        record.setAttribute("XF", Integer.MIN_VALUE);
+        record.setAttribute("XG", 3000000000L);
+        record.setAttribute("XH", 1.5f);
+        record.setAttribute("XI", "a string value");
+        record.setAttribute("XJ", new byte[]{1, -2, 3});
+        record.setAttribute("XK", new short[]{-1, 2, 3000});
+        record.setAttribute("XL", new int[]{-100000, 0, 100000});
+        record.setAttribute("XM", new float[]{0.5f, -2.25f});
+        record.setUnsignedArrayAttribute("XN", new byte[]{(byte) 200, 1});
+        record.setUnsignedArrayAttribute("XO", new int[]{-1, 7});
+        return record;
+    }
+
+    @Test
+    public void testBAMRecordSingleTagDecoding() {
+        final SAMRecord original = createRecordWithManyTags();
+        final byte[] encoded = encodeBAMRecord(original);
+
+        for (final SAMRecord.SAMTagAndValue tagAndValue : original.getAttributes()) {
+            // decode each tag from a fresh record so that no other tag has been decoded yet
+            final SAMRecord decoded = decodeBAMRecord(original.getHeader(), encoded);
+            final Object value = decoded.getAttribute(tagAndValue.tag);
+            if (tagAndValue.value.getClass().isArray()) {
+                Assert.assertTrue(Arrays.deepEquals(new Object[]{tagAndValue.value}, new Object[]{value}), tagAndValue.tag);
+            } else {
+                Assert.assertEquals(value, tagAndValue.value, tagAndValue.tag);
+            }
+            Assert.assertEquals(decoded.isUnsignedArrayAttribute(tagAndValue.tag), original.isUnsignedArrayAttribute(tagAndValue.tag), tagAndValue.tag);
+            // looking up a single tag must leave the binary representation intact
+            Assert.assertEquals(encodeBAMRecord(decoded), encoded, tagAndValue.tag);
+        }
+
+        final SAMRecord decoded = decodeBAMRecord(original.getHeader(), encoded);
+        Assert.assertNull(decoded.getAttribute("ZZ"));
+        Assert.assertEquals(decoded.getIntegerAttribute("XE").intValue(), 60000);
+        Assert.assertEquals(decoded.getUnsignedByteArrayAttribute("XN"), new byte[]{(byte) 200, 1});
+    }
+
+    @Test
+    public void testBAMRecordWithoutBinaryDataHasNoAttributes() {
+        final SAMFileHeader header = new SAMFileHeader();
+        final SAMRecord record = new DefaultSAMRecordFactory().createBAMRecord(header, -1, 0, (short) 0, (short) 0, 0,
+                0, SAMFlag.READ_UNMAPPED.intValue(), 0, -1, 0, 0, null);
+        Assert.assertNull(record.getAttribute("RG"));
+    }
+
+    @Test
+    public void testBinaryTagCodecReadTagMatchesReadTags() {
+        final SAMRecord original = createRecordWithManyTags();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BinaryTagCodec codec = new BinaryTagCodec(new BinaryCodec(bytes));
+        for (SAMBinaryTagAndValue attribute = original.getBinaryAttributes(); attribute != null; attribute = attribute.getNext()) {
+            codec.writeTag(attribute.tag, attribute.value, attribute.isUnsignedArray());
+        }
+        final byte[] binaryRep = bytes.toByteArray();
+
+        final SAMBinaryTagAndValue all = BinaryTagCodec.readTags(binaryRep, 0, binaryRep.length, ValidationStringency.STRICT);
+        for (SAMBinaryTagAndValue attribute = all; attribute != null; attribute = attribute.getNext()) {
+            final SAMBinaryTagAndValue single = BinaryTagCodec.readTag(binaryRep, 0, binaryRep.length, attribute.tag, ValidationStringency.STRICT);
+            Assert.assertNotNull(single);
+            Assert.assertEquals(single.tag, attribute.tag);
+            Assert.assertEquals(single.isUnsignedArray(), attribute.isUnsignedArray());
+            Assert.assertTrue(Arrays.deepEquals(new Object[]{single.value}, new Object[]{attribute.value}));
+        }
+        Assert.assertNull(BinaryTagCodec.readTag(binaryRep, 0, binaryRep.length, SAMTagUtil.getSingleton().makeBinaryTag("ZZ"), ValidationStringency.STRICT));
+    }
 }
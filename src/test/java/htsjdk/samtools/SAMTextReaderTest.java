@@ -26,10 +26,14 @@ package htsjdk.samtools;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
 
 public class SAMTextReaderTest {
     // Simple input, spot check that parsed correctly, and make sure nothing blows up.
@@ -134,4 +138,92 @@ public class SAMTextReaderTest {
         Assert.assertEquals(recFromText.getAttribute(SAMTag.CQ.name()), valueWithColons);
         CloserUtil.close(reader);
     }
+
+    private static final String UNMAPPED_FIELDS = "read\t4\t*\t0\t0\t*\t*\t0\t0\tACGT\tIIII";
+
+    @DataProvider(name = "tags")
+    public Object[][] tags() {
+        return new Object[][]{
+                {"XI:i:12"}, {"XI:i:+12"}, {"XI:i:007"}, {"XI:i:-2147483648"}, {"XI:i:3000000000"},
+                {"XA:A:x"}, {"XZ:Z:a:b::"}, {"XZ:Z:caf\u00e9"}, {"XF:f:1.5"}, {"XH:H:1AE3"},
+                {"XB:B:c,-1,2"}, {"XB:B:C,255,0"}, {"XB:B:s,-300"}, {"XB:B:S,65535"}, {"XB:B:i,-5,5"},
+                {"XB:B:I,4294967295"}, {"XB:B:c,1,2,"}, {"XB:B:f,1.5,2"}
+        };
+    }
+
+    /** Tags parsed from the bytes of a line should be the same as those decoded by TextTagCodec. */
+    @Test(dataProvider = "tags")
+    public void testTagParsing(final String tag) {
+        final SAMLineParser parser = new SAMLineParser(new DefaultSAMRecordFactory(), ValidationStringency.STRICT,
+                new SAMFileHeader(), null, null);
+        final byte[] line = ("prefix" + UNMAPPED_FIELDS + "\t" + tag + "\tsuffix").getBytes(StandardCharsets.UTF_8);
+        final int length = line.length - "prefix".length() - "\tsuffix".length();
+        final SAMRecord record = parser.parseLine(line, "prefix".length(), length, 1);
+
+        final Map.Entry<String, Object> expected = new TextTagCodec().decode(tag);
+        Object expectedValue = expected.getValue();
+        boolean expectedUnsigned = false;
+        if (expectedValue instanceof TagValueAndUnsignedArrayFlag) {
+            expectedUnsigned = ((TagValueAndUnsignedArrayFlag) expectedValue).isUnsignedArray;
+            expectedValue = ((TagValueAndUnsignedArrayFlag) expectedValue).value;
+        }
+        final Object value = record.getAttribute(expected.getKey());
+        Assert.assertTrue(Arrays.deepEquals(new Object[]{value}, new Object[]{expectedValue}), tag + " parsed as " + value);
+        Assert.assertEquals(value.getClass(), expectedValue.getClass());
+        if (value.getClass().isArray()) {
+            Assert.assertEquals(record.isUnsignedArrayAttribute(expected.getKey()), expectedUnsigned);
+        }
+        Assert.assertEquals(parser.parseLine(UNMAPPED_FIELDS + "\t" + tag).getSAMString(), record.getSAMString());
+    }
+
+    /** The buffer a parser reuses for lines given as Strings must not leak bytes from a longer earlier line. */
+    @Test
+    public void testStringLinesReuseParser() {
+        final SAMLineParser parser = new SAMLineParser(new DefaultSAMRecordFactory(), ValidationStringency.STRICT,
+                new SAMFileHeader(), null, null);
+        final String[] lines = {
+                UNMAPPED_FIELDS + "\tXZ:Z:a much longer value than the others",
+                UNMAPPED_FIELDS + "\tXZ:Z:caf\u00e9",
+                UNMAPPED_FIELDS,
+                UNMAPPED_FIELDS + "\tXI:i:1"
+        };
+        for (final String line : lines) {
+            Assert.assertEquals(parser.parseLine(line).getSAMString(), line + "\n");
+        }
+    }
+
+    @DataProvider(name = "badLines")
+    public Object[][] badLines() {
+        return new Object[][]{
+                {UNMAPPED_FIELDS + "\tXI:i:abc"},
+                {UNMAPPED_FIELDS + "\tXI:i:5000000000"},
+                {UNMAPPED_FIELDS + "\tXB:B:c,300"},
+                {UNMAPPED_FIELDS + "\tXB:B:c,1,,2"},
+                {UNMAPPED_FIELDS + "\tXB:B:q,1"},
+                {UNMAPPED_FIELDS + "\tXA:A:xy"},
+                {UNMAPPED_FIELDS + "\tXZ:Z:"},
+                {UNMAPPED_FIELDS.replace("\t4\t", "\t4x\t")},
+                {UNMAPPED_FIELDS.replace("\t4\t", "\t2147483648\t")},
+                {UNMAPPED_FIELDS.replace("IIII", "III")},
+        };
+    }
+
+    @Test(dataProvider = "badLines", expectedExceptions = SAMFormatException.class)
+    public void testBadLines(final String line) {
+        new SAMLineParser(new DefaultSAMRecordFactory(), ValidationStringency.STRICT, new SAMFileHeader(), null, null)
+                .parseLine(line);
+    }
+
+    @Test
+    public void testNumericFields() {
+        final SAMLineParser parser = new SAMLineParser(new DefaultSAMRecordFactory(), ValidationStringency.SILENT,
+                new SAMFileHeader(), null, null);
+        final SAMRecord record = parser.parseLine("read\t+0000000000000000099\tchr1\t-1\t60\t4M\t=\t2147483647\t-2147483648\tACGT\tIIII");
+        Assert.assertEquals(record.getFlags(), 99);
+        Assert.assertEquals(record.getAlignmentStart(), -1);
+        Assert.assertEquals(record.getMateAlignmentStart(), Integer.MAX_VALUE);
+        Assert.assertEquals(record.getInferredInsertSize(), Integer.MIN_VALUE);
+        Assert.assertEquals(record.getReferenceName(), "chr1");
+        Assert.assertEquals(record.getMateReferenceName(), "chr1");
+    }
 }
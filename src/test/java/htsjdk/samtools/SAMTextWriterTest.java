@@ -24,9 +24,11 @@
 package htsjdk.samtools;
 
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -104,4 +106,108 @@ public class SAMTextWriterTest {
         Assert.assertFalse(newSAMIt.hasNext());
         inputSAM.close();
     }
+
+    @DataProvider(name = "tagValues")
+    public Object[][] tagValues() {
+        return new Object[][]{
+                {"Hi,Mom!", false},
+                {"", false},
+                {'q', false},
+                {(byte) -5, false},
+                {(short) 1000, false},
+                {0, false},
+                {-1, false},
+                {Integer.MIN_VALUE, false},
+                {Integer.MAX_VALUE, false},
+                {4294967295L, false},
+                {0.0f, false},
+                {-0.0f, false},
+                {3.0f, false},
+                {-42.0f, false},
+                {1.2345f, false},
+                {9999999.0f, false},
+                {1.0e7f, false},
+                {-1.5e-10f, false},
+                {Float.NaN, false},
+                {Float.NEGATIVE_INFINITY, false},
+                {new byte[]{-128, 0, 127}, false},
+                {new short[]{Short.MIN_VALUE, 1, Short.MAX_VALUE}, false},
+                {new int[]{Integer.MIN_VALUE, 7, Integer.MAX_VALUE}, false},
+                {new float[]{1.0f, -2.5f, 1.0e20f}, false},
+                {new byte[]{-1, 0, 1}, true},
+                {new short[]{-1, 0, 1}, true},
+                {new int[]{-1, 0, 1}, true},
+        };
+    }
+
+    @Test(dataProvider = "tagValues")
+    public void testBufferedTagEncodingMatchesStringEncoding(final Object value, final boolean isUnsignedArray) {
+        final TextTagCodec codec = new TextTagCodec();
+        final String expected = isUnsignedArray ? codec.encodeUnsignedArray("XY", value) : codec.encode("XY", value);
+        final SAMTextLineBuffer buffer = new SAMTextLineBuffer();
+        codec.encode("XY", value, isUnsignedArray, buffer);
+        Assert.assertEquals(buffer.toString(), expected);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBufferedTagEncodingRejectsOutOfRangeInteger() {
+        new TextTagCodec().encode("XY", -2147483649L, false, new SAMTextLineBuffer());
+    }
+
+    @Test
+    public void testLineBufferNumberFormatting() {
+        final long[] values = {0, 1, -1, 9, 10, -10, 99, 100, 123456789, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                999999999999999999L, 1000000000000000000L, Long.MAX_VALUE, Long.MIN_VALUE};
+        final SAMTextLineBuffer buffer = new SAMTextLineBuffer();
+        for (final long value : values) {
+            buffer.clear();
+            buffer.appendLong(value);
+            Assert.assertEquals(buffer.toString(), Long.toString(value));
+        }
+    }
+
+    @Test
+    public void testWriteAlignmentMatchesSAMString() throws Exception {
+        final SAMRecordSetBuilder recordSetBuilder = getSAMReader(true, SAMFileHeader.SortOrder.coordinate);
+        final StringWriter expected = new StringWriter();
+        final StringWriter actual = new StringWriter();
+        final SAMTextWriter writer = new SAMTextWriter(actual);
+        for (final SAMRecord rec : recordSetBuilder.getRecords()) {
+            rec.setAttribute("XF", -0.0f);
+            rec.setAttribute("XB", new int[]{1, -2, 3});
+            rec.setUnsignedArrayAttribute("XU", new short[]{-1, 2});
+            writer.writeAlignment(rec);
+            expected.write(legacySAMString(rec));
+        }
+        final SAMRecord unmapped = new SAMRecord(recordSetBuilder.getHeader());
+        unmapped.setReadName("unmapped");
+        unmapped.setReadUnmappedFlag(true);
+        writer.writeAlignment(unmapped);
+        expected.write(legacySAMString(unmapped));
+        Assert.assertEquals(actual.toString(), expected.toString());
+    }
+
+    /** Formats a record the way SAMTextWriter did before it encoded into a reusable buffer. */
+    private static String legacySAMString(final SAMRecord rec) {
+        final TextTagCodec codec = new TextTagCodec();
+        final SAMTagUtil tagUtil = new SAMTagUtil();
+        final StringBuilder sb = new StringBuilder();
+        sb.append(rec.getReadName()).append('\t').append(rec.getFlags()).append('\t')
+                .append(rec.getReferenceName()).append('\t').append(rec.getAlignmentStart()).append('\t')
+                .append(rec.getMappingQuality()).append('\t').append(rec.getCigarString()).append('\t');
+        if (rec.getReferenceName().equals(rec.getMateReferenceName()) &&
+                !SAMRecord.NO_ALIGNMENT_REFERENCE_NAME.equals(rec.getReferenceName())) {
+            sb.append('=');
+        } else {
+            sb.append(rec.getMateReferenceName());
+        }
+        sb.append('\t').append(rec.getMateAlignmentStart()).append('\t').append(rec.getInferredInsertSize())
+                .append('\t').append(rec.getReadString()).append('\t').append(rec.getBaseQualityString());
+        for (SAMBinaryTagAndValue attribute = rec.getBinaryAttributes(); attribute != null; attribute = attribute.getNext()) {
+            final String tag = tagUtil.makeStringTag(attribute.tag);
+            sb.append('\t').append(attribute.isUnsignedArray() ?
+                    codec.encodeUnsignedArray(tag, attribute.value) : codec.encode(tag, attribute.value));
+        }
+        return sb.append('\n').toString();
+    }
 }
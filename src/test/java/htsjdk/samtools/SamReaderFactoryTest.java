@@ -10,14 +10,19 @@ import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -56,6 +61,404 @@ public class SamReaderFactoryTest {
         reader.close();
     }
 
+    @Test(dataProvider = "queryIntervalIssue76TestCases")
+    public void queryIntervalMemoryMapped(final String sequenceName, final int start, final int end, final int expectedCount) throws IOException {
+        final File input = new File(TEST_DATA_DIR, "issue76.bam");
+        final SamReader reader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.MEMORY_MAP_BAM_FILES).open(input);
+        final QueryInterval interval = new QueryInterval(reader.getFileHeader().getSequence(sequenceName).getSequenceIndex(), start, end);
+        Assert.assertEquals(countRecordsInQueryInterval(reader, interval), expectedCount);
+        reader.close();
+    }
+
+    @Test
+    public void memoryMappedReaderMatchesDefault() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader expected = SamReaderFactory.makeDefault().open(input);
+        final SamReader actual = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.MEMORY_MAP_BAM_FILES).open(input);
+        Assert.assertEquals(actual.getFileHeader(), expected.getFileHeader());
+        final SAMRecordIterator expectedIterator = expected.iterator();
+        final SAMRecordIterator actualIterator = actual.iterator();
+        while (expectedIterator.hasNext()) {
+            Assert.assertEquals(actualIterator.next().getSAMString(), expectedIterator.next().getSAMString());
+        }
+        Assert.assertFalse(actualIterator.hasNext());
+        expected.close();
+        actual.close();
+    }
+
+    @Test(dataProvider = "queryIntervalIssue76TestCases")
+    public void queryIntervalParallelDecoding(final String sequenceName, final int start, final int end, final int expectedCount) throws IOException {
+        final File input = new File(TEST_DATA_DIR, "issue76.bam");
+        final SamReader reader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL).open(input);
+        final QueryInterval interval = new QueryInterval(reader.getFileHeader().getSequence(sequenceName).getSequenceIndex(), start, end);
+        Assert.assertEquals(countRecordsInQueryInterval(reader, interval), expectedCount);
+        reader.close();
+    }
+
+    @DataProvider(name = "parallelDecodingOptions")
+    public Object[][] parallelDecodingOptions() {
+        return new Object[][]{
+                {new SamReaderFactory.Option[]{}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.EAGERLY_DECODE}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.SHARE_RECORD_BUFFERS}},
+        };
+    }
+
+    @Test(dataProvider = "parallelDecodingOptions")
+    public void parallelDecodingMatchesDefault(final SamReaderFactory.Option[] options) throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader expected = SamReaderFactory.makeDefault().enable(options).open(input);
+        final SamReader actual = SamReaderFactory.makeDefault().enable(options)
+                .enable(SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL).open(input);
+
+        // Whole file, then a multi-interval query through the index
+        final List<SAMRecordIterator> expectedIterators = new ArrayList<>();
+        final List<SAMRecordIterator> actualIterators = new ArrayList<>();
+        expectedIterators.add(expected.iterator());
+        actualIterators.add(actual.iterator());
+        final QueryInterval[] intervals = {new QueryInterval(0, 1, 5000000), new QueryInterval(1, 1000000, 40000000)};
+        for (int i = 0; i < 2; ++i) {
+            final SAMRecordIterator expectedIterator = expectedIterators.get(i);
+            final SAMRecordIterator actualIterator = actualIterators.get(i);
+            int count = 0;
+            while (expectedIterator.hasNext()) {
+                final SAMRecord expectedRecord = expectedIterator.next();
+                final SAMRecord actualRecord = actualIterator.next();
+                Assert.assertEquals(actualRecord.getSAMString(), expectedRecord.getSAMString());
+                if (expectedRecord.getFileSource() != null) {
+                    Assert.assertEquals(actualRecord.getFileSource().getFilePointer().toString(),
+                            expectedRecord.getFileSource().getFilePointer().toString());
+                }
+                ++count;
+            }
+            Assert.assertFalse(actualIterator.hasNext());
+            Assert.assertTrue(count > 0);
+            expectedIterator.close();
+            actualIterator.close();
+            if (i == 0) {
+                expectedIterators.add(expected.queryOverlapping(intervals));
+                actualIterators.add(actual.queryOverlapping(intervals));
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+
+    @Test
+    public void parallelDecodingIteratorClosedEarly() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader reader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL).open(input);
+        final SAMRecordIterator iterator = reader.iterator();
+        final String firstRecord = iterator.next().getSAMString();
+        iterator.close();
+        final SAMRecordIterator secondIterator = reader.iterator();
+        Assert.assertEquals(secondIterator.next().getSAMString(), firstRecord);
+        secondIterator.close();
+        reader.close();
+    }
+
+    /** Writes index_test.bam as SAM text, optionally replacing one record by a malformed line. */
+    private File writeIndexTestAsSam(final int badLineIndex) throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final File output = File.createTempFile("parallelParsing.", ".sam");
+        output.deleteOnExit();
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(input);
+             final PrintStream out = new PrintStream(output)) {
+            final StringWriter header = new StringWriter();
+            new SAMTextHeaderCodec().encode(header, reader.getFileHeader());
+            out.print(header);
+            int i = 0;
+            for (final SAMRecord record : reader) {
+                out.print(i++ == badLineIndex ? "malformed line\n" : record.getSAMString());
+            }
+        }
+        return output;
+    }
+
+    @Test
+    public void parallelSamParsingMatchesDefault() throws IOException {
+        final File input = writeIndexTestAsSam(-1);
+        final SamReader expected = SamReaderFactory.makeDefault().open(input);
+        final SamReader actual = SamReaderFactory.makeDefault()
+                .enable(SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL).open(input);
+        final SAMRecordIterator expectedIterator = expected.iterator();
+        final SAMRecordIterator actualIterator = actual.iterator();
+        int count = 0;
+        while (expectedIterator.hasNext()) {
+            Assert.assertTrue(actualIterator.hasNext());
+            Assert.assertEquals(actualIterator.next(), expectedIterator.next());
+            ++count;
+        }
+        Assert.assertFalse(actualIterator.hasNext());
+        Assert.assertTrue(count > 0);
+        expected.close();
+        actual.close();
+    }
+
+    @Test
+    public void parallelSamParsingReportsErrorsInOrder() throws IOException {
+        final int badLineIndex = 5000;
+        final File input = writeIndexTestAsSam(badLineIndex);
+        for (final boolean parallel : new boolean[]{false, true}) {
+            final SamReaderFactory factory = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.STRICT);
+            if (parallel) {
+                factory.enable(SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL);
+            }
+            final SamReader reader = factory.open(input);
+            final SAMRecordIterator iterator = reader.iterator();
+            for (int i = 0; i < badLineIndex; ++i) {
+                iterator.next();
+            }
+            try {
+                iterator.next();
+                Assert.fail("Expected malformed line to be reported");
+            } catch (final SAMFormatException e) {
+                Assert.assertTrue(e.getMessage().contains("malformed line"), e.getMessage());
+            }
+            // Iteration can continue past the bad line
+            Assert.assertTrue(iterator.hasNext());
+            Assert.assertNotNull(iterator.next());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void sharedRecordBuffersMatchDefault() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader expected = SamReaderFactory.makeDefault().open(input);
+        final SamReader actual = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.SHARE_RECORD_BUFFERS).open(input);
+        final ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream actualBytes = new ByteArrayOutputStream();
+        final BAMRecordCodec expectedCodec = new BAMRecordCodec(expected.getFileHeader());
+        final BAMRecordCodec actualCodec = new BAMRecordCodec(actual.getFileHeader());
+        expectedCodec.setOutputStream(expectedBytes);
+        actualCodec.setOutputStream(actualBytes);
+
+        final SAMRecordIterator expectedIterator = expected.iterator();
+        final SAMRecordIterator actualIterator = actual.iterator();
+        SAMRecord previous = null;
+        while (expectedIterator.hasNext()) {
+            final SAMRecord expectedRecord = expectedIterator.next();
+            final SAMRecord actualRecord = actualIterator.next();
+            // Records are re-encoded straight from their slice of the shared buffer
+            expectedCodec.encode(expectedRecord);
+            actualCodec.encode(actualRecord);
+            Assert.assertEquals(actualRecord.getSAMString(), expectedRecord.getSAMString());
+            if (previous != null) {
+                // Changing a record must not affect its neighbours in the same buffer
+                previous.setReadName("changed");
+                previous.setAttribute("XX", "changed");
+                Assert.assertEquals(actualRecord.getSAMString(), expectedRecord.getSAMString());
+            }
+            previous = actualRecord;
+        }
+        Assert.assertFalse(actualIterator.hasNext());
+        Assert.assertEquals(actualBytes.toByteArray(), expectedBytes.toByteArray());
+        expected.close();
+        actual.close();
+    }
+
+    @Test
+    public void sharedRecordBufferVariableBinaryRepresentation() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader expected = SamReaderFactory.makeDefault().open(input);
+        final SamReader actual = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.SHARE_RECORD_BUFFERS).open(input);
+        final SAMRecordIterator expectedIterator = expected.iterator();
+        final SAMRecordIterator actualIterator = actual.iterator();
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals(actualIterator.next().getVariableBinaryRepresentation(),
+                    expectedIterator.next().getVariableBinaryRepresentation());
+        }
+        expected.close();
+        actual.close();
+    }
+
+    @DataProvider(name = "recycledRecordOptions")
+    public Object[][] recycledRecordOptions() {
+        return new Object[][]{
+                {new SamReaderFactory.Option[]{}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.EAGERLY_DECODE}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.VALIDATE_CRC_CHECKSUMS}},
+        };
+    }
+
+    @Test(dataProvider = "recycledRecordOptions")
+    public void recycledRecordsMatchDefault(final SamReaderFactory.Option[] options) throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader expected = SamReaderFactory.makeDefault().enable(options).open(input);
+        final SamReader actual = SamReaderFactory.makeDefault().enable(options)
+                .enable(SamReaderFactory.Option.RECYCLE_RECORDS).open(input);
+
+        // Whole file, then a multi-interval query through the index, then a query that skips most of the records read
+        final QueryInterval[] intervals = {new QueryInterval(0, 1, 5000000), new QueryInterval(1, 1000000, 40000000)};
+        final List<QueryInterval> sparseIntervals = new ArrayList<>();
+        for (int referenceIndex = 1; referenceIndex < 6; ++referenceIndex) {
+            for (int start = 1; start < 250000000; start += 1000000) {
+                sparseIntervals.add(new QueryInterval(referenceIndex, start, start + 100000));
+            }
+        }
+        final QueryInterval[][] queries = {null, intervals, sparseIntervals.toArray(new QueryInterval[sparseIntervals.size()])};
+        for (final QueryInterval[] query : queries) {
+            final SAMRecordIterator expectedIterator = query == null ? expected.iterator() : expected.queryOverlapping(query);
+            final SAMRecordIterator actualIterator = query == null ? actual.iterator() : actual.queryOverlapping(query);
+            final Set<SAMRecord> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+            final List<String> expectedStrings = new ArrayList<>();
+            final List<SAMRecord> copies = new ArrayList<>();
+            final List<SAMRecord> clones = new ArrayList<>();
+            int count = 0;
+            while (expectedIterator.hasNext()) {
+                final SAMRecord expectedRecord = expectedIterator.next();
+                final SAMRecord actualRecord = actualIterator.next();
+                Assert.assertEquals(actualRecord.getSAMString(), expectedRecord.getSAMString());
+                instances.add(actualRecord);
+                if (count % 10 == 0) {
+                    expectedStrings.add(expectedRecord.getSAMString());
+                    copies.add(actualRecord.deepCopy());
+                    try {
+                        clones.add((SAMRecord) actualRecord.clone());
+                    } catch (final CloneNotSupportedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                ++count;
+            }
+            Assert.assertFalse(actualIterator.hasNext());
+            Assert.assertTrue(count > instances.size());
+            expectedIterator.close();
+            actualIterator.close();
+
+            // Copies must not be affected by the recycling of the record they were copied from
+            for (int j = 0; j < expectedStrings.size(); ++j) {
+                Assert.assertEquals(copies.get(j).getSAMString(), expectedStrings.get(j));
+                Assert.assertEquals(clones.get(j).getSAMString(), expectedStrings.get(j));
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+
+    @Test
+    public void recycledRecordsCreatedByRecordFactory() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SAMRecordFactoryTester recordFactory = new SAMRecordFactoryTester();
+        final SamReader reader = SamReaderFactory.makeDefault().samRecordFactory(recordFactory)
+                .enable(SamReaderFactory.Option.RECYCLE_RECORDS).open(input);
+        int count = 0;
+        for (final SAMRecord ignored : reader) {
+            ++count;
+        }
+        reader.close();
+        Assert.assertTrue(recordFactory.bamRecordsCreated > 0);
+        Assert.assertTrue(recordFactory.bamRecordsCreated < count);
+    }
+
+    @Test
+    public void prefetchQueryChunksMatchesDefault() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader expected = SamReaderFactory.makeDefault().open(input);
+        final SamReader actual = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.PREFETCH_QUERY_CHUNKS).open(input);
+
+        // Many small intervals, as in an exome, so that chunks are close enough to be read through
+        final List<QueryInterval> intervalList = new ArrayList<>();
+        for (int referenceIndex = 0; referenceIndex < 3; ++referenceIndex) {
+            for (int start = 1; start < 50000000; start += 250000) {
+                intervalList.add(new QueryInterval(referenceIndex, start, start + 200));
+            }
+        }
+        final QueryInterval[] intervals = intervalList.toArray(new QueryInterval[intervalList.size()]);
+        for (final boolean contained : new boolean[]{false, true}) {
+            final SAMRecordIterator expectedIterator = expected.query(intervals, contained);
+            final SAMRecordIterator actualIterator = actual.query(intervals, contained);
+            int count = 0;
+            while (expectedIterator.hasNext()) {
+                Assert.assertEquals(actualIterator.next().getSAMString(), expectedIterator.next().getSAMString());
+                ++count;
+            }
+            Assert.assertFalse(actualIterator.hasNext());
+            Assert.assertTrue(count > 0);
+            expectedIterator.close();
+            actualIterator.close();
+        }
+
+        // A query abandoned part way through must not affect the next one
+        final SAMRecordIterator abandoned = actual.query(intervals, false);
+        abandoned.next();
+        abandoned.close();
+        final SAMRecordIterator expectedIterator = expected.queryOverlapping("chr1", 1, 0);
+        final SAMRecordIterator actualIterator = actual.queryOverlapping("chr1", 1, 0);
+        while (expectedIterator.hasNext()) {
+            Assert.assertEquals(actualIterator.next().getSAMString(), expectedIterator.next().getSAMString());
+        }
+        Assert.assertFalse(actualIterator.hasNext());
+        expected.close();
+        actual.close();
+    }
+
+    /** Fails to create records that start at the given position, as if they could not be decoded. */
+    private static class FailingRecordFactory extends DefaultSAMRecordFactory {
+        private final int failingReferenceIndex;
+        private final int failingStart;
+
+        FailingRecordFactory(final int failingReferenceIndex, final int failingStart) {
+            this.failingReferenceIndex = failingReferenceIndex;
+            this.failingStart = failingStart;
+        }
+
+        @Override
+        public BAMRecord createBAMRecord(final SAMFileHeader header, final int referenceSequenceIndex, final int alignmentStart,
+                                         final short readNameLength, final short mappingQuality, final int indexingBin,
+                                         final int cigarLen, final int flags, final int readLen,
+                                         final int mateReferenceSequenceIndex, final int mateAlignmentStart,
+                                         final int insertSize, final byte[] variableLengthBlock) {
+            if (referenceSequenceIndex == failingReferenceIndex && alignmentStart == failingStart) {
+                throw new SAMFormatException("Cannot decode record at " + alignmentStart);
+            }
+            return super.createBAMRecord(header, referenceSequenceIndex, alignmentStart, readNameLength, mappingQuality,
+                    indexingBin, cigarLen, flags, readLen, mateReferenceSequenceIndex, mateAlignmentStart, insertSize,
+                    variableLengthBlock);
+        }
+    }
+
+    /** @return The SAM strings of the records returned before the iterator throws SAMFormatException. */
+    private static List<String> readUntilFailure(final SamReader reader) {
+        final List<String> records = new ArrayList<>();
+        final SAMRecordIterator iterator = reader.iterator();
+        try {
+            while (iterator.hasNext()) {
+                records.add(iterator.next().getSAMString());
+            }
+            Assert.fail("Expected a decoding failure");
+        } catch (final SAMFormatException e) {
+            // expected
+        }
+        iterator.close();
+        return records;
+    }
+
+    @Test
+    public void parallelDecodingFailureInMiddleOfBatch() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader reader = SamReaderFactory.makeDefault().open(input);
+        final SAMRecord failingRecord = Iterables.slurp(reader).get(100);
+        reader.close();
+        final FailingRecordFactory factory = new FailingRecordFactory(failingRecord.getReferenceIndex(), failingRecord.getAlignmentStart());
+
+        final SamReader serial = SamReaderFactory.makeDefault().samRecordFactory(factory).open(input);
+        final List<String> expected = readUntilFailure(serial);
+        serial.close();
+        final SamReader parallel = SamReaderFactory.makeDefault().samRecordFactory(factory)
+                .enable(SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL).open(input);
+        final List<String> actual = readUntilFailure(parallel);
+        parallel.close();
+
+        // The records decoded before the failing one in the same batch are returned, and the failure is
+        // reported at the same point as by the serial reader.
+        Assert.assertTrue(expected.size() > 50);
+        Assert.assertEquals(actual, expected);
+    }
+
     @DataProvider(name = "queryIntervalIssue76TestCases")
     public Object[][] queryIntervalIssue76TestCases() {
         return new Object[][]{
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+public class ShardedBAMWriterTest {
+    private static final File BAM_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    private static List<SAMRecord> readRecords(final File bam) throws IOException {
+        final List<SAMRecord> records = new ArrayList<>();
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+            for (final SAMRecord record : reader) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static File createOutput() throws IOException {
+        final File output = File.createTempFile("ShardedBAMWriterTest.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        output.deleteOnExit();
+        new File(output.getParentFile(), IOUtil.basename(output) + BAMIndex.BAMIndexSuffix).deleteOnExit();
+        return output;
+    }
+
+    @DataProvider(name = "shards")
+    public Object[][] shards() {
+        return new Object[][]{{1, 1}, {2, 5}, {4, 17}, {3, 100}};
+    }
+
+    @Test(dataProvider = "shards")
+    public void testWriteShards(final int numThreads, final int numShards) throws IOException {
+        final SAMFileHeader header;
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE)) {
+            header = reader.getFileHeader();
+        }
+        final List<SAMRecord> records = readRecords(BAM_FILE);
+        final File output = createOutput();
+        try (final ShardedBAMWriter writer = new ShardedBAMWriter(output, header, true, numThreads)) {
+            for (int i = 0; i < numShards; i++) {
+                writer.addShard(records.subList(records.size() * i / numShards, records.size() * (i + 1) / numShards));
+            }
+        }
+        Assert.assertEquals(BlockCompressedInputStream.checkTermination(output),
+                BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK);
+
+        final List<SAMRecord> written = readRecords(output);
+        Assert.assertEquals(written.size(), records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(written.get(i).getSAMString(), records.get(i).getSAMString());
+        }
+
+        // queries through the merged index find the same records as through the index of the input
+        try (final SamReader expectedReader = SamReaderFactory.makeDefault().open(BAM_FILE);
+             final SamReader reader = SamReaderFactory.makeDefault().open(output)) {
+            Assert.assertTrue(reader.hasIndex());
+            final SAMSequenceDictionary dictionary = header.getSequenceDictionary();
+            final Random random = new Random(numShards);
+            for (int i = 0; i < 100; i++) {
+                final SAMSequenceRecord sequence = dictionary.getSequence(random.nextInt(dictionary.size()));
+                final int start = 1 + random.nextInt(sequence.getSequenceLength());
+                final int end = start + random.nextInt(100000);
+                Assert.assertEquals(samStrings(reader.query(sequence.getSequenceName(), start, end, false)),
+                        samStrings(expectedReader.query(sequence.getSequenceName(), start, end, false)));
+            }
+            Assert.assertEquals(samStrings(reader.queryUnmapped()), samStrings(expectedReader.queryUnmapped()));
+        }
+    }
+
+    private static List<String> samStrings(final CloseableIterator<SAMRecord> iterator) {
+        final List<String> samStrings = new ArrayList<>();
+        while (iterator.hasNext()) {
+            samStrings.add(iterator.next().getSAMString());
+        }
+        iterator.close();
+        return samStrings;
+    }
+
+    @Test
+    public void testWithoutIndex() throws IOException {
+        final SAMFileHeader header;
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE)) {
+            header = reader.getFileHeader().clone();
+        }
+        header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        final List<SAMRecord> records = readRecords(BAM_FILE);
+        final File output = createOutput();
+        try (final ShardedBAMWriter writer = new ShardedBAMWriter(output, header, false, 2)) {
+            // in reverse order, since an unsorted file need not be in coordinate order
+            writer.addShard(records.subList(records.size() / 2, records.size()));
+            writer.addShard(records.subList(0, records.size() / 2));
+        }
+        final List<SAMRecord> written = readRecords(output);
+        Assert.assertEquals(written.size(), records.size());
+        Assert.assertEquals(written.get(0).getSAMString(), records.get(records.size() / 2).getSAMString());
+        Assert.assertFalse(new File(output.getParentFile(), IOUtil.basename(output) + BAMIndex.BAMIndexSuffix).exists());
+    }
+
+    /**
+     * When one shard fails, close() stops the shards still being written and deletes every temporary file.
+     */
+    @Test(timeOut = 30000)
+    public void testFailedShardCleansUpRunningShards() throws IOException {
+        final SAMFileHeader header;
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE)) {
+            header = reader.getFileHeader();
+        }
+        final List<SAMRecord> records = readRecords(BAM_FILE);
+        final File tmpDir = IOUtil.createTempDir("ShardedBAMWriterTest.", null);
+        final CountDownLatch slowShardStarted = new CountDownLatch(1);
+        try {
+            final ShardedBAMWriter writer = new ShardedBAMWriter(createOutput(), header, false, 2,
+                    BlockCompressedOutputStream.getDefaultCompressionLevel(), tmpDir);
+            writer.addShard(() -> {
+                try {
+                    slowShardStarted.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                throw new IllegalStateException("Simulated failure");
+            });
+            // Would take far longer than the test's time out if it were not stopped.
+            writer.addShard(() -> records.stream().peek(record -> {
+                slowShardStarted.countDown();
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }).iterator());
+            try {
+                writer.close();
+                Assert.fail("Expected the failed shard to be reported");
+            } catch (final IllegalStateException e) {
+                Assert.assertEquals(e.getMessage(), "Simulated failure");
+            }
+            Assert.assertEquals(tmpDir.list().length, 0);
+        } finally {
+            IOUtil.deleteDirectoryTree(tmpDir);
+        }
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testIndexRequiresCoordinateOrder() throws IOException {
+        final SAMFileHeader header;
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE)) {
+            header = reader.getFileHeader();
+        }
+        final List<SAMRecord> records = readRecords(BAM_FILE);
+        try (final ShardedBAMWriter writer = new ShardedBAMWriter(createOutput(), header, true, 2)) {
+            writer.addShard(records.subList(records.size() / 2, records.size()));
+            writer.addShard(records.subList(0, records.size() / 2));
+        }
+    }
+}
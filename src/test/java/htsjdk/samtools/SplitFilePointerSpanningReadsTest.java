@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.util.CloseableIterator;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SplitFilePointerSpanningReadsTest {
+    private static final File BAM_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+    private static final File BAI_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam.bai");
+
+    private static SamReader open(final boolean useIndex) throws IOException {
+        final SamInputResource resource = useIndex ?
+                SamInputResource.of(BAM_FILE).index(BAI_FILE) :
+                SamInputResource.of(new SeekableFileStream(BAM_FILE));
+        return SamReaderFactory.makeDefault().open(resource);
+    }
+
+    @DataProvider(name = "shards")
+    public Object[][] shards() {
+        return new Object[][]{
+                {true, 1}, {true, 2}, {true, 7}, {true, 40},
+                {false, 1}, {false, 2}, {false, 7}, {false, 40}
+        };
+    }
+
+    @Test(dataProvider = "shards")
+    public void testShardsCoverAllRecords(final boolean useIndex, final int numShards) throws IOException {
+        final List<SAMFileSpan> shards;
+        final List<String> expected = new ArrayList<>();
+        try (final SamReader reader = open(useIndex)) {
+            shards = reader.indexing().splitFilePointerSpanningReads(numShards);
+            // the reader is still usable after splitting
+            for (final SAMRecord record : reader) {
+                expected.add(record.getSAMString());
+            }
+        }
+        Assert.assertTrue(shards.size() <= numShards);
+        if (numShards > 1) Assert.assertTrue(shards.size() > 1);
+
+        final List<String> actual = new ArrayList<>();
+        for (final SAMFileSpan shard : shards) {
+            try (final SamReader reader = open(useIndex);
+                 final CloseableIterator<SAMRecord> iterator = reader.indexing().iterator(shard)) {
+                Assert.assertTrue(iterator.hasNext(), "empty shard " + shard);
+                while (iterator.hasNext()) {
+                    actual.add(iterator.next().getSAMString());
+                }
+            }
+        }
+        Assert.assertEquals(actual.size(), expected.size());
+        Assert.assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testEmptyBam() throws IOException {
+        try (final SamReader reader = SamReaderFactory.makeDefault()
+                .open(new File("src/test/resources/htsjdk/samtools/empty.bam"))) {
+            final List<SAMFileSpan> shards = reader.indexing().splitFilePointerSpanningReads(4);
+            Assert.assertEquals(shards.size(), 1);
+            Assert.assertFalse(reader.indexing().iterator(shards.get(0)).hasNext());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRequiresPositiveShardCount() throws IOException {
+        try (final SamReader reader = open(true)) {
+            reader.indexing().splitFilePointerSpanningReads(0);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package htsjdk.samtools.cram.io;
 
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 import htsjdk.samtools.util.Tuple;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
@@ -1,5 +1,6 @@
 package htsjdk.samtools.cram.io;
 
+import htsjdk.samtools.util.ExposedByteArrayOutputStream;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
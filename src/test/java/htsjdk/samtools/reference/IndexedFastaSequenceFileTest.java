@@ -26,6 +26,7 @@ package htsjdk.samtools.reference;
 
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.StringUtil;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -33,6 +34,7 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.nio.file.Files;
 
 /**
  * Test the indexed fasta sequence file reader.
@@ -41,6 +43,7 @@ public class IndexedFastaSequenceFileTest{
     private static File TEST_DATA_DIR = new File("src/test/resources/htsjdk/samtools/reference");
     private static File SEQUENCE_FILE = new File(TEST_DATA_DIR,"Homo_sapiens_assembly18.trimmed.fasta");
     private static File SEQUENCE_FILE_NODICT = new File(TEST_DATA_DIR,"Homo_sapiens_assembly18.trimmed.nodict.fasta");
+    private static File SEQUENCE_FILE_BGZ = new File(TEST_DATA_DIR,"Homo_sapiens_assembly18.trimmed.fasta.gz");
 
     private final String firstBasesOfChrM = "GATCACAGGTCTATCACCCT";
     private final String extendedBasesOfChrM = "GATCACAGGTCTATCACCCTATTAACCACTCACGGGAGCTCTCCATGCAT" +
@@ -55,7 +58,9 @@ public class IndexedFastaSequenceFileTest{
                 { new IndexedFastaSequenceFile(SEQUENCE_FILE) },
                 { new IndexedFastaSequenceFile(SEQUENCE_FILE_NODICT) },
                 { new IndexedFastaSequenceFile(SEQUENCE_FILE.toPath()) },
-                { new IndexedFastaSequenceFile(SEQUENCE_FILE_NODICT.toPath()) }};
+                { new IndexedFastaSequenceFile(SEQUENCE_FILE_NODICT.toPath()) },
+                { new IndexedFastaSequenceFile(SEQUENCE_FILE_BGZ) },
+                { new IndexedFastaSequenceFile(SEQUENCE_FILE_BGZ.toPath()) }};
     }
 
     @DataProvider(name="comparative")
@@ -68,7 +73,11 @@ public class IndexedFastaSequenceFileTest{
                 new Object[] { ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE.toPath()),
                                                new IndexedFastaSequenceFile(SEQUENCE_FILE.toPath()) },
                 new Object[] { ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE.toPath(), true),
-                                               new IndexedFastaSequenceFile(SEQUENCE_FILE.toPath()) },};
+                                               new IndexedFastaSequenceFile(SEQUENCE_FILE.toPath()) },
+                new Object[] { ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE),
+                                               new IndexedFastaSequenceFile(SEQUENCE_FILE_BGZ) },
+                new Object[] { ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE_BGZ),
+                                               new IndexedFastaSequenceFile(SEQUENCE_FILE) },};
     }
 
     @Test(dataProvider="homosapiens")
@@ -300,6 +309,33 @@ public class IndexedFastaSequenceFileTest{
         System.err.printf("testReset runtime: %dms%n", (endTime - startTime)) ;
     }
 
+    @Test
+    public void testFactoryOpensBgzippedFastaIndexed() {
+        Assert.assertTrue(IndexedFastaSequenceFile.canCreateIndexedFastaReader(SEQUENCE_FILE_BGZ));
+        final ReferenceSequenceFile sequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE_BGZ);
+        Assert.assertTrue(sequenceFile.isIndexed());
+        CloserUtil.close(sequenceFile);
+    }
+
+    @Test
+    public void testBgzippedFastaWithoutGziIndex() throws Exception {
+        final File dir = IOUtil.createTempDir("IndexedFastaSequenceFileTest", ".tmp");
+        try {
+            final File fasta = new File(dir, SEQUENCE_FILE_BGZ.getName());
+            Files.copy(SEQUENCE_FILE_BGZ.toPath(), fasta.toPath());
+            Files.copy(new File(TEST_DATA_DIR, SEQUENCE_FILE_BGZ.getName() + ".fai").toPath(), new File(dir, fasta.getName() + ".fai").toPath());
+            Assert.assertFalse(IndexedFastaSequenceFile.canCreateIndexedFastaReader(fasta));
+            try {
+                new IndexedFastaSequenceFile(fasta);
+                Assert.fail("SAMException should have been thrown");
+            } catch (final SAMException e) {
+                // expected
+            }
+        } finally {
+            IOUtil.deleteDirectoryTree(dir);
+        }
+    }
+
     @Test(expectedExceptions = FileNotFoundException.class)
     public void testMissingFile() throws Exception {
         new IndexedFastaSequenceFile(new File(TEST_DATA_DIR, "non-existent.fasta"));
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.seekablestream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class SeekableMemoryMappedFileStreamTest {
+
+    private static final File TEST_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    @DataProvider(name = "mappingSizes")
+    public Object[][] mappingSizes() {
+        return new Object[][] {{1000L}, {65536L}, {SeekableMemoryMappedFileStream.DEFAULT_MAPPING_SIZE}};
+    }
+
+    @Test(dataProvider = "mappingSizes")
+    public void testRandomReads(final long mappingSize) throws IOException {
+        final byte[] expected = Files.readAllBytes(TEST_FILE.toPath());
+        final SeekableMemoryMappedFileStream stream = new SeekableMemoryMappedFileStream(TEST_FILE, mappingSize);
+        Assert.assertEquals(stream.length(), expected.length);
+        final Random random = new Random(42);
+        final byte[] buffer = new byte[70000];
+        for (int i = 0; i < 200; ++i) {
+            final int position = random.nextInt(expected.length);
+            final int length = random.nextInt(buffer.length);
+            stream.seek(position);
+            final int count = stream.read(buffer, 0, length);
+            Assert.assertEquals(count, Math.min(length, expected.length - position));
+            for (int j = 0; j < count; ++j) {
+                Assert.assertEquals(buffer[j], expected[position + j]);
+            }
+            Assert.assertEquals(stream.position(), position + count);
+        }
+        stream.close();
+    }
+
+    @Test
+    public void testSingleByteReadsAndEof() throws IOException {
+        final byte[] expected = Files.readAllBytes(TEST_FILE.toPath());
+        final SeekableMemoryMappedFileStream stream = new SeekableMemoryMappedFileStream(TEST_FILE, 4096);
+        stream.seek(expected.length - 10000);
+        for (int i = expected.length - 10000; i < expected.length; ++i) {
+            Assert.assertFalse(stream.eof());
+            Assert.assertEquals(stream.read(), expected[i] & 0xFF);
+        }
+        Assert.assertTrue(stream.eof());
+        Assert.assertEquals(stream.read(), -1);
+        Assert.assertEquals(stream.read(new byte[10], 0, 10), -1);
+        stream.close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testReadAfterClose() throws IOException {
+        final SeekableMemoryMappedFileStream stream = new SeekableMemoryMappedFileStream(TEST_FILE);
+        stream.close();
+        stream.read();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.seekablestream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class SeekablePrefetchingStreamTest {
+
+    private static final File TEST_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    @DataProvider(name = "bufferSizes")
+    public Object[][] bufferSizes() {
+        return new Object[][] {{100, 1}, {4096, 2}, {SeekablePrefetchingStream.DEFAULT_BUFFER_SIZE, SeekablePrefetchingStream.DEFAULT_BUFFER_COUNT}};
+    }
+
+    @Test(dataProvider = "bufferSizes")
+    public void testPrefetchedRanges(final int bufferSize, final int bufferCount) throws IOException {
+        final byte[] expected = Files.readAllBytes(TEST_FILE.toPath());
+        final SeekablePrefetchingStream stream = new SeekablePrefetchingStream(new SeekableFileStream(TEST_FILE), bufferSize, bufferCount);
+        Assert.assertEquals(stream.length(), expected.length);
+
+        // Sorted ranges, some of which overlap, and some of which run past the end of the file
+        final Random random = new Random(42);
+        final long[][] ranges = new long[100][];
+        long start = 0;
+        for (int i = 0; i < ranges.length; ++i) {
+            start += random.nextInt(expected.length / ranges.length) - 100;
+            start = Math.max(0, start);
+            ranges[i] = new long[]{start, start + random.nextInt(20000)};
+            stream.prefetch(ranges[i][0], ranges[i][1]);
+        }
+
+        final byte[] buffer = new byte[7000];
+        for (final long[] range : ranges) {
+            // Read the range, and a little before it that was not prefetched
+            long position = Math.max(0, range[0] - 50);
+            stream.seek(position);
+            while (position < Math.min(range[1], expected.length)) {
+                final int count = stream.read(buffer, 0, buffer.length);
+                Assert.assertTrue(count > 0);
+                for (int j = 0; j < count; ++j) {
+                    Assert.assertEquals(buffer[j], expected[(int) position + j]);
+                }
+                position += count;
+                Assert.assertEquals(stream.position(), position);
+            }
+        }
+        stream.seek(expected.length);
+        Assert.assertTrue(stream.eof());
+        Assert.assertEquals(stream.read(buffer, 0, buffer.length), -1);
+        stream.close();
+    }
+
+    @Test
+    public void testCancelPrefetch() throws IOException {
+        final byte[] expected = Files.readAllBytes(TEST_FILE.toPath());
+        final SeekablePrefetchingStream stream = new SeekablePrefetchingStream(new SeekableFileStream(TEST_FILE), 1000, 2);
+        stream.prefetch(10000, 50000);
+        stream.seek(10000);
+        Assert.assertEquals(stream.read(), expected[10000] & 0xFF);
+        stream.cancelPrefetch();
+
+        // Reads after cancelling go straight to the underlying stream
+        stream.seek(0);
+        for (int i = 0; i < 3000; ++i) {
+            Assert.assertEquals(stream.read(), expected[i] & 0xFF);
+        }
+        stream.close();
+    }
+}
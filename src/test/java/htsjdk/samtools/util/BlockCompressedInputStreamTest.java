@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import htsjdk.samtools.util.zip.InflaterFactory;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+public class BlockCompressedInputStreamTest {
+
+    private static final File BGZF_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    @DataProvider(name = "decompressionThreads")
+    public Object[][] decompressionThreads() {
+        return new Object[][] {{1}, {2}, {4}};
+    }
+
+    @Test(dataProvider = "decompressionThreads")
+    public void testReadAheadMatchesSynchronous(final int decompressionThreads) throws Exception {
+        final BlockCompressedInputStream synchronous = new BlockCompressedInputStream(BGZF_FILE);
+        synchronous.setDecompressionThreads(0);
+        final BlockCompressedInputStream readAhead = new BlockCompressedInputStream(BGZF_FILE);
+        readAhead.setDecompressionThreads(decompressionThreads);
+        readAhead.setCheckCrcs(true);
+
+        final byte[] expected = new byte[1000];
+        final byte[] actual = new byte[1000];
+        while (true) {
+            final int expectedCount = synchronous.read(expected);
+            final int actualCount = readAhead.read(actual);
+            Assert.assertEquals(actualCount, expectedCount);
+            if (expectedCount == -1) {
+                break;
+            }
+            Assert.assertEquals(actual, expected);
+            Assert.assertEquals(readAhead.getFilePointer(), synchronous.getFilePointer());
+        }
+        synchronous.close();
+        readAhead.close();
+    }
+
+    @Test(dataProvider = "decompressionThreads")
+    public void testReadAheadSeek(final int decompressionThreads) throws Exception {
+        // Collect the file pointer of every 10000th byte, and the bytes that follow it
+        final List<Long> filePointers = new ArrayList<Long>();
+        final List<Integer> values = new ArrayList<Integer>();
+        final BlockCompressedInputStream synchronous = new BlockCompressedInputStream(BGZF_FILE);
+        synchronous.setDecompressionThreads(0);
+        synchronous.read(); // getFilePointer() requires that a block has been read
+        for (int i = 0; ; ++i) {
+            final long filePointer = synchronous.getFilePointer();
+            final int value = synchronous.read();
+            if (value == -1) {
+                break;
+            }
+            if (i % 10000 == 0) {
+                filePointers.add(filePointer);
+                values.add(value);
+            }
+        }
+        synchronous.close();
+
+        // Visit them in reverse order, reading a little way past each one so that blocks are in flight
+        final BlockCompressedInputStream readAhead = new BlockCompressedInputStream(BGZF_FILE);
+        readAhead.setDecompressionThreads(decompressionThreads);
+        final byte[] buffer = new byte[100];
+        for (int i = filePointers.size() - 1; i >= 0; --i) {
+            readAhead.seek(filePointers.get(i));
+            Assert.assertEquals(readAhead.getFilePointer(), (long) filePointers.get(i));
+            Assert.assertEquals(readAhead.read(), (int) values.get(i));
+            readAhead.read(buffer);
+        }
+        readAhead.close();
+    }
+
+    @Test
+    public void testReadAheadFromStream() throws Exception {
+        final BlockCompressedInputStream synchronous = new BlockCompressedInputStream(new FileInputStream(BGZF_FILE));
+        synchronous.setDecompressionThreads(0);
+        final BlockCompressedInputStream readAhead = new BlockCompressedInputStream(new FileInputStream(BGZF_FILE));
+        readAhead.setDecompressionThreads(3);
+        int expected;
+        do {
+            expected = synchronous.read();
+            Assert.assertEquals(readAhead.read(), expected);
+        } while (expected != -1);
+        synchronous.close();
+        readAhead.close();
+    }
+
+    /** Counts the inflaters that have been made and not yet released. */
+    private static class CountingInflaterFactory extends InflaterFactory {
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        @Override
+        public Inflater makeInflater(final boolean gzipCompatible) {
+            outstanding.incrementAndGet();
+            return super.makeInflater(gzipCompatible);
+        }
+
+        @Override
+        public void releaseInflater(final Inflater inflater, final boolean gzipCompatible) {
+            outstanding.decrementAndGet();
+            super.releaseInflater(inflater, gzipCompatible);
+        }
+    }
+
+    @Test(dataProvider = "decompressionThreads")
+    public void testDiscardedReadAheadBlocksReleaseInflaters(final int decompressionThreads) throws Exception {
+        final CountingInflaterFactory inflaterFactory = new CountingInflaterFactory();
+        final BlockCompressedInputStream readAhead = new BlockCompressedInputStream(BGZF_FILE, inflaterFactory);
+        readAhead.setDecompressionThreads(decompressionThreads);
+        final byte[] buffer = new byte[100];
+        // Each seek abandons blocks that are in flight or waiting to be inflated.
+        for (int i = 0; i < 20; ++i) {
+            readAhead.read(buffer);
+            readAhead.seek(0);
+        }
+        readAhead.close();
+        Assert.assertEquals(inflaterFactory.outstanding.get(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testCannotChangeThreadsAfterReading() throws Exception {
+        final BlockCompressedInputStream stream = new BlockCompressedInputStream(BGZF_FILE);
+        try {
+            stream.read();
+            stream.setDecompressionThreads(2);
+        } finally {
+            stream.close();
+        }
+    }
+}
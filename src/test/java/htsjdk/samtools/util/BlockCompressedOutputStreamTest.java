@@ -24,9 +24,11 @@
 package htsjdk.samtools.util;
 
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -101,6 +103,84 @@ public class BlockCompressedOutputStreamTest {
         bcis.close();
     }
 
+    @DataProvider(name = "compressionThreads")
+    public Object[][] compressionThreads() {
+        return new Object[][] {{1}, {2}, {4}};
+    }
+
+    @Test(dataProvider = "compressionThreads")
+    public void testParallelCompressionMatchesSynchronous(final int compressionThreads) throws Exception {
+        final Random r = new Random(15555);
+        final byte[] input = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE * 20 + 1234];
+        for (int i = 0; i < input.length; ++i) {
+            // compressible, but not trivially so
+            input[i] = (byte) ('A' + r.nextInt(4));
+        }
+        final ByteArrayOutputStream synchronousBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream parallelBytes = new ByteArrayOutputStream();
+        final BlockCompressedOutputStream synchronous = new BlockCompressedOutputStream(synchronousBytes, null, 5, 0);
+        final BlockCompressedOutputStream parallel = new BlockCompressedOutputStream(parallelBytes, null, 5, compressionThreads);
+
+        final List<Long> synchronousPointers = new ArrayList<Long>();
+        final List<Long> parallelPointers = new ArrayList<Long>();
+        int offset = 0;
+        while (offset < input.length) {
+            final int length = Math.min(r.nextInt(5000), input.length - offset);
+            synchronous.write(input, offset, length);
+            parallel.write(input, offset, length);
+            offset += length;
+            // query the file pointer only occasionally so that several blocks are in flight at once
+            if (r.nextInt(20) == 0) {
+                synchronousPointers.add(synchronous.getFilePointer());
+                parallelPointers.add(parallel.getFilePointer());
+            }
+        }
+        synchronous.close();
+        parallel.close();
+
+        Assert.assertEquals(parallelPointers, synchronousPointers);
+        Assert.assertEquals(parallelBytes.toByteArray(), synchronousBytes.toByteArray());
+    }
+
+    /**
+     * Provisional file pointers, resolved once their blocks have been written, match the file pointers of a
+     * synchronous stream at the same positions.
+     */
+    @Test(dataProvider = "compressionThreads")
+    public void testProvisionalFilePointers(final int compressionThreads) throws Exception {
+        final Random r = new Random(15555);
+        final byte[] input = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE * 20 + 1234];
+        for (int i = 0; i < input.length; ++i) {
+            input[i] = (byte) ('A' + r.nextInt(4));
+        }
+        final BlockCompressedOutputStream synchronous = new BlockCompressedOutputStream(new ByteArrayOutputStream(), null, 5, 0);
+        final BlockCompressedOutputStream parallel = new BlockCompressedOutputStream(new ByteArrayOutputStream(), null, 5, compressionThreads);
+
+        final List<Long> synchronousPointers = new ArrayList<Long>();
+        final List<Long> provisionalPointers = new ArrayList<Long>();
+        final List<Long> resolvedPointers = new ArrayList<Long>();
+        int offset = 0;
+        while (offset < input.length) {
+            final int length = Math.min(r.nextInt(5000), input.length - offset);
+            synchronous.write(input, offset, length);
+            parallel.write(input, offset, length);
+            offset += length;
+            synchronousPointers.add(synchronous.getFilePointer());
+            provisionalPointers.add(parallel.getProvisionalFilePointer());
+            while (resolvedPointers.size() < provisionalPointers.size() &&
+                    parallel.isFilePointerResolvable(provisionalPointers.get(resolvedPointers.size()))) {
+                resolvedPointers.add(parallel.resolveFilePointer(provisionalPointers.get(resolvedPointers.size())));
+            }
+        }
+        synchronous.close();
+        parallel.close();
+        while (resolvedPointers.size() < provisionalPointers.size()) {
+            resolvedPointers.add(parallel.resolveFilePointer(provisionalPointers.get(resolvedPointers.size())));
+        }
+
+        Assert.assertEquals(resolvedPointers, synchronousPointers);
+    }
+
     // PIC-393 exception closing BGZF stream opened to /dev/null
     // I don't think this will work on Windows, because /dev/null doesn't work
     @Test(groups = "broken")
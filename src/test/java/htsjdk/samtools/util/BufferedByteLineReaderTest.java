@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class BufferedByteLineReaderTest {
+
+    @DataProvider(name = "inputs")
+    public Object[][] inputs() {
+        final String[] texts = {
+                "",
+                "\n",
+                "one",
+                "one\ntwo\n",
+                "one\r\ntwo\r\n\r\nfour",
+                "one\rtwo\r\rfour\r",
+                "\r\n\n\r",
+                "a somewhat longer line than the buffer\nand another\r\n@peek\tme\n",
+                "caf\u00e9\tnon-ASCII\n"
+        };
+        final int[] bufferSizes = {1, 2, 3, 7, 1024};
+        final Object[][] ret = new Object[texts.length * bufferSizes.length][];
+        int i = 0;
+        for (final String text : texts) {
+            for (final int bufferSize : bufferSizes) {
+                ret[i++] = new Object[]{text, bufferSize};
+            }
+        }
+        return ret;
+    }
+
+    /** Lines, line numbers and peeked characters should be the same as for BufferedLineReader. */
+    @Test(dataProvider = "inputs")
+    public void testMatchesBufferedLineReader(final String text, final int bufferSize) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        final BufferedLineReader expected = new BufferedLineReader(new ByteArrayInputStream(bytes));
+        final BufferedByteLineReader actual = new BufferedByteLineReader(new ByteArrayInputStream(bytes), bufferSize);
+        final BufferedByteLineReader actualBytes = new BufferedByteLineReader(new ByteArrayInputStream(bytes), bufferSize);
+        while (true) {
+            Assert.assertEquals(actual.peek(), expected.peek());
+            final String expectedLine = expected.readLine();
+            Assert.assertEquals(actual.readLine(), expectedLine);
+            final int length = actualBytes.readLineBytes();
+            if (expectedLine == null) {
+                Assert.assertEquals(length, -1);
+                break;
+            }
+            Assert.assertEquals(new String(actualBytes.getLineBytes(), 0, length, StandardCharsets.UTF_8), expectedLine);
+            Assert.assertEquals(actual.getLineNumber(), expected.getLineNumber());
+            Assert.assertEquals(actualBytes.getLineNumber(), expected.getLineNumber());
+        }
+        Assert.assertEquals(actual.peek(), -1);
+        expected.close();
+        actual.close();
+        actualBytes.close();
+    }
+}
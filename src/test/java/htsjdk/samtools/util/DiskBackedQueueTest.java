@@ -61,9 +61,18 @@ public class DiskBackedQueueTest extends SortingCollectionTest {
      */
     @Test(dataProvider = "diskBackedQueueProvider")
     public void testPositive(final String testName, final int numStringsToGenerate, final int maxRecordsInRam) {
+        testPositive(makeDiskBackedQueue(maxRecordsInRam), numStringsToGenerate, maxRecordsInRam);
+    }
+
+    @Test(dataProvider = "diskBackedQueueProvider")
+    public void testPositiveAsyncIo(final String testName, final int numStringsToGenerate, final int maxRecordsInRam) {
+        testPositive(DiskBackedQueue.newInstance(new StringCodec(), maxRecordsInRam, Collections.singletonList(tmpDir()), true),
+                numStringsToGenerate, maxRecordsInRam);
+    }
+
+    private void testPositive(final DiskBackedQueue<String> diskBackedQueue, final int numStringsToGenerate, final int maxRecordsInRam) {
         final String[] strings = new String[numStringsToGenerate];
         int numStringsGenerated = 0;
-        final DiskBackedQueue<String> diskBackedQueue = makeDiskBackedQueue(maxRecordsInRam);
         for (final String s : new RandomStringGenerator(numStringsToGenerate)) {
             diskBackedQueue.add(s);
             strings[numStringsGenerated++] = s;
@@ -113,6 +122,32 @@ public class DiskBackedQueueTest extends SortingCollectionTest {
         Assert.assertTrue(queue.canAdd());
     }
 
+    @Test
+    public void testAsyncIoQueueCanBeReusedAfterClear() {
+        final DiskBackedQueue<String> queue = DiskBackedQueue.newInstance(new StringCodec(), 10,
+                Collections.singletonList(tmpDir()), true);
+        for (int i = 0; i < 5000; ++i) {
+            queue.add(Integer.toString(i));
+        }
+        Assert.assertEquals(queue.size(), 5000);
+        for (int i = 0; i < 2000; ++i) {
+            Assert.assertEquals(queue.poll(), Integer.toString(i));
+        }
+        queue.clear();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertTrue(queue.canAdd());
+
+        for (int i = 0; i < 3000; ++i) {
+            queue.add("again" + i);
+        }
+        Assert.assertEquals(queue.size(), 3000);
+        for (int i = 0; i < 3000; ++i) {
+            Assert.assertEquals(queue.poll(), "again" + i);
+        }
+        Assert.assertTrue(queue.isEmpty());
+        queue.clear();
+    }
+
     /** See: https://github.com/broadinstitute/picard/issues/327 */
     @Test(expectedExceptions = IllegalStateException.class)
     public void testPathologyIssue327() {
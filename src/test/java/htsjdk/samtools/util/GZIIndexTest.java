@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import htsjdk.samtools.seekablestream.SeekablePathStream;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GZIIndexTest {
+    private static final File TEST_DATA_DIR = new File("src/test/resources/htsjdk/samtools/reference");
+    private static final Path UNCOMPRESSED = new File(TEST_DATA_DIR, "Homo_sapiens_assembly18.trimmed.fasta").toPath();
+    private static final Path BGZIPPED = new File(TEST_DATA_DIR, "Homo_sapiens_assembly18.trimmed.fasta.gz").toPath();
+    private static final Path GZI = new File(TEST_DATA_DIR, "Homo_sapiens_assembly18.trimmed.fasta.gz.gzi").toPath();
+    private static final long BGZIP_BLOCK_SIZE = 0xff00;
+
+    @Test
+    public void testBuildMatchesStoredIndex() throws IOException {
+        final GZIIndex built = GZIIndex.buildIndex(BGZIPPED);
+        Assert.assertTrue(built.size() > 1);
+        Assert.assertEquals(built, GZIIndex.loadIndex(GZI));
+    }
+
+    @Test
+    public void testWriteAndLoad() throws IOException {
+        final GZIIndex index = GZIIndex.loadIndex(GZI);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeIndex(out);
+        Assert.assertEquals(out.toByteArray(), Files.readAllBytes(GZI));
+        Assert.assertEquals(GZIIndex.loadIndex(new ByteArrayInputStream(out.toByteArray())), index);
+    }
+
+    /** Reads the (compressed, uncompressed) offset pairs of the fixture directly, independently of GZIIndex. */
+    private static long[][] readGziEntries() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(GZI)).order(ByteOrder.LITTLE_ENDIAN);
+        final long[][] entries = new long[(int) buffer.getLong()][];
+        for (int i = 0; i < entries.length; ++i) {
+            entries[i] = new long[] {buffer.getLong(), buffer.getLong()};
+        }
+        return entries;
+    }
+
+    @Test
+    public void testStoredIndexHasBgzipBlocks() throws IOException {
+        final long[][] entries = readGziEntries();
+        final long uncompressedLength = Files.size(UNCOMPRESSED);
+        // bgzip puts BGZF_BLOCK_SIZE (0xff00) bytes in every block but the last, and indexes every block but the first
+        Assert.assertEquals(entries.length, (uncompressedLength - 1) / BGZIP_BLOCK_SIZE);
+        for (int i = 0; i < entries.length; ++i) {
+            Assert.assertEquals(entries[i][1], (i + 1) * BGZIP_BLOCK_SIZE);
+        }
+    }
+
+    @DataProvider(name = "offsets")
+    public Object[][] offsets() throws IOException {
+        // The bytes either side of the first, a middle and the last block boundary, and the ends of the data.
+        final long[][] entries = readGziEntries();
+        final List<Object[]> offsets = new ArrayList<>();
+        offsets.add(new Object[] {0L});
+        offsets.add(new Object[] {1L});
+        for (final long[] entry : Arrays.asList(entries[0], entries[entries.length / 2], entries[entries.length - 1])) {
+            offsets.add(new Object[] {entry[1] - 1});
+            offsets.add(new Object[] {entry[1]});
+            offsets.add(new Object[] {entry[1] + 1});
+        }
+        offsets.add(new Object[] {Files.size(UNCOMPRESSED) - 1});
+        return offsets.toArray(new Object[offsets.size()][]);
+    }
+
+    @Test
+    public void testBlockStartsMapToStoredCompressedOffsets() throws IOException {
+        final GZIIndex index = GZIIndex.loadIndex(GZI);
+        final long[][] entries = readGziEntries();
+        for (int i = 0; i < entries.length; ++i) {
+            final long previousBlock = i == 0 ? 0 : entries[i - 1][0];
+            Assert.assertEquals(index.getVirtualOffsetForSeek(entries[i][1]),
+                    BlockCompressedFilePointerUtil.makeFilePointer(entries[i][0], 0));
+            Assert.assertEquals(index.getVirtualOffsetForSeek(entries[i][1] - 1),
+                    BlockCompressedFilePointerUtil.makeFilePointer(previousBlock, (int) BGZIP_BLOCK_SIZE - 1));
+        }
+    }
+
+    @Test(dataProvider = "offsets")
+    public void testSeekToUncompressedOffset(final long offset) throws IOException {
+        final byte[] expected = Files.readAllBytes(UNCOMPRESSED);
+        final int length = (int) Math.min(1000, expected.length - offset);
+        final GZIIndex index = GZIIndex.loadIndex(GZI);
+        try (final BlockCompressedInputStream in = new BlockCompressedInputStream(new SeekablePathStream(BGZIPPED))) {
+            in.seek(index.getVirtualOffsetForSeek(offset));
+            final byte[] actual = new byte[length];
+            Assert.assertEquals(in.read(actual), length);
+            for (int i = 0; i < length; ++i) {
+                Assert.assertEquals(actual[i], expected[(int) offset + i], "Mismatch at offset " + (offset + i));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyBlocksResolveToFollowingBlock() {
+        final GZIIndex index = new GZIIndex(new long[] {100, 128, 200}, new long[] {1000, 1000, 1000});
+        Assert.assertEquals(index.getVirtualOffsetForSeek(999), BlockCompressedFilePointerUtil.makeFilePointer(0, 999));
+        Assert.assertEquals(index.getVirtualOffsetForSeek(1000), BlockCompressedFilePointerUtil.makeFilePointer(200, 0));
+        Assert.assertEquals(index.getVirtualOffsetForSeek(1005), BlockCompressedFilePointerUtil.makeFilePointer(200, 5));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnorderedEntries() {
+        new GZIIndex(new long[] {200, 100}, new long[] {1000, 2000});
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+public class RadixSortTest {
+
+    @DataProvider(name = "keys")
+    public Object[][] keys() {
+        final Random random = new Random(7);
+        final long[] randomKeys = new long[10000];
+        final long[] fewDistinctKeys = new long[10000];
+        for (int i = 0; i < randomKeys.length; ++i) {
+            randomKeys[i] = random.nextLong();
+            fewDistinctKeys[i] = random.nextInt(5) - 2;
+        }
+        return new Object[][]{
+                {new long[0]},
+                {new long[]{42}},
+                {new long[]{3, 1, 2, 1, 3}},
+                {new long[]{Long.MAX_VALUE, -1, 0, Long.MIN_VALUE, 1, Long.MIN_VALUE}},
+                {randomKeys},
+                {fewDistinctKeys},
+        };
+    }
+
+    @Test(dataProvider = "keys")
+    public void testSortedOrderIsStable(final long[] keys) {
+        final Integer[] expected = new Integer[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            expected[i] = i;
+        }
+        // Arrays.sort of objects is stable.
+        Arrays.sort(expected, Comparator.comparingLong(i -> keys[i]));
+
+        final int[] actual = RadixSort.sortedOrder(keys, keys.length);
+        Assert.assertEquals(actual.length, expected.length);
+        for (int i = 0; i < actual.length; ++i) {
+            Assert.assertEquals(actual[i], expected[i].intValue());
+        }
+    }
+}
@@ -40,6 +40,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SortingCollectionTest {
     // Create a separate directory for files so it is possible to confirm that the directory is emptied
@@ -102,6 +103,270 @@ public class SortingCollectionTest {
         Assert.assertEquals(tmpDir().list().length, 0);
     }
 
+    @Test(dataProvider = "test1")
+    public void testPositiveWithSortKey(final String testName, final int numStringsToGenerate, final int maxRecordsInRam) {
+        final String[] strings = new String[numStringsToGenerate];
+        int numStringsGenerated = 0;
+        // The first character is a coarse key consistent with String.compareTo, leaving many ties to the comparator.
+        final SortingCollection<String> sortingCollection = SortingCollection.newInstance(String.class,
+                new StringCodec(), new StringComparator(), maxRecordsInRam, s -> s.charAt(0), tmpDir());
+        for (final String s : new RandomStringGenerator(numStringsToGenerate)) {
+            sortingCollection.add(s);
+            strings[numStringsGenerated++] = s;
+        }
+        Arrays.sort(strings, new StringComparator());
+
+        Assert.assertEquals(tmpDirIsEmpty(), numStringsToGenerate <= maxRecordsInRam);
+        sortingCollection.setDestructiveIteration(false);
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+
+        sortingCollection.cleanup();
+        Assert.assertEquals(tmpDir().list().length, 0);
+    }
+
+    @Test(dataProvider = "test1")
+    public void testPositiveWithBackgroundSpill(final String testName, final int numStringsToGenerate, final int maxRecordsInRam) {
+        final String[] strings = new String[numStringsToGenerate];
+        int numStringsGenerated = 0;
+        final SortingCollection<String> sortingCollection = makeSortingCollection(maxRecordsInRam);
+        sortingCollection.setSpillInBackground(true);
+        for (final String s : new RandomStringGenerator(numStringsToGenerate)) {
+            sortingCollection.add(s);
+            strings[numStringsGenerated++] = s;
+        }
+        Arrays.sort(strings, new StringComparator());
+
+        // Spills may still be in progress until doneAdding() returns.
+        sortingCollection.doneAdding();
+        Assert.assertEquals(tmpDirIsEmpty(), numStringsToGenerate <= maxRecordsInRam);
+        sortingCollection.setDestructiveIteration(false);
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+
+        sortingCollection.cleanup();
+        Assert.assertEquals(tmpDir().list().length, 0);
+    }
+
+    @Test(expectedExceptions = RuntimeIOException.class)
+    public void testBackgroundSpillFailureIsReported() {
+        final SortingCollection<String> sortingCollection = SortingCollection.newInstance(String.class,
+                new StringCodec() {
+                    @Override
+                    public void encode(final String val) {
+                        throw new RuntimeIOException("Simulated failure writing " + val);
+                    }
+                }, new StringComparator(), 10, tmpDir());
+        sortingCollection.setSpillInBackground(true);
+        try {
+            for (final String s : new RandomStringGenerator(100)) {
+                sortingCollection.add(s);
+            }
+            sortingCollection.doneAdding();
+        } finally {
+            sortingCollection.cleanup();
+            // The partially written file of the failed spill must not be left behind.
+            Assert.assertTrue(tmpDirIsEmpty());
+        }
+    }
+
+    @Test
+    public void testSpillFailureDeletesTempFile() {
+        final SortingCollection<String> sortingCollection = SortingCollection.newInstance(String.class,
+                new StringCodec() {
+                    @Override
+                    public void encode(final String val) {
+                        throw new RuntimeIOException("Simulated failure writing " + val);
+                    }
+                }, new StringComparator(), 10, tmpDir());
+        try {
+            for (final String s : new RandomStringGenerator(100)) {
+                sortingCollection.add(s);
+            }
+            Assert.fail("Expected the spill to fail");
+        } catch (final RuntimeIOException e) {
+            Assert.assertTrue(tmpDirIsEmpty());
+        } finally {
+            sortingCollection.cleanup();
+        }
+    }
+
+    @DataProvider(name = "serialized")
+    public Object[][] createSerializedTestData() {
+        return new Object[][] {
+                {"empty", 0, 1000L, false, false},
+                {"singleton", 1, 1000L, true, false},
+                {"fits in memory", 100, 100000L, false, false},
+                {"fits in memory with key", 100, 100000L, true, false},
+                {"spills", 1000, 2000L, false, false},
+                {"spills with key", 1000, 2000L, true, false},
+                {"budget smaller than a record", 50, 1L, true, false},
+                {"spills in background", 1000, 2000L, false, true},
+                {"spills in background with key", 1000, 2000L, true, true},
+        };
+    }
+
+    @Test(dataProvider = "serialized")
+    public void testSerialized(final String testName, final int numStringsToGenerate, final long maxBytesInRam,
+                               final boolean useSortKey, final boolean spillInBackground) {
+        final String[] strings = new String[numStringsToGenerate];
+        int numStringsGenerated = 0;
+        // The first character is a coarse key consistent with String.compareTo, leaving many ties to the comparator.
+        final SortingCollection<String> sortingCollection = SortingCollection.newSerializedInstance(new StringCodec(),
+                new StringComparator(), maxBytesInRam, useSortKey ? s -> s.charAt(0) : null, tmpDir());
+        sortingCollection.setSpillInBackground(spillInBackground);
+        for (final String s : new RandomStringGenerator(numStringsToGenerate)) {
+            sortingCollection.add(s);
+            strings[numStringsGenerated++] = s;
+        }
+        Arrays.sort(strings, new StringComparator());
+
+        sortingCollection.doneAdding();
+        final long bytesPerString = 4 + 11 + SerializedRecordBuffer.INDEX_BYTES_PER_RECORD;
+        if (numStringsToGenerate * bytesPerString <= maxBytesInRam) {
+            Assert.assertTrue(tmpDirIsEmpty());
+        } else if (numStringsToGenerate > 1) {
+            Assert.assertFalse(tmpDirIsEmpty());
+        }
+        sortingCollection.setDestructiveIteration(false);
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+
+        sortingCollection.cleanup();
+        Assert.assertEquals(tmpDir().list().length, 0);
+    }
+
+    @Test(dataProvider = "bufferBudgets")
+    public void testSerializedRecordBufferStaysWithinBudget(final long maxBytes, final int recordLength) {
+        final SerializedRecordBuffer<String> buffer = new SerializedRecordBuffer<>(maxBytes, false);
+        final byte[] record = new byte[recordLength];
+        // Fill the buffer twice, to cover reuse of the chunks after clear().
+        for (int pass = 0; pass < 2; ++pass) {
+            while (buffer.fits(recordLength)) {
+                buffer.add(record, recordLength, 0);
+            }
+            final long bytesCharged = buffer.getBytesAllocated() +
+                    (long) buffer.size() * SerializedRecordBuffer.INDEX_BYTES_PER_RECORD;
+            Assert.assertTrue(bytesCharged <= Math.max(maxBytes, recordLength + SerializedRecordBuffer.INDEX_BYTES_PER_RECORD),
+                    "Buffer holds " + bytesCharged + " bytes with a budget of " + maxBytes);
+            // Chunks are a small fraction of the budget, so little of it is left unused.
+            Assert.assertTrue(bytesCharged >= maxBytes - maxBytes / 8 - recordLength, "Only " + bytesCharged + " bytes used");
+            buffer.clear();
+        }
+        buffer.release();
+        Assert.assertEquals(buffer.getBytesAllocated(), 0);
+    }
+
+    @DataProvider(name = "bufferBudgets")
+    public Object[][] createBufferBudgets() {
+        return new Object[][] {
+                {100000L, 15},
+                {100000L, 1000},
+                {1000000L, 333},
+                {1000L, 5000},
+        };
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReadingReleasedSerializedRecordsFails() throws IOException {
+        final SerializedRecordBuffer<String> buffer = new SerializedRecordBuffer<>(100000L, false);
+        final byte[] record = new byte[100];
+        buffer.add(record, record.length, 0);
+        buffer.add(record, record.length, 0);
+        final InputStream stream = buffer.openStream(new int[]{0, 1}, 0, 2);
+        stream.read();
+        buffer.release();
+        stream.read();
+    }
+
+    @DataProvider(name = "merge")
+    public Object[][] createMergeTestData() {
+        return new Object[][] {
+                {"two files", 150, 100, 0},
+                {"many files", 2000, 7, 0},
+                {"many files with one read-ahead thread", 2000, 7, 1},
+                {"many files with read-ahead threads", 2000, 7, 4},
+                {"large files with read-ahead threads", 5000, 2000, 3},
+        };
+    }
+
+    /**
+     * Merge many spill files with a comparator that has many ties, and confirm that records that compare equal
+     * come out in the order in which they were added.
+     */
+    @Test(dataProvider = "merge")
+    public void testMergeIsStable(final String testName, final int numStringsToGenerate, final int maxRecordsInRam,
+                                  final int readAheadThreads) {
+        final Comparator<String> firstTwoChars = (lhs, rhs) ->
+                lhs.substring(0, Math.min(2, lhs.length())).compareTo(rhs.substring(0, Math.min(2, rhs.length())));
+        final SortingCollection<String> sortingCollection = SortingCollection.newInstance(String.class,
+                new StringCodec(), firstTwoChars, maxRecordsInRam, tmpDir());
+        sortingCollection.setReadAheadThreads(readAheadThreads);
+        final String[] strings = new String[numStringsToGenerate];
+        int numStringsGenerated = 0;
+        for (final String s : new RandomStringGenerator(numStringsToGenerate)) {
+            sortingCollection.add(s);
+            strings[numStringsGenerated++] = s;
+        }
+        // Arrays.sort of objects is stable.
+        Arrays.sort(strings, firstTwoChars);
+
+        sortingCollection.setDestructiveIteration(false);
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+
+        // Abandon an iteration part way through.
+        final CloseableIterator<String> it = sortingCollection.iterator();
+        for (int i = 0; i < numStringsToGenerate / 2; ++i) {
+            Assert.assertEquals(it.next(), strings[i]);
+        }
+        it.close();
+
+        sortingCollection.cleanup();
+        Assert.assertEquals(tmpDir().list().length, 0);
+    }
+
+    /**
+     * A serialized collection does not limit the number of records, so read-ahead of its temporary files must be
+     * bounded by the bytes of the records decoded ahead of the merge.
+     */
+    @Test
+    public void testSerializedReadAheadStaysWithinBudget() {
+        final long maxBytesInRam = 20000L;
+        final int numStringsToGenerate = 10000;
+        final AtomicLong bytesDecoded = new AtomicLong();
+        final SortingCollection<String> sortingCollection = SortingCollection.newSerializedInstance(
+                new CountingStringCodec(bytesDecoded), new StringComparator(), maxBytesInRam, null, tmpDir());
+        sortingCollection.setReadAheadThreads(2);
+        final String[] strings = new String[numStringsToGenerate];
+        int numStringsGenerated = 0;
+        for (final String s : new RandomStringGenerator(numStringsToGenerate)) {
+            sortingCollection.add(s);
+            strings[numStringsGenerated++] = s;
+        }
+        Arrays.sort(strings, new StringComparator());
+        sortingCollection.doneAdding();
+        final int numFiles = tmpDir().list().length;
+        Assert.assertTrue(numFiles > 1);
+
+        // Besides the read-ahead batches, the merge and each file hold one record, and strings are at most 15 bytes.
+        final long maxBytesAhead = maxBytesInRam + maxBytesInRam / 10 + 2 * numFiles * 15;
+        long bytesEmitted = 0;
+        int i = 0;
+        // Sorting the spills decoded records too.
+        bytesDecoded.set(0);
+        final CloseableIterator<String> it = sortingCollection.iterator();
+        while (it.hasNext()) {
+            final String s = it.next();
+            Assert.assertEquals(s, strings[i++]);
+            bytesEmitted += 4 + s.length();
+            final long bytesAhead = bytesDecoded.get() - bytesEmitted;
+            Assert.assertTrue(bytesAhead <= maxBytesAhead, bytesAhead + " bytes decoded ahead of the merge");
+        }
+        Assert.assertEquals(i, strings.length);
+        sortingCollection.cleanup();
+        Assert.assertEquals(tmpDir().list().length, 0);
+    }
+
     private void assertIteratorEqualsList(final String[] strings, final Iterator<String> sortingCollection) {
         int i = 0;
         while (sortingCollection.hasNext()) {
@@ -155,6 +420,29 @@ public class SortingCollectionTest {
         }
     }
 
+    /** Counts the encoded bytes of the records decoded by it and its clones. */
+    static class CountingStringCodec extends StringCodec {
+        private final AtomicLong bytesDecoded;
+
+        CountingStringCodec(final AtomicLong bytesDecoded) {
+            this.bytesDecoded = bytesDecoded;
+        }
+
+        @Override
+        public SortingCollection.Codec<String> clone() {
+            return new CountingStringCodec(bytesDecoded);
+        }
+
+        @Override
+        public String decode() {
+            final String s = super.decode();
+            if (s != null) {
+                bytesDecoded.addAndGet(4 + s.length());
+            }
+            return s;
+        }
+    }
+
     static class StringCodec implements SortingCollection.Codec<String> {
         ByteBuffer byteBuffer = ByteBuffer.allocate(4);
         OutputStream os;
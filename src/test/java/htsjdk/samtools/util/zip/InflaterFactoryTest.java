@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util.zip;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.Inflater;
+
+public class InflaterFactoryTest {
+
+    private static final File BAM_FILE = new File("src/test/resources/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    /** Keeps track of how many inflaters are currently checked out. */
+    private static class CountingInflaterFactory extends InflaterFactory {
+        int made = 0;
+        int outstanding = 0;
+
+        @Override
+        public Inflater makeInflater(final boolean gzipCompatible) {
+            made++;
+            outstanding++;
+            return super.makeInflater(gzipCompatible);
+        }
+
+        @Override
+        public void releaseInflater(final Inflater inflater, final boolean gzipCompatible) {
+            outstanding--;
+            super.releaseInflater(inflater, gzipCompatible);
+        }
+    }
+
+    @Test
+    public void testPooledInflatersAreReused() {
+        final CountingInflaterFactory delegate = new CountingInflaterFactory();
+        final PooledInflaterFactory pool = new PooledInflaterFactory(delegate, 2);
+        final Inflater first = pool.makeInflater(true);
+        pool.releaseInflater(first, true);
+        Assert.assertEquals(pool.getNumPooledInflaters(true), 1);
+        Assert.assertSame(pool.makeInflater(true), first);
+        // A zlib inflater must not be handed out in place of a gzip-compatible one
+        pool.releaseInflater(first, true);
+        Assert.assertNotSame(pool.makeInflater(false), first);
+        Assert.assertEquals(delegate.made, 2);
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        final CountingInflaterFactory delegate = new CountingInflaterFactory();
+        final PooledInflaterFactory pool = new PooledInflaterFactory(delegate, 2);
+        final Inflater[] inflaters = new Inflater[5];
+        for (int i = 0; i < inflaters.length; ++i) {
+            inflaters[i] = pool.makeInflater(true);
+        }
+        for (final Inflater inflater : inflaters) {
+            pool.releaseInflater(inflater, true);
+        }
+        Assert.assertEquals(pool.getNumPooledInflaters(true), 2);
+        Assert.assertEquals(delegate.outstanding, 2);
+    }
+
+    @Test
+    public void testInflatersReleasedOnClose() throws IOException {
+        final CountingInflaterFactory factory = new CountingInflaterFactory();
+        for (final int threads : new int[] {0, 2}) {
+            final BlockCompressedInputStream stream = new BlockCompressedInputStream(BAM_FILE, factory);
+            stream.setDecompressionThreads(threads);
+            final byte[] buffer = new byte[100000];
+            while (stream.read(buffer) != -1) {
+            }
+            stream.close();
+            Assert.assertEquals(factory.outstanding, 0);
+        }
+    }
+
+    @Test
+    public void testSamReaderFactoryUsesInflaterFactory() throws IOException {
+        final CountingInflaterFactory factory = new CountingInflaterFactory();
+        final SamReader reader = SamReaderFactory.makeDefault().inflaterFactory(factory).open(BAM_FILE);
+        int count = 0;
+        for (final SAMRecord ignored : reader) {
+            count++;
+        }
+        reader.close();
+        Assert.assertTrue(count > 0);
+        Assert.assertTrue(factory.made > 0);
+        Assert.assertEquals(factory.outstanding, 0);
+    }
+}
@@ -23,7 +23,11 @@
  */
 package htsjdk.tribble.index.tabix;
 
+import htsjdk.samtools.CSIIndex;
+import htsjdk.samtools.GenomicIndexUtil;
 import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.Index;
 import htsjdk.tribble.index.IndexFactory;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import htsjdk.tribble.util.TabixUtils;
@@ -38,6 +42,9 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
 
 public class TabixIndexTest {
     private static final File SMALL_TABIX_FILE = new File("src/test/resources/htsjdk/tribble/tabix/trioDup.vcf.gz.tbi");
@@ -132,6 +139,63 @@ public class TabixIndexTest {
         }
     }
 
+    @DataProvider(name = "csiSchemes")
+    public Object[][] csiSchemes() {
+        return new Object[][]{
+                {14, 5},
+                {14, 6},
+                {12, 7}
+        };
+    }
+
+    /**
+     * A CSI index read back from disk must cover every block of the index as built.  When the smallest bins are the
+     * same size as in .tbi, features land in bins of the same sizes, so the CSI must also cover every .tbi block.
+     */
+    @Test(dataProvider = "csiSchemes")
+    public void testCSIIndexCoversTabixBlocks(final int minShift, final int depth) throws Exception {
+        final File vcf = new File("src/test/resources/htsjdk/tribble/tabix/YRI.trio.2010_07.indel.sites.vcf.gz");
+        final TabixIndex tbi = IndexFactory.createTabixIndex(vcf, new VCFCodec(), TabixFormat.VCF, null);
+        final TabixIndex csi = IndexFactory.createTabixIndex(vcf, new VCFCodec(), TabixFormat.VCF, null, minShift, depth);
+        Assert.assertTrue(csi.isCSI());
+
+        final File csiFile = File.createTempFile("TabixIndexTest.", CSIIndex.CSI_INDEX_SUFFIX);
+        csiFile.deleteOnExit();
+        csi.write(csiFile);
+        final Index reloaded = IndexFactory.loadIndex(csiFile.getAbsolutePath());
+        Assert.assertTrue(reloaded instanceof TabixIndex && ((TabixIndex) reloaded).isCSI());
+        Assert.assertEquals(((TabixIndex) reloaded).getFormatSpec(), TabixFormat.VCF);
+        Assert.assertEquals(reloaded.getSequenceNames(), tbi.getSequenceNames());
+
+        final Random random = new Random(minShift * 31 + depth);
+        int blocksCompared = 0;
+        for (int i = 0; i < 200; ++i) {
+            final String chr = tbi.getSequenceNames().get(random.nextInt(tbi.getSequenceNames().size()));
+            final int start = 1 + random.nextInt(100000000);
+            final int end = start + random.nextInt(5000000);
+            for (final Block block : csi.getBlocks(chr, start, end)) {
+                assertCovered(block, reloaded.getBlocks(chr, start, end));
+                ++blocksCompared;
+            }
+            if (minShift == GenomicIndexUtil.BAI_MIN_SHIFT) {
+                for (final Block block : tbi.getBlocks(chr, start, end)) {
+                    assertCovered(block, csi.getBlocks(chr, start, end));
+                }
+            }
+        }
+        Assert.assertTrue(blocksCompared > 0);
+    }
+
+    private static void assertCovered(final Block block, final List<Block> blocks) {
+        for (final Block candidate : blocks) {
+            if (candidate.getStartPosition() <= block.getStartPosition() && block.getEndPosition() <= candidate.getEndPosition()) {
+                return;
+            }
+        }
+        Assert.fail("Block " + block.getStartPosition() + "-" + block.getEndPosition() + " is not covered by " +
+                blocks.stream().map(b -> b.getStartPosition() + "-" + b.getEndPosition()).collect(Collectors.toList()));
+    }
+
     private static int countIteratedElements(Iterator iterator) {
         int counter = 0;
         while (iterator.hasNext()) {